@@ -1,6 +1,9 @@
 package ru.chipmunkbarcode.barcodeTypes;
 
 import ru.chipmunkbarcode.exceptions.BarcodeException;
+import ru.chipmunkbarcode.util.BitStream;
+
+import java.util.Arrays;
 
 import static java.nio.charset.StandardCharsets.US_ASCII;
 import static ru.chipmunkbarcode.util.Arrays.insertArray;
@@ -85,21 +88,84 @@ public class AztecCode extends Symbol {
      * 301: Comma (ASCII 44)
      * 302: Full Stop (ASCII 46)
      */
-    private static final String[] PENTBIT = {
-            "00000", "00001", "00010", "00011", "00100", "00101", "00110", "00111", "01000", "01001",
-            "01010", "01011", "01100", "01101", "01110", "01111", "10000", "10001", "10010", "10011", "10100", "10101",
-            "10110", "10111", "11000", "11001", "11010", "11011", "11100", "11101", "11110", "11111"
+
+    /*
+     * States used by the minimal encodation search. The five modes are numbered in the same order as the bits
+     * in AZTEC_CODE_SET. They are followed by the binary shift states: for each mode that a binary shift can
+     * return to (upper, lower or mixed), one state for each length of a short run (1 - 31 bytes) and one state
+     * for a long run (32 bytes or more, which needs an 11-bit length).
+     */
+    private static final int MODE_UPPER = 0;
+    private static final int MODE_LOWER = 1;
+    private static final int MODE_MIXED = 2;
+    private static final int MODE_PUNCT = 3;
+    private static final int MODE_DIGIT = 4;
+    private static final int MODE_COUNT = 5;
+    private static final int STATE_COUNT = MODE_COUNT + 3 * 32;
+    private static final int MAX_BINARY_RUN = 31 + 2047;
+    private static final int UNREACHABLE = Integer.MAX_VALUE / 2;
+
+    /* Stands for the FLG(n) which introduces the ECI, when searching for the minimal encodation */
+    private static final int FLG_ECI = Integer.MIN_VALUE;
+
+    /* Values of the ASCII characters in each mode, or -1 if the mode does not contain the character */
+    private static final int[][] MODE_VALUES = new int[MODE_COUNT][128];
+
+    /* Names of the latches to each mode */
+    private static final String[] LATCH_NAMES = { "UL", "LL", "ML", "PL", "DL" };
+
+    /* Values of the latches from each mode directly to another mode, or -1 if there is no such latch */
+    private static final int[][] LATCH_VALUES = {
+            { -1, 28, 29, -1, 30 },
+            { -1, -1, 29, -1, 30 },
+            { 29, 28, -1, 30, -1 },
+            { 31, -1, -1, -1, -1 },
+            { 14, -1, -1, -1, -1 }
     };
 
-    private static final String[] QUADBIT = {
-            "0000", "0001", "0010", "0011", "0100", "0101", "0110", "0111", "1000", "1001",
-            "1010", "1011", "1100", "1101", "1110", "1111"
+    /* The first latch to take from each mode on the shortest way to another mode */
+    private static final int[][] LATCH_ROUTES = {
+            { 0, 1, 2, 2, 4 },
+            { 4, 1, 2, 2, 4 },
+            { 0, 1, 2, 3, 0 },
+            { 0, 0, 0, 3, 0 },
+            { 0, 0, 0, 0, 4 }
     };
 
-    private static final String[] TRIBIT = {
-            "000", "001", "010", "011", "100", "101", "110", "111"
+    /* The number of bits on the shortest way from each mode to another mode */
+    private static final int[][] LATCH_BITS = {
+            { 0, 5, 5, 10, 5 },
+            { 9, 0, 5, 10, 5 },
+            { 5, 5, 0, 5, 10 },
+            { 5, 10, 10, 0, 10 },
+            { 4, 9, 9, 14, 0 }
     };
 
+    static {
+        for (int mode = 0; mode < MODE_COUNT; mode++) {
+            for (int c = 0; c < 128; c++) {
+                int value = -1;
+                if ((AZTEC_CODE_SET[c] & (1 << mode)) != 0) {
+                    switch (AZTEC_SYMBOL_CHAR[c]) {
+                        case 300:
+                            value = (mode == MODE_PUNCT ? 1 : 14);
+                            break;
+                        case 301:
+                            value = (mode == MODE_PUNCT ? 17 : 12);
+                            break;
+                        case 302:
+                            value = (mode == MODE_PUNCT ? 19 : 13);
+                            break;
+                        default:
+                            value = AZTEC_SYMBOL_CHAR[c];
+                            break;
+                    }
+                }
+                MODE_VALUES[mode][c] = value;
+            }
+        }
+    }
+
     /* Codewords per symbol */
     private static final int[] AZTEC_SIZES = {
             21, 48, 60, 88, 120, 156, 196, 240, 230, 272, 316, 364, 416, 470, 528, 588, 652, 720, 790,
@@ -313,6 +379,7 @@ public class AztecCode extends Symbol {
     private String structuredAppendMessageId;
     private int structuredAppendPosition = 1;
     private int structuredAppendTotal = 1;
+    private boolean minimalEncodation;
 
     /**
      * <p>Sets a preferred symbol size. This value may be ignored if data string is
@@ -472,6 +539,29 @@ public class AztecCode extends Symbol {
         return structuredAppendMessageId;
     }
 
+    /**
+     * Sets whether or not to search for the shortest possible sequence of modes (upper, lower, mixed, punctuation,
+     * digit and binary shift), latches and shifts for the data, instead of choosing modes from the characters
+     * on either side of each block of data. Minimal encodation takes time proportional to the length of the data,
+     * and may allow the data to fit in a smaller symbol. The normal encodation is still used if the minimal one
+     * does not give a smaller symbol once the bits have been stuffed. The default value is <code>false</code>.
+     *
+     * @param minimalEncodation whether or not to use minimal encodation
+     */
+    public void setMinimalEncodation(boolean minimalEncodation) {
+        this.minimalEncodation = minimalEncodation;
+    }
+
+    /**
+     * Returns whether or not minimal encodation is used.
+     *
+     * @return whether or not minimal encodation is used
+     * @see #setMinimalEncodation(boolean)
+     */
+    public boolean getMinimalEncodation() {
+        return minimalEncodation;
+    }
+
     @Override
     protected boolean gs1Supported() {
         return true;
@@ -482,7 +572,7 @@ public class AztecCode extends Symbol {
 
         int layers;
         boolean compact;
-        StringBuilder adjustedString;
+        BitStream adjustedString;
 
         if (inputDataType == DataType.GS1 && readerInit) {
             throw new BarcodeException("Cannot encode in GS1 and Reader Initialisation mode at the same time");
@@ -493,108 +583,48 @@ public class AztecCode extends Symbol {
         /* Optional structured append (Section 8 of spec) */
         /* ML + UL start flag handled later, not part of data */
         if (structuredAppendTotal != 1) {
-            StringBuilder prefix = new StringBuilder();
-            if (structuredAppendMessageId != null) {
-                prefix.append(' ').append(structuredAppendMessageId).append(' ');
+            inputData = insertArray(inputData, 0, structuredAppendPrefix());
+        }
+
+        int infoStart = encodeInfo.length();
+        BitStream binaryString = generateAztecBinary();
+        int size = chooseSize(binaryString);
+
+        if (minimalEncodation) {
+            /* The minimal encodation has the fewest bits before bit stuffing, but runs of 0s can need more stuffing
+               than the normal encodation does, so only use it if it really gives a smaller symbol */
+            int infoMinimal = encodeInfo.length();
+            BitStream minimalString = generateMinimalAztecBinary();
+            int minimalSize = chooseSize(minimalString);
+            if (isSmaller(minimalString, minimalSize, binaryString, size)) {
+                encodeInfo.delete(infoStart, infoMinimal);
+                binaryString = minimalString;
+                size = minimalSize;
+            } else {
+                encodeInfo.setLength(infoMinimal);
             }
-            prefix.append((char) (structuredAppendPosition + 64)); // 1-26 as A-Z
-            prefix.append((char) (structuredAppendTotal + 64)); // 1-26 as A-Z
-            int[] prefixArray = toBytes(prefix.toString(), US_ASCII);
-            inputData = insertArray(inputData, 0, prefixArray);
         }
 
-        String binaryString = generateAztecBinary();
-        int dataLength = binaryString.length();
-
-        if (preferredSize == 0) {
-
-            /* The size of the symbol can be determined by Okapi */
-
-            int dataMaxSize = 0;
-            int compLoop = (readerInit ? 1 : 4);
-
-            do {
-                /* Decide what size symbol to use - the smallest that fits the data */
-
-                int[] dataSizes;
-                int[] compactDataSizes;
-
-                switch (preferredEccLevel) {
-                    /* For each level of error correction work out the smallest symbol which the data will fit in */
-                    case 1:
-                        dataSizes = AZTEC_10_DATA_SIZES;
-                        compactDataSizes = AZTEC_COMPACT_10_DATA_SIZES;
-                        break;
-                    case 2:
-                        dataSizes = AZTEC_23_DATA_SIZES;
-                        compactDataSizes = AZTEC_COMPACT_23_DATA_SIZES;
-                        break;
-                    case 3:
-                        dataSizes = AZTEC_36_DATA_SIZES;
-                        compactDataSizes = AZTEC_COMPACT_36_DATA_SIZES;
-                        break;
-                    case 4:
-                        dataSizes = AZTEC_50_DATA_SIZES;
-                        compactDataSizes = AZTEC_COMPACT_50_DATA_SIZES;
-                        break;
-                    default:
-                        throw new BarcodeException("Unrecognized ECC level: " + preferredEccLevel);
-                }
-
-                layers = 0;
-                compact = false;
-
-                for (int i = 32; i > 0; i--) {
-                    if (dataLength < dataSizes[i - 1]) {
-                        layers = i;
-                        compact = false;
-                        dataMaxSize = dataSizes[i - 1];
-                    }
-                }
-
-                for (int i = compLoop; i > 0; i--) {
-                    if (dataLength < compactDataSizes[i - 1]) {
-                        layers = i;
-                        compact = true;
-                        dataMaxSize = compactDataSizes[i - 1];
-                    }
-                }
-
-                if (layers == 0) {
-                    /* Couldn't find a symbol which fits the data */
-                    throw new BarcodeException("Input too long (too many bits for selected ECC)");
-                }
-
-                adjustedString = adjustBinaryString(binaryString, compact, layers);
-                dataLength = adjustedString.length();
-
-            } while (dataLength > dataMaxSize);
-            /* This loop will only repeat on the rare occasions when the rule about not having all 1s or all 0s
-             means that the binary string has had to be lengthened beyond the maximum number of bits that can
-             be encoded in a symbol of the selected size */
-
-        } else {
-
-            /* The size of the symbol has been specified by the user */
-
-            if (preferredSize >= 1 && preferredSize <= 4) {
-                compact = true;
-                layers = preferredSize;
+        if (size == 0) {
+            if (preferredSize == 0) {
+                /* Couldn't find a symbol which fits the data */
+                throw new BarcodeException("Input too long (too many bits for selected ECC)");
             } else {
-                compact = false;
-                layers = preferredSize - 4;
+                throw new BarcodeException("Data too long for specified Aztec Code symbol size");
             }
+        }
 
-            adjustedString = adjustBinaryString(binaryString, compact, layers);
+        compact = (size <= 4);
+        layers = (compact ? size : size - 4);
+        adjustedString = adjustBinaryString(binaryString, compact, layers);
 
-            /* Check if the data actually fits into the selected symbol size */
-            int codewordSize = getCodewordSize(layers);
-            int[] sizes = (compact ? AZTEC_COMPACT_SIZES : AZTEC_SIZES);
-            int dataMaxSize = codewordSize * (sizes[layers - 1] - 3);
-            if (adjustedString.length() > dataMaxSize) {
-                throw new BarcodeException("Data too long for specified Aztec Code symbol size");
-            }
+        /* Log the codewords */
+        int codewordSize = getCodewordSize(layers);
+        info("Codewords: ");
+        for (int i = 0; i < (adjustedString.length() / codewordSize); i++) {
+            infoSpace(adjustedString.get(i * codewordSize, codewordSize));
         }
+        infoLine();
 
         if (readerInit && compact && layers > 1) {
             throw new BarcodeException("Symbol is too large for reader initialization");
@@ -604,7 +634,6 @@ public class AztecCode extends Symbol {
             throw new BarcodeException("Symbol is too large for reader initialization");
         }
 
-        int codewordSize = getCodewordSize(layers);
         int dataBlocks = adjustedString.length() / codewordSize;
 
         int eccBlocks;
@@ -626,9 +655,9 @@ public class AztecCode extends Symbol {
         /* Invert the data so that actual data is on the outside and reed-solomon on the inside */
         for (int i = 0; i < adjustedString.length() / 2; i++) {
             int mirror = adjustedString.length() - i - 1;
-            char c = adjustedString.charAt(i);
-            adjustedString.setCharAt(i, adjustedString.charAt(mirror));
-            adjustedString.setCharAt(mirror, c);
+            boolean b = adjustedString.get(i);
+            adjustedString.set(i, adjustedString.get(mirror));
+            adjustedString.set(mirror, b);
         }
 
         /* Create the descriptor / mode message */
@@ -654,7 +683,7 @@ public class AztecCode extends Symbol {
                     }
                     if (j >= 2) {
                         if (j - 2 < adjustedString.length()) {
-                            bin.append(adjustedString.charAt(j - 2));
+                            bin.append(adjustedString.get(j - 2) ? '1' : '0');
                         } else {
                             if (j >= 2000) {
                                 bin.append(descriptor.charAt(j - 2000));
@@ -687,7 +716,7 @@ public class AztecCode extends Symbol {
                     }
                     if (j >= 2) {
                         if (j - 2 < adjustedString.length()) {
-                            bin.append(adjustedString.charAt(j - 2));
+                            bin.append(adjustedString.get(j - 2) ? '1' : '0');
                         } else {
                             if (j >= 20000) {
                                 bin.append(descriptor.charAt(j - 20000));
@@ -703,7 +732,154 @@ public class AztecCode extends Symbol {
         }
     }
 
-    private String generateAztecBinary() {
+    /**
+     * Returns the size of the smallest symbol (1 - 36 inclusive, as for {@link #setPreferredSize(int)}) which holds
+     * the specified binary string once it has been stuffed, or the preferred size if it has been set and the binary
+     * string fits it. Returns 0 if the binary string does not fit.
+     */
+    private int chooseSize(BitStream binaryString) {
+
+        if (preferredSize != 0) {
+            boolean compact = (preferredSize <= 4);
+            int layers = (compact ? preferredSize : preferredSize - 4);
+            BitStream adjustedString = adjustBinaryString(binaryString, compact, layers);
+            return (adjustedString.length() <= getDataCapacity(compact, layers) ? preferredSize : 0);
+        }
+
+        int layers;
+        boolean compact;
+        int dataLength = binaryString.length();
+        int dataMaxSize = 0;
+        int compLoop = (readerInit ? 1 : 4);
+
+        do {
+            /* Decide what size symbol to use - the smallest that fits the data */
+
+            int[] dataSizes;
+            int[] compactDataSizes;
+
+            switch (preferredEccLevel) {
+                /* For each level of error correction work out the smallest symbol which the data will fit in */
+                case 1:
+                    dataSizes = AZTEC_10_DATA_SIZES;
+                    compactDataSizes = AZTEC_COMPACT_10_DATA_SIZES;
+                    break;
+                case 2:
+                    dataSizes = AZTEC_23_DATA_SIZES;
+                    compactDataSizes = AZTEC_COMPACT_23_DATA_SIZES;
+                    break;
+                case 3:
+                    dataSizes = AZTEC_36_DATA_SIZES;
+                    compactDataSizes = AZTEC_COMPACT_36_DATA_SIZES;
+                    break;
+                case 4:
+                    dataSizes = AZTEC_50_DATA_SIZES;
+                    compactDataSizes = AZTEC_COMPACT_50_DATA_SIZES;
+                    break;
+                default:
+                    throw new BarcodeException("Unrecognized ECC level: " + preferredEccLevel);
+            }
+
+            layers = 0;
+            compact = false;
+
+            for (int i = 32; i > 0; i--) {
+                if (dataLength < dataSizes[i - 1]) {
+                    layers = i;
+                    compact = false;
+                    dataMaxSize = dataSizes[i - 1];
+                }
+            }
+
+            for (int i = compLoop; i > 0; i--) {
+                if (dataLength < compactDataSizes[i - 1]) {
+                    layers = i;
+                    compact = true;
+                    dataMaxSize = compactDataSizes[i - 1];
+                }
+            }
+
+            if (layers == 0) {
+                /* Couldn't find a symbol which fits the data */
+                return 0;
+            }
+
+            dataLength = adjustBinaryString(binaryString, compact, layers).length();
+
+        } while (dataLength > dataMaxSize);
+        /* This loop will only repeat on the rare occasions when the rule about not having all 1s or all 0s
+         means that the binary string has had to be lengthened beyond the maximum number of bits that can
+         be encoded in a symbol of the selected size */
+
+        return (compact ? layers : layers + 4);
+    }
+
+    /**
+     * Returns <code>true</code> if the first binary string gives a smaller symbol than the second, or the same
+     * symbol with fewer bits once both have been stuffed. A size of 0 means that the binary string does not fit.
+     */
+    private boolean isSmaller(BitStream binaryString, int size, BitStream otherString, int otherSize) {
+        if (size == 0 || otherSize == 0) {
+            return otherSize == 0 && size != 0;
+        }
+        if (size != otherSize) {
+            return getSymbolWidth(size) < getSymbolWidth(otherSize);
+        }
+        boolean compact = (size <= 4);
+        int layers = (compact ? size : size - 4);
+        return adjustBinaryString(binaryString, compact, layers).length()
+                < adjustBinaryString(otherString, compact, layers).length();
+    }
+
+    /** Returns the width (and height) of a symbol of the specified size (1 - 36 inclusive). */
+    private static int getSymbolWidth(int size) {
+        if (size <= 4) {
+            return 27 - (2 * AZTEC_COMPACT_OFFSET[size - 1]);
+        } else {
+            return 151 - (2 * AZTEC_OFFSET[size - 5]);
+        }
+    }
+
+    private int[] structuredAppendPrefix() {
+        StringBuilder prefix = new StringBuilder();
+        if (structuredAppendMessageId != null) {
+            prefix.append(' ').append(structuredAppendMessageId).append(' ');
+        }
+        prefix.append((char) (structuredAppendPosition + 64)); // 1-26 as A-Z
+        prefix.append((char) (structuredAppendTotal + 64)); // 1-26 as A-Z
+        return toBytes(prefix.toString(), US_ASCII);
+    }
+
+    /**
+     * Returns <code>true</code> if the specified data fits into a symbol of the specified size as part of a
+     * structured append series, once the structured append prefix has been added and the data bits have been
+     * stuffed. Used to plan structured append series; replaces the data from any earlier call to
+     * {@link #setContent(String)}.
+     *
+     * @param data the data to encode
+     * @param eci the ECI mode of the data
+     * @param size the symbol size (1 - 36 inclusive)
+     * @param position the position of the symbol in the series (the prefix changes the bit stuffing)
+     * @param total the total number of symbols in the series (2 - 26 inclusive)
+     * @return <code>true</code> if the data fits
+     */
+    boolean fitsStructuredAppend(int[] data, int eci, int size, int position, int total) {
+        boolean compact = (size <= 4);
+        int layers = (compact ? size : size - 4);
+        eciMode = eci;
+        structuredAppendPosition = position;
+        structuredAppendTotal = total;
+        inputData = insertArray(data, 0, structuredAppendPrefix());
+        BitStream adjustedString = adjustBinaryString(generateAztecBinary(), compact, layers);
+        if (adjustedString.length() <= getDataCapacity(compact, layers)) {
+            return true;
+        }
+        /* the minimal encodation is only used when it is smaller after stuffing, so either one may fit */
+        return minimalEncodation
+                && adjustBinaryString(generateMinimalAztecBinary(), compact, layers).length() <= getDataCapacity(compact, layers);
+    }
+
+    private BitStream generateAztecBinary() {
 
         /* Encode input data into a binary string */
         int i, j, k, bytes;
@@ -998,16 +1174,16 @@ public class AztecCode extends Symbol {
             }
         }
 
-        StringBuilder binaryString = new StringBuilder();
+        BitStream binaryString = new BitStream();
         info("Encoding: ");
         curtable = 1; /* start with 1 table */
         lasttable = 1;
 
         /* Optional structured append start flag (Section 8 of spec) */
         if (structuredAppendTotal != 1) {
-            binaryString.append(PENTBIT[29]);
+            binaryString.append(29, 5);
             info("ML ");
-            binaryString.append(PENTBIT[29]);
+            binaryString.append(29, 5);
             info("UL ");
         }
 
@@ -1028,24 +1204,24 @@ public class AztecCode extends Symbol {
                             switch (curtable) {
                                 case 2:
                                     /* US */
-                                    binaryString.append(PENTBIT[28]);
+                                    binaryString.append(28, 5);
                                     info("US ");
                                     break;
                                 case 4:
                                     /* UL */
-                                    binaryString.append(PENTBIT[29]);
+                                    binaryString.append(29, 5);
                                     info("UL ");
                                     newtable = 1;
                                     break;
                                 case 8:
                                     /* UL */
-                                    binaryString.append(PENTBIT[31]);
+                                    binaryString.append(31, 5);
                                     info("UL ");
                                     newtable = 1;
                                     break;
                                 case 16:
                                     /* US */
-                                    binaryString.append(QUADBIT[15]);
+                                    binaryString.append(15, 4);
                                     info("US ");
                                     break;
                             }
@@ -1055,29 +1231,29 @@ public class AztecCode extends Symbol {
                             switch (curtable) {
                                 case 1:
                                     /* LL */
-                                    binaryString.append(PENTBIT[28]);
+                                    binaryString.append(28, 5);
                                     info("LL ");
                                     newtable = 2;
                                     break;
                                 case 4:
                                     /* LL */
-                                    binaryString.append(PENTBIT[28]);
+                                    binaryString.append(28, 5);
                                     info("LL ");
                                     newtable = 2;
                                     break;
                                 case 8:
                                     /* UL LL */
-                                    binaryString.append(PENTBIT[31]);
+                                    binaryString.append(31, 5);
                                     info("UL ");
-                                    binaryString.append(PENTBIT[28]);
+                                    binaryString.append(28, 5);
                                     info("LL ");
                                     newtable = 2;
                                     break;
                                 case 16:
                                     /* UL LL */
-                                    binaryString.append(QUADBIT[14]);
+                                    binaryString.append(14, 4);
                                     info("UL ");
-                                    binaryString.append(PENTBIT[28]);
+                                    binaryString.append(28, 5);
                                     info("LL ");
                                     newtable = 2;
                                     break;
@@ -1088,29 +1264,29 @@ public class AztecCode extends Symbol {
                             switch (curtable) {
                                 case 1:
                                     /* ML */
-                                    binaryString.append(PENTBIT[29]);
+                                    binaryString.append(29, 5);
                                     info("ML ");
                                     newtable = 4;
                                     break;
                                 case 2:
                                     /* ML */
-                                    binaryString.append(PENTBIT[29]);
+                                    binaryString.append(29, 5);
                                     info("ML ");
                                     newtable = 4;
                                     break;
                                 case 8:
                                     /* UL ML */
-                                    binaryString.append(PENTBIT[31]);
+                                    binaryString.append(31, 5);
                                     info("UL ");
-                                    binaryString.append(PENTBIT[29]);
+                                    binaryString.append(29, 5);
                                     info("ML ");
                                     newtable = 4;
                                     break;
                                 case 16:
                                     /* UL ML */
-                                    binaryString.append(QUADBIT[14]);
+                                    binaryString.append(14, 4);
                                     info("UL ");
-                                    binaryString.append(PENTBIT[29]);
+                                    binaryString.append(29, 5);
                                     info("ML ");
                                     newtable = 4;
                                     break;
@@ -1121,22 +1297,22 @@ public class AztecCode extends Symbol {
                             switch (curtable) {
                                 case 1:
                                     /* PS */
-                                    binaryString.append(PENTBIT[0]);
+                                    binaryString.append(0, 5);
                                     info("PS ");
                                     break;
                                 case 2:
                                     /* PS */
-                                    binaryString.append(PENTBIT[0]);
+                                    binaryString.append(0, 5);
                                     info("PS ");
                                     break;
                                 case 4:
                                     /* PS */
-                                    binaryString.append(PENTBIT[0]);
+                                    binaryString.append(0, 5);
                                     info("PS ");
                                     break;
                                 case 16:
                                     /* PS */
-                                    binaryString.append(QUADBIT[0]);
+                                    binaryString.append(0, 4);
                                     info("PS ");
                                     break;
                             }
@@ -1146,29 +1322,29 @@ public class AztecCode extends Symbol {
                             switch (curtable) {
                                 case 1:
                                     /* DL */
-                                    binaryString.append(PENTBIT[30]);
+                                    binaryString.append(30, 5);
                                     info("DL ");
                                     newtable = 16;
                                     break;
                                 case 2:
                                     /* DL */
-                                    binaryString.append(PENTBIT[30]);
+                                    binaryString.append(30, 5);
                                     info("DL ");
                                     newtable = 16;
                                     break;
                                 case 4:
                                     /* UL DL */
-                                    binaryString.append(PENTBIT[29]);
+                                    binaryString.append(29, 5);
                                     info("UL ");
-                                    binaryString.append(PENTBIT[30]);
+                                    binaryString.append(30, 5);
                                     info("DL ");
                                     newtable = 16;
                                     break;
                                 case 8:
                                     /* UL DL */
-                                    binaryString.append(PENTBIT[31]);
+                                    binaryString.append(31, 5);
                                     info("UL ");
-                                    binaryString.append(PENTBIT[30]);
+                                    binaryString.append(30, 5);
                                     info("DL ");
                                     newtable = 16;
                                     break;
@@ -1183,27 +1359,27 @@ public class AztecCode extends Symbol {
                             switch (curtable) {
                                 case 2:
                                     /* ML UL */
-                                    binaryString.append(PENTBIT[29]);
+                                    binaryString.append(29, 5);
                                     info("ML ");
-                                    binaryString.append(PENTBIT[29]);
+                                    binaryString.append(29, 5);
                                     info("UL ");
                                     newtable = 1;
                                     break;
                                 case 4:
                                     /* UL */
-                                    binaryString.append(PENTBIT[29]);
+                                    binaryString.append(29, 5);
                                     info("UL ");
                                     newtable = 1;
                                     break;
                                 case 8:
                                     /* UL */
-                                    binaryString.append(PENTBIT[31]);
+                                    binaryString.append(31, 5);
                                     info("UL ");
                                     newtable = 1;
                                     break;
                                 case 16:
                                     /* UL */
-                                    binaryString.append(QUADBIT[14]);
+                                    binaryString.append(14, 4);
                                     info("UL ");
                                     newtable = 1;
                                     break;
@@ -1214,29 +1390,29 @@ public class AztecCode extends Symbol {
                             switch (curtable) {
                                 case 1:
                                     /* LL */
-                                    binaryString.append(PENTBIT[28]);
+                                    binaryString.append(28, 5);
                                     info("LL ");
                                     newtable = 2;
                                     break;
                                 case 4:
                                     /* LL */
-                                    binaryString.append(PENTBIT[28]);
+                                    binaryString.append(28, 5);
                                     info("LL ");
                                     newtable = 2;
                                     break;
                                 case 8:
                                     /* UL LL */
-                                    binaryString.append(PENTBIT[31]);
+                                    binaryString.append(31, 5);
                                     info("UL ");
-                                    binaryString.append(PENTBIT[28]);
+                                    binaryString.append(28, 5);
                                     info("LL ");
                                     newtable = 2;
                                     break;
                                 case 16:
                                     /* UL LL */
-                                    binaryString.append(QUADBIT[14]);
+                                    binaryString.append(14, 4);
                                     info("UL ");
-                                    binaryString.append(PENTBIT[28]);
+                                    binaryString.append(28, 5);
                                     info("LL ");
                                     newtable = 2;
                                     break;
@@ -1247,29 +1423,29 @@ public class AztecCode extends Symbol {
                             switch (curtable) {
                                 case 1:
                                     /* ML */
-                                    binaryString.append(PENTBIT[29]);
+                                    binaryString.append(29, 5);
                                     info("ML ");
                                     newtable = 4;
                                     break;
                                 case 2:
                                     /* ML */
-                                    binaryString.append(PENTBIT[29]);
+                                    binaryString.append(29, 5);
                                     info("ML ");
                                     newtable = 4;
                                     break;
                                 case 8:
                                     /* UL ML */
-                                    binaryString.append(PENTBIT[31]);
+                                    binaryString.append(31, 5);
                                     info("UL ");
-                                    binaryString.append(PENTBIT[29]);
+                                    binaryString.append(29, 5);
                                     info("ML ");
                                     newtable = 4;
                                     break;
                                 case 16:
                                     /* UL ML */
-                                    binaryString.append(QUADBIT[14]);
+                                    binaryString.append(14, 4);
                                     info("UL ");
-                                    binaryString.append(PENTBIT[29]);
+                                    binaryString.append(29, 5);
                                     info("ML ");
                                     newtable = 4;
                                     break;
@@ -1280,33 +1456,33 @@ public class AztecCode extends Symbol {
                             switch (curtable) {
                                 case 1:
                                     /* ML PL */
-                                    binaryString.append(PENTBIT[29]);
+                                    binaryString.append(29, 5);
                                     info("ML ");
-                                    binaryString.append(PENTBIT[30]);
+                                    binaryString.append(30, 5);
                                     info("PL ");
                                     newtable = 8;
                                     break;
                                 case 2:
                                     /* ML PL */
-                                    binaryString.append(PENTBIT[29]);
+                                    binaryString.append(29, 5);
                                     info("ML ");
-                                    binaryString.append(PENTBIT[30]);
+                                    binaryString.append(30, 5);
                                     info("PL ");
                                     newtable = 8;
                                     break;
                                 case 4:
                                     /* PL */
-                                    binaryString.append(PENTBIT[30]);
+                                    binaryString.append(30, 5);
                                     info("PL ");
                                     newtable = 8;
                                     break;
                                 case 16:
                                     /* UL ML PL */
-                                    binaryString.append(QUADBIT[14]);
+                                    binaryString.append(14, 4);
                                     info("UL ");
-                                    binaryString.append(PENTBIT[29]);
+                                    binaryString.append(29, 5);
                                     info("ML ");
-                                    binaryString.append(PENTBIT[30]);
+                                    binaryString.append(30, 5);
                                     info("PL ");
                                     newtable = 8;
                                     break;
@@ -1317,29 +1493,29 @@ public class AztecCode extends Symbol {
                             switch (curtable) {
                                 case 1:
                                     /* DL */
-                                    binaryString.append(PENTBIT[30]);
+                                    binaryString.append(30, 5);
                                     info("DL ");
                                     newtable = 16;
                                     break;
                                 case 2:
                                     /* DL */
-                                    binaryString.append(PENTBIT[30]);
+                                    binaryString.append(30, 5);
                                     info("DL ");
                                     newtable = 16;
                                     break;
                                 case 4:
                                     /* UL DL */
-                                    binaryString.append(PENTBIT[29]);
+                                    binaryString.append(29, 5);
                                     info("UL ");
-                                    binaryString.append(PENTBIT[30]);
+                                    binaryString.append(30, 5);
                                     info("DL ");
                                     newtable = 16;
                                     break;
                                 case 8:
                                     /* UL DL */
-                                    binaryString.append(PENTBIT[31]);
+                                    binaryString.append(31, 5);
                                     info("UL ");
-                                    binaryString.append(PENTBIT[30]);
+                                    binaryString.append(30, 5);
                                     info("DL ");
                                     newtable = 16;
                                     break;
@@ -1351,36 +1527,36 @@ public class AztecCode extends Symbol {
                             switch (curtable) {
                                 case 1:
                                     /* BS */
-                                    binaryString.append(PENTBIT[31]);
+                                    binaryString.append(31, 5);
                                     info("BS ");
                                     newtable = 32;
                                     break;
                                 case 2:
                                     /* BS */
-                                    binaryString.append(PENTBIT[31]);
+                                    binaryString.append(31, 5);
                                     info("BS ");
                                     newtable = 32;
                                     break;
                                 case 4:
                                     /* BS */
-                                    binaryString.append(PENTBIT[31]);
+                                    binaryString.append(31, 5);
                                     info("BS ");
                                     newtable = 32;
                                     break;
                                 case 8:
                                     /* UL BS */
-                                    binaryString.append(PENTBIT[31]);
+                                    binaryString.append(31, 5);
                                     info("UL ");
-                                    binaryString.append(PENTBIT[31]);
+                                    binaryString.append(31, 5);
                                     info("BS ");
                                     lasttable = 1;
                                     newtable = 32;
                                     break;
                                 case 16:
                                     /* UL BS */
-                                    binaryString.append(QUADBIT[14]);
+                                    binaryString.append(14, 4);
                                     info("UL ");
-                                    binaryString.append(PENTBIT[31]);
+                                    binaryString.append(31, 5);
                                     info("BS ");
                                     lasttable = 1;
                                     newtable = 32;
@@ -1399,23 +1575,11 @@ public class AztecCode extends Symbol {
 
                             if (bytes > 31) {
                                 /* Put 00000 followed by 11-bit number of bytes less 31 */
-                                binaryString.append("00000");
-                                for (int weight = 0x400; weight > 0; weight = weight >> 1) {
-                                    if (((bytes - 31) & weight) != 0) {
-                                        binaryString.append('1');
-                                    } else {
-                                        binaryString.append('0');
-                                    }
-                                }
+                                binaryString.append(0, 5);
+                                binaryString.append(bytes - 31, 11);
                             } else {
                                 /* Put 5-bit number of bytes */
-                                for (int weight = 0x10; weight > 0; weight = weight >> 1) {
-                                    if ((bytes & weight) != 0) {
-                                        binaryString.append('1');
-                                    } else {
-                                        binaryString.append('0');
-                                    }
-                                }
+                                binaryString.append(bytes, 5);
                             }
 
                             break;
@@ -1435,28 +1599,22 @@ public class AztecCode extends Symbol {
                 case 8:
                     if (charmap[i] >= 400) {
                         info("FLG(" + (charmap[i] - 400) + ") ");
-                        binaryString.append(TRIBIT[charmap[i] - 400]);
+                        binaryString.append(charmap[i] - 400, 3);
                         if (charmap[i] != 400) {
                             /* ECI */
-                            binaryString.append(eciToBinary());
+                            eciToBinary(binaryString);
                         }
                     } else {
-                        binaryString.append(PENTBIT[charmap[i]]);
+                        binaryString.append(charmap[i], 5);
                         infoSpace(charmap[i]);
                     }
                     break;
                 case 16:
-                    binaryString.append(QUADBIT[charmap[i]]);
+                    binaryString.append(charmap[i], 4);
                     infoSpace(charmap[i]);
                     break;
                 case 32:
-                    for (int weight = 0x80; weight > 0; weight = weight >> 1) {
-                        if ((charmap[i] & weight) != 0) {
-                            binaryString.append('1');
-                        } else {
-                            binaryString.append('0');
-                        }
-                    }
+                    binaryString.append(charmap[i], 8);
                     infoSpace(charmap[i]);
                     break;
             }
@@ -1464,13 +1622,266 @@ public class AztecCode extends Symbol {
 
         infoLine();
 
-        return binaryString.toString();
+        return binaryString;
+    }
+
+    /**
+     * Encodes the input data into the shortest possible binary string, by searching a graph of encoder states
+     * one input character at a time. At each position, binary shift runs may end (returning to the mode which
+     * started them) and the encoder may latch to any other mode; it then encodes the next character directly,
+     * after a shift, as half of a two character punctuation value, or as a byte in a binary shift run. Only the
+     * cheapest way to reach each long binary shift run state is kept, so runs which reach the maximum length
+     * are ended there even if a cheaper split exists.
+     */
+    private BitStream generateMinimalAztecBinary() {
+
+        /* GS1 and ECI flags come first, just as for the normal encodation */
+        int[] data = inputData;
+        if (eciMode != 3) {
+            data = insertArray(data, 0, new int[] { FLG_ECI });
+        }
+        if (inputDataType == DataType.GS1) {
+            data = insertArray(data, 0, new int[] { FNC1 });
+        }
+
+        int length = data.length;
+        int[][] cost = new int[length + 1][STATE_COUNT];
+        int[][] prevState = new int[length + 1][STATE_COUNT];
+        int[][] prevPosition = new int[length + 1][STATE_COUNT];
+        int[][] binaryRun = new int[length + 1][3];
+        int[] latched = new int[MODE_COUNT];
+
+        for (int[] row : cost) {
+            Arrays.fill(row, UNREACHABLE);
+        }
+        cost[0][MODE_UPPER] = 0;
+
+        for (int i = 0; i <= length; i++) {
+
+            int[] c = cost[i];
+
+            /* End any binary shift runs, then latch */
+            for (int state = MODE_COUNT; state < STATE_COUNT; state++) {
+                relax(cost, prevState, prevPosition, i, (state - MODE_COUNT) / 32, c[state], i, state);
+            }
+            System.arraycopy(c, 0, latched, 0, MODE_COUNT);
+            for (int mode = 0; mode < MODE_COUNT; mode++) {
+                for (int from = 0; from < MODE_COUNT; from++) {
+                    relax(cost, prevState, prevPosition, i, mode, latched[from] + LATCH_BITS[from][mode], i, from);
+                }
+            }
+
+            if (i == length) {
+                break;
+            }
+
+            int value = data[i];
+            int pair = (i + 1 < length ? pairValue(value, data[i + 1]) : -1);
+
+            for (int mode = 0; mode < MODE_COUNT; mode++) {
+                if (c[mode] >= UNREACHABLE) {
+                    continue;
+                }
+                int bits = (mode == MODE_DIGIT ? 4 : 5);
+                int direct = valueBits(value, mode);
+                if (direct >= 0) {
+                    relax(cost, prevState, prevPosition, i + 1, mode, c[mode] + direct, i, mode);
+                } else if ((mode == MODE_LOWER || mode == MODE_DIGIT) && valueBits(value, MODE_UPPER) >= 0) {
+                    /* US */
+                    relax(cost, prevState, prevPosition, i + 1, mode, c[mode] + bits + 5, i, mode);
+                } else if (mode != MODE_PUNCT && valueBits(value, MODE_PUNCT) >= 0) {
+                    /* PS */
+                    int punct = valueBits(value, MODE_PUNCT);
+                    relax(cost, prevState, prevPosition, i + 1, mode, c[mode] + bits + punct, i, mode);
+                }
+                if (pair >= 0) {
+                    relax(cost, prevState, prevPosition, i + 2, mode, c[mode] + (mode == MODE_PUNCT ? 5 : bits + 5), i, mode);
+                }
+                if (value >= 0 && mode <= MODE_MIXED) {
+                    /* BS, followed by a 5-bit length and the first byte */
+                    relax(cost, prevState, prevPosition, i + 1, MODE_COUNT + (mode * 32), c[mode] + 18, i, mode);
+                }
+            }
+
+            if (value >= 0) {
+                for (int mode = 0; mode <= MODE_MIXED; mode++) {
+                    int first = MODE_COUNT + (mode * 32);
+                    for (int run = 1; run < 31; run++) {
+                        relax(cost, prevState, prevPosition, i + 1, first + run, c[first + run - 1] + 8, i, first + run - 1);
+                    }
+                    /* the 32nd byte needs the 11-bit length */
+                    if (relax(cost, prevState, prevPosition, i + 1, first + 31, c[first + 30] + 19, i, first + 30)) {
+                        binaryRun[i + 1][mode] = 32;
+                    }
+                    if (binaryRun[i][mode] < MAX_BINARY_RUN
+                            && relax(cost, prevState, prevPosition, i + 1, first + 31, c[first + 31] + 8, i, first + 31)) {
+                        binaryRun[i + 1][mode] = binaryRun[i][mode] + 1;
+                    }
+                }
+            }
+        }
+
+        /* Follow the cheapest path back to the start */
+        int best = MODE_UPPER;
+        for (int mode = 1; mode < MODE_COUNT; mode++) {
+            if (cost[length][mode] < cost[length][best]) {
+                best = mode;
+            }
+        }
+        int steps = 3 * (length + 1);
+        int[] pathPosition = new int[steps];
+        int[] pathState = new int[steps];
+        int first = steps - 1;
+        pathPosition[first] = length;
+        pathState[first] = best;
+        while (pathPosition[first] > 0 || pathState[first] != MODE_UPPER) {
+            int position = pathPosition[first];
+            int state = pathState[first];
+            first--;
+            pathPosition[first] = prevPosition[position][state];
+            pathState[first] = prevState[position][state];
+        }
+
+        BitStream binaryString = new BitStream(cost[length][best] + 10);
+        info("Encoding: ");
+
+        /* Optional structured append start flag (Section 8 of spec) */
+        if (structuredAppendTotal != 1) {
+            binaryString.append(29, 5);
+            info("ML ");
+            binaryString.append(29, 5);
+            info("UL ");
+        }
+
+        for (int step = first; step < steps - 1; step++) {
+            int position = pathPosition[step];
+            int state = pathState[step];
+            int nextPosition = pathPosition[step + 1];
+            int nextState = pathState[step + 1];
+            if (nextPosition == position) {
+                /* Latch, unless this is the end of a binary shift run */
+                if (state < MODE_COUNT) {
+                    for (int mode = state; mode != nextState; mode = LATCH_ROUTES[mode][nextState]) {
+                        int to = LATCH_ROUTES[mode][nextState];
+                        binaryString.append(LATCH_VALUES[mode][to], mode == MODE_DIGIT ? 4 : 5);
+                        info(LATCH_NAMES[to] + " ");
+                    }
+                }
+            } else if (nextState >= MODE_COUNT) {
+                if (state < MODE_COUNT) {
+                    int bytes = 1;
+                    while (pathState[step + bytes + 1] >= MODE_COUNT) {
+                        bytes++;
+                    }
+                    binaryString.append(31, 5);
+                    info("BS ");
+                    if (bytes > 31) {
+                        /* Put 00000 followed by 11-bit number of bytes less 31 */
+                        binaryString.append(0, 5);
+                        binaryString.append(bytes - 31, 11);
+                    } else {
+                        /* Put 5-bit number of bytes */
+                        binaryString.append(bytes, 5);
+                    }
+                }
+                binaryString.append(data[position], 8);
+                infoSpace(data[position]);
+            } else if (nextPosition == position + 2) {
+                if (state != MODE_PUNCT) {
+                    binaryString.append(0, state == MODE_DIGIT ? 4 : 5);
+                    info("PS ");
+                }
+                int pair = pairValue(data[position], data[position + 1]);
+                binaryString.append(pair, 5);
+                infoSpace(pair);
+            } else {
+                int value = data[position];
+                int mode = state;
+                if (valueBits(value, state) < 0) {
+                    int bits = (state == MODE_DIGIT ? 4 : 5);
+                    if (valueBits(value, MODE_UPPER) >= 0) {
+                        mode = MODE_UPPER;
+                        binaryString.append(state == MODE_DIGIT ? 15 : 28, bits);
+                        info("US ");
+                    } else {
+                        mode = MODE_PUNCT;
+                        binaryString.append(0, bits);
+                        info("PS ");
+                    }
+                }
+                appendValue(binaryString, value, mode);
+            }
+        }
+
+        infoLine();
+
+        return binaryString;
+    }
+
+    /** Lowers the cost of reaching the specified state, if the specified cost is lower; returns true if it was */
+    private static boolean relax(int[][] cost, int[][] prevState, int[][] prevPosition, int position, int state,
+                                 int newCost, int fromPosition, int fromState) {
+        if (newCost < cost[position][state]) {
+            cost[position][state] = newCost;
+            prevState[position][state] = fromState;
+            prevPosition[position][state] = fromPosition;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /** Returns the number of bits needed to encode the specified value in the specified mode, or -1 if it cannot be */
+    private int valueBits(int value, int mode) {
+        if (value == FNC1 || value == FLG_ECI) {
+            if (mode != MODE_PUNCT) {
+                return -1;
+            }
+            return (value == FNC1 ? 8 : 8 + (4 * Integer.toString(eciMode).length()));
+        } else if (value < 0 || value > 127 || MODE_VALUES[mode][value] < 0) {
+            return -1;
+        } else {
+            return (mode == MODE_DIGIT ? 4 : 5);
+        }
+    }
+
+    /** Appends the specified value, which the specified mode must be able to encode */
+    private void appendValue(BitStream binaryString, int value, int mode) {
+        if (value == FNC1 || value == FLG_ECI) {
+            binaryString.append(0, 5);
+            infoSpace(0);
+            int flagNumber = (value == FNC1 ? 0 : Integer.toString(eciMode).length());
+            info("FLG(" + flagNumber + ") ");
+            binaryString.append(flagNumber, 3);
+            if (value == FLG_ECI) {
+                eciToBinary(binaryString);
+            }
+        } else {
+            int symbolValue = MODE_VALUES[mode][value];
+            binaryString.append(symbolValue, mode == MODE_DIGIT ? 4 : 5);
+            infoSpace(symbolValue);
+        }
+    }
+
+    /** Returns the punctuation value which encodes the specified pair of characters, or -1 if there is none */
+    private static int pairValue(int first, int second) {
+        if (first == '\r' && second == '\n') {
+            return 2;
+        } else if (first == '.' && second == ' ') {
+            return 3;
+        } else if (first == ',' && second == ' ') {
+            return 4;
+        } else if (first == ':' && second == ' ') {
+            return 5;
+        } else {
+            return -1;
+        }
     }
 
     /** Adjusts bit stream so that no codewords are all 0s or all 1s, per Section 7.3.1.2 */
-    private StringBuilder adjustBinaryString(String binaryString, boolean compact, int layers) {
+    private BitStream adjustBinaryString(BitStream binaryString, boolean compact, int layers) {
 
-        StringBuilder adjustedString = new StringBuilder();
+        BitStream adjustedString = new BitStream(binaryString.length() + (binaryString.length() / 4) + 12);
         int codewordSize = getCodewordSize(layers);
         int ones = 0;
 
@@ -1479,20 +1890,20 @@ public class AztecCode extends Symbol {
             if ((adjustedString.length() + 1) % codewordSize == 0) {
                 if (ones == codewordSize - 1) {
                     // codeword of B-1 1s, add dummy 0
-                    adjustedString.append('0');
+                    adjustedString.append(false);
                     i--;
                 } else if (ones == 0) {
                     // codeword of B-1 0s, add dummy 1
-                    adjustedString.append('1');
+                    adjustedString.append(true);
                     i--;
                 } else {
                     // no dummy value needed
-                    adjustedString.append(binaryString.charAt(i));
+                    adjustedString.append(binaryString.get(i));
                 }
                 ones = 0;
             } else {
-                adjustedString.append(binaryString.charAt(i));
-                if (binaryString.charAt(i) == '1') {
+                adjustedString.append(binaryString.get(i));
+                if (binaryString.get(i)) {
                     ones++;
                 }
             }
@@ -1505,48 +1916,30 @@ public class AztecCode extends Symbol {
         if (padBits == codewordSize) {
             padBits = 0;
         }
-        for (int i = 0; i < padBits; i++) {
-            adjustedString.append('1');
-        }
+        adjustedString.append((1 << padBits) - 1, padBits);
         adjustedLength = adjustedString.length();
 
         /* Make sure padding didn't create an invalid (all 1s) codeword */
         ones = 0;
         for (int i = adjustedLength - codewordSize; i < adjustedLength && i >= 0; i++) {
-            if (adjustedString.charAt(i) == '1') {
+            if (adjustedString.get(i)) {
                 ones++;
             }
         }
         if (ones == codewordSize) {
-            adjustedString.setCharAt(adjustedLength - 1, '0');
-        }
-
-        /* Log the codewords */
-        info("Codewords: ");
-        for (int i = 0; i < (adjustedLength / codewordSize); i++) {
-            int l = 0, m = (1 << (codewordSize - 1));
-            for (int j = 0; j < codewordSize; j++) {
-                if (adjustedString.charAt((i * codewordSize) + j) == '1') {
-                    l += m;
-                }
-                m = m >> 1;
-            }
-            infoSpace(l);
+            adjustedString.set(adjustedLength - 1, false);
         }
-        infoLine();
 
         /* Return the adjusted bit string */
         return adjustedString;
     }
 
-    private String eciToBinary() {
+    private void eciToBinary(BitStream binary) {
         String eciNumber = Integer.toString(eciMode);
-        StringBuilder binary = new StringBuilder(4 * eciNumber.length());
         for (int i = 0; i < eciNumber.length(); i++) {
-            binary.append(QUADBIT[(eciNumber.charAt(i) - '0') + 2]);
+            binary.append((eciNumber.charAt(i) - '0') + 2, 4);
             infoSpace(eciNumber.charAt(i));
         }
-        return binary.toString();
     }
 
     /** Creates the descriptor / mode message, per Section 7.2 */
@@ -1668,31 +2061,23 @@ public class AztecCode extends Symbol {
     }
 
     /** Adds error correction data to the specified binary string, which already contains the primary data */
-    private void addErrorCorrection(StringBuilder adjustedString, int codewordSize, int dataBlocks, int eccBlocks) {
+    private void addErrorCorrection(BitStream adjustedString, int codewordSize, int dataBlocks, int eccBlocks) {
 
-        int x, poly, startWeight;
+        int poly;
 
         /* Split into codewords and calculate Reed-Solomon error correction codes */
         switch (codewordSize) {
             case 6:
-                x = 32;
                 poly = 0x43;
-                startWeight = 0x20;
                 break;
             case 8:
-                x = 128;
                 poly = 0x12d;
-                startWeight = 0x80;
                 break;
             case 10:
-                x = 512;
                 poly = 0x409;
-                startWeight = 0x200;
                 break;
             case 12:
-                x = 2048;
                 poly = 0x1069;
-                startWeight = 0x800;
                 break;
             default:
                 throw new BarcodeException("Unrecognized codeword size: " + codewordSize);
@@ -1703,11 +2088,7 @@ public class AztecCode extends Symbol {
         int[] ecc = new int[eccBlocks + 3];
 
         for (int i = 0; i < dataBlocks; i++) {
-            for (int weight = 0; weight < codewordSize; weight++) {
-                if (adjustedString.charAt((i * codewordSize) + weight) == '1') {
-                    data[i] += (x >> weight);
-                }
-            }
+            data[i] = adjustedString.get(i * codewordSize, codewordSize);
         }
 
         rs.init_gf(poly);
@@ -1719,13 +2100,7 @@ public class AztecCode extends Symbol {
         }
 
         for (int i = (eccBlocks - 1); i >= 0; i--) {
-            for (int weight = startWeight; weight > 0; weight = weight >> 1) {
-                if ((ecc[i] & weight) != 0) {
-                    adjustedString.append('1');
-                } else {
-                    adjustedString.append('0');
-                }
-            }
+            adjustedString.append(ecc[i], codewordSize);
         }
     }
 
@@ -1742,4 +2117,10 @@ public class AztecCode extends Symbol {
             return 6;
         }
     }
+
+    /** Returns the number of data bits which fit into a symbol with the specified number of layers. */
+    private static int getDataCapacity(boolean compact, int layers) {
+        int[] sizes = (compact ? AZTEC_COMPACT_SIZES : AZTEC_SIZES);
+        return getCodewordSize(layers) * (sizes[layers - 1] - 3);
+    }
 }
@@ -1,6 +1,9 @@
 package ru.chipmunkbarcode.barcodeTypes;
 
 import ru.chipmunkbarcode.exceptions.BarcodeException;
+import ru.chipmunkbarcode.util.BitStream;
+
+import java.util.Arrays;
 
 /**
  * <p>Implements the Aztec Runes bar code symbology according to ISO/IEC 24778:2008 Annex A.
@@ -52,39 +55,48 @@ public class AztecRune extends Symbol {
             throw new BarcodeException("Input too large");
         }
 
-        StringBuilder binaryDataStream = new StringBuilder(28);
-        for (int i = 0x80; i > 0; i = i >> 1) {
-            if ((decimalValue & i) != 0) {
-                binaryDataStream.append('1');
-            } else {
-                binaryDataStream.append('0');
-            }
-        }
+        infoLine("Binary: " + Runes.BINARY[decimalValue]);
 
-        int[] dataCodeword = new int[3];
-        dataCodeword[0] = 0;
-        dataCodeword[1] = 0;
+        readable = "";
+        pattern = Runes.PATTERNS[decimalValue].clone();
+        row_count = 11;
+        rowHeight = new int[11];
+        Arrays.fill(rowHeight, 1);
+    }
 
-        for (int i = 0; i < 2; i++) {
-            if (binaryDataStream.charAt(i * 4) == '1') {
-                dataCodeword[i] += 8;
-            }
-            if (binaryDataStream.charAt((i * 4) + 1) == '1') {
-                dataCodeword[i] += 4;
-            }
-            if (binaryDataStream.charAt((i * 4) + 2) == '1') {
-                dataCodeword[i] += 2;
-            }
-            if (binaryDataStream.charAt((i * 4) + 3) == '1') {
-                dataCodeword[i] += 1;
+    /**
+     * The binary data and row patterns of all 256 runes, built together the first time that a rune is encoded.
+     * The JVM initializes this class only once, so there is no need for any further synchronization.
+     */
+    private static final class Runes {
+
+        static final String[] BINARY = new String[256];
+        static final String[][] PATTERNS = new String[256][];
+
+        static {
+            ReedSolomon rs = new ReedSolomon();
+            rs.init_gf(0x13);
+            rs.init_code(5, 1);
+            for (int value = 0; value < 256; value++) {
+                BitStream binaryDataStream = runeBinary(value, rs);
+                BINARY[value] = binaryDataStream.toString();
+                PATTERNS[value] = runePatterns(binaryDataStream);
             }
         }
+    }
+
+    /** Returns the data and error correction bits of the specified rune, with every other bit inverted */
+    private static BitStream runeBinary(int decimalValue, ReedSolomon rs) {
+
+        BitStream binaryDataStream = new BitStream(28);
+        binaryDataStream.append(decimalValue, 8);
+
+        int[] dataCodeword = new int[3];
+        dataCodeword[0] = binaryDataStream.get(0, 4);
+        dataCodeword[1] = binaryDataStream.get(4, 4);
 
         int[] errorCorrectionCodeword = new int[6];
 
-        ReedSolomon rs = new ReedSolomon();
-        rs.init_gf(0x13);
-        rs.init_code(5, 1);
         rs.encode(2, dataCodeword);
 
         for (int i = 0; i < 5; i++) {
@@ -92,47 +104,19 @@ public class AztecRune extends Symbol {
         }
 
         for (int i = 0; i < 5; i++) {
-            if ((errorCorrectionCodeword[4 - i] & 0x08) != 0) {
-                binaryDataStream.append('1');
-            } else {
-                binaryDataStream.append('0');
-            }
-            if ((errorCorrectionCodeword[4 - i] & 0x04) != 0) {
-                binaryDataStream.append('1');
-            } else {
-                binaryDataStream.append('0');
-            }
-            if ((errorCorrectionCodeword[4 - i] & 0x02) != 0) {
-                binaryDataStream.append('1');
-            } else {
-                binaryDataStream.append('0');
-            }
-            if ((errorCorrectionCodeword[4 - i] & 0x01) != 0) {
-                binaryDataStream.append('1');
-            } else {
-                binaryDataStream.append('0');
-            }
+            binaryDataStream.append(errorCorrectionCodeword[4 - i], 4);
         }
 
-        StringBuilder reversedBinaryDataStream = new StringBuilder(28);
-        for (int i = 0; i < binaryDataStream.length(); i++) {
-            if ((i & 1) == 0) {
-                if (binaryDataStream.charAt(i) == '0') {
-                    reversedBinaryDataStream.append('1');
-                } else {
-                    reversedBinaryDataStream.append('0');
-                }
-            } else {
-                reversedBinaryDataStream.append(binaryDataStream.charAt(i));
-            }
-        }
+        /* Invert every other bit, starting with the first */
+        BitStream reversedBinaryDataStream = new BitStream(28);
+        reversedBinaryDataStream.append(binaryDataStream.get(0, 28) ^ 0xAAAAAAA, 28);
+        return reversedBinaryDataStream;
+    }
 
-        infoLine("Binary: " + reversedBinaryDataStream);
+    /** Returns the row patterns of the rune with the specified (inverted) data and error correction bits */
+    private static String[] runePatterns(BitStream reversedBinaryDataStream) {
 
-        readable = "";
-        pattern = new String[11];
-        row_count = 11;
-        rowHeight = new int[11];
+        String[] runePattern = new String[11];
 
         for (int row = 0; row < 11; row++) {
             StringBuilder rowBinary = new StringBuilder(11);
@@ -144,11 +128,12 @@ public class AztecRune extends Symbol {
                     rowBinary.append('0');
                 }
                 if (BIT_PLACEMENT_MAP[(row * 11) + column] >= 2) {
-                    rowBinary.append(reversedBinaryDataStream.charAt(BIT_PLACEMENT_MAP[(row * 11) + column] - 2));
+                    rowBinary.append(reversedBinaryDataStream.get(BIT_PLACEMENT_MAP[(row * 11) + column] - 2) ? '1' : '0');
                 }
             }
-            pattern[row] = bin2pat(rowBinary);
-            rowHeight[row] = 1;
+            runePattern[row] = bin2pat(rowBinary);
         }
+
+        return runePattern;
     }
 }
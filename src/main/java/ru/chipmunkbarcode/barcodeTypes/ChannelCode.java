@@ -11,11 +11,6 @@ public class ChannelCode extends Symbol {
 
     private int preferredNumberOfChannels;
 
-    private int[] space = new int[11];
-    private int[] bar = new int[11];
-    private double currentValue;
-    private double targetValue;
-
     /**
      * Sets the preferred number of channels used to encode data. This setting will be
      * ignored if the value to be encoded requires more channels.
@@ -59,7 +54,7 @@ public class ChannelCode extends Symbol {
             channels = preferredNumberOfChannels;
         }
 
-        targetValue = Integer.parseInt(content);
+        int targetValue = Integer.parseInt(content);
 
         switch (channels) {
             case 3:
@@ -94,15 +89,18 @@ public class ChannelCode extends Symbol {
 
         infoLine("Channels Used: " + channels);
 
+        int[] space = new int[11];
+        int[] bar = new int[11];
+        bar[0] = space[1] = bar[1] = space[2] = bar[2] = 1;
+        findPattern(channels, targetValue, space, bar);
+
+        StringBuilder sb = new StringBuilder(27);
+        sb.append("11110");
         for (i = 0; i < 11; i++) {
-            bar[i] = 0;
-            space[i] = 0;
+            sb.append((char) (space[i] + '0'));
+            sb.append((char) (bar[i] + '0'));
         }
-
-        bar[0] = space[1] = bar[1] = space[2] = bar[2] = 1;
-        currentValue = 0;
-        pattern = new String[1];
-        nextSpace(channels, 3, channels, channels);
+        pattern = new String[]{sb.toString()};
 
         leadingZeroCount = channels - 1 - content.length();
 
@@ -116,37 +114,92 @@ public class ChannelCode extends Symbol {
         rowHeight = new int[]{-1};
     }
 
-    private void nextSpace(int channels, int i, int maxSpace, int maxBar) {
-        for (int s = (i < channels + 2) ? 1 : maxSpace; s <= maxSpace; s++) {
-            space[i] = s;
-            nextBar(channels, i, maxBar, maxSpace + 1 - s);
+    /**
+     * Finds the space and bar widths for the specified value. The values are assigned to the valid patterns in
+     * order, so the pattern for a value can be found one element at a time: each possible width of the next
+     * element is skipped over, along with all of the patterns which start with it, until the value falls within
+     * the patterns which start with the current width.
+     */
+    private static void findPattern(int channels, int value, int[] space, int[] bar) {
+
+        int maxSpace = channels;
+        int maxBar = channels;
+        int lastBar = 1;
+        int lastSum = 3;
+
+        for (int i = 3; i < channels + 3; i++) {
+            int remaining = channels + 2 - i;
+            search:
+            for (int s = (remaining > 0 ? 1 : maxSpace); s <= maxSpace; s++) {
+                int minBar = (s + lastSum > 4) ? 1 : 2;
+                if (remaining == 0) {
+                    space[i] = s;
+                    bar[i] = maxBar;
+                    break;
+                }
+                for (int b = minBar; b <= maxBar; b++) {
+                    int count = PatternCounts.get(remaining - 1, maxSpace + 1 - s, maxBar + 1 - b, b, s + b + lastBar);
+                    if (value < count) {
+                        space[i] = s;
+                        bar[i] = b;
+                        maxSpace = maxSpace + 1 - s;
+                        maxBar = maxBar + 1 - b;
+                        lastSum = s + b + lastBar;
+                        lastBar = b;
+                        break search;
+                    }
+                    value -= count;
+                }
+            }
         }
     }
 
-    private void nextBar(int channels, int i, int maxBar, int maxSpace) {
-        int b = (space[i] + bar[i - 1] + space[i - 1] + bar[i - 2] > 4) ? 1 : 2;
-        if (i < channels + 2) {
-            for (; b <= maxBar; b++) {
-                bar[i] = b;
-                nextSpace(channels, i + 1, maxSpace, maxBar + 1 - b);
+    /**
+     * The number of valid patterns which can follow a partial pattern, built once on first use. A partial
+     * pattern is described by the number of space and bar pairs still to be chosen after the next one, the
+     * largest space and bar widths still allowed, the width of the last bar, and the sum of the widths of the
+     * last bar, the last space and the bar before it (the sum only matters up to 4).
+     */
+    private static final class PatternCounts {
+
+        private static final int MAX_WIDTH = 8;
+        private static final int MAX_SUM = 4;
+        private static final int[][][][][] COUNTS = new int[MAX_WIDTH][MAX_WIDTH + 1][MAX_WIDTH + 1][MAX_WIDTH + 1][MAX_SUM + 1];
+
+        static {
+            for (int remaining = 0; remaining < MAX_WIDTH; remaining++) {
+                for (int maxSpace = 1; maxSpace <= MAX_WIDTH; maxSpace++) {
+                    for (int maxBar = 1; maxBar <= MAX_WIDTH; maxBar++) {
+                        for (int lastBar = 1; lastBar <= MAX_WIDTH; lastBar++) {
+                            for (int lastSum = 0; lastSum <= MAX_SUM; lastSum++) {
+                                COUNTS[remaining][maxSpace][maxBar][lastBar][lastSum] =
+                                    count(remaining, maxSpace, maxBar, lastBar, lastSum);
+                            }
+                        }
+                    }
+                }
             }
-        } else if (b <= maxBar) {
-            bar[i] = maxBar;
-            checkIfDone();
-            currentValue++;
         }
-    }
 
-    private void checkIfDone() {
-        if (currentValue == targetValue) {
-            /* Target reached - save the generated pattern */
-            StringBuilder sb = new StringBuilder();
-            sb.append("11110");
-            for (int i = 0; i < 11; i++) {
-                sb.append((char) (space[i] + '0'));
-                sb.append((char) (bar[i] + '0'));
+        private static int count(int remaining, int maxSpace, int maxBar, int lastBar, int lastSum) {
+            int count = 0;
+            for (int s = (remaining > 0 ? 1 : maxSpace); s <= maxSpace; s++) {
+                int minBar = (s + lastSum > 4) ? 1 : 2;
+                if (remaining == 0) {
+                    if (minBar <= maxBar) {
+                        count++;
+                    }
+                } else {
+                    for (int b = minBar; b <= maxBar; b++) {
+                        count += get(remaining - 1, maxSpace + 1 - s, maxBar + 1 - b, b, s + b + lastBar);
+                    }
+                }
             }
-            pattern[0] = sb.toString();
+            return count;
+        }
+
+        static int get(int remaining, int maxSpace, int maxBar, int lastBar, int lastSum) {
+            return COUNTS[remaining][maxSpace][maxBar][lastBar][Math.min(lastSum, MAX_SUM)];
         }
     }
 }
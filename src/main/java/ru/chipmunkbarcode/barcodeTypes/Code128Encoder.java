@@ -0,0 +1,365 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+import static ru.chipmunkbarcode.barcodeTypes.Symbol.FNC1;
+import static ru.chipmunkbarcode.barcodeTypes.Symbol.FNC2;
+import static ru.chipmunkbarcode.barcodeTypes.Symbol.FNC3;
+import static ru.chipmunkbarcode.barcodeTypes.Symbol.FNC4;
+
+/**
+ * <p>Code set selection for Code 128 (ISO/IEC 15417) and for the stacked symbologies based on it, Code 16K
+ * (EN 12323) and Codablock-F. The minimum number of symbol characters needed to encode the data from each
+ * position onwards, starting in each encoder state, is found when the encoder is created, in a single backward
+ * pass over the data. Symbols use these exact costs to decide on their size, and then write the data one step
+ * at a time with {@link #encodeNextStep(int[], int)}, following the cheapest path.
+ *
+ * <p>The encoder states are code set A or B, each with extended ASCII (FNC4) mode off or on, and code set C.
+ * The code set of each state is <code>state &gt;&gt; 1</code>, and extended mode is on if the lowest bit is set.
+ * Extended mode is only used with code sets A and B.
+ */
+final class Code128Encoder {
+
+    static final int SET_A = 0;
+    static final int SET_B = 1;
+    static final int SET_C = 2;
+
+    static final int STATE_A = 0;
+    static final int STATE_B = 2;
+    static final int STATE_C = 4;
+    private static final int STATES = 5;
+
+    /** The order in which states are tried when more than one state gives a symbol of the same length. */
+    private static final int[] STATE_PREFERENCE = { STATE_B, STATE_A, STATE_C, STATE_B + 1, STATE_A + 1 };
+
+    static final int UNREACHABLE = Integer.MAX_VALUE / 2;
+
+    private final int[] data;
+    private final int length;
+    private final boolean extendedLatch;
+    private final boolean suppressModeC;
+    private final int[] costs;
+    private StringBuilder info;
+    private int position;
+    private int state;
+
+    /**
+     * Creates a new encoder for the specified data, and finds the cost of encoding it.
+     *
+     * @param data the data to encode, with FNC characters represented by {@link Symbol#FNC1} to {@link Symbol#FNC4}
+     * @param length the number of characters of data to encode
+     * @param extendedLatch whether or not double FNC4 characters may be used to latch into extended mode (if not,
+     *        each extended character is preceded by a single FNC4 shift)
+     * @param suppressModeC whether or not to prevent the use of code set C
+     */
+    Code128Encoder(int[] data, int length, boolean extendedLatch, boolean suppressModeC) {
+        this.data = data;
+        this.length = length;
+        this.extendedLatch = extendedLatch;
+        this.suppressModeC = suppressModeC;
+        this.costs = new int[(length + 1) * STATES];
+        this.state = STATE_B;
+
+        /* The cost at each position only depends on the costs at the next one or two positions */
+        int[] step = new int[STATES];
+        for (int i = length - 1; i >= 0; i--) {
+            for (int to = 0; to < STATES; to++) {
+                step[to] = stepCost(i, to);
+            }
+            for (int from = 0; from < STATES; from++) {
+                int min = UNREACHABLE;
+                for (int to = 0; to < STATES; to++) {
+                    min = Math.min(min, switchCost(from, to) + step[to]);
+                }
+                costs[(i * STATES) + from] = min;
+            }
+        }
+    }
+
+    /**
+     * Sets the buffer to which a description of each symbol character is appended as the data is encoded.
+     *
+     * @param info the buffer to append to, or <code>null</code> for no description
+     */
+    void setInfo(StringBuilder info) {
+        this.info = info;
+    }
+
+    /**
+     * Returns the minimum number of symbol characters needed to encode the data from the specified position
+     * onwards, starting in the specified state.
+     *
+     * @param position the position in the data
+     * @param state the state to start in
+     * @return the minimum number of symbol characters needed
+     */
+    int getCost(int position, int state) {
+        return costs[(position * STATES) + state];
+    }
+
+    /**
+     * Returns the code set state (A, B or C, with extended mode off) which needs the fewest symbol characters to
+     * encode the data from the specified position onwards.
+     *
+     * @param position the position in the data
+     * @return the best state to start in
+     */
+    int getBestState(int position) {
+        int best = STATE_B;
+        for (int candidate : new int[] { STATE_A, STATE_C }) {
+            if (getCost(position, candidate) < getCost(position, best)) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the number of symbol characters needed to encode the character at the specified position in the
+     * specified state, including any shifts, but without changing state.
+     *
+     * @param position the position in the data
+     * @param state the state to encode the character in
+     * @return the number of symbol characters needed, or {@link #UNREACHABLE} if the state cannot encode it
+     */
+    int getCharacterLength(int position, int state) {
+        int c = data[position];
+        if (state == STATE_C) {
+            if (suppressModeC) {
+                return UNREACHABLE;
+            } else if (c == FNC1 || (isDigit(c) && position + 1 < length && isDigit(data[position + 1]))) {
+                return 1;
+            } else {
+                return UNREACHABLE;
+            }
+        }
+        int set = state >> 1;
+        boolean extended = (state & 1) != 0;
+        int direct = characterCost(c, set, extended);
+        if (direct != 0) {
+            return direct;
+        }
+        /* Every character can be encoded in either code set A or code set B, so a shift always works */
+        return 1 + characterCost(c, 1 - set, extended);
+    }
+
+    /**
+     * Moves the encoder to the specified position in the data, in the specified state.
+     *
+     * @param position the position in the data
+     * @param state the current state
+     */
+    void reset(int position, int state) {
+        this.position = position;
+        this.state = state;
+    }
+
+    int getPosition() {
+        return position;
+    }
+
+    int getState() {
+        return state;
+    }
+
+    boolean isDone() {
+        return position >= length;
+    }
+
+    /**
+     * Returns the number of symbol characters which the next call to {@link #encodeNextStep(int[], int)} will
+     * write: any state change, followed by the next data character (or pair of digits).
+     *
+     * @return the number of symbol characters in the next step
+     */
+    int getNextStepLength() {
+        int next = chooseNextState();
+        return switchCost(state, next) + getCharacterLength(position, next);
+    }
+
+    /**
+     * Writes the symbol characters for the next step along the cheapest path: any state change, followed by the
+     * next data character (or pair of digits).
+     *
+     * @param values the array to write the symbol character values to
+     * @param count the number of values already in the array
+     * @return the updated number of values in the array
+     */
+    int encodeNextStep(int[] values, int count) {
+        int next = chooseNextState();
+        count = encodeSwitch(next, values, count);
+        return encodeCharacter(values, count);
+    }
+
+    /**
+     * Writes the symbol characters for the next data character (or pair of digits) in the current state,
+     * with any shifts needed.
+     *
+     * @param values the array to write the symbol character values to
+     * @param count the number of values already in the array
+     * @return the updated number of values in the array
+     */
+    int encodeCharacter(int[] values, int count) {
+
+        int c = data[position];
+
+        if (state == STATE_C) {
+            if (c == FNC1) {
+                values[count] = 102;
+                info("FNC1 ");
+                position++;
+            } else {
+                values[count] = (10 * (c - '0')) + (data[position + 1] - '0');
+                infoSpace(values[count]);
+                position += 2;
+            }
+            return count + 1;
+        }
+
+        int set = state >> 1;
+        boolean extended = (state & 1) != 0;
+        boolean shift = characterCost(c, set, extended) == 0;
+
+        if (c >= 0 && (c >= 128) != extended) {
+            /* Shift to or from extended mode */
+            values[count++] = (set == SET_A ? 101 : 100);
+            info("FNC4 ");
+        }
+
+        if (shift) {
+            /* Insert shift character */
+            values[count++] = 98;
+            info("SHFT ");
+            set = 1 - set;
+        }
+
+        if (c == FNC1) {
+            values[count] = 102;
+            info("FNC1 ");
+        } else if (c == FNC2) {
+            values[count] = 97;
+            info("FNC2 ");
+        } else if (c == FNC3) {
+            values[count] = 96;
+            info("FNC3 ");
+        } else if (c == FNC4) {
+            values[count] = (set == SET_A ? 101 : 100);
+            info("FNC4 ");
+        } else {
+            int low = c & 0x7F;
+            values[count] = (set == SET_A && low < 32 ? low + 64 : low - 32);
+            infoSpace(values[count]);
+        }
+
+        position++;
+        return count + 1;
+    }
+
+    private int chooseNextState() {
+        int next = state;
+        int best = switchCost(state, state) + stepCost(position, state);
+        for (int candidate : STATE_PREFERENCE) {
+            int cost = switchCost(state, candidate) + stepCost(position, candidate);
+            if (cost < best) {
+                best = cost;
+                next = candidate;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Writes the symbol characters needed to move to the specified state, and moves to it. Extended mode can
+     * only be latched in code sets A and B.
+     */
+    private int encodeSwitch(int to, int[] values, int count) {
+        boolean toggleExtended = (state & 1) != (to & 1);
+        if (toggleExtended && state != STATE_C) {
+            count = encodeDoubleFnc4(state >> 1, values, count);
+        }
+        if ((state >> 1) != (to >> 1)) {
+            switch (to >> 1) {
+                case SET_A:
+                    values[count++] = 101;
+                    info("CODEA ");
+                    break;
+                case SET_B:
+                    values[count++] = 100;
+                    info("CODEB ");
+                    break;
+                default:
+                    values[count++] = 99;
+                    info("CODEC ");
+                    break;
+            }
+        }
+        if (toggleExtended && state == STATE_C) {
+            count = encodeDoubleFnc4(to >> 1, values, count);
+        }
+        state = to;
+        return count;
+    }
+
+    private int encodeDoubleFnc4(int set, int[] values, int count) {
+        int fnc4 = (set == SET_A ? 101 : 100);
+        values[count++] = fnc4;
+        values[count++] = fnc4;
+        info("FNC4 FNC4 ");
+        return count;
+    }
+
+    /**
+     * Returns the number of symbol characters needed to encode the data from the specified position onwards,
+     * if the character at that position is encoded in the specified state and the encoder stays in that state
+     * afterwards.
+     */
+    private int stepCost(int i, int state) {
+        int characterLength = getCharacterLength(i, state);
+        if (characterLength == UNREACHABLE) {
+            return UNREACHABLE;
+        }
+        int next = (state == STATE_C && data[i] != FNC1 ? i + 2 : i + 1);
+        return characterLength + costs[(next * STATES) + state];
+    }
+
+    /**
+     * Returns the number of symbol characters needed to encode the specified character in code set A or B,
+     * including any FNC4 shift, or <code>0</code> if the code set cannot encode the character.
+     */
+    private static int characterCost(int c, int set, boolean extended) {
+        if (c == FNC1 || c == FNC2 || c == FNC3 || c == FNC4) {
+            return 1;
+        }
+        int low = c & 0x7F;
+        if (set == SET_A ? low >= 96 : low < 32) {
+            return 0;
+        }
+        return (c >= 128) == extended ? 1 : 2;
+    }
+
+    /**
+     * Returns the number of symbol characters needed to move from one state to another: one code set character
+     * to change code sets, and two FNC4 characters to latch into or out of extended mode.
+     */
+    private int switchCost(int from, int to) {
+        boolean toggleExtended = (from & 1) != (to & 1);
+        if (toggleExtended && !extendedLatch) {
+            return UNREACHABLE;
+        }
+        return ((from >> 1) != (to >> 1) ? 1 : 0) + (toggleExtended ? 2 : 0);
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private void info(String s) {
+        if (info != null) {
+            info.append(s);
+        }
+    }
+
+    private void infoSpace(int i) {
+        if (info != null) {
+            info.append(i).append(' ');
+        }
+    }
+}
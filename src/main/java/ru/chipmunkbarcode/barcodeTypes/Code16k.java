@@ -5,6 +5,11 @@ import ru.chipmunkbarcode.exceptions.BarcodeException;
 import java.awt.geom.Rectangle2D;
 import java.nio.charset.StandardCharsets;
 
+import static ru.chipmunkbarcode.barcodeTypes.Code128Encoder.STATE_A;
+import static ru.chipmunkbarcode.barcodeTypes.Code128Encoder.STATE_B;
+import static ru.chipmunkbarcode.barcodeTypes.Code128Encoder.STATE_C;
+import static ru.chipmunkbarcode.barcodeTypes.Code128Encoder.UNREACHABLE;
+
 /**
  * <p>Implements Code 16K symbology according to BS EN 12323:2005.
  *
@@ -14,10 +19,6 @@ import java.nio.charset.StandardCharsets;
  */
 public class Code16k extends Symbol {
 
-    private enum Mode {
-        NULL, SHIFTA, LATCHA, SHIFTB, LATCHB, SHIFTC, LATCHC, AORB, ABORC, CANDB, CANDBB
-    }
-
     /* EN 12323 Table 1 - "Code 16K" character encodations */
     private static final String[] C16K_TABLE = {
             "212222", "222122", "222221", "121223", "121322", "131222", "122213",
@@ -51,9 +52,11 @@ public class Code16k extends Symbol {
             0, 1, 2, 3, 4, 5, 6, 7, 4, 5, 6, 7, 0, 1, 2, 3
     };
 
-    private Mode[] block_mode = new Mode[170]; /* RENAME block_mode */
-    private int[] block_length = new int[170]; /* RENAME block_length */
-    private int block_count;
+    /** The maximum number of rows in a symbol, each of which holds five symbol characters. */
+    private static final int MAX_ROWS = 16;
+
+    /** The order in which start modes are tried when more than one mode gives a symbol of the same size. */
+    private static final int[] START_MODE_PREFERENCE = { 1, 0, 2, 3, 4, 5, 6 };
 
     @Override
     protected boolean gs1Supported() {
@@ -63,439 +66,85 @@ public class Code16k extends Symbol {
     @Override
     protected void encode() {
 
-        // TODO: is it possible to share any of this code with Code128, which is more up to date?
-
         String width_pattern;
         int current_row, rows_needed, first_check, second_check;
-        int indexchaine, pads_needed;
-        char[] set, fset;
-        Mode mode;
-        char last_set, current_set;
-        int i, j, k, m, read;
-        int[] values;
-        int bar_characters;
-        double glyph_count;
+        int i;
         int first_sum, second_sum;
-        int input_length;
-        int c_count;
-        boolean f_state;
 
         if (!content.matches("[\u0000-\u00FF]+")) {
             throw new BarcodeException("Invalid characters in input data");
         }
 
-        inputData = toBytes(content, StandardCharsets.ISO_8859_1);
-        input_length = inputData.length;
-
-        bar_characters = 0;
-        set = new char[160];
-        fset = new char[160];
-        values = new int[160];
-
-        if (input_length > 157) {
-            throw new BarcodeException("Input too long");
-        }
-
-        /* Detect extended ASCII characters */
-        for (i = 0; i < input_length; i++) {
-            if (inputData[i] >= 128) {
-                fset[i] = 'f';
-            } else {
-                fset[i] = ' ';
-            }
-        }
-
-        /* Decide when to latch to extended mode */
-        for (i = 0; i < input_length; i++) {
-            j = 0;
-            if (fset[i] == 'f') {
-                do {
-                    j++;
-                } while (fset[i + j] == 'f');
-                if ((j >= 5) || ((j >= 3) && ((i + j) == (input_length - 1)))) {
-                    for (k = 0; k <= j; k++) {
-                        fset[i + k] = 'F';
-                    }
-                }
-            }
+        if (readerInit && inputDataType == DataType.GS1) {
+            throw new BarcodeException("Cannot use both GS1 mode and Reader Initialisation");
         }
 
-        /* Decide if it is worth reverting to 646 encodation for a few characters */
-        if (input_length > 1) {
-            for (i = 1; i < input_length; i++) {
-                if ((fset[i - 1] == 'F') && (fset[i] == ' ')) {
-                    /* Detected a change from 8859-1 to 646 - count how long for */
-                    for (j = 0;
-                         (fset[i + j] == ' ') && ((i + j) < input_length); j++);
-                    if ((j < 5) || ((j < 3) && ((i + j) == (input_length - 1)))) {
-                        /* Change to shifting back rather than latching back */
-                        for (k = 0; k < j; k++) {
-                            fset[i + k] = 'n';
-                        }
-                    }
-                }
-            }
-        }
-
-        /* Detect mode A, B and C characters */
-        block_count = 0;
-        indexchaine = 0;
-
-        mode = findSubset(inputData[indexchaine]);
-        if (inputData[indexchaine] == FNC1) {
-            mode = Mode.ABORC;
-        } /* FNC1 */
-
-        for (i = 0; i < 160; i++) {
-            block_length[i] = 0;
-        }
-
-        do {
-            block_mode[block_count] = mode;
-            while ((block_mode[block_count] == mode) && (indexchaine < input_length)) {
-                block_length[block_count]++;
-                indexchaine++;
-                if (indexchaine < input_length) {
-                    mode = findSubset(inputData[indexchaine]);
-                    if (inputData[indexchaine] == FNC1) {
-                        mode = Mode.ABORC;
-                    } /* FNC1 */
-                }
-            }
-            block_count++;
-        } while (indexchaine < input_length);
-
-        reduceSubsetChanges(block_count);
-
-
-        /* Put set data into set[] */
-        read = 0;
-        for (i = 0; i < block_count; i++) {
-            for (j = 0; j < block_length[i]; j++) {
-                switch (block_mode[i]) {
-                    case SHIFTA:
-                        set[read] = 'a';
-                        break;
-                    case LATCHA:
-                        set[read] = 'A';
-                        break;
-                    case SHIFTB:
-                        set[read] = 'b';
-                        break;
-                    case LATCHB:
-                        set[read] = 'B';
-                        break;
-                    case LATCHC:
-                        set[read] = 'C';
-                        break;
-                }
-                read++;
-            }
-        }
-
-        /* Adjust for strings which start with shift characters - make them latch instead */
-        if (set[0] == 'a') {
-            i = 0;
-            do {
-                set[i] = 'A';
-                i++;
-            } while (set[i] == 'a');
-        }
+        inputData = toBytes(content, StandardCharsets.ISO_8859_1);
 
-        if (set[0] == 'b') {
-            i = 0;
-            do {
-                set[i] = 'B';
-                i++;
-            } while (set[i] == 'b');
-        }
+        /* Code set selection is shared with Code 128, which finds the exact cost of each way of starting */
+        Code128Encoder encoder = new Code128Encoder(inputData, inputData.length, true, false);
 
-        /* Watch out for odd-length Mode C blocks */
-        c_count = 0;
-        for (i = 0; i < read; i++) {
-            if (set[i] == 'C') {
-                if (inputData[i] == FNC1) {
-                    if ((c_count & 1) != 0) {
-                        if ((i - c_count) != 0) {
-                            set[i - c_count] = 'B';
-                        } else {
-                            set[i - 1] = 'B';
-                        }
-                    }
-                    c_count = 0;
-                } else {
-                    c_count++;
-                }
-            } else {
-                if ((c_count & 1) != 0) {
-                    if ((i - c_count) != 0) {
-                        set[i - c_count] = 'B';
-                    } else {
-                        set[i - 1] = 'B';
-                    }
-                }
-                c_count = 0;
-            }
-        }
-        if ((c_count & 1) != 0) {
-            if ((i - c_count) != 0) {
-                set[i - c_count] = 'B';
-            } else {
-                set[i - 1] = 'B';
-            }
-        }
-        for (i = 1; i < read - 1; i++) {
-            if ((set[i] == 'C') && ((set[i - 1] == 'B') && (set[i + 1] == 'B'))) {
-                set[i] = 'B';
+        int m = 0;
+        int bar_characters = UNREACHABLE;
+        for (int mode : START_MODE_PREFERENCE) {
+            int cost = startCost(encoder, mode);
+            if (cost < bar_characters) {
+                bar_characters = cost;
+                m = mode;
             }
         }
 
-        /* Make sure the data will fit in the symbol */
-        last_set = ' ';
-        glyph_count = 0.0;
-        for (i = 0; i < input_length; i++) {
-            if ((set[i] == 'a') || (set[i] == 'b')) {
-                glyph_count = glyph_count + 1.0;
-            }
-            if ((fset[i] == 'f') || (fset[i] == 'n')) {
-                glyph_count = glyph_count + 1.0;
-            }
-            if (((set[i] == 'A') || (set[i] == 'B')) || (set[i] == 'C')) {
-                if (set[i] != last_set) {
-                    last_set = set[i];
-                    glyph_count = glyph_count + 1.0;
-                }
-            }
-            if (i == 0) {
-                if ((set[i] == 'B') && (set[1] == 'C')) {
-                    glyph_count = glyph_count - 1.0;
-                }
-                if ((set[i] == 'B') && (set[1] == 'B') && set[2] == 'C') {
-                    glyph_count = glyph_count - 1.0;
-                }
-                if (fset[i] == 'F') {
-                    glyph_count = glyph_count + 2.0;
-                }
-            } else {
-                if ((fset[i] == 'F') && (fset[i - 1] != 'F')) {
-                    glyph_count = glyph_count + 2.0;
-                }
-                if ((fset[i] != 'F') && (fset[i - 1] == 'F')) {
-                    glyph_count = glyph_count + 2.0;
-                }
-            }
-
-            if ((set[i] == 'C') && (inputData[i] != FNC1)) {
-                glyph_count = glyph_count + 0.5;
-            } else {
-                glyph_count = glyph_count + 1.0;
-            }
+        /* Calculate how tall the symbol will be, leaving room for the two check characters */
+        rows_needed = Math.max(2, (bar_characters + 2 + 4) / 5);
+        if (rows_needed > MAX_ROWS) {
+            throw new BarcodeException("Input too long");
         }
 
-        if ((inputDataType == DataType.GS1) && (set[0] != 'A')) {
-            /* FNC1 can be integrated with mode character */
-            glyph_count--;
-        }
+        int[] values = new int[rows_needed * 5];
 
-        if (glyph_count > 77.0) {
-            throw new BarcodeException("Input too long");
-        }
+        /* Start with the mode character - Table 2, see 4.3.4.2 */
+        values[0] = (7 * (rows_needed - 2)) + m;
+        bar_characters = 1;
 
-        /* Calculate how tall the symbol will be */
-        glyph_count = glyph_count + 2.0;
-        i = (int) glyph_count;
-        rows_needed = (i / 5);
-        if (i % 5 > 0) {
-            rows_needed++;
+        int shifts = startShifts(m);
+        if (readerInit) {
+            /* FNC3 takes the place of the first implied shift in modes 5 and 6 */
+            values[bar_characters++] = 96;
         }
-
-        if (rows_needed == 1) {
-            rows_needed = 2;
+        if (inputDataType == DataType.GS1 && m == 0) {
+            /* FNC1 can only be integrated with the mode character in code sets B and C */
+            values[bar_characters++] = 102;
         }
 
-        /* start with the mode character - Table 2 */
-        m = 0;
-        switch (set[0]) {
-            case 'A':
-                m = 0;
+        switch (m) {
+            case 0:
+                encoder.reset(0, STATE_A);
                 break;
-            case 'B':
-                m = 1;
+            case 1:
+            case 3:
+                encoder.reset(0, STATE_B);
                 break;
-            case 'C':
-                m = 2;
+            case 2:
+            case 4:
+                encoder.reset(0, STATE_C);
                 break;
-        }
-
-        if(readerInit) {
-            if(m == 2) { m = 5; }
-            if (inputDataType == DataType.GS1) {
-                throw new BarcodeException("Cannot use both GS1 mode and Reader Initialisation");
-            } else {
-                if((set[0] == 'B') && (set[1] == 'C')) { m = 6; }
-            }
-            values[bar_characters] = (7 * (rows_needed - 2)) + m; /* see 4.3.4.2 */
-            values[bar_characters + 1] = 96; /* FNC3 */
-            bar_characters += 2;
-        } else {
-            if (inputDataType == DataType.GS1) {
-                /* Integrate FNC1 */
-                switch (set[0]) {
-                    case 'B':
-                        m = 3;
-                        break;
-                    case 'C':
-                        m = 4;
-                        break;
-                }
-            } else {
-                if ((set[0] == 'B') && (set[1] == 'C')) {
-                    m = 5;
+            default:
+                /* Modes 5 and 6 encode the first one or two characters in code set B before code set C */
+                encoder.reset(0, STATE_B);
+                for (i = 0; i < shifts; i++) {
+                    bar_characters = encoder.encodeCharacter(values, bar_characters);
                 }
-                if (((set[0] == 'B') && (set[1] == 'B')) && (set[2] == 'C')) {
-                    m = 6;
-                }
-            }
-        }
-        values[bar_characters] = (7 * (rows_needed - 2)) + m; /* see 4.3.4.2 */
-        bar_characters++;
-        //}
-        current_set = set[0];
-        f_state = false;
-        /* f_state remembers if we are in Extended ASCII mode (value 1) or
-	in ISO/IEC 646 mode (value 0) */
-        if (fset[0] == 'F') {
-            switch (current_set) {
-                case 'A':
-                    values[bar_characters] = 101;
-                    values[bar_characters + 1] = 101;
-                    break;
-                case 'B':
-                    values[bar_characters] = 100;
-                    values[bar_characters + 1] = 100;
-                    break;
-            }
-            bar_characters += 2;
-            f_state = true;
+                encoder.reset(shifts, STATE_C);
+                break;
         }
 
-        read = 0;
-
         /* Encode the data */
-        do {
-
-            if ((read != 0) && (set[read] != set[read - 1])) { /* Latch different code set */
-                switch (set[read]) {
-                    case 'A':
-                        values[bar_characters] = 101;
-                        bar_characters++;
-                        current_set = 'A';
-                        break;
-                    case 'B':
-                        values[bar_characters] = 100;
-                        bar_characters++;
-                        current_set = 'B';
-                        break;
-                    case 'C':
-                        if (!((read == 1) && (set[0] == 'B'))) { /* Not Mode C/Shift B */
-                            if (!((read == 2) && ((set[0] == 'B') && (set[1] == 'B')))) {
-                                /* Not Mode C/Double Shift B */
-                                values[bar_characters] = 99;
-                                bar_characters++;
-                            }
-                        }
-                        current_set = 'C';
-                        break;
-                }
-            }
-            if (read != 0) {
-                if ((fset[read] == 'F') && !f_state) {
-                    /* Latch beginning of extended mode */
-                    switch (current_set) {
-                        case 'A':
-                            values[bar_characters] = 101;
-                            values[bar_characters + 1] = 101;
-                            break;
-                        case 'B':
-                            values[bar_characters] = 100;
-                            values[bar_characters + 1] = 100;
-                            break;
-                    }
-                    bar_characters += 2;
-                    f_state = true;
-                }
-                if ((fset[read] == ' ') && f_state) {
-                    /* Latch end of extended mode */
-                    switch (current_set) {
-                        case 'A':
-                            values[bar_characters] = 101;
-                            values[bar_characters + 1] = 101;
-                            break;
-                        case 'B':
-                            values[bar_characters] = 100;
-                            values[bar_characters + 1] = 100;
-                            break;
-                    }
-                    bar_characters += 2;
-                    f_state = false;
-                }
-            }
-
-            if ((fset[i] == 'f') || (fset[i] == 'n')) {
-                /* Shift extended mode */
-                switch (current_set) {
-                    case 'A':
-                        values[bar_characters] = 101; /* FNC 4 */
-                        break;
-                    case 'B':
-                        values[bar_characters] = 100; /* FNC 4 */
-                        break;
-                }
-                bar_characters++;
-            }
-
-            if ((set[i] == 'a') || (set[i] == 'b')) {
-                /* Insert shift character */
-                values[bar_characters] = 98;
-                bar_characters++;
-            }
-
-            if (inputData[read] != FNC1) {
-                switch (set[read]) { /* Encode data characters */
-                    case 'A':
-                    case 'a':
-                        getValueSubsetA(inputData[read], values, bar_characters);
-                        bar_characters++;
-                        read++;
-                        break;
-                    case 'B':
-                    case 'b':
-                        getValueSubsetB(inputData[read], values, bar_characters);
-                        bar_characters++;
-                        read++;
-                        break;
-                    case 'C':
-                        getValueSubsetC(inputData[read], inputData[read + 1], values, bar_characters);
-                        bar_characters++;
-                        read += 2;
-                        break;
-                }
-            } else {
-                values[bar_characters] = 102;
-                bar_characters++;
-                read++;
-            }
-
-        } while (read < input_length);
-
-        pads_needed = 5 - ((bar_characters + 2) % 5);
-        if (pads_needed == 5) {
-            pads_needed = 0;
+        while (!encoder.isDone()) {
+            bar_characters = encoder.encodeNextStep(values, bar_characters);
         }
-        if ((bar_characters + pads_needed) < 8) {
-            pads_needed += 8 - (bar_characters + pads_needed);
-        }
-        for (i = 0; i < pads_needed; i++) {
+
+        /* Pad the last row, leaving room for the check characters */
+        while (bar_characters < values.length - 2) {
             values[bar_characters] = 106;
             bar_characters++;
         }
@@ -512,7 +161,6 @@ public class Code16k extends Symbol {
         second_check = second_sum % 107;
         values[bar_characters] = first_check;
         values[bar_characters + 1] = second_check;
-        bar_characters += 2;
 
         readable = "";
         pattern = new String[rows_needed];
@@ -541,182 +189,57 @@ public class Code16k extends Symbol {
         infoLine();
     }
 
-    private void getValueSubsetA(int source, int[] values, int bar_chars) {
-        if (source > 127) {
-            if (source < 160) {
-                values[bar_chars] = source + 64 - 128;
-            } else {
-                values[bar_chars] = source - 32 - 128;
-            }
-        } else {
-            if (source < 32) {
-                values[bar_chars] = source + 64;
-            } else {
-                values[bar_chars] = source - 32;
-            }
-        }
-    }
-
-    private void getValueSubsetB(int source, int[] values, int bar_chars) {
-        if (source > 127) {
-            values[bar_chars] = source - 32 - 128;
-        } else {
-            values[bar_chars] = source - 32;
-        }
-    }
-
-    private void getValueSubsetC(int source_a, int source_b, int[] values, int bar_chars) {
-        int weight;
-
-        weight = (10 * Character.getNumericValue(source_a)) + Character.getNumericValue(source_b);
-        values[bar_chars] = weight;
-    }
-
-    private Mode findSubset(int letter) {
-        Mode mode;
-
-        if (letter <= 31) {
-            mode = Mode.SHIFTA;
-        } else if ((letter >= 48) && (letter <= 57)) {
-            mode = Mode.ABORC;
-        } else if (letter <= 95) {
-            mode = Mode.AORB;
-        } else if (letter <= 127) {
-            mode = Mode.SHIFTB;
-        } else if (letter <= 159) {
-            mode = Mode.SHIFTA;
-        } else if (letter <= 223) {
-            mode = Mode.AORB;
-        } else {
-            mode = Mode.SHIFTB;
-        }
-
-        return mode;
-    }
-
-    private void reduceSubsetChanges(int block_count) { /* Implements rules from ISO 15417 Annex E */
-        int i, length;
-        Mode current, last, next;
-
-        for (i = 0; i < block_count; i++) {
-            current = block_mode[i];
-            length = block_length[i];
-            if (i != 0) {
-                last = block_mode[i - 1];
-            } else {
-                last = Mode.NULL;
-            }
-            if (i != block_count - 1) {
-                next = block_mode[i + 1];
-            } else {
-                next = Mode.NULL;
-            }
-
-            if (i == 0) { /* first block */
-                if ((block_count == 1) && ((length == 2) && (current == Mode.ABORC))) { /* Rule 1a */
-                    block_mode[i] = Mode.LATCHC;
-                }
-                if (current == Mode.ABORC) {
-                    if (length >= 4) { /* Rule 1b */
-                        block_mode[i] = Mode.LATCHC;
-                    } else {
-                        block_mode[i] = Mode.AORB;
-                        current = Mode.AORB;
+    /**
+     * Returns the number of symbol characters needed to encode the data (including the mode character, but not
+     * the check characters or any padding), if the symbol starts with the specified mode from Table 2:
+     * 0 = code set A, 1 = code set B, 2 = code set C, 3 = code set B with implied FNC1, 4 = code set C with
+     * implied FNC1, 5 = code set C with implied shift B, 6 = code set C with implied double shift B.
+     */
+    private int startCost(Code128Encoder encoder, int mode) {
+        boolean gs1 = inputDataType == DataType.GS1;
+        int extra = (readerInit ? 1 : 0);
+        switch (mode) {
+            case 0:
+                return 1 + extra + (gs1 ? 1 : 0) + encoder.getCost(0, STATE_A);
+            case 1:
+            case 2:
+                if (gs1 || (readerInit && mode == 2)) {
+                    return UNREACHABLE;
+                }
+                return 1 + extra + encoder.getCost(0, mode == 1 ? STATE_B : STATE_C);
+            case 3:
+            case 4:
+                if (!gs1) {
+                    return UNREACHABLE;
+                }
+                return 1 + encoder.getCost(0, mode == 3 ? STATE_B : STATE_C);
+            default:
+                if (gs1) {
+                    return UNREACHABLE;
+                }
+                int shifts = startShifts(mode);
+                if (shifts > inputData.length) {
+                    return UNREACHABLE;
+                }
+                for (int i = 0; i < shifts; i++) {
+                    if (encoder.getCharacterLength(i, STATE_B) != 1) {
+                        return UNREACHABLE;
                     }
                 }
-                if (current == Mode.SHIFTA) { /* Rule 1c */
-                    block_mode[i] = Mode.LATCHA;
-                }
-                if ((current == Mode.AORB) && (next == Mode.SHIFTA)) { /* Rule 1c */
-                    block_mode[i] = Mode.LATCHA;
-                    current = Mode.LATCHA;
-                }
-                if (current == Mode.AORB) { /* Rule 1d */
-                    block_mode[i] = Mode.LATCHB;
-                }
-            } else {
-                if ((current == Mode.ABORC) && (length >= 4)) { /* Rule 3 */
-                    block_mode[i] = Mode.LATCHC;
-                    current = Mode.LATCHC;
-                }
-                if (current == Mode.ABORC) {
-                    block_mode[i] = Mode.AORB;
-                    current = Mode.AORB;
-                }
-                if ((current == Mode.AORB) && (last == Mode.LATCHA)) {
-                    block_mode[i] = Mode.LATCHA;
-                    current = Mode.LATCHA;
-                }
-                if ((current == Mode.AORB) && (last == Mode.LATCHB)) {
-                    block_mode[i] = Mode.LATCHB;
-                    current = Mode.LATCHB;
-                }
-                if ((current == Mode.AORB) && (next == Mode.SHIFTA)) {
-                    block_mode[i] = Mode.LATCHA;
-                    current = Mode.LATCHA;
-                }
-                if ((current == Mode.AORB) && (next == Mode.SHIFTB)) {
-                    block_mode[i] = Mode.LATCHB;
-                    current = Mode.LATCHB;
-                }
-                if (current == Mode.AORB) {
-                    block_mode[i] = Mode.LATCHB;
-                    current = Mode.LATCHB;
-                }
-                if ((current == Mode.SHIFTA) && (length > 1)) { /* Rule 4 */
-                    block_mode[i] = Mode.LATCHA;
-                    current = Mode.LATCHA;
-                }
-                if ((current == Mode.SHIFTB) && (length > 1)) { /* Rule 5 */
-                    block_mode[i] = Mode.LATCHB;
-                    current = Mode.LATCHB;
-                }
-                if ((current == Mode.SHIFTA) && (last == Mode.LATCHA)) {
-                    block_mode[i] = Mode.LATCHA;
-                    current = Mode.LATCHA;
-                }
-                if ((current == Mode.SHIFTB) && (last == Mode.LATCHB)) {
-                    block_mode[i] = Mode.LATCHB;
-                    current = Mode.LATCHB;
-                }
-                if ((current == Mode.SHIFTA) && (last == Mode.LATCHC)) {
-                    block_mode[i] = Mode.LATCHA;
-                    current = Mode.LATCHA;
-                }
-                if ((current == Mode.SHIFTB) && (last == Mode.LATCHC)) {
-                    block_mode[i] = Mode.LATCHB;
-                    current = Mode.LATCHB;
-                }
-            } /* Rule 2 is implimented elsewhere, Rule 6 is implied */
+                return 1 + extra + shifts + encoder.getCost(shifts, STATE_C);
         }
-        combineSubsetBlocks(block_count);
-
     }
 
-    private void combineSubsetBlocks(int block_count) {
-        int i, j;
-
-        /* bring together same type blocks */
-        if (block_count > 1) {
-            i = 1;
-            while (i < block_count) {
-                if (block_mode[i - 1] == block_mode[i]) {
-                    /* bring together */
-                    block_length[i - 1] = block_length[i - 1] + block_length[i];
-                    j = i + 1;
-
-                    /* decreace the list */
-                    while (j < block_count) {
-                        block_length[j - 1] = block_length[j];
-                        block_mode[j - 1] = block_mode[j];
-                        j++;
-                    }
-                    block_count = block_count - 1;
-                    i--;
-                }
-                i++;
-            }
+    /**
+     * Returns the number of data characters which the specified start mode encodes in code set B, before code
+     * set C: modes 5 and 6 imply one and two shifts, but in Reader Initialisation mode the first of these is
+     * taken by FNC3.
+     */
+    private int startShifts(int mode) {
+        if (mode < 5) {
+            return 0;
         }
+        return (mode - 4) - (readerInit ? 1 : 0);
     }
 
     @Override
@@ -2,7 +2,6 @@ package ru.chipmunkbarcode.barcodeTypes;
 
 import ru.chipmunkbarcode.exceptions.BarcodeException;
 
-import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -59,6 +58,27 @@ public class CodeOne extends Symbol {
             33, 34, 35, 36, 37, 38, 39, 27, 28, 29, 30, 31
     };
 
+    /*
+     * Look-ahead test costs of each character in C40, Text and EDI encodation (Steps M, N and O), in sixths of
+     * a codeword. Indexed by character value + 1, so that FNC1 is at index 0.
+     */
+    private static final int[] C40_COST = new int[257];
+    private static final int[] TEXT_COST = new int[257];
+    private static final int[] EDI_COST = new int[257];
+
+    static {
+        for (int c = FNC1; c <= 255; c++) {
+            int reduced = (c <= 127 ? c : c - 127);
+            boolean c40Basic = reduced == ' ' || (reduced >= '0' && reduced <= '9') || (reduced >= 'A' && reduced <= 'Z');
+            boolean textBasic = reduced == ' ' || (reduced >= '0' && reduced <= '9') || (reduced >= 'a' && reduced <= 'z');
+            boolean edi = c == 13 || c == '*' || c == '>' || c == ' ' || (c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z');
+            int upperShift = (c > 127 ? 8 : 0);
+            C40_COST[c + 1] = (c40Basic ? 4 : 8) + upperShift;
+            TEXT_COST[c + 1] = (textBasic ? 4 : 8) + upperShift;
+            EDI_COST[c + 1] = (c > 127 ? 26 : (edi ? 4 : 20));
+        }
+    }
+
     private static final int[] C1_HEIGHT = {
             16, 22, 28, 40, 52, 70, 104, 148
     };
@@ -94,6 +114,8 @@ public class CodeOne extends Symbol {
     private Version preferredVersion = Version.NONE;
 
     private int[] data = new int[1500];
+    private int[] digitRun;
+    private int[] ediRun;
     private int[][] datagrid = new int[136][120];
     private boolean[][] outputGrid = new boolean[148][134];
 
@@ -170,12 +192,10 @@ public class CodeOne extends Symbol {
                 block_width = 2;
             } /* Version S-10 */
 
-            BigInteger elreg = new BigInteger(content);
+            long elreg = Long.parseLong(content);
 
             for (i = 0; i < codewords; i++) {
-                BigInteger codewordValue = elreg.shiftRight(5 * i);
-                codewordValue = codewordValue.and(BigInteger.valueOf(0b11111));
-                data[codewords - i - 1] = codewordValue.intValue();
+                data[codewords - i - 1] = (int) ((elreg >>> (5 * i)) & 0b11111);
             }
 
             logCodewords(codewords);
@@ -734,9 +754,8 @@ public class CodeOne extends Symbol {
 
     private int encodeAsCode1Data() {
         Mode current_mode, next_mode;
-        boolean latch;
         boolean done;
-        int sourcePoint, targetPoint, i, j;
+        int sourcePoint, targetPoint, i;
         int c40_p;
         int text_p;
         int edi_p;
@@ -755,6 +774,18 @@ public class CodeOne extends Symbol {
         inputData = toBytes(content, StandardCharsets.ISO_8859_1);
         length = inputData.length;
 
+        /* Find the runs of digits and of EDI characters once, rather than rescanning them at each step */
+        digitRun = new int[length + 1];
+        ediRun = new int[length + 1];
+        for (i = length - 1; i >= 0; i--) {
+            if ((inputData[i] >= '0') && (inputData[i] <= '9')) {
+                digitRun[i] = digitRun[i + 1] + 1;
+            }
+            if (isEdiEncodable(inputData[i])) {
+                ediRun[i] = ediRun[i + 1] + 1;
+            }
+        }
+
         sourcePoint = 0;
         targetPoint = 0;
         c40_p = 0;
@@ -801,44 +832,14 @@ public class CodeOne extends Symbol {
             if (current_mode == Mode.C1_ASCII) { /* Step B - ASCII encodation */
                 next_mode = Mode.C1_ASCII;
 
-                if ((length - sourcePoint) >= 21) { /* Step B1 */
-                    j = 0;
-
-                    for (i = 0; i < 21; i++) {
-                        if ((inputData[sourcePoint + i] >= '0') && (inputData[sourcePoint + i] <= '9')) {
-                            j++;
-                        }
-                    }
-
-                    if (j == 21) {
-                        next_mode = Mode.C1_DECIMAL;
-                        decimal_binary += "1111";
-                    }
+                if (digitRun[sourcePoint] >= 21) { /* Step B1 */
+                    next_mode = Mode.C1_DECIMAL;
+                    decimal_binary += "1111";
                 }
 
-                if ((next_mode == Mode.C1_ASCII) && ((length - sourcePoint) >= 13)) { /* Step B2 */
-                    j = 0;
-
-                    for (i = 0; i < 13; i++) {
-                        if ((inputData[sourcePoint + i] >= '0') && (inputData[sourcePoint + i] <= '9')) {
-                            j++;
-                        }
-                    }
-
-                    if (j == 13) {
-                        latch = false;
-                        for (i = sourcePoint + 13; i < length; i++) {
-                            if (!((inputData[i] >= '0') &&
-                                    (inputData[i] <= '9'))) {
-                                latch = true;
-                            }
-                        }
-
-                        if (!(latch)) {
-                            next_mode = Mode.C1_DECIMAL;
-                            decimal_binary += "1111";
-                        }
-                    }
+                if ((next_mode == Mode.C1_ASCII) && onlyDigitsRemain(sourcePoint, 13)) { /* Step B2 */
+                    next_mode = Mode.C1_DECIMAL;
+                    decimal_binary += "1111";
                 }
 
                 if (next_mode == Mode.C1_ASCII) { /* Step B3 */
@@ -858,50 +859,12 @@ public class CodeOne extends Symbol {
 
                     if (!(isTwoDigits)) {
                         if (inputData[sourcePoint] == FNC1) {
-                            if ((length - sourcePoint) >= 15) { /* Step B4 */
-                                j = 0;
-
-                                for (i = 0; i < 15; i++) {
-                                    if ((inputData[sourcePoint + i] >= '0')
-                                            && (inputData[sourcePoint + i] <= '9')) {
-                                        j++;
-                                    }
-                                }
-
-                                if (j == 15) {
-                                    data[targetPoint] = 236; /* FNC1 and change to Decimal */
-                                    targetPoint++;
-                                    sourcePoint++;
-                                    next_mode = Mode.C1_DECIMAL;
-                                }
-                            }
-
-                            if ((length - sourcePoint) >= 7) { /* Step B5 */
-                                j = 0;
-
-                                for (i = 0; i < 7; i++) {
-                                    if ((inputData[sourcePoint + i] >= '0')
-                                            && (inputData[sourcePoint + i] <= '9')) {
-                                        j++;
-                                    }
-                                }
-
-                                if (j == 7) {
-                                    latch = false;
-                                    for (i = sourcePoint + 7; i < length; i++) {
-                                        if (!((inputData[sourcePoint + i] >= '0')
-                                                && (inputData[sourcePoint + i] <= '9'))) {
-                                            latch = true;
-                                        }
-                                    }
-
-                                    if (!(latch)) {
-                                        data[targetPoint] = 236; /* FNC1 and change to Decimal */
-                                        targetPoint++;
-                                        sourcePoint++;
-                                        next_mode = Mode.C1_DECIMAL;
-                                    }
-                                }
+                            /* Steps B4 and B5, applied to the digits which follow the FNC1 */
+                            if (digitRun[sourcePoint + 1] >= 15 || onlyDigitsRemain(sourcePoint + 1, 7)) {
+                                data[targetPoint] = 236; /* FNC1 and change to Decimal */
+                                targetPoint++;
+                                sourcePoint++;
+                                next_mode = Mode.C1_DECIMAL;
                             }
                         }
 
@@ -910,6 +873,11 @@ public class CodeOne extends Symbol {
                             /* Step B6 */
                             next_mode = lookAheadTest(length, sourcePoint, current_mode);
 
+                            if (next_mode == Mode.C1_BYTE && inputData[sourcePoint] == FNC1) {
+                                /* FNC1 cannot be encoded in Byte mode, so encode it here before latching */
+                                next_mode = Mode.C1_ASCII;
+                            }
+
                             if (next_mode == Mode.C1_ASCII) {
                                 if (inputData[sourcePoint] > 127) {
                                     /* Step B7 */
@@ -940,47 +908,9 @@ public class CodeOne extends Symbol {
                 done = false;
                 next_mode = Mode.C1_C40;
                 if (c40_p == 0) {
-                    if ((length - sourcePoint) >= 12) {
-                        j = 0;
-
-                        for (i = 0; i < 12; i++) {
-                            if ((inputData[sourcePoint + i] >= '0')
-                                    && (inputData[sourcePoint + i] <= '9')) {
-                                j++;
-                            }
-                        }
-
-                        if (j == 12) {
-                            next_mode = Mode.C1_ASCII;
-                            done = true;
-                        }
-                    }
-
-                    if ((length - sourcePoint) >= 8) {
-                        j = 0;
-
-                        for (i = 0; i < 8; i++) {
-                            if ((inputData[sourcePoint + i] >= '0')
-                                    && (inputData[sourcePoint + i] <= '9')) {
-                                j++;
-                            }
-                        }
-
-                        if ((length - sourcePoint) == 8) {
-                            latch = true;
-                        } else {
-                            latch = true;
-                            for (j = sourcePoint + 8; j < length; j++) {
-                                if ((inputData[j] <= '0') || (inputData[j] >= '9')) {
-                                    latch = false;
-                                }
-                            }
-                        }
-
-                        if ((j == 8) && latch) {
-                            next_mode = Mode.C1_ASCII;
-                            done = true;
-                        }
+                    if (digitRun[sourcePoint] >= 12 || onlyDigitsRemain(sourcePoint, 8)) {
+                        next_mode = Mode.C1_ASCII;
+                        done = true;
                     }
 
                     if (!(done)) {
@@ -992,7 +922,10 @@ public class CodeOne extends Symbol {
                     data[targetPoint] = 255;
                     targetPoint++; /* Unlatch */
                 } else {
-                    if (inputData[sourcePoint] > 127) {
+                    if (inputData[sourcePoint] == FNC1) {
+                        shift_set = 2;
+                        value = 27; /* FNC1 */
+                    } else if (inputData[sourcePoint] > 127) {
                         c40_buffer[c40_p] = 1;
                         c40_p++;
                         c40_buffer[c40_p] = 30;
@@ -1004,11 +937,6 @@ public class CodeOne extends Symbol {
                         value = C40_VALUE[inputData[sourcePoint]];
                     }
 
-                    if (inputData[sourcePoint] == FNC1) {
-                        shift_set = 2;
-                        value = 27; /* FNC1 */
-                    }
-
                     if (shift_set != 0) {
                         c40_buffer[c40_p] = shift_set - 1;
                         c40_p++;
@@ -1016,7 +944,7 @@ public class CodeOne extends Symbol {
                     c40_buffer[c40_p] = value;
                     c40_p++;
 
-                    if (c40_p >= 3) {
+                    while (c40_p >= 3) {
                         int iv;
 
                         iv = (1600 * c40_buffer[0]) + (40 * c40_buffer[1])
@@ -1042,47 +970,9 @@ public class CodeOne extends Symbol {
                 done = false;
                 next_mode = Mode.C1_TEXT;
                 if (text_p == 0) {
-                    if ((length - sourcePoint) >= 12) {
-                        j = 0;
-
-                        for (i = 0; i < 12; i++) {
-                            if ((inputData[sourcePoint + i] >= '0')
-                                    && (inputData[sourcePoint + i] <= '9')) {
-                                j++;
-                            }
-                        }
-
-                        if (j == 12) {
-                            next_mode = Mode.C1_ASCII;
-                            done = true;
-                        }
-                    }
-
-                    if ((length - sourcePoint) >= 8) {
-                        j = 0;
-
-                        for (i = 0; i < 8; i++) {
-                            if ((inputData[sourcePoint + i] >= '0')
-                                    && (inputData[sourcePoint + i] <= '9')) {
-                                j++;
-                            }
-                        }
-
-                        if ((length - sourcePoint) == 8) {
-                            latch = true;
-                        } else {
-                            latch = true;
-                            for (j = sourcePoint + 8; j < length; j++) {
-                                if ((inputData[j] <= '0') || (inputData[j] >= '9')) {
-                                    latch = false;
-                                }
-                            }
-                        }
-
-                        if ((j == 8) && latch) {
-                            next_mode = Mode.C1_ASCII;
-                            done = true;
-                        }
+                    if (digitRun[sourcePoint] >= 12 || onlyDigitsRemain(sourcePoint, 8)) {
+                        next_mode = Mode.C1_ASCII;
+                        done = true;
                     }
 
                     if (!(done)) {
@@ -1094,7 +984,10 @@ public class CodeOne extends Symbol {
                     data[targetPoint] = 255;
                     targetPoint++; /* Unlatch */
                 } else {
-                    if (inputData[sourcePoint] > 127) {
+                    if (inputData[sourcePoint] == FNC1) {
+                        shift_set = 2;
+                        value = 27; /* FNC1 */
+                    } else if (inputData[sourcePoint] > 127) {
                         text_buffer[text_p] = 1;
                         text_p++;
                         text_buffer[text_p] = 30;
@@ -1106,11 +999,6 @@ public class CodeOne extends Symbol {
                         value = TEXT_VALUE[inputData[sourcePoint]];
                     }
 
-                    if (inputData[sourcePoint] == FNC1) {
-                        shift_set = 2;
-                        value = 27; /* FNC1 */
-                    }
-
                     if (shift_set != 0) {
                         text_buffer[text_p] = shift_set - 1;
                         text_p++;
@@ -1118,7 +1006,7 @@ public class CodeOne extends Symbol {
                     text_buffer[text_p] = value;
                     text_p++;
 
-                    if (text_p >= 3) {
+                    while (text_p >= 3) {
                         int iv;
 
                         iv = (1600 * text_buffer[0]) + (40 * text_buffer[1])
@@ -1145,50 +1033,11 @@ public class CodeOne extends Symbol {
                 value = 0;
                 next_mode = Mode.C1_EDI;
                 if (edi_p == 0) {
-                    if ((length - sourcePoint) >= 12) {
-                        j = 0;
-
-                        for (i = 0; i < 12; i++) {
-                            if ((inputData[sourcePoint + i] >= '0')
-                                    && (inputData[sourcePoint + i] <= '9')) {
-                                j++;
-                            }
-                        }
-
-                        if (j == 12) {
-                            next_mode = Mode.C1_ASCII;
-                        }
-                    }
-
-                    if ((length - sourcePoint) >= 8) {
-                        j = 0;
-
-                        for (i = 0; i < 8; i++) {
-                            if ((inputData[sourcePoint + i] >= '0') &&
-                                    (inputData[sourcePoint + i] <= '9')) {
-                                j++;
-                            }
-                        }
-
-                        if ((length - sourcePoint) == 8) {
-                            latch = true;
-                        } else {
-                            latch = true;
-                            for (j = sourcePoint + 8; j < length; j++) {
-                                if ((inputData[j] <= '0') || (inputData[j] >= '9')) {
-                                    latch = false;
-                                }
-                            }
-                        }
-
-                        if ((j == 8) && latch) {
-                            next_mode = Mode.C1_ASCII;
-                        }
+                    if (digitRun[sourcePoint] >= 12 || onlyDigitsRemain(sourcePoint, 8)) {
+                        next_mode = Mode.C1_ASCII;
                     }
 
-                    if (!((isEdiEncodable(inputData[sourcePoint])
-                            && isEdiEncodable(inputData[sourcePoint + 1]))
-                            && isEdiEncodable(inputData[sourcePoint + 2]))) {
+                    if (ediRun[sourcePoint] < 3) {
                         next_mode = Mode.C1_ASCII;
                     }
                 }
@@ -1272,17 +1121,8 @@ public class CodeOne extends Symbol {
 
                     decimal_binary += "111111"; /* Unlatch */
 
-                    target_count = 3;
-                    if (decimal_binary.length() <= 16) {
-                        target_count = 2;
-                    }
-                    if (decimal_binary.length() <= 8) {
-                        target_count = 1;
-                    }
+                    target_count = (decimal_binary.length() + 7) / 8;
                     bits_left_in_byte = (8 * target_count) - decimal_binary.length();
-                    if (bits_left_in_byte == 8) {
-                        bits_left_in_byte = 0;
-                    }
 
                     if (bits_left_in_byte == 2) {
                         decimal_binary += "01";
@@ -1310,32 +1150,8 @@ public class CodeOne extends Symbol {
                     }
 
                     /* Binary buffer is full - transfer to data */
-                    if (target_count >= 1) {
-                        for (i = 0; i < 8; i++) {
-                            if (decimal_binary.charAt(i) == '1') {
-                                data[targetPoint] += 128 >> i;
-                            }
-                        }
-                        targetPoint++;
-                    }
-                    if (target_count >= 2) {
-                        for (i = 0; i < 8; i++) {
-                            if (decimal_binary.charAt(8 + i) == '1') {
-                                data[targetPoint] += 128 >> i;
-                            }
-
-                        }
-                        targetPoint++;
-                    }
-                    if (target_count == 3) {
-                        for (i = 0; i < 8; i++) {
-                            if (decimal_binary.charAt(16 + i) == '1') {
-                                data[targetPoint] += 128 >> i;
-                            }
-
-                        }
-                        targetPoint++;
-                    }
+                    targetPoint = transferDecimal(decimal_binary, target_count, targetPoint);
+                    decimal_binary = "";
 
                     next_mode = Mode.C1_ASCII;
                 } else {
@@ -1356,25 +1172,8 @@ public class CodeOne extends Symbol {
 
                 if (decimal_binary.length() >= 24) {
                     /* Binary buffer is full - transfer to data */
-                    for (i = 0; i < 8; i++) {
-                        if (decimal_binary.charAt(i) == '1') {
-                            data[targetPoint] += 128 >> i;
-                        }
-
-                        if (decimal_binary.charAt(8 + i) == '1') {
-                            data[targetPoint + 1] += 128 >> i;
-                        }
-
-                        if (decimal_binary.charAt(16 + i) == '1') {
-                            data[targetPoint + 2] += 128 >> i;
-                        }
-
-                    }
-                    targetPoint += 3;
-
-                    if (decimal_binary.length() > 24) {
-                        decimal_binary = decimal_binary.substring(24);
-                    }
+                    targetPoint = transferDecimal(decimal_binary, 3, targetPoint);
+                    decimal_binary = decimal_binary.substring(24);
                 }
             }
 
@@ -1475,22 +1274,13 @@ public class CodeOne extends Symbol {
             targetPoint++; /* Unlatch */
         }
 
-        if (current_mode == Mode.C1_DECIMAL) {
+        if (next_mode == Mode.C1_DECIMAL) {
             /* Finish Decimal mode and go back to ASCII */
 
             decimal_binary += "111111"; /* Unlatch */
 
-            target_count = 3;
-            if (decimal_binary.length() <= 16) {
-                target_count = 2;
-            }
-            if (decimal_binary.length() <= 8) {
-                target_count = 1;
-            }
+            target_count = (decimal_binary.length() + 7) / 8;
             bits_left_in_byte = (8 * target_count) - decimal_binary.length();
-            if (bits_left_in_byte == 8) {
-                bits_left_in_byte = 0;
-            }
 
             if (bits_left_in_byte == 2) {
                 decimal_binary += "01";
@@ -1505,30 +1295,7 @@ public class CodeOne extends Symbol {
             }
 
             /* Binary buffer is full - transfer to data */
-            if (target_count >= 1) {
-                for (i = 0; i < 8; i++) {
-                    if (decimal_binary.charAt(i) == '1') {
-                        data[targetPoint] += 128 >> i;
-                    }
-                }
-                targetPoint++;
-            }
-            if (target_count >= 2) {
-                for (i = 0; i < 8; i++) {
-                    if (decimal_binary.charAt(8 + i) == '1') {
-                        data[targetPoint] += 128 >> i;
-                    }
-                }
-                targetPoint++;
-            }
-            if (target_count == 3) {
-                for (i = 0; i < 8; i++) {
-                    if (decimal_binary.charAt(16 + i) == '1') {
-                        data[targetPoint] += 128 >> i;
-                    }
-                }
-                targetPoint++;
-            }
+            targetPoint = transferDecimal(decimal_binary, target_count, targetPoint);
         }
 
         if (current_mode == Mode.C1_BYTE) {
@@ -1560,170 +1327,92 @@ public class CodeOne extends Symbol {
 
     private Mode lookAheadTest(int sourcelen, int position,
                                Mode current_mode) {
-        double ascii_count, c40_count, text_count, edi_count, byte_count;
-        int reduced_char;
-        int done, best_count, sp;
+        /* All counts are in sixths of a codeword */
+        int ascii_count, c40_count, text_count, edi_count, byte_count;
+        int sp, c;
         Mode best_scheme;
 
         /* Step J */
         if (current_mode == Mode.C1_ASCII) {
-            ascii_count = 0.0;
-            c40_count = 1.0;
-            text_count = 1.0;
-            edi_count = 1.0;
-            byte_count = 2.0;
+            ascii_count = 0;
+            c40_count = 6;
+            text_count = 6;
+            edi_count = 6;
+            byte_count = 12;
         } else {
-            ascii_count = 1.0;
-            c40_count = 2.0;
-            text_count = 2.0;
-            edi_count = 2.0;
-            byte_count = 3.0;
+            ascii_count = 6;
+            c40_count = 12;
+            text_count = 12;
+            edi_count = 12;
+            byte_count = 18;
         }
 
         switch (current_mode) {
             case C1_C40:
-                c40_count = 0.0;
+                c40_count = 0;
                 break;
             case C1_TEXT:
-                text_count = 0.0;
+                text_count = 0;
                 break;
             case C1_BYTE:
-                byte_count = 0.0;
+                byte_count = 0;
                 break;
             case C1_EDI:
-                edi_count = 0.0;
+                edi_count = 0;
                 break;
         }
 
         for (sp = position;
              (sp < sourcelen) && (sp <= (position + 8)); sp++) {
 
-            if (inputData[sp] <= 127) {
-                reduced_char = inputData[sp];
-            } else {
-                reduced_char = inputData[sp] - 127;
-            }
+            c = inputData[sp];
 
             /* Step L */
-            if ((inputData[sp] >= '0') && (inputData[sp] <= '9')) {
-                ascii_count += 0.5;
+            if ((c >= '0') && (c <= '9')) {
+                ascii_count += 3;
             } else {
-                ascii_count = roundUpToNextInteger(ascii_count);
-                if (inputData[sp] > 127) {
-                    ascii_count += 2.0;
+                ascii_count = roundUpToCodeword(ascii_count);
+                if (c > 127) {
+                    ascii_count += 12;
                 } else {
-                    ascii_count += 1.0;
-                }
-            }
-
-            /* Step M */
-            done = 0;
-            if (reduced_char == ' ') {
-                c40_count += (2.0 / 3.0);
-                done = 1;
-            }
-            if ((reduced_char >= '0') && (reduced_char <= '9')) {
-                c40_count += (2.0 / 3.0);
-                done = 1;
-            }
-            if ((reduced_char >= 'A') && (reduced_char <= 'Z')) {
-                c40_count += (2.0 / 3.0);
-                done = 1;
-            }
-            if (inputData[sp] > 127) {
-                c40_count += (4.0 / 3.0);
-            }
-            if (done == 0) {
-                c40_count += (4.0 / 3.0);
-            }
-
-            /* Step N */
-            done = 0;
-            if (reduced_char == ' ') {
-                text_count += (2.0 / 3.0);
-                done = 1;
-            }
-            if ((reduced_char >= '0') && (reduced_char <= '9')) {
-                text_count += (2.0 / 3.0);
-                done = 1;
-            }
-            if ((reduced_char >= 'a') && (reduced_char <= 'z')) {
-                text_count += (2.0 / 3.0);
-                done = 1;
-            }
-            if (inputData[sp] > 127) {
-                text_count += (4.0 / 3.0);
-            }
-            if (done == 0) {
-                text_count += (4.0 / 3.0);
-            }
-
-            /* Step O */
-            done = 0;
-            if (inputData[sp] == 13) {
-                edi_count += (2.0 / 3.0);
-                done = 1;
-            }
-            if (inputData[sp] == '*') {
-                edi_count += (2.0 / 3.0);
-                done = 1;
-            }
-            if (inputData[sp] == '>') {
-                edi_count += (2.0 / 3.0);
-                done = 1;
-            }
-            if (inputData[sp] == ' ') {
-                edi_count += (2.0 / 3.0);
-                done = 1;
-            }
-            if ((inputData[sp] >= '0') && (inputData[sp] <= '9')) {
-                edi_count += (2.0 / 3.0);
-                done = 1;
-            }
-            if ((inputData[sp] >= 'A') && (inputData[sp] <= 'Z')) {
-                edi_count += (2.0 / 3.0);
-                done = 1;
-            }
-            if (inputData[sp] > 127) {
-                edi_count += (13.0 / 3.0);
-            } else {
-                if (done == 0) {
-                    edi_count += (10.0 / 3.0);
+                    ascii_count += 6;
                 }
             }
 
-            /* Step P */
-            if (inputData[sp] == FNC1) {
-                byte_count += 3.0;
+            /* Steps M to P */
+            c40_count += C40_COST[c + 1];
+            text_count += TEXT_COST[c + 1];
+            edi_count += EDI_COST[c + 1];
+            if (c == FNC1) {
+                byte_count += 18;
             } else {
-                byte_count += 1.0;
+                byte_count += 6;
             }
-
         }
 
-        ascii_count = roundUpToNextInteger(ascii_count);
-        c40_count = roundUpToNextInteger(c40_count);
-        text_count = roundUpToNextInteger(text_count);
-        edi_count = roundUpToNextInteger(edi_count);
-        byte_count = roundUpToNextInteger(byte_count);
+        ascii_count = roundUpToCodeword(ascii_count) / 6;
+        c40_count = roundUpToCodeword(c40_count) / 6;
+        text_count = roundUpToCodeword(text_count) / 6;
+        edi_count = roundUpToCodeword(edi_count) / 6;
+        byte_count = roundUpToCodeword(byte_count) / 6;
         best_scheme = Mode.C1_ASCII;
 
         if (sp == sourcelen) {
             /* Step K */
-            best_count = (int) edi_count;
+            int best_count = edi_count;
 
             if (text_count <= best_count) {
-                best_count = (int) text_count;
+                best_count = text_count;
                 best_scheme = Mode.C1_TEXT;
             }
 
             if (c40_count <= best_count) {
-                best_count = (int) c40_count;
+                best_count = c40_count;
                 best_scheme = Mode.C1_C40;
             }
 
             if (ascii_count <= best_count) {
-                best_count = (int) ascii_count;
+                best_count = ascii_count;
                 best_scheme = Mode.C1_ASCII;
             }
 
@@ -1733,15 +1422,15 @@ public class CodeOne extends Symbol {
         } else {
             /* Step Q */
 
-            if (((edi_count + 1.0 <= ascii_count)
-                    && (edi_count + 1.0 <= c40_count))
-                    && ((edi_count + 1.0 <= byte_count)
-                    && (edi_count + 1.0 <= text_count))) {
+            if (((edi_count + 1 <= ascii_count)
+                    && (edi_count + 1 <= c40_count))
+                    && ((edi_count + 1 <= byte_count)
+                    && (edi_count + 1 <= text_count))) {
                 best_scheme = Mode.C1_EDI;
             }
 
-            if ((c40_count + 1.0 <= ascii_count)
-                    && (c40_count + 1.0 <= text_count)) {
+            if ((c40_count + 1 <= ascii_count)
+                    && (c40_count + 1 <= text_count)) {
 
                 if (c40_count < edi_count) {
                     best_scheme = Mode.C1_C40;
@@ -1756,24 +1445,24 @@ public class CodeOne extends Symbol {
                 }
             }
 
-            if (((text_count + 1.0 <= ascii_count)
-                    && (text_count + 1.0 <= c40_count))
-                    && ((text_count + 1.0 <= byte_count)
-                    && (text_count + 1.0 <= edi_count))) {
+            if (((text_count + 1 <= ascii_count)
+                    && (text_count + 1 <= c40_count))
+                    && ((text_count + 1 <= byte_count)
+                    && (text_count + 1 <= edi_count))) {
                 best_scheme = Mode.C1_TEXT;
             }
 
-            if (((ascii_count + 1.0 <= byte_count)
-                    && (ascii_count + 1.0 <= c40_count))
-                    && ((ascii_count + 1.0 <= text_count)
-                    && (ascii_count + 1.0 <= edi_count))) {
+            if (((ascii_count + 1 <= byte_count)
+                    && (ascii_count + 1 <= c40_count))
+                    && ((ascii_count + 1 <= text_count)
+                    && (ascii_count + 1 <= edi_count))) {
                 best_scheme = Mode.C1_ASCII;
             }
 
-            if (((byte_count + 1.0 <= ascii_count)
-                    && (byte_count + 1.0 <= c40_count))
-                    && ((byte_count + 1.0 <= text_count)
-                    && (byte_count + 1.0 <= edi_count))) {
+            if (((byte_count + 1 <= ascii_count)
+                    && (byte_count + 1 <= c40_count))
+                    && ((byte_count + 1 <= text_count)
+                    && (byte_count + 1 <= edi_count))) {
                 best_scheme = Mode.C1_BYTE;
             }
         }
@@ -1781,42 +1470,31 @@ public class CodeOne extends Symbol {
         return best_scheme;
     }
 
-    private double roundUpToNextInteger(double input) {
-        double fraction, output;
-
-        fraction = input - (int) input;
-        if (fraction > 0.01) {
-            output = (input - fraction) + 1.0;
-        } else {
-            output = input;
-        }
-
-        return output;
+    private static int roundUpToCodeword(int sixths) {
+        return ((sixths + 5) / 6) * 6;
     }
 
     private boolean preferEdi(int sourcelen, int position) {
-        int i;
-
-        for (i = position; isEdiEncodable(inputData[position + i])
-                && ((position + i) < sourcelen); i++)
-            ;
+        int end = position + ediRun[position];
 
-        if ((position + i) == sourcelen) {
-            /* Reached end of input */
+        if (end == sourcelen || end == position) {
+            /* Reached end of input, or no EDI characters at all */
             return false;
         }
 
-        if (inputData[position + i - 1] == 13) {
-            return true;
-        }
-        if (inputData[position + i - 1] == '*') {
-            return true;
-        }
-        if (inputData[position + i - 1] == '>') {
-            return true;
-        }
+        return inputData[end - 1] == 13 || inputData[end - 1] == '*' || inputData[end - 1] == '>';
+    }
+
+    private boolean onlyDigitsRemain(int position, int minimum) {
+        return digitRun[position] >= minimum && position + digitRun[position] == inputData.length;
+    }
 
-        return false;
+    private int transferDecimal(String decimal_binary, int target_count, int targetPoint) {
+        for (int i = 0; i < target_count; i++) {
+            data[targetPoint] = Integer.parseInt(decimal_binary.substring(8 * i, 8 * i + 8), 2);
+            targetPoint++;
+        }
+        return targetPoint;
     }
 
     private boolean isEdiEncodable(int input) {
@@ -2,16 +2,15 @@ package ru.chipmunkbarcode.barcodeTypes;
 
 import ru.chipmunkbarcode.barcodeTypes.DataBar14.Mode;
 import ru.chipmunkbarcode.exceptions.BarcodeException;
+import ru.chipmunkbarcode.util.BitStream;
 
 import java.awt.geom.Rectangle2D;
-import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 import static ru.chipmunkbarcode.util.Arrays.positionOf;
-import static ru.chipmunkbarcode.util.Strings.binaryAppend;
 
 /**
  * <p>Implements GS1 Composite symbology according to ISO/IEC 24723:2010.
@@ -51,10 +50,6 @@ public class Composite extends Symbol {
         CC_C
     }
 
-    private static enum GeneralFieldMode {
-        NUMERIC, ALPHA, ISOIEC, INVALID_CHAR, ANY_ENC, ALPHA_OR_ISO
-    }
-
     /* CC-A component coefficients from ISO/IEC 24728:2006 Annex F */
     private static final int[] CCA_COEFFS = {
             /* k = 4 */
@@ -472,11 +467,9 @@ public class Composite extends Symbol {
             0, 3, 6, 0, 6, 0, 0, 0, 3, 6, 0, 6, 6, 0, 0, 6, 0, 0, 0, 0, 6, 6, 0, 3, 0, 0, 6, 0, 0, 0, 0, 6, 6, 0
     };
 
-    private StringBuilder binary_string;
+    private BitStream binary_string;
     private int ecc;
     private LinearEncoding symbology = LinearEncoding.CODE_128;
-    private int[] general_field;
-    private GeneralFieldMode[] general_field_type;
     private int cc_width;
     private int[][] pwr928 = new int[69][7];
     private int[] codeWords = new int[180];
@@ -630,7 +623,6 @@ public class Composite extends Symbol {
     @Override
     protected void encode() {
 
-        List<Rectangle2D.Double> combine_rect = new ArrayList<>();
         List<TextBox> combine_txt = new ArrayList<>();
         int top_shift = 0; // 2D component x-coordinate shift
         int bottom_shift = 0; // linear component x-coordinate shift
@@ -640,8 +632,8 @@ public class Composite extends Symbol {
             throw new BarcodeException("No linear data set");
         }
 
-        // Manage composite component encoding first
-        encodeComposite();
+        // Choose the composite component type first, since the linear component's linkage flag depends on it
+        selectComposite();
 
         // Then encode linear component
         Symbol linear;
@@ -760,24 +752,14 @@ public class Composite extends Symbol {
         linear.setContent(linearContent);
 
         if (symbology == LinearEncoding.CODE_128) {
+            /* Width of CC-C composite component depends on width of linear component */
             linearWidth = linear.symbolWidth;
-            if (cc_mode == CompositeMode.CC_C) {
-                /* Width of composite component depends on width of linear component, so recalculate. */
-                row_count = 0;
-                rectangles.clear();
-                symbolHeight = 0;
-                symbolWidth = 0;
-                encodeInfo.setLength(0);
-                encodeComposite();
-            } else {
-                if (linearWidth > symbolWidth) {
-                    top_shift = (linearWidth - symbolWidth) / 2;
-                }
-            }
         }
 
-        for (Rectangle2D.Double orig : rectangles) {
-            combine_rect.add(new Rectangle2D.Double(orig.x + top_shift, orig.y, orig.width, orig.height));
+        encodeComposite();
+
+        if (symbology == LinearEncoding.CODE_128 && cc_mode != CompositeMode.CC_C && linearWidth > symbolWidth) {
+            top_shift = (linearWidth - symbolWidth) / 2;
         }
 
         int extraSepHeight = separatorHeight - 1;
@@ -785,24 +767,31 @@ public class Composite extends Symbol {
             throw new BarcodeException("Composite EAN and UPC separator height cannot be changed");
         }
 
-        for (Rectangle2D.Double orig : linear.rectangles) {
-            double h = orig.height + (extraSepHeight > 0 && orig.height == 1 ? extraSepHeight : 0);
-            double y = orig.y + (extraSepHeight > 0 && orig.height != 1 ? extraSepHeight : 0);
-            combine_rect.add(new Rectangle2D.Double(orig.x + bottom_shift, y + symbolHeight, orig.width, h));
+        /* Both components are ours alone, so move their rectangles into place rather than copying them */
+        int max_x = 0;
+        for (Rectangle2D.Double rect : rectangles) {
+            rect.x += top_shift;
+            max_x = Math.max(max_x, (int) Math.ceil(rect.x + rect.width));
         }
 
-        for (TextBox orig : linear.texts) {
-            combine_txt.add(new TextBox(orig.x + bottom_shift, orig.y + symbolHeight + extraSepHeight, orig.width, orig.text, humanReadableAlignment));
+        for (Rectangle2D.Double rect : linear.rectangles) {
+            if (extraSepHeight > 0) {
+                if (rect.height == 1) {
+                    rect.height += extraSepHeight;
+                } else {
+                    rect.y += extraSepHeight;
+                }
+            }
+            rect.x += bottom_shift;
+            rect.y += symbolHeight;
+            max_x = Math.max(max_x, (int) Math.ceil(rect.x + rect.width));
         }
+        rectangles.addAll(linear.rectangles);
 
-        int max_x = 0;
-        for (Rectangle2D.Double rect : combine_rect) {
-            if (rect.x + rect.width > max_x) {
-                max_x = (int) Math.ceil(rect.x + rect.width);
-            }
+        for (TextBox orig : linear.texts) {
+            combine_txt.add(new TextBox(orig.x + bottom_shift, orig.y + symbolHeight + extraSepHeight, orig.width, orig.text, humanReadableAlignment));
         }
 
-        rectangles = combine_rect;
         texts = combine_txt;
         symbolHeight += linear.symbolHeight + extraSepHeight;
         symbolWidth = max_x;
@@ -826,7 +815,12 @@ public class Composite extends Symbol {
         }
     }
 
-    private void encodeComposite() {
+    /**
+     * Chooses the type of the composite component, trying CC-A (if preferred) and then CC-B. If CC-C is needed,
+     * the data is not compacted for it here, because the width of a CC-C component depends on the width of the
+     * linear component.
+     */
+    private void selectComposite() {
 
         if (content.length() > 2990) {
             throw new BarcodeException("2D component input data too long");
@@ -885,6 +879,12 @@ public class Composite extends Symbol {
                 }
             }
         }
+    }
+
+    /**
+     * Encodes the composite component of the type chosen by {@link #selectComposite()}.
+     */
+    private void encodeComposite() {
 
         if (cc_mode == CompositeMode.CC_C) {
             /* If the data didn't fit in CC-B (and linear
@@ -1162,12 +1162,7 @@ public class Composite extends Symbol {
             codewords_used += ecc_codewords;
             codewords_used += 3;
 
-            if (linearWidth == 0) {
-                /* Linear component not yet calculated */
-                cc_width = (int) (0.5 + Math.sqrt((codewords_used) / 3.0));
-            } else {
-                cc_width = (linearWidth - 53) / 17;
-            }
+            cc_width = (linearWidth - 53) / 17;
 
             if ((codewords_used / cc_width) > 90) {
                 /* stop the symbol from becoming too high */
@@ -1206,13 +1201,11 @@ public class Composite extends Symbol {
 
     private boolean cc_binary_string() {
         /* Handles all data encodation from section 5 of ISO/IEC 24723 */
-        int encoding_method, read_posn, d1, d2, value, alpha_pad;
+        int encoding_method, read_posn, alpha_pad;
         int i, j, ai_crop, fnc1_latch;
         int group_val;
         int ai90_mode;
-        boolean latch;
         int numeric_value, table3_letter;
-        int latchOffset;
 
         encoding_method = 1;
         read_posn = 0;
@@ -1221,7 +1214,6 @@ public class Composite extends Symbol {
         alpha_pad = 0;
         ai90_mode = 0;
         ecc = 0;
-        value = 0;
         target_bitsize = 0;
 
         if (inputData[0] == '1' && (inputData[1] == '0' || inputData[1] == '1' || inputData[1] == '7') && inputData.length >= 8) {
@@ -1247,32 +1239,32 @@ public class Composite extends Symbol {
                 break;
         }
 
-        binary_string = new StringBuilder();
+        binary_string = new BitStream();
 
         if (encoding_method == 1) {
-            binary_string.append('0');
+            binary_string.append(false);
         }
 
         if (encoding_method == 2) {
             /* Encoding Method field "10" - date and lot number */
 
-            binary_string.append("10");
+            binary_string.append(0b10, 2);
 
             if (inputData[1] == '0') {
                 /* No date data */
-                binary_string.append("11");
+                binary_string.append(0b11, 2);
             } else {
                 /* Production Date (11) or Expiration Date (17) */
                 group_val = ((10 * (inputData[2] - '0')) + (inputData[3] - '0')) * 384;
                 group_val += (((10 * (inputData[4] - '0')) + (inputData[5] - '0')) - 1) * 32;
                 group_val += (10 * (inputData[6] - '0')) + (inputData[7] - '0');
-                binaryAppend(binary_string, group_val, 16);
+                binary_string.append(group_val, 16);
                 if (inputData[1] == '1') {
                     /* Production Date AI 11 */
-                    binary_string.append('0');
+                    binary_string.append(false);
                 } else {
                     /* Expiration Date AI 17 */
-                    binary_string.append('1');
+                    binary_string.append(true);
                 }
                 read_posn = 8;
             }
@@ -1365,7 +1357,7 @@ public class Composite extends Symbol {
 
             if (test1 != -1 && test2 == 0 && test3 == 0) {
                 /* Encodation method "11" can be used */
-                binary_string.append("11");
+                binary_string.append(0b11, 2);
 
                 numeric -= test1;
                 alpha--;
@@ -1375,16 +1367,16 @@ public class Composite extends Symbol {
 
                 if (alphanum > 0) {
                     /* Alphanumeric mode */
-                    binary_string.append('0');
+                    binary_string.append(false);
                     ai90_mode = 1;
                 } else {
                     if (alpha > numeric) {
                         /* Alphabetic mode */
-                        binary_string.append("11");
+                        binary_string.append(0b11, 2);
                         ai90_mode = 2;
                     } else {
                         /* Numeric mode */
-                        binary_string.append("10");
+                        binary_string.append(0b10, 2);
                         ai90_mode = 3;
                     }
                 }
@@ -1405,13 +1397,13 @@ public class Composite extends Symbol {
 
                 switch (ai_crop) {
                     case 0:
-                        binary_string.append('0');
+                        binary_string.append(false);
                         break;
                     case 1:
-                        binary_string.append("10");
+                        binary_string.append(0b10, 2);
                         break;
                     case 2:
-                        binary_string.append("11");
+                        binary_string.append(0b11, 2);
                         break;
                 }
 
@@ -1429,23 +1421,23 @@ public class Composite extends Symbol {
                 if (table3_letter != -1) {
                     /* Encoding can be done according to 5.2.2 c) 2) */
                     /* five bit binary string representing value before letter */
-                    binaryAppend(binary_string, numeric_value, 5);
+                    binary_string.append(numeric_value, 5);
                     /* followed by four bit representation of letter from Table 3 */
-                    binaryAppend(binary_string, table3_letter, 4);
+                    binary_string.append(table3_letter, 4);
                 } else {
                     /* Encoding is done according to 5.2.2 c) 3) */
-                    binary_string.append("11111");
+                    binary_string.append(0b11111, 5);
                     /* ten bit representation of number */
-                    binaryAppend(binary_string, numeric_value, 10);
+                    binary_string.append(numeric_value, 10);
                     /* five bit representation of ASCII character */
-                    binaryAppend(binary_string, ninety[test1] - 65, 5);
+                    binary_string.append(ninety[test1] - 65, 5);
                 }
 
                 read_posn = test1 + 3;
 
             } else {
                 /* Use general field encodation instead */
-                binary_string.append('0');
+                binary_string.append(false);
                 read_posn = 0;
             }
 
@@ -1454,13 +1446,13 @@ public class Composite extends Symbol {
                 /* Alpha encodation (section 5.2.3) */
                 do {
                     if (inputData[read_posn] >= '0' && inputData[read_posn] <= '9') {
-                        binaryAppend(binary_string, inputData[read_posn] + 4, 6);
+                        binary_string.append(inputData[read_posn] + 4, 6);
                     }
                     if (inputData[read_posn] >= 'A' && inputData[read_posn] <= 'Z') {
-                        binaryAppend(binary_string, inputData[read_posn] - 65, 5);
+                        binary_string.append(inputData[read_posn] - 65, 5);
                     }
                     if (inputData[read_posn] == FNC1) {
-                        binary_string.append("11111");
+                        binary_string.append(0b11111, 5);
                     }
                     read_posn++;
                 } while (inputData[read_posn - 1] != FNC1 && read_posn < inputData.length);
@@ -1471,29 +1463,29 @@ public class Composite extends Symbol {
                 /* Alphanumeric mode */
                 do {
                     if (inputData[read_posn] >= '0' && inputData[read_posn] <= '9') {
-                        binaryAppend(binary_string, inputData[read_posn] - 43, 5);
+                        binary_string.append(inputData[read_posn] - 43, 5);
                     }
                     if (inputData[read_posn] >= 'A' && inputData[read_posn] <= 'Z') {
-                        binaryAppend(binary_string, inputData[read_posn] - 33, 6);
+                        binary_string.append(inputData[read_posn] - 33, 6);
                     }
                     switch (inputData[read_posn]) {
                         case FNC1:
-                            binary_string.append("01111");
+                            binary_string.append(0b01111, 5);
                             break;
                         case '*':
-                            binary_string.append("111010");
+                            binary_string.append(0b111010, 6);
                             break;
                         case ',':
-                            binary_string.append("111011");
+                            binary_string.append(0b111011, 6);
                             break;
                         case '-':
-                            binary_string.append("111100");
+                            binary_string.append(0b111100, 6);
                             break;
                         case '.':
-                            binary_string.append("111101");
+                            binary_string.append(0b111101, 6);
                             break;
                         case '/':
-                            binary_string.append("111110");
+                            binary_string.append(0b111110, 6);
                             break;
                     }
                     read_posn++;
@@ -1507,7 +1499,7 @@ public class Composite extends Symbol {
         /* The compressed data field has been processed if appropriate - the
          rest of the data (if any) goes into a general-purpose data compaction field */
 
-        j = 0;
+        int[] general_field;
         if (fnc1_latch == 1) {
             /* Encodation method "10" has been used but it is not followed by
              AI 10, so a FNC1 character needs to be added */
@@ -1518,281 +1510,18 @@ public class Composite extends Symbol {
             general_field = Arrays.copyOfRange(inputData, read_posn, inputData.length);
         }
 
-        latch = false;
         if (general_field.length != 0) {
-
             alpha_pad = 0;
-            general_field_type = new GeneralFieldMode[general_field.length];
-
-            for (i = 0; i < general_field.length; i++) {
-
-                /* Table 13 - ISO/IEC 646 encodation */
-                if (general_field[i] == FNC1) {
-                    /* FNC1 can be encoded in any system */
-                    general_field_type[i] = GeneralFieldMode.ANY_ENC;
-                } else if (general_field[i] < ' ' || general_field[i] > 'z') {
-                    general_field_type[i] = GeneralFieldMode.INVALID_CHAR;
-                    latch = true;
-                } else {
-                    general_field_type[i] = GeneralFieldMode.ISOIEC;
-                }
-
-                if (general_field[i] == '#') {
-                    general_field_type[i] = GeneralFieldMode.INVALID_CHAR;
-                    latch = true;
-                }
-                if (general_field[i] == '$') {
-                    general_field_type[i] = GeneralFieldMode.INVALID_CHAR;
-                    latch = true;
-                }
-                if (general_field[i] == '@') {
-                    general_field_type[i] = GeneralFieldMode.INVALID_CHAR;
-                    latch = true;
-                }
-                if (general_field[i] == 92) {
-                    general_field_type[i] = GeneralFieldMode.INVALID_CHAR;
-                    latch = true;
-                }
-                if (general_field[i] == '^') {
-                    general_field_type[i] = GeneralFieldMode.INVALID_CHAR;
-                    latch = true;
-                }
-                if (general_field[i] == 96) {
-                    general_field_type[i] = GeneralFieldMode.INVALID_CHAR;
-                    latch = true;
-                }
-
-                /* Table 12 - Alphanumeric encodation */
-                if (general_field[i] >= 'A' && general_field[i] <= 'Z') {
-                    general_field_type[i] = GeneralFieldMode.ALPHA_OR_ISO;
-                }
-                if (general_field[i] == '*') {
-                    general_field_type[i] = GeneralFieldMode.ALPHA_OR_ISO;
-                }
-                if (general_field[i] == ',') {
-                    general_field_type[i] = GeneralFieldMode.ALPHA_OR_ISO;
-                }
-                if (general_field[i] == '-') {
-                    general_field_type[i] = GeneralFieldMode.ALPHA_OR_ISO;
-                }
-                if (general_field[i] == '.') {
-                    general_field_type[i] = GeneralFieldMode.ALPHA_OR_ISO;
-                }
-                if (general_field[i] == '/') {
-                    general_field_type[i] = GeneralFieldMode.ALPHA_OR_ISO;
-                }
-
-                /* Numeric encodation */
-                if (general_field[i] >= '0' && general_field[i] <= '9') {
-                    general_field_type[i] = GeneralFieldMode.ANY_ENC;
-                }
-            }
-
-            if (latch) {
-                /* Invalid characters in input data */
-                throw new BarcodeException("Invalid characters in input data");
-            }
-
-            for (i = 0; i < general_field.length - 1; i++) {
-                if (general_field_type[i] == GeneralFieldMode.ISOIEC && general_field[i + 1] == FNC1) {
-                    general_field_type[i + 1] = GeneralFieldMode.ISOIEC;
-                }
-            }
-
-            for (i = 0; i < general_field.length - 1; i++) {
-                if (general_field_type[i] == GeneralFieldMode.ALPHA_OR_ISO && general_field[i + 1] == FNC1) {
-                    general_field_type[i + 1] = GeneralFieldMode.ALPHA_OR_ISO;
-                }
-            }
-
-            latch = applyGeneralFieldRules();
-
-            i = 0;
-            do {
-                switch (general_field_type[i]) {
-                    case NUMERIC:
-                        if (i != 0 && general_field_type[i - 1] != GeneralFieldMode.NUMERIC && general_field[i - 1] != FNC1) {
-                            binary_string.append("000"); /* Numeric latch */
-                        }
-                        if (general_field[i] != FNC1) {
-                            d1 = general_field[i] - '0';
-                        } else {
-                            d1 = 10;
-                        }
-                        if (i < general_field.length - 1) {
-                            if (general_field[i + 1] != FNC1) {
-                                d2 = general_field[i + 1] - '0';
-                            } else {
-                                d2 = 10;
-                            }
-                        } else {
-                            d2 = 10;
-                        }
-                        if (d1 != 10 || d2 != 10) {
-                            /* If (d1==10)&&(d2==10) then input is either FNC1,FNC1 or FNC1,EOL */
-                            value = (11 * d1) + d2 + 8;
-                            binaryAppend(binary_string, value, 7);
-                            i += 2;
-                        }
-                        break;
-
-                    case ALPHA:
-                        if (i == 0 || general_field_type[i - 1] == GeneralFieldMode.NUMERIC || general_field[i - 1] == FNC1) {
-                            binary_string.append("0000"); /* Alphanumeric latch */
-                        } else if (general_field_type[i - 1] == GeneralFieldMode.ISOIEC) {
-                            binary_string.append("00100"); /* ISO/IEC 646 latch */
-                        }
-                        if (general_field[i] >= '0' && general_field[i] <= '9') {
-                            value = general_field[i] - 43;
-                            binaryAppend(binary_string, value, 5);
-                        }
-                        if (general_field[i] >= 'A' && general_field[i] <= 'Z') {
-                            value = general_field[i] - 33;
-                            binaryAppend(binary_string, value, 6);
-                        }
-                        if (general_field[i] == FNC1) {
-                            binary_string.append("01111"); /* FNC1/Numeric latch */
-                        }
-                        if (general_field[i] == '*') {
-                            binary_string.append("111010"); /* asterisk */
-                        }
-                        if (general_field[i] == ',') {
-                            binary_string.append("111011"); /* comma */
-                        }
-                        if (general_field[i] == '-') {
-                            binary_string.append("111100"); /* minus or hyphen */
-                        }
-                        if (general_field[i] == '.') {
-                            binary_string.append("111101"); /* period or full stop */
-                        }
-                        if (general_field[i] == '/') {
-                            binary_string.append("111110"); /* slash or solidus */
-                        }
-                        i++;
-                        break;
-
-                    case ISOIEC:
-                        if (i == 0 || general_field_type[i - 1] == GeneralFieldMode.NUMERIC || general_field[i - 1] == FNC1) {
-                            binary_string.append("0000"); /* Alphanumeric latch */
-                            binary_string.append("00100"); /* ISO/IEC 646 latch */
-                        } else if (general_field_type[i - 1] == GeneralFieldMode.ALPHA) {
-                            binary_string.append("00100"); /* ISO/IEC 646 latch */
-                        }
-                        if (general_field[i] >= '0' && general_field[i] <= '9') {
-                            value = general_field[i] - 43;
-                            binaryAppend(binary_string, value, 5);
-                        }
-                        if (general_field[i] >= 'A' && general_field[i] <= 'Z') {
-                            value = general_field[i] - 1;
-                            binaryAppend(binary_string, value, 7);
-                        }
-                        if (general_field[i] >= 'a' && general_field[i] <= 'z') {
-                            value = general_field[i] - 7;
-                            binaryAppend(binary_string, value, 7);
-                        }
-                        if (general_field[i] == FNC1) {
-                            binary_string.append("01111"); /* FNC1/Numeric latch */
-                        }
-                        if (general_field[i] == '!') {
-                            binary_string.append("11101000"); /* exclamation mark */
-                        }
-                        if (general_field[i] == 34) {
-                            binary_string.append("11101001"); /* quotation mark */
-                        }
-                        if (general_field[i] == 37) {
-                            binary_string.append("11101010"); /* percent sign */
-                        }
-                        if (general_field[i] == '&') {
-                            binary_string.append("11101011"); /* ampersand */
-                        }
-                        if (general_field[i] == 39) {
-                            binary_string.append("11101100"); /* apostrophe */
-                        }
-                        if (general_field[i] == '(') {
-                            binary_string.append("11101101"); /* left parenthesis */
-                        }
-                        if (general_field[i] == ')') {
-                            binary_string.append("11101110"); /* right parenthesis */
-                        }
-                        if (general_field[i] == '*') {
-                            binary_string.append("11101111"); /* asterisk */
-                        }
-                        if (general_field[i] == '+') {
-                            binary_string.append("11110000"); /* plus sign */
-                        }
-                        if (general_field[i] == ',') {
-                            binary_string.append("11110001"); /* comma */
-                        }
-                        if (general_field[i] == '-') {
-                            binary_string.append("11110010"); /* minus or hyphen */
-                        }
-                        if (general_field[i] == '.') {
-                            binary_string.append("11110011"); /* period or full stop */
-                        }
-                        if (general_field[i] == '/') {
-                            binary_string.append("11110100"); /* slash or solidus */
-                        }
-                        if (general_field[i] == ':') {
-                            binary_string.append("11110101"); /* colon */
-                        }
-                        if (general_field[i] == ';') {
-                            binary_string.append("11110110"); /* semicolon */
-                        }
-                        if (general_field[i] == '<') {
-                            binary_string.append("11110111"); /* less-than sign */
-                        }
-                        if (general_field[i] == '=') {
-                            binary_string.append("11111000"); /* equals sign */
-                        }
-                        if (general_field[i] == '>') {
-                            binary_string.append("11111001"); /* greater-than sign */
-                        }
-                        if (general_field[i] == '?') {
-                            binary_string.append("11111010"); /* question mark */
-                        }
-                        if (general_field[i] == '_') {
-                            binary_string.append("11111011"); /* underline or low line */
-                        }
-                        if (general_field[i] == ' ') {
-                            binary_string.append("11111100"); /* space */
-                        }
-                        i++;
-                        break;
-                }
-
-                latchOffset = 0;
-                if (latch) {
-                    latchOffset = 1;
-                }
-
-            } while (i + latchOffset < general_field.length);
+        }
 
-        } // end general-purpose compaction data handling
+        GeneralFieldEncoder generalFieldEncoder = new GeneralFieldEncoder(general_field, true);
+        generalFieldEncoder.encode(binary_string);
 
         if (!calculateSymbolSize()) {
             return false;
         }
 
-        if (latch) {
-            /* There is still one more numeric digit to encode */
-            i = general_field.length - 1;
-            if (general_field[i] == FNC1) {
-                binary_string.append("000001111");
-            } else {
-                if (remainder >= 4 && remainder <= 6) {
-                    /* ISO/IEC 24723:2010 5.4.1 c) 2) "If four to six bits remain, add 1 to the digit value and encode the result in the next four bits" */
-                    d1 = general_field[i] - '0';
-                    value = d1 + 1;
-                    binaryAppend(binary_string, value, 4);
-                } else {
-                    d1 = general_field[i] - '0';
-                    d2 = 10;
-                    value = (11 * d1) + d2 + 8;
-                    binaryAppend(binary_string, value, 7);
-                    /* This may push the symbol up to the next size */
-                }
-            }
-        }
+        generalFieldEncoder.encodeLast(binary_string, remainder);
 
         if (binary_string.length() > 11805) { /* (2361 * 5) */
             throw new BarcodeException("Input too long");
@@ -1810,181 +1539,30 @@ public class Composite extends Symbol {
             /* Now add padding to binary string */
             if (alpha_pad == 1) {
                 /* Extra FNC1 character required after Alpha encodation (section 5.2.3) */
-                binary_string.append("11111");
+                binary_string.append(0b11111, 5);
                 alpha_pad = 0;
             }
-            if (general_field.length == 0 || general_field_type[general_field.length - 1] == GeneralFieldMode.NUMERIC) {
-                /* Latch from numeric to alphanumeric */
-                binary_string.append("0000");
-            }
-            while (binary_string.length() < target_bitsize) {
-                /* Latch back and forth between alphanumeric and ISO/IEC encodation (section 5.3.4) */
-                binary_string.append("00100");
-            }
-            binary_string.delete(target_bitsize, binary_string.length());
+            /* Latch back and forth between alphanumeric and ISO/IEC encodation (section 5.3.4) */
+            generalFieldEncoder.pad(binary_string, target_bitsize);
         }
 
         return true;
     }
 
     private void logBinaryString() {
-        int i, nibble;
+        int i;
         /* Display binary string as hexadecimal */
 
         info("Composite Binary String: ");
-        nibble = 0;
-        for (i = 0; i < binary_string.length(); i++) {
-            switch (i % 4) {
-                case 0:
-                    if (binary_string.charAt(i) == '1') {
-                        nibble += 8;
-                    }
-                    break;
-                case 1:
-                    if (binary_string.charAt(i) == '1') {
-                        nibble += 4;
-                    }
-                    break;
-                case 2:
-                    if (binary_string.charAt(i) == '1') {
-                        nibble += 2;
-                    }
-                    break;
-                case 3:
-                    if (binary_string.charAt(i) == '1') {
-                        nibble += 1;
-                    }
-                    info(Integer.toHexString(nibble));
-                    nibble = 0;
-                    break;
-            }
-        }
-
-        if ((binary_string.length() % 4) != 0) {
-            info(Integer.toHexString(nibble));
+        for (i = 0; i < binary_string.length(); i += 4) {
+            info(Integer.toHexString(binary_string.get(i, 4)));
         }
         infoLine();
     }
 
-    private boolean applyGeneralFieldRules() {
-        /* Attempts to apply encoding rules from sections 7.2.5.5.1 to 7.2.5.5.3
-         of ISO/IEC 24724:2006 */
-
-        int block_count, i, j, k;
-        GeneralFieldMode current, next, last;
-        int[] blockLength = new int[200];
-        GeneralFieldMode[] blockType = new GeneralFieldMode[200];
-
-        block_count = 0;
-
-        blockLength[block_count] = 1;
-        blockType[block_count] = general_field_type[0];
-
-        for (i = 1; i < general_field.length; i++) {
-            current = general_field_type[i];
-            last = general_field_type[i - 1];
-
-            if (current == last) {
-                blockLength[block_count] = blockLength[block_count] + 1;
-            } else {
-                block_count++;
-                blockLength[block_count] = 1;
-                blockType[block_count] = general_field_type[i];
-            }
-        }
-
-        block_count++;
-
-        for (i = 0; i < block_count; i++) {
-            current = blockType[i];
-            next = blockType[i + 1];
-
-            if ((current == GeneralFieldMode.ISOIEC) && (i != (block_count - 1))) {
-                if ((next == GeneralFieldMode.ANY_ENC) && (blockLength[i + 1] >= 4)) {
-                    blockType[i + 1] = GeneralFieldMode.NUMERIC;
-                }
-                if ((next == GeneralFieldMode.ANY_ENC) && (blockLength[i + 1] < 4)) {
-                    blockType[i + 1] = GeneralFieldMode.ISOIEC;
-                }
-                if ((next == GeneralFieldMode.ALPHA_OR_ISO) && (blockLength[i + 1] >= 5)) {
-                    blockType[i + 1] = GeneralFieldMode.ALPHA;
-                }
-                if ((next == GeneralFieldMode.ALPHA_OR_ISO) && (blockLength[i + 1] < 5)) {
-                    blockType[i + 1] = GeneralFieldMode.ISOIEC;
-                }
-            }
-
-            if (current == GeneralFieldMode.ALPHA_OR_ISO) {
-                blockType[i] = GeneralFieldMode.ALPHA;
-            }
-
-            if ((current == GeneralFieldMode.ALPHA) && (i != (block_count - 1))) {
-                if ((next == GeneralFieldMode.ANY_ENC) && (blockLength[i + 1] >= 6)) {
-                    blockType[i + 1] = GeneralFieldMode.NUMERIC;
-                }
-                if ((next == GeneralFieldMode.ANY_ENC) && (blockLength[i + 1] < 6)) {
-                    if ((i == block_count - 2) && (blockLength[i + 1] >= 4)) {
-                        blockType[i + 1] = GeneralFieldMode.NUMERIC;
-                    } else {
-                        blockType[i + 1] = GeneralFieldMode.ALPHA;
-                    }
-                }
-            }
-
-            if (current == GeneralFieldMode.ANY_ENC) {
-                blockType[i] = GeneralFieldMode.NUMERIC;
-            }
-        }
-
-        if (block_count > 1) {
-            i = 1;
-            while (i < block_count) {
-                if (blockType[i - 1] == blockType[i]) {
-                    /* bring together */
-                    blockLength[i - 1] = blockLength[i - 1] + blockLength[i];
-                    j = i + 1;
-
-                    /* decrease the list */
-                    while (j < block_count) {
-                        blockLength[j - 1] = blockLength[j];
-                        blockType[j - 1] = blockType[j];
-                        j++;
-                    }
-                    block_count--;
-                    i--;
-                }
-                i++;
-            }
-        }
-
-        for (i = 0; i < block_count - 1; i++) {
-            if ((blockType[i] == GeneralFieldMode.NUMERIC) && ((blockLength[i] & 1) != 0)) {
-                /* Odd size numeric block */
-                blockLength[i] = blockLength[i] - 1;
-                blockLength[i + 1] = blockLength[i + 1] + 1;
-            }
-        }
-
-        j = 0;
-        for (i = 0; i < block_count; i++) {
-            for (k = 0; k < blockLength[i]; k++) {
-                general_field_type[j] = blockType[i];
-                j++;
-            }
-        }
-
-        if ((blockType[block_count - 1] == GeneralFieldMode.NUMERIC) && ((blockLength[block_count - 1] & 1) != 0)) {
-            /* If the last block is numeric and an odd size, further
-             processing needs to be done outside this procedure */
-            return true;
-        } else {
-            return false;
-        }
-    }
-
     private void cc_a() {
         /* CC-A 2D component */
-        int i, strpos, segment, cwCnt, variant, rows;
+        int i, segment, cwCnt, variant, rows;
         int k, offset, j, total;
         int[] rsCodeWords = new int[8];
         int LeftRAPStart, RightRAPStart, CentreRAPStart, StartCluster;
@@ -1993,7 +1571,6 @@ public class Composite extends Symbol {
         int flip, loop;
         String codebarre;
         StringBuilder bin = new StringBuilder();
-        StringBuilder local_source; /* A copy of source but with padding zeroes to make 208 bits */
 
         variant = 0;
 
@@ -2004,20 +1581,9 @@ public class Composite extends Symbol {
             codeWords[i] = 0;
         }
 
-        local_source = new StringBuilder(208);
-        local_source.append(binary_string);
-        for (i = binary_string.length(); i < 208; i++) {
-            local_source.append('0');
-        }
-
+        /* Bits beyond the end of the binary string are read as padding zeroes, to make 208 bits */
         for (segment = 0; segment < 13; segment++) {
-            strpos = segment * 16;
-            bitStr[segment] = 0;
-            for (i = 0; i < 16; i++) {
-                if (local_source.charAt(strpos + i) == '1') {
-                    bitStr[segment] += 0x8000 >> i;
-                }
-            }
+            bitStr[segment] = binary_string.get(segment * 16, 16);
         }
 
         init928();
@@ -2293,7 +1859,7 @@ public class Composite extends Symbol {
 
     private void cc_b() {
         /* CC-B 2D component */
-        int length, i, binloc;
+        int length, i;
         int k, j, longueur, offset;
         int[] mccorrection = new int[50];
         int total;
@@ -2308,14 +1874,7 @@ public class Composite extends Symbol {
         length = binary_string.length() / 8;
 
         for (i = 0; i < length; i++) {
-            binloc = i * 8;
-
-            inputData[i] = 0;
-            for (j = 0; j < 8; j++) {
-                if (binary_string.charAt(binloc + j) == '1') {
-                    inputData[i] += 0x80 >> j;
-                }
-            }
+            inputData[i] = binary_string.get(i * 8, 8);
         }
 
         codeWordCount = 0;
@@ -2570,7 +2129,7 @@ public class Composite extends Symbol {
 
     private void cc_c() {
         /* CC-C 2D component - byte compressed PDF417 */
-        int length, i, binloc, k;
+        int length, i, k;
         int offset, longueur, loop, total, j;
         int[] mccorrection = new int[520];
         int c1, c2, c3;
@@ -2582,13 +2141,7 @@ public class Composite extends Symbol {
         length = binary_string.length() / 8;
 
         for (i = 0; i < length; i++) {
-            binloc = i * 8;
-            inputData[i] = 0;
-            for (j = 0; j < 8; j++) {
-                if (binary_string.charAt(binloc + j) == '1') {
-                    inputData[i] += 0x80 >> j;
-                }
-            }
+            inputData[i] = binary_string.get(i * 8, 8);
         }
 
         codeWordCount = 0;
@@ -2734,9 +2287,7 @@ public class Composite extends Symbol {
     private void byteprocess(int start, int length) {
         int len = 0;
         int chunkLen = 0;
-        BigInteger mantisa;
-        BigInteger total;
-        BigInteger word;
+        long total;
 
         /* select the switch for multiple of 6 bytes */
         if ((binary_string.length() % 6) == 0) {
@@ -2750,20 +2301,17 @@ public class Composite extends Symbol {
             if (6 <= chunkLen) /* Take groups of 6 */ {
                 chunkLen = 6;
                 len += chunkLen;
-                total = BigInteger.valueOf(0);
+                total = 0;
 
                 while ((chunkLen--) != 0) {
-                    mantisa = BigInteger.valueOf(inputData[start++]);
-                    total = total.or(mantisa.shiftLeft(chunkLen * 8));
+                    total |= (long) inputData[start++] << (chunkLen * 8);
                 }
 
                 chunkLen = 5;
 
                 while ((chunkLen--) != 0) {
-
-                    word = total.mod(BigInteger.valueOf(900));
-                    codeWords[codeWordCount + chunkLen] = word.intValue();
-                    total = total.divide(BigInteger.valueOf(900));
+                    codeWords[codeWordCount + chunkLen] = (int) (total % 900);
+                    total /= 900;
                 }
                 codeWordCount += 5;
             } else /*  If it remain a group of less than 6 bytes   */ {
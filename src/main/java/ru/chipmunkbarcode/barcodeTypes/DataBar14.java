@@ -2,8 +2,6 @@ package ru.chipmunkbarcode.barcodeTypes;
 
 import ru.chipmunkbarcode.exceptions.BarcodeException;
 
-import java.math.BigInteger;
-
 import static ru.chipmunkbarcode.barcodeTypes.DataBarLimited.getWidths;
 
 /**
@@ -132,9 +130,9 @@ public class DataBar14 extends Symbol {
     protected void encode() {
 
         boolean[][] grid = new boolean[5][100];
-        BigInteger accum;
-        BigInteger left_reg;
-        BigInteger right_reg;
+        long accum;
+        long left_reg;
+        long right_reg;
         int[] data_character = new int[4];
         int[] data_group = new int[4];
         int[] v_odd = new int[4];
@@ -161,25 +159,21 @@ public class DataBar14 extends Symbol {
             throw new BarcodeException("Invalid characters in input");
         }
 
-        accum = new BigInteger(content);
+        accum = Long.parseLong(content);
         if (linkageFlag) {
-            accum = accum.add(new BigInteger("10000000000000"));
+            accum += 10000000000000L;
             compositeOffset = 1;
         }
 
         /* Calculate left and right pair values */
-        left_reg = accum.divide(new BigInteger("4537077"));
-        right_reg = accum.mod(new BigInteger("4537077"));
+        left_reg = accum / 4537077;
+        right_reg = accum % 4537077;
 
         /* Calculate four data characters */
-        accum = left_reg.divide(new BigInteger("1597"));
-        data_character[0] = accum.intValue();
-        accum = left_reg.mod(new BigInteger("1597"));
-        data_character[1] = accum.intValue();
-        accum = right_reg.divide(new BigInteger("1597"));
-        data_character[2] = accum.intValue();
-        accum = right_reg.mod(new BigInteger("1597"));
-        data_character[3] = accum.intValue();
+        data_character[0] = (int) (left_reg / 1597);
+        data_character[1] = (int) (left_reg % 1597);
+        data_character[2] = (int) (right_reg / 1597);
+        data_character[3] = (int) (right_reg % 1597);
 
         info("Data Characters: ");
         for (i = 0; i < 4; i++) {
@@ -1,13 +1,13 @@
 package ru.chipmunkbarcode.barcodeTypes;
 
 import ru.chipmunkbarcode.exceptions.BarcodeException;
+import ru.chipmunkbarcode.util.BitStream;
 
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static ru.chipmunkbarcode.barcodeTypes.DataBarLimited.getWidths;
-import static ru.chipmunkbarcode.util.Strings.binaryAppend;
 
 /**
  * <p>Implements GS1 DataBar Expanded Omnidirectional and GS1 DataBar Expanded Stacked
@@ -92,10 +92,6 @@ public class DataBarExpanded extends Symbol {
             13, 14, 11, 12, 17, 18, 15, 16, 21, 22, 19, 20
     };
 
-    private enum EncodeMode {
-        NUMERIC, ALPHA, ISOIEC, INVALID_CHAR, ANY_ENC, ALPHA_OR_ISO
-    }
-
     private boolean linkageFlag;
     private int preferredColumns = 2;
     private boolean stacked = true;
@@ -192,13 +188,13 @@ public class DataBarExpanded extends Symbol {
             throw new BarcodeException("Invalid characters in input data");
         }
 
-        StringBuilder binaryString = new StringBuilder(inputData.length * 8);
+        BitStream binaryString = new BitStream(inputData.length * 8);
 
         if (linkageFlag) {
-            binaryString.append('1');
+            binaryString.append(true);
             compositeOffset = 1;
         } else {
-            binaryString.append('0');
+            binaryString.append(false);
             compositeOffset = 0;
         }
 
@@ -210,12 +206,7 @@ public class DataBarExpanded extends Symbol {
 
         info("Data Characters: ");
         for (i = 0; i < data_chars; i++) {
-            vs[i] = 0;
-            for (j = 0; j < 12; j++) {
-                if (binaryString.charAt((i * 12) + j) == '1') {
-                    vs[i] += 2048 >> j;
-                }
-            }
+            vs[i] = binaryString.get(i * 12, 12);
             infoSpace(vs[i]);
         }
         infoLine();
@@ -552,14 +543,9 @@ public class DataBarExpanded extends Symbol {
     /**
      * Handles all data encodation from section 7.2.5 of ISO/IEC 24724.
      */
-    private static int calculateBinaryString(boolean stacked, int blocksPerRow, int[] inputData, StringBuilder binaryString) {
+    private static int calculateBinaryString(boolean stacked, int blocksPerRow, int[] inputData, BitStream binaryString) {
 
-        EncodeMode last_mode = EncodeMode.NUMERIC;
         int i;
-        boolean latch;
-        int remainder, d1, d2, value;
-        String padstring;
-        int current_length;
 
         /* Decide whether a compressed data field is required and if so what method to use: method 2 = no compressed data field */
 
@@ -679,31 +665,31 @@ public class DataBarExpanded extends Symbol {
         int read_posn;
         switch (encodingMethod) {
             case 1:
-                binaryString.append("1XX");
+                binaryString.append(0b100, 3);
                 read_posn = 16;
                 break;
             case 2:
-                binaryString.append("00XX");
+                binaryString.append(0b0000, 4);
                 read_posn = 0;
                 break;
             case 3:
-                binaryString.append("0100");
+                binaryString.append(0b0100, 4);
                 read_posn = inputData.length;
                 break;
             case 4:
-                binaryString.append("0101");
+                binaryString.append(0b0101, 4);
                 read_posn = inputData.length;
                 break;
             case 5:
-                binaryString.append("01100XX");
+                binaryString.append(0b0110000, 7);
                 read_posn = 20;
                 break;
             case 6:
-                binaryString.append("01101XX");
+                binaryString.append(0b0110100, 7);
                 read_posn = 23;
                 break;
             default: /* modes 7 (0111000) to 14 (0111111) */
-                binaryString.append("0" + Integer.toBinaryString(56 + encodingMethod - 7));
+                binaryString.append(56 + encodingMethod - 7, 7);
                 read_posn = inputData.length;
                 break;
         }
@@ -720,10 +706,10 @@ public class DataBarExpanded extends Symbol {
 
         if (encodingMethod == 1) {
             /* Encoding method field "1" - general item identification data */
-            binaryAppend(binaryString, inputData[2] - '0', 4);
+            binaryString.append(inputData[2] - '0', 4);
             for (i = 1; i < 5; i++) {
                 int group = parseInt(inputData, i * 3, 3);
-                binaryAppend(binaryString, group, 10);
+                binaryString.append(group, 10);
             }
         }
 
@@ -732,13 +718,13 @@ public class DataBarExpanded extends Symbol {
             /* Encoding method field "0101" - variable weight item (0,01 or 0,001 pound increment) */
             for (i = 1; i < 5; i++) {
                 int group = parseInt(inputData, i * 3, 3);
-                binaryAppend(binaryString, group, 10);
+                binaryString.append(group, 10);
             }
             int group = parseInt(inputData, 20, 6);
             if (encodingMethod == 4 && inputData[19] == '3') {
                 group += 10_000;
             }
-            binaryAppend(binaryString, group, 15);
+            binaryString.append(group, 15);
         }
 
         if (encodingMethod == 5 || encodingMethod == 6) {
@@ -746,12 +732,12 @@ public class DataBarExpanded extends Symbol {
             /* Encoding method "01101" - variable measure item and price with ISO 4217 currency code */
             for (i = 1; i < 5; i++) {
                 int group = parseInt(inputData, i * 3, 3);
-                binaryAppend(binaryString, group, 10);
+                binaryString.append(group, 10);
             }
-            binaryAppend(binaryString, inputData[19] - '0', 2);
+            binaryString.append(inputData[19] - '0', 2);
             if (encodingMethod == 6) {
                 int currency = parseInt(inputData, 20, 3);
-                binaryAppend(binaryString, currency, 10);
+                binaryString.append(currency, 10);
             }
         }
 
@@ -759,14 +745,14 @@ public class DataBarExpanded extends Symbol {
             /* Encoding method fields "0111000" through "0111111" - variable weight item plus date */
             for (i = 1; i < 5; i++) {
                 int group = parseInt(inputData, i * 3, 3);
-                binaryAppend(binaryString, group, 10);
+                binaryString.append(group, 10);
             }
             int weight = inputData[19] - '0';
             for (i = 0; i < 5; i++) {
                 weight *= 10;
                 weight += inputData[21 + i] - '0';
             }
-            binaryAppend(binaryString, weight, 20);
+            binaryString.append(weight, 20);
             int date;
             if (inputData.length == 34) {
                 /* Date information is included */
@@ -776,262 +762,40 @@ public class DataBarExpanded extends Symbol {
             } else {
                 date = 38_400;
             }
-            binaryAppend(binaryString, date, 16);
+            binaryString.append(date, 16);
         }
 
         /* The compressed data field has been processed if appropriate - the rest of the data (if any) goes into a general-purpose data compaction field */
 
         int[] generalField = Arrays.copyOfRange(inputData, read_posn, inputData.length);
-
-        if (generalField.length != 0) {
-
-            latch = false;
-            EncodeMode[] generalFieldType = new EncodeMode[generalField.length];
-
-            for (i = 0; i < generalField.length; i++) {
-                /* Tables 11, 12, 13 - ISO/IEC 646 encodation */
-                int c = generalField[i];
-                EncodeMode mode;
-                if (c == FNC1) {
-                    // FNC1 can be encoded in any system
-                    mode = EncodeMode.ANY_ENC;
-                } else if (c >= '0' && c <= '9') {
-                    // numbers can be encoded in any system, but will usually narrow down to numeric encodation
-                    mode = EncodeMode.ANY_ENC;
-                } else if ((c >= 'A' && c <= 'Z') || c == '*' || c == ',' || c == '-' || c == '.' || c == '/') {
-                    // alphanumeric encodation or ISO/IEC encodation
-                    mode = EncodeMode.ALPHA_OR_ISO;
-                } else if ((c >= 'a' && c <= 'z') || c == '!' || c == '"' || c == '%' || c == '&' || c == '\'' ||
-                        c == '(' || c == ')' || c == '+' || c == ':' || c == ';' || c == '<' || c == '=' ||
-                        c == '>' || c == '?' || c == '_' || c == ' ') {
-                    // ISO/IEC encodation
-                    mode = EncodeMode.ISOIEC;
-                } else {
-                    // unable to encode this character
-                    mode = EncodeMode.INVALID_CHAR;
-                    latch = true;
-                }
-                generalFieldType[i] = mode;
-            }
-
-            if (latch) {
-                throw new BarcodeException("Invalid characters in input data");
-            }
-
-            for (i = 0; i < generalField.length - 1; i++) {
-                if (generalFieldType[i] == EncodeMode.ISOIEC && generalField[i + 1] == FNC1) {
-                    generalFieldType[i + 1] = EncodeMode.ISOIEC;
-                }
-            }
-
-            for (i = 0; i < generalField.length - 1; i++) {
-                if (generalFieldType[i] == EncodeMode.ALPHA_OR_ISO && generalField[i + 1] == FNC1) {
-                    generalFieldType[i + 1] = EncodeMode.ALPHA_OR_ISO;
-                }
-            }
-
-            latch = applyGeneralFieldRules(generalFieldType); // modifies generalFieldType
-
-            /* Set initial mode if not NUMERIC */
-            if (generalFieldType[0] == EncodeMode.ALPHA) {
-                binaryString.append("0000"); /* Alphanumeric latch */
-                last_mode = EncodeMode.ALPHA;
-            }
-            if (generalFieldType[0] == EncodeMode.ISOIEC) {
-                binaryString.append("0000"); /* Alphanumeric latch */
-                binaryString.append("00100"); /* ISO/IEC 646 latch */
-                last_mode = EncodeMode.ISOIEC;
-            }
-
-            i = 0;
-
-            current_length = i;
-            if (latch) {
-                current_length++;
-            }
-
-            while (current_length < generalField.length) {
-
-                switch (generalFieldType[i]) {
-                    case NUMERIC:
-                        if (last_mode != EncodeMode.NUMERIC) {
-                            binaryString.append("000"); /* Numeric latch */
-                        }
-                        if (generalField[i] != FNC1) {
-                            d1 = generalField[i] - '0';
-                        } else {
-                            d1 = 10;
-                        }
-                        if (generalField[i + 1] != FNC1) {
-                            d2 = generalField[i + 1] - '0';
-                        } else {
-                            d2 = 10;
-                        }
-                        value = (11 * d1) + d2 + 8;
-                        binaryAppend(binaryString, value, 7);
-                        i += 2;
-                        last_mode = EncodeMode.NUMERIC;
-                        break;
-
-                    case ALPHA:
-                        if (i != 0) {
-                            if (last_mode == EncodeMode.NUMERIC) {
-                                binaryString.append("0000"); /* Alphanumeric latch */
-                            }
-                            if (last_mode == EncodeMode.ISOIEC) {
-                                binaryString.append("00100"); /* Alphanumeric latch */
-                            }
-                        }
-                        if (generalField[i] >= '0' && generalField[i] <= '9') {
-                            value = generalField[i] - 43;
-                            binaryAppend(binaryString, value, 5);
-                        }
-                        if (generalField[i] >= 'A' && generalField[i] <= 'Z') {
-                            value = generalField[i] - 33;
-                            binaryAppend(binaryString, value, 6);
-                        }
-                        last_mode = EncodeMode.ALPHA;
-                        if (generalField[i] == FNC1) {
-                            binaryString.append("01111");
-                            // TODO: FNC1 should act as an implicit numeric latch, so the commented out line below should be correct, but ZXing cannot
-                            // read barcodes which use FNC1 as an implicit numeric latch... so for now, and in order to achieve widest compatibility,
-                            // we waste 3 bits and don't perform the implicit mode change (see https://sourceforge.net/p/zint/tickets/145/)
-                            // last_mode = EncodeMode.NUMERIC;
-                        } /* FNC1 / Numeric latch */
-                        if (generalField[i] == '*') binaryString.append("111010"); /* asterisk */
-                        if (generalField[i] == ',') binaryString.append("111011"); /* comma */
-                        if (generalField[i] == '-') binaryString.append("111100"); /* minus or hyphen */
-                        if (generalField[i] == '.') binaryString.append("111101"); /* period or full stop */
-                        if (generalField[i] == '/') binaryString.append("111110"); /* slash or solidus */
-                        i++;
-                        break;
-
-                    case ISOIEC:
-                        if (i != 0) {
-                            if (last_mode == EncodeMode.NUMERIC) {
-                                binaryString.append("0000"); /* Alphanumeric latch */
-                                binaryString.append("00100"); /* ISO/IEC 646 latch */
-                            }
-                            if (last_mode == EncodeMode.ALPHA) {
-                                binaryString.append("00100"); /* ISO/IEC 646 latch */
-                            }
-                        }
-                        if (generalField[i] >= '0' && generalField[i] <= '9') {
-                            value = generalField[i] - 43;
-                            binaryAppend(binaryString, value, 5);
-                        }
-                        if (generalField[i] >= 'A' && generalField[i] <= 'Z') {
-                            value = generalField[i] - 1;
-                            binaryAppend(binaryString, value, 7);
-                        }
-                        if (generalField[i] >= 'a' && generalField[i] <= 'z') {
-                            value = generalField[i] - 7;
-                            binaryAppend(binaryString, value, 7);
-                        }
-                        last_mode = EncodeMode.ISOIEC;
-                        if (generalField[i] == FNC1) {
-                            binaryString.append("01111");
-                            // TODO: FNC1 should act as an implicit numeric latch, so the commented out line below should be correct, but ZXing cannot
-                            // read barcodes which use FNC1 as an implicit numeric latch... so for now, and in order to achieve widest compatibility,
-                            // we waste 3 bits and don't perform the implicit mode change (see https://sourceforge.net/p/zint/tickets/145/)
-                            // last_mode = EncodeMode.NUMERIC;
-                        } /* FNC1 / Numeric latch */
-                        if (generalField[i] == '!') binaryString.append("11101000"); /* exclamation mark */
-                        if (generalField[i] == 34) binaryString.append("11101001"); /* quotation mark */
-                        if (generalField[i] == 37) binaryString.append("11101010"); /* percent sign */
-                        if (generalField[i] == '&') binaryString.append("11101011"); /* ampersand */
-                        if (generalField[i] == 39) binaryString.append("11101100"); /* apostrophe */
-                        if (generalField[i] == '(') binaryString.append("11101101"); /* left parenthesis */
-                        if (generalField[i] == ')') binaryString.append("11101110"); /* right parenthesis */
-                        if (generalField[i] == '*') binaryString.append("11101111"); /* asterisk */
-                        if (generalField[i] == '+') binaryString.append("11110000"); /* plus sign */
-                        if (generalField[i] == ',') binaryString.append("11110001"); /* comma */
-                        if (generalField[i] == '-') binaryString.append("11110010"); /* minus or hyphen */
-                        if (generalField[i] == '.') binaryString.append("11110011"); /* period or full stop */
-                        if (generalField[i] == '/') binaryString.append("11110100"); /* slash or solidus */
-                        if (generalField[i] == ':') binaryString.append("11110101"); /* colon */
-                        if (generalField[i] == ';') binaryString.append("11110110"); /* semicolon */
-                        if (generalField[i] == '<') binaryString.append("11110111"); /* less-than sign */
-                        if (generalField[i] == '=') binaryString.append("11111000"); /* equals sign */
-                        if (generalField[i] == '>') binaryString.append("11111001"); /* greater-than sign */
-                        if (generalField[i] == '?') binaryString.append("11111010"); /* question mark */
-                        if (generalField[i] == '_') binaryString.append("11111011"); /* underline or low line */
-                        if (generalField[i] == ' ') binaryString.append("11111100"); /* space */
-                        i++;
-                        break;
-                }
-
-                current_length = i;
-                if (latch) {
-                    current_length++;
-                }
-            }
-
-            remainder = calculateRemainder(binaryString.length(), stacked, blocksPerRow);
-
-            if (latch) {
-                /* There is still one more numeric digit to encode */
-                if (last_mode == EncodeMode.NUMERIC) {
-                    if (remainder >= 4 && remainder <= 6) {
-                        value = generalField[i] - '0';
-                        value++;
-                        binaryAppend(binaryString, value, 4);
-                    } else {
-                        d1 = generalField[i] - '0';
-                        d2 = 10;
-                        value = (11 * d1) + d2 + 8;
-                        binaryAppend(binaryString, value, 7);
-                    }
-                } else {
-                    value = generalField[i] - 43;
-                    binaryAppend(binaryString, value, 5);
-                }
-            }
-        }
+        GeneralFieldEncoder generalFieldEncoder = new GeneralFieldEncoder(generalField, false);
+        generalFieldEncoder.encode(binaryString);
+        generalFieldEncoder.encodeLast(binaryString, calculateRemainder(binaryString.length(), stacked, blocksPerRow));
 
         if (binaryString.length() > 252) {
             throw new BarcodeException("Input too long");
         }
 
-        remainder = calculateRemainder(binaryString.length(), stacked, blocksPerRow);
+        int remainder = calculateRemainder(binaryString.length(), stacked, blocksPerRow);
 
         /* Now add padding to binary string (7.2.5.5.4) */
-        i = remainder;
-        if (last_mode == EncodeMode.NUMERIC) {
-            padstring = "0000";
-            i -= 4;
-        } else {
-            padstring = "";
-        }
-        for (; i > 0; i -= 5) {
-            padstring += "00100";
-        }
-        binaryString.append(padstring.substring(0, remainder));
+        generalFieldEncoder.pad(binaryString, binaryString.length() + remainder);
 
         /* Patch variable length symbol bit field */
-        char patchEvenOdd, patchSize;
-        if ((((binaryString.length() / 12) + 1) & 1) == 0) {
-            patchEvenOdd = '0';
-        } else {
-            patchEvenOdd = '1';
-        }
-        if (binaryString.length() <= 156) {
-            patchSize = '0';
-        } else {
-            patchSize = '1';
-        }
+        boolean patchEvenOdd = (((binaryString.length() / 12) + 1) & 1) != 0;
+        boolean patchSize = binaryString.length() > 156;
 
         if (encodingMethod == 1) {
-            binaryString.setCharAt(2, patchEvenOdd);
-            binaryString.setCharAt(3, patchSize);
+            binaryString.set(2, patchEvenOdd);
+            binaryString.set(3, patchSize);
         }
         if (encodingMethod == 2) {
-            binaryString.setCharAt(3, patchEvenOdd);
-            binaryString.setCharAt(4, patchSize);
+            binaryString.set(3, patchEvenOdd);
+            binaryString.set(4, patchSize);
         }
         if (encodingMethod == 5 || encodingMethod == 6) {
-            binaryString.setCharAt(6, patchEvenOdd);
-            binaryString.setCharAt(7, patchSize);
+            binaryString.set(6, patchEvenOdd);
+            binaryString.set(7, patchSize);
         }
 
         return encodingMethod;
@@ -1059,159 +823,18 @@ public class DataBarExpanded extends Symbol {
     /**
      * Logs binary string as hexadecimal
      */
-    private void logBinaryStringInfo(StringBuilder binaryString) {
+    private void logBinaryStringInfo(BitStream binaryString) {
 
         infoLine("Binary Length: " + binaryString.length());
         info("Binary String: ");
 
-        int nibble = 0;
-        for (int i = 0; i < binaryString.length(); i++) {
-            switch (i % 4) {
-                case 0:
-                    if (binaryString.charAt(i) == '1') {
-                        nibble += 8;
-                    }
-                    break;
-                case 1:
-                    if (binaryString.charAt(i) == '1') {
-                        nibble += 4;
-                    }
-                    break;
-                case 2:
-                    if (binaryString.charAt(i) == '1') {
-                        nibble += 2;
-                    }
-                    break;
-                case 3:
-                    if (binaryString.charAt(i) == '1') {
-                        nibble += 1;
-                    }
-                    info(Integer.toHexString(nibble));
-                    nibble = 0;
-                    break;
-            }
-        }
-
-        if ((binaryString.length() % 4) != 0) {
-            info(Integer.toHexString(nibble));
+        for (int i = 0; i < binaryString.length(); i += 4) {
+            info(Integer.toHexString(binaryString.get(i, 4)));
         }
 
         infoLine();
     }
 
-    /**
-     * Attempts to apply encoding rules from sections 7.2.5.5.1 to 7.2.5.5.3 of ISO/IEC 24724:2006
-     */
-    private static boolean applyGeneralFieldRules(EncodeMode[] generalFieldType) {
-
-        int block_count, i, j, k;
-        EncodeMode current, next, last;
-        int[] blockLength = new int[200];
-        EncodeMode[] blockType = new EncodeMode[200];
-
-        block_count = 0;
-
-        blockLength[block_count] = 1;
-        blockType[block_count] = generalFieldType[0];
-
-        for (i = 1; i < generalFieldType.length; i++) {
-            current = generalFieldType[i];
-            last = generalFieldType[i - 1];
-
-            if (current == last) {
-                blockLength[block_count] = blockLength[block_count] + 1;
-            } else {
-                block_count++;
-                blockLength[block_count] = 1;
-                blockType[block_count] = generalFieldType[i];
-            }
-        }
-
-        block_count++;
-
-        for (i = 0; i < block_count; i++) {
-            current = blockType[i];
-            next = blockType[i + 1];
-
-            if ((current == EncodeMode.ISOIEC) && (i != (block_count - 1))) {
-                if ((next == EncodeMode.ANY_ENC) && (blockLength[i + 1] >= 4)) {
-                    blockType[i + 1] = EncodeMode.NUMERIC;
-                }
-                if ((next == EncodeMode.ANY_ENC) && (blockLength[i + 1] < 4)) {
-                    blockType[i + 1] = EncodeMode.ISOIEC;
-                }
-                if ((next == EncodeMode.ALPHA_OR_ISO) && (blockLength[i + 1] >= 5)) {
-                    blockType[i + 1] = EncodeMode.ALPHA;
-                }
-                if ((next == EncodeMode.ALPHA_OR_ISO) && (blockLength[i + 1] < 5)) {
-                    blockType[i + 1] = EncodeMode.ISOIEC;
-                }
-            }
-
-            if (current == EncodeMode.ALPHA_OR_ISO) {
-                blockType[i] = EncodeMode.ALPHA;
-                current = EncodeMode.ALPHA;
-            }
-
-            if ((current == EncodeMode.ALPHA) && (i != (block_count - 1))) {
-                if ((next == EncodeMode.ANY_ENC) && (blockLength[i + 1] >= 6)) {
-                    blockType[i + 1] = EncodeMode.NUMERIC;
-                }
-                if ((next == EncodeMode.ANY_ENC) && (blockLength[i + 1] < 6)) {
-                    if ((i == block_count - 2) && (blockLength[i + 1] >= 4)) {
-                        blockType[i + 1] = EncodeMode.NUMERIC;
-                    } else {
-                        blockType[i + 1] = EncodeMode.ALPHA;
-                    }
-                }
-            }
-
-            if (current == EncodeMode.ANY_ENC) {
-                blockType[i] = EncodeMode.NUMERIC;
-            }
-        }
-
-        if (block_count > 1) {
-            i = 1;
-            while (i < block_count) {
-                if (blockType[i - 1] == blockType[i]) {
-                    /* bring together */
-                    blockLength[i - 1] = blockLength[i - 1] + blockLength[i];
-                    j = i + 1;
-
-                    /* decrease the list */
-                    while (j < block_count) {
-                        blockLength[j - 1] = blockLength[j];
-                        blockType[j - 1] = blockType[j];
-                        j++;
-                    }
-                    block_count--;
-                    i--;
-                }
-                i++;
-            }
-        }
-
-        for (i = 0; i < block_count - 1; i++) {
-            if (blockType[i] == EncodeMode.NUMERIC && (blockLength[i] & 1) != 0) {
-                /* Odd size numeric block */
-                blockLength[i] = blockLength[i] - 1;
-                blockLength[i + 1] = blockLength[i + 1] + 1;
-            }
-        }
-
-        j = 0;
-        for (i = 0; i < block_count; i++) {
-            for (k = 0; k < blockLength[i]; k++) {
-                generalFieldType[j] = blockType[i];
-                j++;
-            }
-        }
-
-        /* If the last block is numeric and an odd size, further processing needs to be done outside this procedure */
-        return blockType[block_count - 1] == EncodeMode.NUMERIC && (blockLength[block_count - 1] & 1) != 0;
-    }
-
     private static int parseInt(int[] chars, int index, int length) {
         int val = 0;
         int pow = (int) Math.pow(10, length - 1);
@@ -2,8 +2,6 @@ package ru.chipmunkbarcode.barcodeTypes;
 
 import ru.chipmunkbarcode.exceptions.BarcodeException;
 
-import java.math.BigInteger;
-
 /**
  * <p>Implements GS1 DataBar Limited according to ISO/IEC 24724:2011.
  *
@@ -129,6 +127,9 @@ public class DataBarLimited extends Symbol {
             2, 1, 1, 1, 1, 1, 1, 1, 2, 2, 1, 2, 1, 1 /* ISO/IEC 24724-2011 57 */
     };
 
+    /* Width patterns for each set of RSS subset width parameters, indexed by value, built as they are needed */
+    private static final WidthTable[] WIDTH_TABLES = new WidthTable[1 << 13];
+
     private boolean linkageFlag;
 
     /**
@@ -150,9 +151,9 @@ public class DataBarLimited extends Symbol {
 
     @Override
     protected void encode() {
-        BigInteger accum;
-        BigInteger left_reg;
-        BigInteger right_reg;
+        long accum;
+        int left_reg;
+        int right_reg;
         int left_group;
         int right_group;
         int i, j;
@@ -186,54 +187,54 @@ public class DataBarLimited extends Symbol {
             throw new BarcodeException("Input out of range");
         }
 
-        accum = new BigInteger(content);
+        accum = Long.parseLong(content);
 
         if (linkageFlag) {
             /* Add symbol linkage flag */
-            accum = accum.add(new BigInteger("2015133531096"));
+            accum += 2015133531096L;
         }
 
         /* Calculate left and right pair values */
-        left_reg = accum.divide(new BigInteger("2013571"));
-        right_reg = accum.mod(new BigInteger("2013571"));
+        left_reg = (int) (accum / 2013571);
+        right_reg = (int) (accum % 2013571);
 
         left_group = 0;
-        if (left_reg.compareTo(new BigInteger("183063")) == 1) {
+        if (left_reg > 183063) {
             left_group = 1;
         }
-        if (left_reg.compareTo(new BigInteger("820063")) == 1) {
+        if (left_reg > 820063) {
             left_group = 2;
         }
-        if (left_reg.compareTo(new BigInteger("1000775")) == 1) {
+        if (left_reg > 1000775) {
             left_group = 3;
         }
-        if (left_reg.compareTo(new BigInteger("1491020")) == 1) {
+        if (left_reg > 1491020) {
             left_group = 4;
         }
-        if (left_reg.compareTo(new BigInteger("1979844")) == 1) {
+        if (left_reg > 1979844) {
             left_group = 5;
         }
-        if (left_reg.compareTo(new BigInteger("1996938")) == 1) {
+        if (left_reg > 1996938) {
             left_group = 6;
         }
 
         right_group = 0;
-        if (right_reg.compareTo(new BigInteger("183063")) == 1) {
+        if (right_reg > 183063) {
             right_group = 1;
         }
-        if (right_reg.compareTo(new BigInteger("820063")) == 1) {
+        if (right_reg > 820063) {
             right_group = 2;
         }
-        if (right_reg.compareTo(new BigInteger("1000775")) == 1) {
+        if (right_reg > 1000775) {
             right_group = 3;
         }
-        if (right_reg.compareTo(new BigInteger("1491020")) == 1) {
+        if (right_reg > 1491020) {
             right_group = 4;
         }
-        if (right_reg.compareTo(new BigInteger("1979844")) == 1) {
+        if (right_reg > 1979844) {
             right_group = 5;
         }
-        if (right_reg.compareTo(new BigInteger("1996938")) == 1) {
+        if (right_reg > 1996938) {
             right_group = 6;
         }
 
@@ -241,48 +242,48 @@ public class DataBarLimited extends Symbol {
 
         switch (left_group) {
             case 1:
-                left_reg = left_reg.subtract(new BigInteger("183064"));
+                left_reg -= 183064;
                 break;
             case 2:
-                left_reg = left_reg.subtract(new BigInteger("820064"));
+                left_reg -= 820064;
                 break;
             case 3:
-                left_reg = left_reg.subtract(new BigInteger("1000776"));
+                left_reg -= 1000776;
                 break;
             case 4:
-                left_reg = left_reg.subtract(new BigInteger("1491021"));
+                left_reg -= 1491021;
                 break;
             case 5:
-                left_reg = left_reg.subtract(new BigInteger("1979845"));
+                left_reg -= 1979845;
                 break;
             case 6:
-                left_reg = left_reg.subtract(new BigInteger("1996939"));
+                left_reg -= 1996939;
                 break;
         }
 
         switch (right_group) {
             case 1:
-                right_reg = right_reg.subtract(new BigInteger("183064"));
+                right_reg -= 183064;
                 break;
             case 2:
-                right_reg = right_reg.subtract(new BigInteger("820064"));
+                right_reg -= 820064;
                 break;
             case 3:
-                right_reg = right_reg.subtract(new BigInteger("1000776"));
+                right_reg -= 1000776;
                 break;
             case 4:
-                right_reg = right_reg.subtract(new BigInteger("1491021"));
+                right_reg -= 1491021;
                 break;
             case 5:
-                right_reg = right_reg.subtract(new BigInteger("1979845"));
+                right_reg -= 1979845;
                 break;
             case 6:
-                right_reg = right_reg.subtract(new BigInteger("1996939"));
+                right_reg -= 1996939;
                 break;
         }
 
-        left_character = left_reg.intValue();
-        right_character = right_reg.intValue();
+        left_character = left_reg;
+        right_character = right_reg;
 
         left_odd = left_character / T_EVEN_LTD[left_group];
         left_even = left_character % T_EVEN_LTD[left_group];
@@ -446,7 +447,35 @@ public class DataBarLimited extends Symbol {
         return val;
     }
 
+    /**
+     * Returns the element widths of the specified value, using the RSS subset width algorithm. Widths come from
+     * a table which is built the first time that the other parameters are seen, and are shared, so callers must
+     * not modify them.
+     *
+     * @param val the value of the odd or even subset
+     * @param n the total number of modules in the elements
+     * @param elements the number of elements
+     * @param maxWidth the maximum width of an element
+     * @param noNarrow <code>1</code> if no element needs to be a single module wide, <code>0</code> otherwise
+     * @return the width of each element
+     */
     static int[] getWidths(int val, int n, int elements, int maxWidth, int noNarrow) {
+        if (val >= 0 && n < 32 && elements < 8 && maxWidth < 16 && (noNarrow == 0 || noNarrow == 1)) {
+            int key = (((((n << 3) | elements) << 4) | maxWidth) << 1) | noNarrow;
+            WidthTable table = WIDTH_TABLES[key];
+            if (table == null) {
+                /* Tables are immutable, so if two threads happen to build the same table, no harm is done */
+                table = new WidthTable(n, elements, maxWidth, noNarrow);
+                WIDTH_TABLES[key] = table;
+            }
+            if (val < table.widths.length) {
+                return table.widths[val];
+            }
+        }
+        return calculateWidths(val, n, elements, maxWidth, noNarrow);
+    }
+
+    private static int[] calculateWidths(int val, int n, int elements, int maxWidth, int noNarrow) {
 
         int bar;
         int elmWidth;
@@ -489,4 +518,41 @@ public class DataBarLimited extends Symbol {
 
         return widths;
     }
+
+    /**
+     * The element widths of every value of one set of RSS subset width parameters.
+     */
+    private static final class WidthTable {
+
+        /** The element widths of each value. */
+        final int[][] widths;
+
+        WidthTable(int n, int elements, int maxWidth, int noNarrow) {
+            int count = countWidths(n, elements, 1, maxWidth);
+            if (noNarrow == 0) {
+                /* leave out the combinations with no single-module element */
+                count -= countWidths(n, elements, 2, maxWidth);
+            }
+            widths = new int[count][];
+            for (int val = 0; val < count; val++) {
+                widths[val] = calculateWidths(val, n, elements, maxWidth, noNarrow);
+            }
+        }
+
+        /** Returns the number of ways of making up the specified number of modules from elements of the specified widths. */
+        private static int countWidths(int n, int elements, int minWidth, int maxWidth) {
+            int[] ways = new int[n + 1];
+            ways[0] = 1;
+            for (int element = 0; element < elements; element++) {
+                int[] next = new int[n + 1];
+                for (int total = 0; total <= n; total++) {
+                    for (int width = minWidth; width <= maxWidth && width <= total; width++) {
+                        next[total] += ways[total - width];
+                    }
+                }
+                ways = next;
+            }
+            return ways[n];
+        }
+    }
 }
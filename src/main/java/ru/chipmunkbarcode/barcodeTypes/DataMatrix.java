@@ -102,6 +102,28 @@ public class DataMatrix extends Symbol {
 
     private static final int DM_SIZES_COUNT = MATRIX_H.length;
 
+    /*
+     * States used by the minimal encodation search. C40, Text and X12 track the number of values waiting to
+     * be packed into a codeword pair (0 - 2), EDIFACT the number of values waiting to be packed into a codeword
+     * triple (0 - 3). Costs are measured in twelfths of a codeword, so that C40, Text and X12 values cost 8
+     * and EDIFACT values cost 9. A Base 256 run of up to 249 bytes, which has a single length codeword, is
+     * reached in one step from the position where it starts. A longer run, which has two length codewords,
+     * pays for both when it latches, and then continues one byte at a time.
+     */
+    private static final int ST_ASCII = 0;
+    private static final int ST_C40 = 1;
+    private static final int ST_TEXT = 4;
+    private static final int ST_X12 = 7;
+    private static final int ST_EDIFACT = 10;
+    private static final int ST_BASE256 = 14;
+    private static final int ST_BASE256_LONG = 15;
+    private static final int ST_COUNT = 16;
+    private static final int BASE256_SHORT_MAX = 249;
+    private static final int UNREACHABLE = Integer.MAX_VALUE / 2;
+
+    /* Per-size finder patterns and data module positions, built as they are needed */
+    private static final Placement[] PLACEMENTS = new Placement[DM_SIZES_COUNT];
+
     // user-specified values and settings
 
     private ForceMode forceMode = ForceMode.NONE;
@@ -109,18 +131,19 @@ public class DataMatrix extends Symbol {
     private int structuredAppendFileId = 1;
     private int structuredAppendPosition = 1;
     private int structuredAppendTotal = 1;
+    private boolean minimalEncodation;
 
     // internal state calculated when setContent() is called
 
     private int actualSize = -1;
-    private final int[] target = new int[2200];
-    private final int[] binary = new int[2200];
-    private int binaryLength;
+    private int[] target = new int[0];
+    private int[] base256Runs = new int[0];
+    private int base256RunCount;
     private Mode lastMode;
-    private int[] places;
     private int processP;
     private final int[] processBuffer = new int[8];
     private int codewordCount;
+    private Mode[] encodationPlan;
 
     /**
      * Forces the symbol to be either square or rectangular (non-square).
@@ -217,6 +240,28 @@ public class DataMatrix extends Symbol {
         return MATRIX_H[index2];
     }
 
+    /**
+     * Sets whether or not to search for the shortest possible sequence of encodation modes (ASCII, C40, Text,
+     * X12, EDIFACT and Base 256) for the data, instead of choosing modes using the look-ahead test from
+     * ISO/IEC 16022 Annex P. Minimal encodation takes time proportional to the length of the data, and may
+     * allow the data to fit in a smaller symbol. The default value is <code>false</code>.
+     *
+     * @param minimalEncodation whether or not to use minimal encodation
+     */
+    public void setMinimalEncodation(boolean minimalEncodation) {
+        this.minimalEncodation = minimalEncodation;
+    }
+
+    /**
+     * Returns whether or not minimal encodation is used.
+     *
+     * @return whether or not minimal encodation is used
+     * @see #setMinimalEncodation(boolean)
+     */
+    public boolean getMinimalEncodation() {
+        return minimalEncodation;
+    }
+
     /**
      * If this Data Matrix symbol is part of a series of Data Matrix symbols appended in a structured
      * format, this method sets the position of this symbol in the series. Valid values are 1 through
@@ -303,7 +348,7 @@ public class DataMatrix extends Symbol {
         int symbolSize, optionSize, calcSize;
         int taillength;
         int H, W, FH, FW, datablock, bytes, rsblock;
-        int x, y, NC, NR, v;
+        int x, y;
         int[] grid;
         StringBuilder bin = new StringBuilder();
 
@@ -367,7 +412,8 @@ public class DataMatrix extends Symbol {
         datablock = MATRIX_DATA_BLOCK[symbolSize];
         rsblock = MATRIX_RS_BLOCK[symbolSize];
 
-        codewordCount = datablock + rsblock; // data codewords + error correction codewords
+        codewordCount = bytes + (rsblock * ((bytes + 2) / datablock)); // data codewords + error correction codewords
+        target = Arrays.copyOf(target, codewordCount);
 
         taillength = bytes - binLen;
 
@@ -380,36 +426,11 @@ public class DataMatrix extends Symbol {
             skew = 1;
         }
         calculateErrorCorrection(bytes, datablock, rsblock, skew);
-        NC = W - 2 * (W / FW);
-        NR = H - 2 * (H / FH);
-        places = new int[NC * NR];
-        placeData(NR, NC);
-        grid = new int[W * H];
-        for (i = 0; i < (W * H); i++) {
-            grid[i] = 0;
-        }
-        for (y = 0; y < H; y += FH) {
-            for (x = 0; x < W; x++) {
-                grid[y * W + x] = 1;
-            }
-            for (x = 0; x < W; x += 2) {
-                grid[(y + FH - 1) * W + x] = 1;
-            }
-        }
-        for (x = 0; x < W; x += FW) {
-            for (y = 0; y < H; y++) {
-                grid[y * W + x] = 1;
-            }
-            for (y = 0; y < H; y += 2) {
-                grid[y * W + x + FW - 1] = 1;
-            }
-        }
-        for (y = 0; y < NR; y++) {
-            for (x = 0; x < NC; x++) {
-                v = places[(NR - y - 1) * NC + x];
-                if (v == 1 || (v > 7 && (target[(v >> 3) - 1] & (1 << (v & 7))) != 0)) {
-                    grid[(1 + y + 2 * (y / (FH - 2))) * W + 1 + x + 2 * (x / (FW - 2))] = 1;
-                }
+        Placement placement = getPlacement(symbolSize);
+        grid = placement.grid.clone();
+        for (i = 0; i < placement.modules.length; i++) {
+            if ((target[i >> 3] & (0x80 >> (i & 7))) != 0) {
+                grid[placement.modules[i]] = 1;
             }
         }
 
@@ -458,7 +479,8 @@ public class DataMatrix extends Symbol {
         for (i = 0; i < 8; i++) {
             processBuffer[i] = 0;
         }
-        binaryLength = 0;
+        target = new int[inputLength + 16];
+        base256RunCount = 0;
 
         /* step (a) */
         currentMode = Mode.DM_ASCII;
@@ -469,40 +491,30 @@ public class DataMatrix extends Symbol {
             /* FNC2 */
             target[tp] = 233;
             tp++;
-            binary[binaryLength] = ' ';
-            binaryLength++;
             info("FNC2 ");
 
             /* symbol sequence indicator (position + total) */
             int ssi = ((structuredAppendPosition - 1) << 4) | (17 - structuredAppendTotal);
             target[tp] = ssi;
             tp++;
-            binary[binaryLength] = ' ';
-            binaryLength++;
             infoSpace(ssi);
 
             /* file identification codeword 1 (valid values 1 - 254) */
             int id1 = 1 + ((structuredAppendFileId - 1) / 254);
             target[tp] = id1;
             tp++;
-            binary[binaryLength] = ' ';
-            binaryLength++;
             infoSpace(id1);
 
             /* file identification codeword 2 (valid values 1 - 254) */
             int id2 = 1 + ((structuredAppendFileId - 1) % 254);
             target[tp] = id2;
             tp++;
-            binary[binaryLength] = ' ';
-            binaryLength++;
             infoSpace(id2);
         }
 
         if (inputDataType == DataType.GS1) {
             target[tp] = 232;
             tp++;
-            binary[binaryLength] = ' ';
-            binaryLength++;
             info("FNC1 ");
         } /* FNC1 */
 
@@ -512,8 +524,6 @@ public class DataMatrix extends Symbol {
             } else {
                 target[tp] = 234; /* FNC3 */
                 tp++; /* Reader Programming */
-                binary[binaryLength] = ' ';
-                binaryLength++;
                 info("RP ");
             }
         }
@@ -521,37 +531,23 @@ public class DataMatrix extends Symbol {
         if (eciMode != 3) {
             target[tp] = 241; // ECI
             tp++;
-            binary[binaryLength] = ' ';
-            binaryLength++;
             if (eciMode <= 126) {
                 target[tp] = eciMode + 1;
                 tp++;
-                binary[binaryLength] = ' ';
-                binaryLength++;
             }
             if ((eciMode >= 127) && (eciMode <= 16382)) {
                 target[tp] = ((eciMode - 127) / 254) + 128;
                 tp++;
-                binary[binaryLength] = ' ';
-                binaryLength++;
                 target[tp] = ((eciMode - 127) % 254) + 1;
                 tp++;
-                binary[binaryLength] = ' ';
-                binaryLength++;
             }
             if (eciMode >= 16383) {
                 target[tp] = ((eciMode - 16383) / 64516) + 192;
                 tp++;
-                binary[binaryLength] = ' ';
-                binaryLength++;
                 target[tp] = (((eciMode - 16383) / 254) % 254) + 1;
                 tp++;
-                binary[binaryLength] = ' ';
-                binaryLength++;
                 target[tp] = ((eciMode - 16383) % 254) + 1;
                 tp++;
-                binary[binaryLength] = ' ';
-                binaryLength++;
             }
             info("ECI " + eciMode + " ");
         }
@@ -575,8 +571,6 @@ public class DataMatrix extends Symbol {
                     info("Macro06 ");
                 }
                 tp++;
-                binary[binaryLength] = ' ';
-                binaryLength++;
                 /* Remove macro characters from input string */
                 sp = 7;
                 inputLength -= 2;
@@ -584,7 +578,10 @@ public class DataMatrix extends Symbol {
             }
         }
 
+        encodationPlan = (minimalEncodation ? planMinimalEncodation(sp, inputLength) : null);
+
         while (sp < inputLength) {
+            ensureCapacity(tp + 8);
             currentMode = nextMode;
             /* step (b) - ASCII encodation */
             if (currentMode == Mode.DM_ASCII) {
@@ -597,47 +594,35 @@ public class DataMatrix extends Symbol {
                             + Character.getNumericValue(inputData[sp + 1]) + 130;
                     infoSpace(target[tp] - 130);
                     tp++;
-                    binary[binaryLength] = ' ';
-                    binaryLength++;
                     sp += 2;
                 } else {
-                    nextMode = lookAheadTest(sp, currentMode);
+                    nextMode = chooseMode(sp, currentMode);
 
                     if (nextMode != Mode.DM_ASCII) {
                         switch (nextMode) {
                             case DM_C40:
                                 target[tp] = 230;
                                 tp++;
-                                binary[binaryLength] = ' ';
-                                binaryLength++;
                                 info("C40 ");
                                 break;
                             case DM_TEXT:
                                 target[tp] = 239;
                                 tp++;
-                                binary[binaryLength] = ' ';
-                                binaryLength++;
                                 info("TEX ");
                                 break;
                             case DM_X12:
                                 target[tp] = 238;
                                 tp++;
-                                binary[binaryLength] = ' ';
-                                binaryLength++;
                                 info("X12 ");
                                 break;
                             case DM_EDIFACT:
                                 target[tp] = 240;
                                 tp++;
-                                binary[binaryLength] = ' ';
-                                binaryLength++;
                                 info("EDI ");
                                 break;
                             case DM_BASE256:
                                 target[tp] = 231;
                                 tp++;
-                                binary[binaryLength] = ' ';
-                                binaryLength++;
                                 info("BAS ");
                                 break;
                         }
@@ -650,10 +635,6 @@ public class DataMatrix extends Symbol {
                             target[tp] = (inputData[sp] - 128) + 1;
                             infoSpace(target[tp] - 1);
                             tp++;
-                            binary[binaryLength] = ' ';
-                            binaryLength++;
-                            binary[binaryLength] = ' ';
-                            binaryLength++;
                         } else {
                             if (inputData[sp] == FNC1) {
                                 target[tp] = 232; /* FNC1 */
@@ -663,8 +644,6 @@ public class DataMatrix extends Symbol {
                                 infoSpace(target[tp] - 1);
                             }
                             tp++;
-                            binary[binaryLength] = ' ';
-                            binaryLength++;
                         }
                         sp++;
                     }
@@ -677,14 +656,12 @@ public class DataMatrix extends Symbol {
 
                 nextMode = Mode.DM_C40;
                 if (processP == 0) {
-                    nextMode = lookAheadTest(sp, currentMode);
+                    nextMode = chooseMode(sp, currentMode);
                 }
 
                 if (nextMode != Mode.DM_C40) {
                     target[tp] = 254;
-                    tp++;
-                    binary[binaryLength] = ' ';
-                    binaryLength++; /* Unlatch */
+                    tp++; /* Unlatch */
 
                     nextMode = Mode.DM_ASCII;
                     info("ASC ");
@@ -721,10 +698,6 @@ public class DataMatrix extends Symbol {
                         tp++;
                         target[tp] = iv % 256;
                         tp++;
-                        binary[binaryLength] = ' ';
-                        binaryLength++;
-                        binary[binaryLength] = ' ';
-                        binaryLength++;
                         info("(" + processBuffer[0] + " " + processBuffer[1] + " " + processBuffer[2] + ") ");
 
                         processBuffer[0] = processBuffer[3];
@@ -745,14 +718,12 @@ public class DataMatrix extends Symbol {
 
                 nextMode = Mode.DM_TEXT;
                 if (processP == 0) {
-                    nextMode = lookAheadTest(sp, currentMode);
+                    nextMode = chooseMode(sp, currentMode);
                 }
 
                 if (nextMode != Mode.DM_TEXT) {
                     target[tp] = 254;
-                    tp++;
-                    binary[binaryLength] = ' ';
-                    binaryLength++; /* Unlatch */
+                    tp++; /* Unlatch */
 
                     nextMode = Mode.DM_ASCII;
                     info("ASC ");
@@ -789,10 +760,6 @@ public class DataMatrix extends Symbol {
                         tp++;
                         target[tp] = iv % 256;
                         tp++;
-                        binary[binaryLength] = ' ';
-                        binaryLength++;
-                        binary[binaryLength] = ' ';
-                        binaryLength++;
                         info("(" + processBuffer[0] + " " + processBuffer[1] + " " + processBuffer[2] + ") ");
 
                         processBuffer[0] = processBuffer[3];
@@ -813,14 +780,12 @@ public class DataMatrix extends Symbol {
 
                 nextMode = Mode.DM_X12;
                 if (processP == 0) {
-                    nextMode = lookAheadTest(sp, currentMode);
+                    nextMode = chooseMode(sp, currentMode);
                 }
 
                 if (nextMode != Mode.DM_X12) {
                     target[tp] = 254;
-                    tp++;
-                    binary[binaryLength] = ' ';
-                    binaryLength++; /* Unlatch */
+                    tp++; /* Unlatch */
 
                     nextMode = Mode.DM_ASCII;
                     info("ASC ");
@@ -856,10 +821,6 @@ public class DataMatrix extends Symbol {
                         tp++;
                         target[tp] = iv % 256;
                         tp++;
-                        binary[binaryLength] = ' ';
-                        binaryLength++;
-                        binary[binaryLength] = ' ';
-                        binaryLength++;
                         info("(" + processBuffer[0] + " " + processBuffer[1] + " " + processBuffer[2] + ") ");
 
                         processBuffer[0] = processBuffer[3];
@@ -880,7 +841,7 @@ public class DataMatrix extends Symbol {
 
                 nextMode = Mode.DM_EDIFACT;
                 if (processP == 3) {
-                    nextMode = lookAheadTest(sp, currentMode);
+                    nextMode = chooseMode(sp, currentMode);
                 }
 
                 if (nextMode != Mode.DM_EDIFACT) {
@@ -910,12 +871,6 @@ public class DataMatrix extends Symbol {
                     target[tp] = ((processBuffer[2] & 0x03) << 6)
                             + processBuffer[3];
                     tp++;
-                    binary[binaryLength] = ' ';
-                    binaryLength++;
-                    binary[binaryLength] = ' ';
-                    binaryLength++;
-                    binary[binaryLength] = ' ';
-                    binaryLength++;
                     info("(" + processBuffer[0] + " " + processBuffer[1] + " " + processBuffer[2] + ") ");
 
                     processBuffer[0] = processBuffer[4];
@@ -932,15 +887,23 @@ public class DataMatrix extends Symbol {
 
             /* step (g) Base 256 encodation */
             if (currentMode == Mode.DM_BASE256) {
-                nextMode = lookAheadTest(sp, currentMode);
+                nextMode = chooseMode(sp, currentMode);
 
                 if (nextMode == Mode.DM_BASE256) {
+                    if (base256RunCount == 0 || runEnd(base256RunCount - 1) != tp) {
+                        /* start of binary data, record its position and length (so far) */
+                        if (base256Runs.length < (base256RunCount + 1) * 2) {
+                            base256Runs = Arrays.copyOf(base256Runs, (base256RunCount + 4) * 2);
+                        }
+                        base256Runs[base256RunCount * 2] = tp;
+                        base256Runs[base256RunCount * 2 + 1] = 0;
+                        base256RunCount++;
+                    }
                     target[tp] = inputData[sp];
                     infoSpace(target[tp]);
                     tp++;
                     sp++;
-                    binary[binaryLength] = 'b';
-                    binaryLength++;
+                    base256Runs[base256RunCount * 2 - 1]++;
                 } else {
                     nextMode = Mode.DM_ASCII;
                     info("ASC ");
@@ -953,45 +916,40 @@ public class DataMatrix extends Symbol {
 
         } /* while */
 
-        /* Add length and randomising algorithm to b256 */
-        i = 0;
-        while (i < tp) {
-            if (binary[i] == 'b') {
-                if ((i == 0) || (binary[i - 1] != 'b')) {
-                    /* start of binary data */
-                    int binaryCount; /* length of b256 data */
-
-                    for (binaryCount = 0; binaryCount + i < tp && binary[binaryCount + i] == 'b'; binaryCount++) ;
-
-                    if (binaryCount <= 249) {
-                        insertAt(i, 'b');
-                        insertValueAt(i, tp, (char) binaryCount);
-                        tp++;
-                    } else {
-                        insertAt(i, 'b');
-                        insertAt(i + 1, 'b');
-                        insertValueAt(i, tp, (char) ((binaryCount / 250) + 249));
-                        tp++;
-                        insertValueAt(i + 1, tp, (char) (binaryCount % 250));
-                        tp++;
-                    }
-                }
-            }
-            i++;
+        /* Add length and randomising algorithm to b256, moving each codeword at most once */
+        int inserted = 0;
+        for (i = 0; i < base256RunCount; i++) {
+            inserted += (base256Runs[i * 2 + 1] <= 249 ? 1 : 2);
         }
-
-        for (i = 0; i < tp; i++) {
-            if (binary[i] == 'b') {
+        ensureCapacity(tp + inserted);
+        int end = tp;
+        for (i = base256RunCount - 1; i >= 0; i--) {
+            int start = base256Runs[i * 2];
+            int binaryCount = base256Runs[i * 2 + 1]; /* length of b256 data */
+            int lengthSize = (binaryCount <= 249 ? 1 : 2);
+            System.arraycopy(target, start + binaryCount, target, start + binaryCount + inserted, end - start - binaryCount);
+            System.arraycopy(target, start, target, start + inserted, binaryCount);
+            end = start;
+            inserted -= lengthSize;
+            start += inserted;
+            if (binaryCount <= 249) {
+                target[start] = binaryCount;
+            } else {
+                target[start] = (binaryCount / 250) + 249;
+                target[start + 1] = binaryCount % 250;
+            }
+            for (int j = start; j < start + lengthSize + binaryCount; j++) {
                 int prn, temp;
 
-                prn = ((149 * (i + 1)) % 255) + 1;
-                temp = target[i] + prn;
+                prn = ((149 * (j + 1)) % 255) + 1;
+                temp = target[j] + prn;
                 if (temp <= 255) {
-                    target[i] = temp;
+                    target[j] = temp;
                 } else {
-                    target[i] = temp - 256;
+                    target[j] = temp - 256;
                 }
             }
+            tp += lengthSize;
         }
 
         infoLine();
@@ -1008,6 +966,7 @@ public class DataMatrix extends Symbol {
     private int encodeRemainder(int symbolsLeft, int targetLength) {
 
         int inputlen = inputData.length;
+        ensureCapacity(targetLength + 4);
 
         switch (lastMode) {
             case DM_C40:
@@ -1116,9 +1075,272 @@ public class DataMatrix extends Symbol {
     }
 
     private boolean isTwoDigits(int pos) {
-        return pos + 1 < inputData.length &&
-                Character.isDigit((char) inputData[pos]) &&
-                Character.isDigit((char) inputData[pos + 1]);
+        return isTwoDigits(inputData, pos);
+    }
+
+    private static boolean isTwoDigits(int[] data, int pos) {
+        return pos + 1 < data.length &&
+                Character.isDigit((char) data[pos]) &&
+                Character.isDigit((char) data[pos + 1]);
+    }
+
+    private Mode chooseMode(int position, Mode currentMode) {
+        if (encodationPlan != null) {
+            return encodationPlan[position];
+        } else {
+            return lookAheadTest(position, currentMode);
+        }
+    }
+
+    /**
+     * Finds the sequence of encodation modes which gives the fewest codewords, by searching a graph of
+     * encoder states one input character at a time. The states and the transitions between them mirror
+     * the way in which {@link #generateCodewords()} latches and unlatches, so that the returned plan can
+     * be followed in place of the look-ahead test. The cost of the returned plan is the number of codewords
+     * (including any values still waiting to be packed when the data runs out) which {@link #encode()} uses to
+     * choose the symbol size.
+     *
+     * @param start the position of the first input character to encode
+     * @param length the number of input characters
+     * @return the encodation mode to use for each input character
+     */
+    private Mode[] planMinimalEncodation(int start, int length) {
+
+        int rows = length - start + 1;
+        int[][] cost = new int[rows][ST_COUNT];
+        int[][] prevState = new int[rows][ST_COUNT];
+        int[][] prevPosition = new int[rows][ST_COUNT];
+
+        for (int[] row : cost) {
+            Arrays.fill(row, UNREACHABLE);
+        }
+        cost[0][ST_ASCII] = 0;
+
+        for (int i = start; i < length; i++) {
+            searchStep(inputData, start, i, cost, prevState, prevPosition);
+        }
+
+        int[] end = cost[rows - 1];
+        int last = (length > start ? inputData[length - 1] : 0);
+        int best = ST_ASCII;
+        for (int state = 1; state < ST_COUNT; state++) {
+            if (endCost(end, state, last) < endCost(end, best, last)) {
+                best = state;
+            }
+        }
+
+        Mode[] plan = new Mode[length];
+        int position = rows - 1;
+        int state = best;
+        while (position > 0 || state != ST_ASCII) {
+            int p = prevPosition[position][state];
+            int s = prevState[position][state];
+            for (int i = p; i < position; i++) {
+                plan[start + i] = modeOf(state);
+            }
+            position = p;
+            state = s;
+        }
+
+        return plan;
+    }
+
+    /**
+     * Returns the number of codewords which minimal encodation needs for each prefix of the specified data,
+     * starting from the specified position, until the count goes over the specified limit. A prefix which ends
+     * between two digits may be given a slightly higher count than it would need on its own, but never a lower one.
+     *
+     * @param data the data to encode
+     * @param start the position of the first character to encode
+     * @param limit the largest codeword count of interest
+     * @return the codeword counts, indexed by prefix length
+     */
+    static int[] minimalCodewordCounts(int[] data, int start, int limit) {
+
+        int maxLength = Math.min(data.length - start, 2 * limit); /* at most two digits per codeword */
+        int[][] cost = new int[maxLength + 2][ST_COUNT];
+        int[][] prevState = new int[maxLength + 2][ST_COUNT];
+        int[][] prevPosition = new int[maxLength + 2][ST_COUNT];
+        int[] counts = new int[maxLength + 1];
+
+        for (int[] row : cost) {
+            Arrays.fill(row, UNREACHABLE);
+        }
+        cost[0][ST_ASCII] = 0;
+
+        for (int length = 1; length <= maxLength; length++) {
+            searchStep(data, start, start + length - 1, cost, prevState, prevPosition);
+            int[] end = cost[length];
+            int last = data[start + length - 1];
+            int cheapest = UNREACHABLE;
+            /* on its own, the prefix may end in ASCII with a single digit that is the first of a pair here */
+            int count = add(cost[length - 1][ST_ASCII], last > 127 ? 24 : 12) / 12;
+            for (int state = 0; state < ST_COUNT; state++) {
+                /* a pair of digits can jump over this prefix length, straight to the next one */
+                cheapest = Math.min(cheapest, Math.min(end[state], cost[length + 1][state]));
+                count = Math.min(count, (endCost(end, state, last) + 11) / 12);
+            }
+            if (cheapest > limit * 12) {
+                return Arrays.copyOf(counts, length);
+            }
+            counts[length] = count;
+        }
+
+        return counts;
+    }
+
+    /**
+     * Returns the number of codewords left for data in a structured append symbol of the specified size
+     * (as passed to {@link #setPreferredSize(int)}), once the structured append header and any reader
+     * initialisation and ECI codewords have been taken out.
+     *
+     * @param size the symbol size (1 - 30 inclusive)
+     * @param eci the ECI mode of the data
+     * @return the number of codewords left for data
+     */
+    int structuredAppendCapacity(int size, int eci) {
+        int header = 4 + (readerInit ? 1 : 0);
+        if (eci != 3) {
+            header += (eci <= 126 ? 2 : eci <= 16382 ? 3 : 4);
+        }
+        return MATRIX_BYTES[INT_SYMBOL[size - 1]] - header;
+    }
+
+    /**
+     * Relaxes the latches available at the specified input position, and then the ways of encoding the input
+     * character at that position. Rows of the cost tables are relative to the specified base position.
+     */
+    private static void searchStep(int[] data, int base, int i, int[][] cost, int[][] prevState,
+                                   int[][] prevPosition) {
+
+        int row = i - base;
+
+        /* Unlatch to ASCII, only possible at the end of a codeword pair or triple */
+        relax(cost, prevState, prevPosition, row, ST_C40, row, ST_ASCII, 12);
+        relax(cost, prevState, prevPosition, row, ST_TEXT, row, ST_ASCII, 12);
+        relax(cost, prevState, prevPosition, row, ST_X12, row, ST_ASCII, 12);
+        relax(cost, prevState, prevPosition, row, ST_EDIFACT + 3, row, ST_ASCII, 9);
+        relax(cost, prevState, prevPosition, row, ST_BASE256, row, ST_ASCII, 0);
+        relax(cost, prevState, prevPosition, row, ST_BASE256_LONG, row, ST_ASCII, 0);
+
+        /* Latch from ASCII, not possible in the middle of a pair of digits */
+        if (!isTwoDigits(data, i)) {
+            relax(cost, prevState, prevPosition, row, ST_ASCII, row, ST_C40, 12);
+            relax(cost, prevState, prevPosition, row, ST_ASCII, row, ST_TEXT, 12);
+            relax(cost, prevState, prevPosition, row, ST_ASCII, row, ST_X12, 12);
+            relax(cost, prevState, prevPosition, row, ST_ASCII, row, ST_EDIFACT, 12);
+            /* Base 256 latch plus one length codeword, followed by the whole run */
+            int last = Math.min(Math.min(data.length - i, cost.length - 1 - row), BASE256_SHORT_MAX);
+            for (int n = 1; n <= last && data[i + n - 1] != FNC1; n++) {
+                relax(cost, prevState, prevPosition, row, ST_ASCII, row + n, ST_BASE256, 24 + (12 * n));
+            }
+            /* Base 256 latch plus two length codewords */
+            relax(cost, prevState, prevPosition, row, ST_ASCII, row, ST_BASE256_LONG, 36);
+        }
+
+        int c = data[i];
+
+        /* ASCII */
+        if (isTwoDigits(data, i)) {
+            relax(cost, prevState, prevPosition, row, ST_ASCII, row + 2, ST_ASCII, 12);
+        } else {
+            relax(cost, prevState, prevPosition, row, ST_ASCII, row + 1, ST_ASCII, c > 127 ? 24 : 12);
+        }
+
+        /* C40 and Text */
+        int c40Values = valueCount(c, C40_SHIFT);
+        int textValues = valueCount(c, TEXT_SHIFT);
+        for (int r = 0; r < 3; r++) {
+            relax(cost, prevState, prevPosition, row, ST_C40 + r, row + 1, ST_C40 + ((r + c40Values) % 3), 8 * c40Values);
+            relax(cost, prevState, prevPosition, row, ST_TEXT + r, row + 1, ST_TEXT + ((r + textValues) % 3), 8 * textValues);
+        }
+
+        /* X12 */
+        if (isX12(c)) {
+            for (int r = 0; r < 3; r++) {
+                relax(cost, prevState, prevPosition, row, ST_X12 + r, row + 1, ST_X12 + ((r + 1) % 3), 8);
+            }
+        }
+
+        /* EDIFACT */
+        if (c >= ' ' && c <= '^') {
+            for (int r = 0; r < 4; r++) {
+                relax(cost, prevState, prevPosition, row, ST_EDIFACT + r, row + 1, ST_EDIFACT + ((r + 1) % 4), 9);
+            }
+        }
+
+        /* Base 256 with two length codewords; a run of fewer than 250 bytes is always cheaper with just one */
+        if (c != FNC1) {
+            relax(cost, prevState, prevPosition, row, ST_BASE256_LONG, row + 1, ST_BASE256_LONG, 12);
+        }
+    }
+
+    /**
+     * Returns the cost of ending the data in the specified state, including any values which are still
+     * waiting to be packed when the data runs out.
+     */
+    private static int endCost(int[] end, int state, int last) {
+        switch (state) {
+            case ST_C40 + 1:
+                return valueCount(last, C40_SHIFT) == 1 ? add(end[state], 4) : UNREACHABLE;
+            case ST_TEXT + 1:
+                return valueCount(last, TEXT_SHIFT) == 1 ? add(end[state], 4) : UNREACHABLE;
+            case ST_C40 + 2:
+            case ST_TEXT + 2:
+                return add(end[state], 8);
+            case ST_X12:
+            case ST_X12 + 2:
+                return UNREACHABLE; /* an unlatch is always added, even if the symbol is full */
+            case ST_X12 + 1:
+                return add(end[state], 4);
+            case ST_EDIFACT + 1:
+            case ST_EDIFACT + 2:
+            case ST_EDIFACT + 3:
+                return add(end[state], 3 * (state - ST_EDIFACT));
+            default:
+                return end[state];
+        }
+    }
+
+    private static void relax(int[][] cost, int[][] prevState, int[][] prevPosition,
+                              int from, int fromState, int to, int toState, int step) {
+        int c = add(cost[from][fromState], step);
+        if (c < cost[to][toState]) {
+            cost[to][toState] = c;
+            prevState[to][toState] = fromState;
+            prevPosition[to][toState] = from;
+        }
+    }
+
+    private static int add(int cost, int step) {
+        return cost >= UNREACHABLE ? UNREACHABLE : cost + step;
+    }
+
+    private static Mode modeOf(int state) {
+        if (state == ST_ASCII) {
+            return Mode.DM_ASCII;
+        } else if (state < ST_TEXT) {
+            return Mode.DM_C40;
+        } else if (state < ST_X12) {
+            return Mode.DM_TEXT;
+        } else if (state < ST_EDIFACT) {
+            return Mode.DM_X12;
+        } else if (state < ST_BASE256) {
+            return Mode.DM_EDIFACT;
+        } else {
+            return Mode.DM_BASE256;
+        }
+    }
+
+    /** Returns the number of C40 or Text values needed to encode the specified character. */
+    private static int valueCount(int c, int[] shift) {
+        if (c == FNC1) {
+            return 2;
+        } else if (c > 127) {
+            return 2 + (shift[c - 128] != 0 ? 2 : 1);
+        } else {
+            return (shift[c] != 0 ? 2 : 1);
+        }
     }
 
     private Mode lookAheadTest(int position, Mode currentMode) {
@@ -1386,7 +1608,7 @@ public class DataMatrix extends Symbol {
         return retval;
     }
 
-    private boolean isX12(int source) {
+    private static boolean isX12(int source) {
         if (source == 13) {
             return true;
         }
@@ -1445,21 +1667,14 @@ public class DataMatrix extends Symbol {
         }
     }
 
-    private void insertAt(int pos, char newbit) {
-        /* Insert a character into the middle of a string at position posn */
-        for (int i = binaryLength; i > pos; i--) {
-            binary[i] = binary[i - 1];
-        }
-        binary[pos] = newbit;
-        binaryLength++;
+    private int runEnd(int run) {
+        return base256Runs[run * 2] + base256Runs[run * 2 + 1];
     }
 
-    private void insertValueAt(int posn, int streamLength, char newbit) {
-        int i;
-        for (i = streamLength; i > posn; i--) {
-            target[i] = target[i - 1];
+    private void ensureCapacity(int length) {
+        if (length > target.length) {
+            target = Arrays.copyOf(target, Math.max(length, target.length * 2));
         }
-        target[posn] = newbit;
     }
 
     private void addPadBits(int tp, int tailLength) {
@@ -1483,7 +1698,21 @@ public class DataMatrix extends Symbol {
         }
     }
 
-    private void placeData(int NR, int NC) {
+    /**
+     * Returns the finder patterns and data module positions for the specified symbol size, building them the
+     * first time they are needed. Placements are immutable, so if two threads happen to build the same
+     * placement at the same time, no harm is done.
+     */
+    private static Placement getPlacement(int symbolSize) {
+        Placement placement = PLACEMENTS[symbolSize];
+        if (placement == null) {
+            placement = new Placement(symbolSize);
+            PLACEMENTS[symbolSize] = placement;
+        }
+        return placement;
+    }
+
+    private static void placeData(int[] places, int NR, int NC) {
         int r, c, p;
         // invalidate
         for (r = 0; r < NR; r++) {
@@ -1498,21 +1727,21 @@ public class DataMatrix extends Symbol {
         do {
             // check corner
             if (r == NR && (c == 0)) {
-                placeCornerA(NR, NC, p++);
+                placeCornerA(places, NR, NC, p++);
             }
             if (r == NR - 2 && (c == 0) && ((NC % 4) != 0)) {
-                placeCornerB(NR, NC, p++);
+                placeCornerB(places, NR, NC, p++);
             }
             if (r == NR - 2 && (c == 0) && (NC % 8) == 4) {
-                placeCornerC(NR, NC, p++);
+                placeCornerC(places, NR, NC, p++);
             }
             if (r == NR + 4 && c == 2 && ((NC % 8) == 0)) {
-                placeCornerD(NR, NC, p++);
+                placeCornerD(places, NR, NC, p++);
             }
             // up/right
             do {
                 if (r < NR && c >= 0 && (places[r * NC + c] == 0)) {
-                    placeBlock(NR, NC, r, c, p++);
+                    placeBlock(places, NR, NC, r, c, p++);
                 }
                 r -= 2;
                 c += 2;
@@ -1522,7 +1751,7 @@ public class DataMatrix extends Symbol {
             // down/left
             do {
                 if (r >= 0 && c < NC && (places[r * NC + c] == 0)) {
-                    placeBlock(NR, NC, r, c, p++);
+                    placeBlock(places, NR, NC, r, c, p++);
                 }
                 r += 2;
                 c -= 2;
@@ -1536,62 +1765,62 @@ public class DataMatrix extends Symbol {
         }
     }
 
-    private void placeCornerA(int NR, int NC, int p) {
-        placeBit(NR, NC, NR - 1, 0, p, 7);
-        placeBit(NR, NC, NR - 1, 1, p, 6);
-        placeBit(NR, NC, NR - 1, 2, p, 5);
-        placeBit(NR, NC, 0, NC - 2, p, 4);
-        placeBit(NR, NC, 0, NC - 1, p, 3);
-        placeBit(NR, NC, 1, NC - 1, p, 2);
-        placeBit(NR, NC, 2, NC - 1, p, 1);
-        placeBit(NR, NC, 3, NC - 1, p, 0);
+    private static void placeCornerA(int[] places, int NR, int NC, int p) {
+        placeBit(places, NR, NC, NR - 1, 0, p, 7);
+        placeBit(places, NR, NC, NR - 1, 1, p, 6);
+        placeBit(places, NR, NC, NR - 1, 2, p, 5);
+        placeBit(places, NR, NC, 0, NC - 2, p, 4);
+        placeBit(places, NR, NC, 0, NC - 1, p, 3);
+        placeBit(places, NR, NC, 1, NC - 1, p, 2);
+        placeBit(places, NR, NC, 2, NC - 1, p, 1);
+        placeBit(places, NR, NC, 3, NC - 1, p, 0);
     }
 
-    private void placeCornerB(int NR, int NC, int p) {
-        placeBit(NR, NC, NR - 3, 0, p, 7);
-        placeBit(NR, NC, NR - 2, 0, p, 6);
-        placeBit(NR, NC, NR - 1, 0, p, 5);
-        placeBit(NR, NC, 0, NC - 4, p, 4);
-        placeBit(NR, NC, 0, NC - 3, p, 3);
-        placeBit(NR, NC, 0, NC - 2, p, 2);
-        placeBit(NR, NC, 0, NC - 1, p, 1);
-        placeBit(NR, NC, 1, NC - 1, p, 0);
+    private static void placeCornerB(int[] places, int NR, int NC, int p) {
+        placeBit(places, NR, NC, NR - 3, 0, p, 7);
+        placeBit(places, NR, NC, NR - 2, 0, p, 6);
+        placeBit(places, NR, NC, NR - 1, 0, p, 5);
+        placeBit(places, NR, NC, 0, NC - 4, p, 4);
+        placeBit(places, NR, NC, 0, NC - 3, p, 3);
+        placeBit(places, NR, NC, 0, NC - 2, p, 2);
+        placeBit(places, NR, NC, 0, NC - 1, p, 1);
+        placeBit(places, NR, NC, 1, NC - 1, p, 0);
     }
 
-    private void placeCornerC(int NR, int NC, int p) {
-        placeBit(NR, NC, NR - 3, 0, p, 7);
-        placeBit(NR, NC, NR - 2, 0, p, 6);
-        placeBit(NR, NC, NR - 1, 0, p, 5);
-        placeBit(NR, NC, 0, NC - 2, p, 4);
-        placeBit(NR, NC, 0, NC - 1, p, 3);
-        placeBit(NR, NC, 1, NC - 1, p, 2);
-        placeBit(NR, NC, 2, NC - 1, p, 1);
-        placeBit(NR, NC, 3, NC - 1, p, 0);
+    private static void placeCornerC(int[] places, int NR, int NC, int p) {
+        placeBit(places, NR, NC, NR - 3, 0, p, 7);
+        placeBit(places, NR, NC, NR - 2, 0, p, 6);
+        placeBit(places, NR, NC, NR - 1, 0, p, 5);
+        placeBit(places, NR, NC, 0, NC - 2, p, 4);
+        placeBit(places, NR, NC, 0, NC - 1, p, 3);
+        placeBit(places, NR, NC, 1, NC - 1, p, 2);
+        placeBit(places, NR, NC, 2, NC - 1, p, 1);
+        placeBit(places, NR, NC, 3, NC - 1, p, 0);
     }
 
-    private void placeCornerD(int NR, int NC, int p) {
-        placeBit(NR, NC, NR - 1, 0, p, 7);
-        placeBit(NR, NC, NR - 1, NC - 1, p, 6);
-        placeBit(NR, NC, 0, NC - 3, p, 5);
-        placeBit(NR, NC, 0, NC - 2, p, 4);
-        placeBit(NR, NC, 0, NC - 1, p, 3);
-        placeBit(NR, NC, 1, NC - 3, p, 2);
-        placeBit(NR, NC, 1, NC - 2, p, 1);
-        placeBit(NR, NC, 1, NC - 1, p, 0);
+    private static void placeCornerD(int[] places, int NR, int NC, int p) {
+        placeBit(places, NR, NC, NR - 1, 0, p, 7);
+        placeBit(places, NR, NC, NR - 1, NC - 1, p, 6);
+        placeBit(places, NR, NC, 0, NC - 3, p, 5);
+        placeBit(places, NR, NC, 0, NC - 2, p, 4);
+        placeBit(places, NR, NC, 0, NC - 1, p, 3);
+        placeBit(places, NR, NC, 1, NC - 3, p, 2);
+        placeBit(places, NR, NC, 1, NC - 2, p, 1);
+        placeBit(places, NR, NC, 1, NC - 1, p, 0);
     }
 
-    private void placeBlock(int NR, int NC, int r, int c, int p) {
-        placeBit(NR, NC, r - 2, c - 2, p, 7);
-        placeBit(NR, NC, r - 2, c - 1, p, 6);
-        placeBit(NR, NC, r - 1, c - 2, p, 5);
-        placeBit(NR, NC, r - 1, c - 1, p, 4);
-        placeBit(NR, NC, r - 1, c - 0, p, 3);
-        placeBit(NR, NC, r - 0, c - 2, p, 2);
-        placeBit(NR, NC, r - 0, c - 1, p, 1);
-        placeBit(NR, NC, r - 0, c - 0, p, 0);
+    private static void placeBlock(int[] places, int NR, int NC, int r, int c, int p) {
+        placeBit(places, NR, NC, r - 2, c - 2, p, 7);
+        placeBit(places, NR, NC, r - 2, c - 1, p, 6);
+        placeBit(places, NR, NC, r - 1, c - 2, p, 5);
+        placeBit(places, NR, NC, r - 1, c - 1, p, 4);
+        placeBit(places, NR, NC, r - 1, c - 0, p, 3);
+        placeBit(places, NR, NC, r - 0, c - 2, p, 2);
+        placeBit(places, NR, NC, r - 0, c - 1, p, 1);
+        placeBit(places, NR, NC, r - 0, c - 0, p, 0);
     }
 
-    private void placeBit(int NR, int NC, int r, int c, int p, int b) {
+    private static void placeBit(int[] places, int NR, int NC, int r, int c, int p, int b) {
         if (r < 0) {
             r += NR;
             c += 4 - ((NR + 4) % 8);
@@ -1602,4 +1831,63 @@ public class DataMatrix extends Symbol {
         }
         places[r * NC + c] = (p << 3) + b;
     }
+
+    /**
+     * The parts of a Data Matrix symbol which depend only on the symbol size.
+     */
+    private static final class Placement {
+
+        /** The finder patterns and any fixed corner modules, with the data modules left light. */
+        final int[] grid;
+
+        /** The grid index of each codeword bit, most significant bit first, in codeword order. */
+        final int[] modules;
+
+        Placement(int symbolSize) {
+            int H = MATRIX_H[symbolSize];
+            int W = MATRIX_W[symbolSize];
+            int FH = MATRIX_FH[symbolSize];
+            int FW = MATRIX_FW[symbolSize];
+            int NC = W - 2 * (W / FW);
+            int NR = H - 2 * (H / FH);
+            int x, y, v, max = 0;
+
+            int[] places = new int[NC * NR];
+            placeData(places, NR, NC);
+
+            grid = new int[W * H];
+            for (y = 0; y < H; y += FH) {
+                for (x = 0; x < W; x++) {
+                    grid[y * W + x] = 1;
+                }
+                for (x = 0; x < W; x += 2) {
+                    grid[(y + FH - 1) * W + x] = 1;
+                }
+            }
+            for (x = 0; x < W; x += FW) {
+                for (y = 0; y < H; y++) {
+                    grid[y * W + x] = 1;
+                }
+                for (y = 0; y < H; y += 2) {
+                    grid[y * W + x + FW - 1] = 1;
+                }
+            }
+
+            for (int place : places) {
+                max = Math.max(max, place >> 3);
+            }
+            modules = new int[max * 8];
+            for (y = 0; y < NR; y++) {
+                for (x = 0; x < NC; x++) {
+                    v = places[(NR - y - 1) * NC + x];
+                    int posn = (1 + y + 2 * (y / (FH - 2))) * W + 1 + x + 2 * (x / (FW - 2));
+                    if (v == 1) {
+                        grid[posn] = 1;
+                    } else if (v > 7) {
+                        modules[(((v >> 3) - 1) << 3) + 7 - (v & 7)] = posn;
+                    }
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,266 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+import ru.chipmunkbarcode.exceptions.BarcodeException;
+import ru.chipmunkbarcode.util.BitStream;
+
+import static ru.chipmunkbarcode.barcodeTypes.Symbol.FNC1;
+
+/**
+ * <p>General-purpose data compaction, shared by GS1 DataBar Expanded (section 7.2.5.5 of ISO/IEC 24724) and
+ * by the 2D component of GS1 Composite symbols (section 5.4 of ISO/IEC 24723). The data is split into
+ * numeric, alphanumeric and ISO/IEC 646 runs when the encoder is created, and is then written to a bit stream
+ * by {@link #encode(BitStream)}.
+ *
+ * <p>If the data ends with an odd number of digits, the last digit is held back by {@link #encode(BitStream)},
+ * because the way in which it is encoded depends on the number of bits left in the symbol. It is written
+ * by {@link #encodeLast(BitStream, int)} once the caller knows this number.
+ */
+final class GeneralFieldEncoder {
+
+    private enum Mode {
+        NUMERIC, ALPHA, ISOIEC, ANY_ENC, ALPHA_OR_ISO
+    }
+
+    /** The mode of each ASCII character before the encodation rules are applied, or <code>null</code> if invalid. */
+    private static final Mode[] CHAR_MODES = new Mode[128];
+
+    /** Alphanumeric encodation (Table 12) of each ASCII character, as <code>(value &lt;&lt; 4) | bits</code>. */
+    private static final int[] ALPHA_CODES = new int[128];
+
+    /** ISO/IEC 646 encodation (Table 13) of each ASCII character, as <code>(value &lt;&lt; 4) | bits</code>. */
+    private static final int[] ISO_CODES = new int[128];
+
+    static {
+        for (int c = '0'; c <= '9'; c++) {
+            ALPHA_CODES[c] = ((c - 43) << 4) | 5;
+            ISO_CODES[c] = ((c - 43) << 4) | 5;
+            CHAR_MODES[c] = Mode.ANY_ENC;
+        }
+        for (int c = 'A'; c <= 'Z'; c++) {
+            ALPHA_CODES[c] = ((c - 33) << 4) | 6;
+            ISO_CODES[c] = ((c - 1) << 4) | 7;
+            CHAR_MODES[c] = Mode.ALPHA_OR_ISO;
+        }
+        for (int c = 'a'; c <= 'z'; c++) {
+            ISO_CODES[c] = ((c - 7) << 4) | 7;
+            CHAR_MODES[c] = Mode.ISOIEC;
+        }
+        String isoPunctuation = "!\"%&'()*+,-./:;<=>?_ ";
+        for (int i = 0; i < isoPunctuation.length(); i++) {
+            int c = isoPunctuation.charAt(i);
+            ISO_CODES[c] = ((0b11101000 + i) << 4) | 8;
+            CHAR_MODES[c] = Mode.ISOIEC;
+        }
+        String alphaPunctuation = "*,-./";
+        for (int i = 0; i < alphaPunctuation.length(); i++) {
+            int c = alphaPunctuation.charAt(i);
+            ALPHA_CODES[c] = ((0b111010 + i) << 4) | 6;
+            CHAR_MODES[c] = Mode.ALPHA_OR_ISO;
+        }
+    }
+
+    private final int[] data;
+    private final Mode[] modes;
+    private final boolean fnc1Latch;
+    private final boolean lastDigitPending;
+    private Mode mode = Mode.NUMERIC;
+
+    /**
+     * Creates a new encoder for the specified data, and decides which encodation mode to use for each character.
+     *
+     * @param data the data to encode, with FNC1 characters represented by {@link Symbol#FNC1}
+     * @param fnc1Latch whether or not an FNC1 in alphanumeric or ISO/IEC 646 encodation acts as an implicit
+     *        numeric latch for the characters which follow it
+     * @throws BarcodeException if the data contains characters which cannot be encoded
+     */
+    GeneralFieldEncoder(int[] data, boolean fnc1Latch) {
+
+        this.data = data;
+        this.modes = new Mode[data.length];
+        this.fnc1Latch = fnc1Latch;
+
+        if (data.length == 0) {
+            lastDigitPending = false;
+            return;
+        }
+
+        /* Classify the characters and collect them into blocks of the same type, in a single pass */
+        int[] blockLength = new int[data.length + 1];
+        Mode[] blockType = new Mode[data.length + 1];
+        int blockCount = 0;
+        Mode last = null;
+
+        for (int c : data) {
+            Mode current;
+            if (c == FNC1) {
+                /* FNC1 can be encoded in any system, so it stays in the system of the character before it */
+                current = (last == Mode.ISOIEC || last == Mode.ALPHA_OR_ISO ? last : Mode.ANY_ENC);
+            } else if (c >= 0 && c < CHAR_MODES.length && CHAR_MODES[c] != null) {
+                current = CHAR_MODES[c];
+            } else {
+                throw new BarcodeException("Invalid characters in input data");
+            }
+            if (current == last) {
+                blockLength[blockCount - 1]++;
+            } else {
+                blockLength[blockCount] = 1;
+                blockType[blockCount] = current;
+                blockCount++;
+            }
+            last = current;
+        }
+
+        /* Apply encoding rules from sections 7.2.5.5.1 to 7.2.5.5.3 of ISO/IEC 24724:2006 */
+        for (int i = 0; i < blockCount; i++) {
+            Mode current = blockType[i];
+            Mode next = blockType[i + 1];
+
+            if (current == Mode.ISOIEC && i != blockCount - 1) {
+                if (next == Mode.ANY_ENC) {
+                    blockType[i + 1] = (blockLength[i + 1] >= 4 ? Mode.NUMERIC : Mode.ISOIEC);
+                }
+                if (next == Mode.ALPHA_OR_ISO) {
+                    blockType[i + 1] = (blockLength[i + 1] >= 5 ? Mode.ALPHA : Mode.ISOIEC);
+                }
+            }
+
+            if (current == Mode.ALPHA_OR_ISO) {
+                blockType[i] = Mode.ALPHA;
+                current = Mode.ALPHA;
+            }
+
+            if (current == Mode.ALPHA && i != blockCount - 1 && next == Mode.ANY_ENC) {
+                if (blockLength[i + 1] >= 6 || (i == blockCount - 2 && blockLength[i + 1] >= 4)) {
+                    blockType[i + 1] = Mode.NUMERIC;
+                } else {
+                    blockType[i + 1] = Mode.ALPHA;
+                }
+            }
+
+            if (current == Mode.ANY_ENC) {
+                blockType[i] = Mode.NUMERIC;
+            }
+        }
+
+        /* Bring together adjacent blocks which ended up with the same type */
+        int merged = 1;
+        for (int i = 1; i < blockCount; i++) {
+            if (blockType[i] == blockType[merged - 1]) {
+                blockLength[merged - 1] += blockLength[i];
+            } else {
+                blockLength[merged] = blockLength[i];
+                blockType[merged] = blockType[i];
+                merged++;
+            }
+        }
+        blockCount = merged;
+
+        /* Odd size numeric blocks hand their last digit over to the next block */
+        for (int i = 0; i < blockCount - 1; i++) {
+            if (blockType[i] == Mode.NUMERIC && (blockLength[i] & 1) != 0) {
+                blockLength[i]--;
+                blockLength[i + 1]++;
+            }
+        }
+
+        for (int i = 0, j = 0; i < blockCount; i++) {
+            for (int k = 0; k < blockLength[i]; k++) {
+                modes[j++] = blockType[i];
+            }
+        }
+
+        /* If the last block is numeric and an odd size, its last digit is encoded separately */
+        lastDigitPending = blockType[blockCount - 1] == Mode.NUMERIC && (blockLength[blockCount - 1] & 1) != 0;
+    }
+
+    /**
+     * Writes the data to the specified bit stream, except for any final odd digit (see
+     * {@link #encodeLast(BitStream, int)}).
+     *
+     * @param bits the bit stream to write to
+     */
+    void encode(BitStream bits) {
+
+        int end = lastDigitPending ? data.length - 1 : data.length;
+        int i = 0;
+
+        while (i < end) {
+            int c = data[i];
+            int code;
+            switch (modes[i]) {
+                case NUMERIC:
+                    if (mode != Mode.NUMERIC) {
+                        bits.append(0b000, 3); /* Numeric latch */
+                    }
+                    int d1 = (c == FNC1 ? 10 : c - '0');
+                    int d2 = (data[i + 1] == FNC1 ? 10 : data[i + 1] - '0');
+                    bits.append((11 * d1) + d2 + 8, 7);
+                    mode = Mode.NUMERIC;
+                    i += 2;
+                    break;
+                case ALPHA:
+                    if (mode == Mode.NUMERIC) {
+                        bits.append(0b0000, 4); /* Alphanumeric latch */
+                    } else if (mode == Mode.ISOIEC) {
+                        bits.append(0b00100, 5); /* Alphanumeric latch */
+                    }
+                    code = (c == FNC1 ? (0b01111 << 4) | 5 : ALPHA_CODES[c]);
+                    bits.append(code >>> 4, code & 0xF);
+                    mode = (c == FNC1 && fnc1Latch ? Mode.NUMERIC : Mode.ALPHA);
+                    i++;
+                    break;
+                default:
+                    if (mode == Mode.NUMERIC) {
+                        bits.append(0b0000, 4); /* Alphanumeric latch */
+                        bits.append(0b00100, 5); /* ISO/IEC 646 latch */
+                    } else if (mode == Mode.ALPHA) {
+                        bits.append(0b00100, 5); /* ISO/IEC 646 latch */
+                    }
+                    code = (c == FNC1 ? (0b01111 << 4) | 5 : ISO_CODES[c]);
+                    bits.append(code >>> 4, code & 0xF);
+                    mode = (c == FNC1 && fnc1Latch ? Mode.NUMERIC : Mode.ISOIEC);
+                    i++;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Writes the final odd digit of the data to the specified bit stream, if {@link #encode(BitStream)} held one back.
+     *
+     * @param bits the bit stream to write to
+     * @param remainder the number of bits left in the symbol before the final digit is written
+     */
+    void encodeLast(BitStream bits, int remainder) {
+        if (lastDigitPending) {
+            int c = data[data.length - 1];
+            if (mode != Mode.NUMERIC) {
+                bits.append(c == FNC1 ? 0b01111 : c - 43, 5);
+            } else if (c == FNC1) {
+                bits.append(0b000001111, 9);
+            } else if (remainder >= 4 && remainder <= 6) {
+                /* If four to six bits remain, add 1 to the digit value and encode the result in the next four bits */
+                bits.append(c - '0' + 1, 4);
+            } else {
+                bits.append((11 * (c - '0')) + 10 + 8, 7);
+            }
+        }
+    }
+
+    /**
+     * Pads the specified bit stream to the specified length, by latching back and forth between alphanumeric
+     * and ISO/IEC 646 encodation.
+     *
+     * @param bits the bit stream to pad
+     * @param length the required length of the bit stream
+     */
+    void pad(BitStream bits, int length) {
+        if (mode == Mode.NUMERIC) {
+            bits.append(0b0000, 4); /* Alphanumeric latch */
+        }
+        while (bits.length() < length) {
+            bits.append(0b00100, 5); /* ISO/IEC 646 latch */
+        }
+        bits.setLength(length);
+    }
+}
@@ -1,9 +1,11 @@
 package ru.chipmunkbarcode.barcodeTypes;
 
 import ru.chipmunkbarcode.exceptions.BarcodeException;
+import ru.chipmunkbarcode.util.BitStream;
 
 import java.nio.charset.Charset;
 import java.nio.charset.UnsupportedCharsetException;
+import java.util.Arrays;
 
 import static ru.chipmunkbarcode.util.Arrays.positionOf;
 
@@ -165,15 +167,44 @@ public class GridMatrix extends Symbol {
             'w', 'x', 'y', 'z', ' '
     };
 
+    /* Encoder states used when deciding the mode of each character */
+    private static final int STATE_CHINESE = 0;
+    private static final int STATE_LOWER = 1;
+    private static final int STATE_UPPER = 2;
+    private static final int STATE_MIXED = 3;
+    private static final int STATE_BYTE = 4;
+    private static final int STATE_NUMBER = 5; // numeric mode, with no digit group open
+    private static final int STATE_COUNT = STATE_NUMBER + 7; // plus numeric mode with 0-2 digits, with or without punctuation
+    private static final int MODE_COUNT = STATE_NUMBER + 1;
+    private static final int UNREACHABLE = Integer.MAX_VALUE / 2;
+
+    /** Bits needed to latch from each mode to each other mode, in state order. */
+    private static final int[][] LATCH_BITS = {
+            { 0, 13, 13, 13, 13, 13 }, // from Chinese
+            { 5, 0, 5, 7, 7, 5 },      // from lower case
+            { 5, 5, 0, 7, 7, 5 },      // from upper case
+            { 10, 10, 10, 0, 10, 10 }, // from mixed
+            { 4, 4, 4, 4, 0, 4 },      // from byte
+            { 10, 10, 10, 10, 10, 0 }  // from numeric
+    };
+
+    /** Extra bits needed on entering each mode: the byte block length indicator and the numeric padding value. */
+    private static final int[] ENTRY_BITS = { 0, 0, 0, 0, 9, 2 };
+
+    /** Bits needed for the "end of data" character in each mode. */
+    private static final int[] END_BITS = { 13, 5, 5, 10, 4, 10 };
+
     private enum Mode {
-        NULL, GM_NUMBER, GM_LOWER, GM_UPPER, GM_MIXED, GM_CONTROL, GM_BYTE, GM_CHINESE
+        NULL, GM_NUMBER, GM_LOWER, GM_UPPER, GM_MIXED, GM_BYTE, GM_CHINESE
     }
 
-    private StringBuilder binary;
+    private static final Mode[] STATE_MODES = {
+            Mode.GM_CHINESE, Mode.GM_LOWER, Mode.GM_UPPER, Mode.GM_MIXED, Mode.GM_BYTE, Mode.GM_NUMBER
+    };
+
+    private BitStream binary;
     private int[] word = new int[1460];
     private boolean[] grid;
-    private Mode appxDnextSection = Mode.NULL;
-    private Mode appxDlastSection = Mode.NULL;
     private int preferredVersion = 0;
     private int preferredEccLevel = -1;
 
@@ -242,34 +273,36 @@ public class GridMatrix extends Symbol {
             word[i] = 0;
         }
 
-        try {
-            Charset gb2312 = Charset.forName("GB2312");
-            if (gb2312.newEncoder().canEncode(content)) {
-                /* GB2312 will work, use Chinese compaction */
-                byte[] inputBytes = content.getBytes(gb2312);
-                inputData = new int[inputBytes.length];
-                length = 0;
-                for (i = 0; i < inputBytes.length; i++) {
-                    if (((inputBytes[i] & 0xFF) >= 0xA1) && ((inputBytes[i] & 0xFF) <= 0xF7)) {
-                        /* Double byte character */
-                        inputData[length] = ((inputBytes[i] & 0xFF) * 256) + (inputBytes[i + 1] & 0xFF);
-                        i++;
-                        length++;
-                    } else {
-                        /* Single byte character */
-                        inputData[length] = inputBytes[i] & 0xFF;
-                        length++;
-                    }
-                }
-                infoLine("Using GB2312 character encoding");
-                eciMode = 29;
+        char[] gb2312 = Gb2312.CODES;
+        if (gb2312 == null) {
+            throw new BarcodeException("Byte conversion encoding error");
+        }
+
+        int[] gbData = new int[content.length()];
+        for (i = 0; i < gbData.length; i++) {
+            char c = content.charAt(i);
+            if (c < 0x80) {
+                /* Single byte character */
+                gbData[i] = c;
+            } else if (gb2312[c] != 0) {
+                /* Double byte character */
+                gbData[i] = gb2312[c];
             } else {
-                /* GB2312 encoding won't work, use other ECI mode */
-                eciProcess(); // Get ECI mode
-                length = inputData.length;
+                gbData = null;
+                break;
             }
-        } catch (UnsupportedCharsetException e) {
-            throw new BarcodeException("Byte conversion encoding error");
+        }
+
+        if (gbData != null) {
+            /* GB2312 will work, use Chinese compaction */
+            inputData = gbData;
+            length = gbData.length;
+            infoLine("Using GB2312 character encoding");
+            eciMode = 29;
+        } else {
+            /* GB2312 encoding won't work, use other ECI mode */
+            eciProcess(); // Get ECI mode
+            length = inputData.length;
         }
 
         error_number = encodeGridMatrixBinary(length, readerInit);
@@ -344,7 +377,7 @@ public class GridMatrix extends Symbol {
             if (data_cw > GM_DATA_CODEWORDS[(5 * (layers - 1)) + (ecc_level - 1)]) {
                 do {
                     layers++;
-                } while ((data_cw > GM_DATA_CODEWORDS[(5 * (layers - 1)) + (ecc_level - 1)]) && (layers <= 13));
+                } while ((layers < 13) && (data_cw > GM_DATA_CODEWORDS[(5 * (layers - 1)) + (ecc_level - 1)]));
             }
         }
 
@@ -435,7 +468,6 @@ public class GridMatrix extends Symbol {
         int sp, glyph = 0;
         Mode current_mode, next_mode, last_mode;
         int c1, c2;
-        boolean done;
         int p = 0, ppos;
         int punt = 0;
         int number_pad_posn;
@@ -444,7 +476,7 @@ public class GridMatrix extends Symbol {
         int[] numbuf = new int[3];
         Mode[] modeMap = calculateModeMap(length);
 
-        binary = new StringBuilder();
+        binary = new BitStream();
 
         sp = 0;
         current_mode = Mode.NULL;
@@ -453,44 +485,26 @@ public class GridMatrix extends Symbol {
         info("Encoding: ");
 
         if (reader) {
-            binary.append("1010"); /* FNC3 - Reader Initialisation */
+            binary.append(0b1010, 4); /* FNC3 - Reader Initialisation */
             info("INIT ");
         }
 
         if ((eciMode != 3) && (eciMode != 29)) {
-            binary.append("1100"); /* ECI */
+            binary.append(0b1100, 4); /* ECI */
 
             if ((eciMode >= 0) && (eciMode <= 1023)) {
-                binary.append('0');
-                for (i = 0x200; i > 0; i = i >> 1) {
-                    if ((eciMode & i) != 0) {
-                        binary.append('1');
-                    } else {
-                        binary.append('0');
-                    }
-                }
+                binary.append(0b0, 1);
+                binary.append(eciMode, 10);
             }
 
             if ((eciMode >= 1024) && (eciMode <= 32767)) {
-                binary.append("10");
-                for (i = 0x4000; i > 0; i = i >> 1) {
-                    if ((eciMode & i) != 0) {
-                        binary.append('1');
-                    } else {
-                        binary.append('0');
-                    }
-                }
+                binary.append(0b10, 2);
+                binary.append(eciMode, 15);
             }
 
             if ((eciMode >= 32768) && (eciMode <= 811799)) {
-                binary.append("11");
-                for (i = 0x80000; i > 0; i = i >> 1) {
-                    if ((eciMode & i) != 0) {
-                        binary.append('1');
-                    } else {
-                        binary.append('0');
-                    }
-                }
+                binary.append(0b11, 2);
+                binary.append(eciMode, 20);
             }
 
             info("ECI ");
@@ -505,41 +519,41 @@ public class GridMatrix extends Symbol {
                     case NULL:
                         switch (next_mode) {
                             case GM_CHINESE:
-                                binary.append("0001");
+                                binary.append(0b0001, 4);
                                 break;
                             case GM_NUMBER:
-                                binary.append("0010");
+                                binary.append(0b0010, 4);
                                 break;
                             case GM_LOWER:
-                                binary.append("0011");
+                                binary.append(0b0011, 4);
                                 break;
                             case GM_UPPER:
-                                binary.append("0100");
+                                binary.append(0b0100, 4);
                                 break;
                             case GM_MIXED:
-                                binary.append("0101");
+                                binary.append(0b0101, 4);
                                 break;
                             case GM_BYTE:
-                                binary.append("0111");
+                                binary.append(0b0111, 4);
                                 break;
                         }
                         break;
                     case GM_CHINESE:
                         switch (next_mode) {
                             case GM_NUMBER:
-                                binary.append("1111111100001");
+                                binary.append(0b1111111100001, 13);
                                 break; // 8161
                             case GM_LOWER:
-                                binary.append("1111111100010");
+                                binary.append(0b1111111100010, 13);
                                 break; // 8162
                             case GM_UPPER:
-                                binary.append("1111111100011");
+                                binary.append(0b1111111100011, 13);
                                 break; // 8163
                             case GM_MIXED:
-                                binary.append("1111111100100");
+                                binary.append(0b1111111100100, 13);
                                 break; // 8164
                             case GM_BYTE:
-                                binary.append("1111111100101");
+                                binary.append(0b1111111100101, 13);
                                 break; // 8165
                         }
                         break;
@@ -547,31 +561,31 @@ public class GridMatrix extends Symbol {
                         /* add numeric block padding value */
                         switch (p) {
                             case 1:
-                                binary.insert(number_pad_posn, "10");
+                                binary.insert(number_pad_posn, 0b10, 2);
                                 break; // 2 pad digits
                             case 2:
-                                binary.insert(number_pad_posn, "01");
+                                binary.insert(number_pad_posn, 0b01, 2);
                                 break; // 1 pad digit
                             case 3:
-                                binary.insert(number_pad_posn, "00");
+                                binary.insert(number_pad_posn, 0b00, 2);
                                 break; // 0 pad digits
                         }
 
                         switch (next_mode) {
                             case GM_CHINESE:
-                                binary.append("1111111011");
+                                binary.append(0b1111111011, 10);
                                 break; // 1019
                             case GM_LOWER:
-                                binary.append("1111111100");
+                                binary.append(0b1111111100, 10);
                                 break; // 1020
                             case GM_UPPER:
-                                binary.append("1111111101");
+                                binary.append(0b1111111101, 10);
                                 break; // 1021
                             case GM_MIXED:
-                                binary.append("1111111110");
+                                binary.append(0b1111111110, 10);
                                 break; // 1022
                             case GM_BYTE:
-                                binary.append("1111111111");
+                                binary.append(0b1111111111, 10);
                                 break; // 1023
                         }
                         break;
@@ -579,39 +593,39 @@ public class GridMatrix extends Symbol {
                     case GM_UPPER:
                         switch (next_mode) {
                             case GM_CHINESE:
-                                binary.append("11100");
+                                binary.append(0b11100, 5);
                                 break; // 28
                             case GM_NUMBER:
-                                binary.append("11101");
+                                binary.append(0b11101, 5);
                                 break; // 29
                             case GM_LOWER:
                             case GM_UPPER:
-                                binary.append("11110");
+                                binary.append(0b11110, 5);
                                 break; // 30
                             case GM_MIXED:
-                                binary.append("1111100");
+                                binary.append(0b1111100, 7);
                                 break; // 124
                             case GM_BYTE:
-                                binary.append("1111110");
+                                binary.append(0b1111110, 7);
                                 break; // 126
                         }
                         break;
                     case GM_MIXED:
                         switch (next_mode) {
                             case GM_CHINESE:
-                                binary.append("1111110001");
+                                binary.append(0b1111110001, 10);
                                 break; // 1009
                             case GM_NUMBER:
-                                binary.append("1111110010");
+                                binary.append(0b1111110010, 10);
                                 break; // 1010
                             case GM_LOWER:
-                                binary.append("1111110011");
+                                binary.append(0b1111110011, 10);
                                 break; // 1011
                             case GM_UPPER:
-                                binary.append("1111110100");
+                                binary.append(0b1111110100, 10);
                                 break; // 1012
                             case GM_BYTE:
-                                binary.append("1111110111");
+                                binary.append(0b1111110111, 10);
                                 break; // 1015
                         }
                         break;
@@ -621,19 +635,19 @@ public class GridMatrix extends Symbol {
                         byte_count = 0;
                         switch (next_mode) {
                             case GM_CHINESE:
-                                binary.append("0001");
+                                binary.append(0b0001, 4);
                                 break; // 1
                             case GM_NUMBER:
-                                binary.append("0010");
+                                binary.append(0b0010, 4);
                                 break; // 2
                             case GM_LOWER:
-                                binary.append("0011");
+                                binary.append(0b0011, 4);
                                 break; // 3
                             case GM_UPPER:
-                                binary.append("0100");
+                                binary.append(0b0100, 4);
                                 break; // 4
                             case GM_MIXED:
-                                binary.append("0101");
+                                binary.append(0b0101, 4);
                                 break; // 5
                         }
                         break;
@@ -666,7 +680,6 @@ public class GridMatrix extends Symbol {
 
             switch (current_mode) {
                 case GM_CHINESE:
-                    done = false;
                     if (inputData[sp] > 0xff) {
                         /* GB2312 character */
                         c1 = (inputData[sp] & 0xff00) >> 8;
@@ -678,41 +691,23 @@ public class GridMatrix extends Symbol {
                         if ((c1 >= 0xb0) && (c1 <= 0xf7)) {
                             glyph = (0x60 * (c1 - 0xb0 + 9)) + (c2 - 0xa0);
                         }
-                        done = true;
-                    }
-                    if (!(done)) {
-                        if (sp != (length - 1)) {
-                            if ((inputData[sp] == 13) && (inputData[sp + 1] == 10)) {
-                                /* End of Line */
-                                glyph = 7776;
-                                sp++;
-                            }
-                            done = true;
-                        }
-                    }
-                    if (!(done)) {
-                        if (sp != (length - 1)) {
-                            if (((inputData[sp] >= '0') && (inputData[sp] <= '9')) && ((inputData[sp + 1] >= '0') && (inputData[sp + 1] <= '9'))) {
-                                /* Two digits */
-                                glyph = 8033 + (10 * (inputData[sp] - '0')) + (inputData[sp + 1] - '0');
-                                sp++;
-                            }
+                    } else if (chinesePairLength(sp, length) == 2) {
+                        if (inputData[sp] == 13) {
+                            /* End of Line */
+                            glyph = 7776;
+                        } else {
+                            /* Two digits */
+                            glyph = 8033 + (10 * (inputData[sp] - '0')) + (inputData[sp + 1] - '0');
                         }
-                    }
-                    if (!(done)) {
+                        sp++;
+                    } else {
                         /* Byte value */
                         glyph = 7777 + inputData[sp];
                     }
 
                     infoSpace(glyph);
 
-                    for (i = 0x1000; i > 0; i = i >> 1) {
-                        if ((glyph & i) != 0) {
-                            binary.append('1');
-                        } else {
-                            binary.append('0');
-                        }
-                    }
+                    binary.append(glyph, 13);
                     sp++;
                     break;
 
@@ -753,7 +748,7 @@ public class GridMatrix extends Symbol {
                             }
                         }
                         sp++;
-                    } while ((p < 3) && (sp < length));
+                    } while ((p < 3) && (sp < length) && (modeMap[sp] == Mode.GM_NUMBER));
 
                     if (ppos != -1) {
                         switch (punt) {
@@ -772,7 +767,7 @@ public class GridMatrix extends Symbol {
                             case ',':
                                 glyph = 12;
                                 break;
-                            case 0x13:
+                            case 13:
                                 glyph = 15;
                                 break;
                         }
@@ -781,25 +776,13 @@ public class GridMatrix extends Symbol {
 
                         infoSpace(glyph);
 
-                        for (i = 0x200; i > 0; i = i >> 1) {
-                            if ((glyph & i) != 0) {
-                                binary.append('1');
-                            } else {
-                                binary.append('0');
-                            }
-                        }
+                        binary.append(glyph, 10);
                     }
 
                     glyph = (100 * (numbuf[0] - '0')) + (10 * (numbuf[1] - '0')) + (numbuf[2] - '0');
                     infoSpace(glyph);
 
-                    for (i = 0x200; i > 0; i = i >> 1) {
-                        if ((glyph & i) != 0) {
-                            binary.append('1');
-                        } else {
-                            binary.append('0');
-                        }
-                    }
+                    binary.append(glyph, 10);
                     break;
 
                 case GM_BYTE:
@@ -810,20 +793,14 @@ public class GridMatrix extends Symbol {
                     if (byte_count == 512) {
                         /* Maximum byte block size is 512 bytes. If longer is needed then start a new block */
                         addByteCount(byte_count_posn, byte_count);
-                        binary.append("0111");
+                        binary.append(0b0111, 4);
                         byte_count_posn = binary.length();
                         byte_count = 0;
                     }
 
                     glyph = inputData[sp];
                     infoSpace(glyph);
-                    for (i = 0x80; i > 0; i = i >> 1) {
-                        if ((glyph & i) != 0) {
-                            binary.append('1');
-                        } else {
-                            binary.append('0');
-                        }
-                    }
+                    binary.append(glyph, 8);
                     sp++;
                     byte_count++;
                     break;
@@ -848,16 +825,10 @@ public class GridMatrix extends Symbol {
                         glyph = positionOf((char) inputData[sp], MIXED_ALPHANUM_SET);
                         infoSpace(glyph);
 
-                        for (i = 0x20; i > 0; i = i >> 1) {
-                            if ((glyph & i) != 0) {
-                                binary.append('1');
-                            } else {
-                                binary.append('0');
-                            }
-                        }
+                        binary.append(glyph, 6);
                     } else {
                         /* Shift Mode character */
-                        binary.append("1111110110"); /* 1014 - shift indicator */
+                        binary.append(0b1111110110, 10); /* 1014 - shift indicator */
 
                         addShiftCharacter(inputData[sp]);
                     }
@@ -883,17 +854,11 @@ public class GridMatrix extends Symbol {
                         }
                         infoSpace(glyph);
 
-                        for (i = 0x10; i > 0; i = i >> 1) {
-                            if ((glyph & i) != 0) {
-                                binary.append('1');
-                            } else {
-                                binary.append('0');
-                            }
-                        }
+                        binary.append(glyph, 5);
 
                     } else {
                         /* Shift Mode character */
-                        binary.append("1111101"); /* 127 - shift indicator */
+                        binary.append(0b1111101, 7); /* 127 - shift indicator */
 
                         addShiftCharacter(inputData[sp]);
                     }
@@ -915,17 +880,11 @@ public class GridMatrix extends Symbol {
                         glyph = positionOf((char) inputData[sp], MIXED_ALPHANUM_SET) - 36;
                         infoSpace(glyph);
 
-                        for (i = 0x10; i > 0; i = i >> 1) {
-                            if ((glyph & i) != 0) {
-                                binary.append('1');
-                            } else {
-                                binary.append('0');
-                            }
-                        }
+                        binary.append(glyph, 5);
 
                     } else {
                         /* Shift Mode character */
-                        binary.append("1111101"); /* 127 - shift indicator */
+                        binary.append(0b1111101, 7); /* 127 - shift indicator */
 
                         addShiftCharacter(inputData[sp]);
                     }
@@ -945,13 +904,13 @@ public class GridMatrix extends Symbol {
             /* add numeric block padding value */
             switch (p) {
                 case 1:
-                    binary.insert(number_pad_posn, "10");
+                    binary.insert(number_pad_posn, 0b10, 2);
                     break; // 2 pad digits
                 case 2:
-                    binary.insert(number_pad_posn, "01");
+                    binary.insert(number_pad_posn, 0b01, 2);
                     break; // 1 pad digit
                 case 3:
-                    binary.insert(number_pad_posn, "00");
+                    binary.insert(number_pad_posn, 0b00, 2);
                     break; // 0 pad digits
             }
         }
@@ -964,20 +923,20 @@ public class GridMatrix extends Symbol {
         /* Add "end of data" character */
         switch (current_mode) {
             case GM_CHINESE:
-                binary.append("1111111100000");
+                binary.append(0b1111111100000, 13);
                 break; // 8160
             case GM_NUMBER:
-                binary.append("1111111010");
+                binary.append(0b1111111010, 10);
                 break; // 1018
             case GM_LOWER:
             case GM_UPPER:
-                binary.append("11011");
+                binary.append(0b11011, 5);
                 break; // 27
             case GM_MIXED:
-                binary.append("1111110000");
+                binary.append(0b1111110000, 10);
                 break; // 1008
             case GM_BYTE:
-                binary.append("0000");
+                binary.append(0b0000, 4);
                 break; // 0
         }
 
@@ -986,9 +945,7 @@ public class GridMatrix extends Symbol {
         if (p == 7) {
             p = 0;
         }
-        for (i = 0; i < p; i++) {
-            binary.append('0');
-        }
+        binary.append(0, p);
 
         if (binary.length() > 9191) {
             return 1;
@@ -997,658 +954,212 @@ public class GridMatrix extends Symbol {
         return 0;
     }
 
+    /**
+     * Decides which mode to use for each input character, by finding the cheapest way through a graph of encoder
+     * states one input character at a time. Each mode has one state, except numeric mode, which also tracks
+     * how much of the current group of up to three digits and one punctuation character has been filled. At each
+     * position the encoder may latch to any other mode (numeric mode only once its group holds a digit), and then encodes
+     * the next character, or the next pair of characters where Chinese mode or numeric mode allows it. Character
+     * pairs in Chinese mode are always taken when available, just as the encoder does.
+     */
     private Mode[] calculateModeMap(int length) {
-        Mode[] modeMap = new Mode[length];
-        int i;
-        int digitStart, digitLength;
-        boolean digits;
-        int spaceStart, spaceLength;
-        boolean spaces;
-        int[] segmentLength;
-        Mode[] segmentType;
-        int[] segmentStart;
-        int segmentCount;
-
-        // Step 1
-        // Characters in GB2312 are encoded as Chinese characters
-        for (i = 0; i < length; i++) {
-            modeMap[i] = Mode.NULL;
-            if (inputData[i] > 0xFF) {
-                modeMap[i] = Mode.GM_CHINESE;
-            }
-        }
 
-        // Consecutive <end of line> characters, if preceeded by or followed
-        // by chinese characters, are encoded as chinese characters.
-        if (length > 3) {
-            i = 1;
-            do {
-                if ((inputData[i] == 13) && (inputData[i + 1] == 10)) {
-                    // End of line (CR/LF)
-
-                    if (modeMap[i - 1] == Mode.GM_CHINESE) {
-                        modeMap[i] = Mode.GM_CHINESE;
-                        modeMap[i + 1] = Mode.GM_CHINESE;
+        int[][] cost = new int[length + 1][STATE_COUNT];
+        int[][] prevState = new int[length + 1][STATE_COUNT];
+        int[][] prevPosition = new int[length + 1][STATE_COUNT];
+        int[][] latchPrevState = new int[length + 1][MODE_COUNT];
+        int[][] latchPrevPosition = new int[length + 1][MODE_COUNT];
+        int[] latched = new int[STATE_COUNT];
+        int[] latchedPrevState = new int[STATE_COUNT];
+        int[] latchedPrevPosition = new int[STATE_COUNT];
+
+        for (int[] row : cost) {
+            Arrays.fill(row, UNREACHABLE);
+        }
+        for (int mode = 0; mode < MODE_COUNT; mode++) {
+            int state = (mode == STATE_NUMBER ? STATE_NUMBER : mode);
+            cost[0][state] = 4 + ENTRY_BITS[mode];
+            prevState[0][state] = -1;
+        }
+
+        for (int i = 0; i < length; i++) {
+
+            int[] c = cost[i];
+
+            /* Latch to another mode, from any state which may end its mode here. A latch may replace the path to a
+               state which another latch here starts from, so remember where each of them came from beforehand */
+            if (i > 0) {
+                System.arraycopy(c, 0, latched, 0, STATE_COUNT);
+                System.arraycopy(prevState[i], 0, latchedPrevState, 0, STATE_COUNT);
+                System.arraycopy(prevPosition[i], 0, latchedPrevPosition, 0, STATE_COUNT);
+                for (int from = 0; from < STATE_COUNT; from++) {
+                    if (latched[from] >= UNREACHABLE || !canEndMode(from)) {
+                        continue;
                     }
-                    i += 2;
-                } else {
-                    i++;
-                }
-            } while (i < length - 1);
-
-            i = length - 3;
-            do {
-                if ((inputData[i] == 13) && (inputData[i + 1] == 10)) {
-                    // End of line (CR/LF)
-                    if (modeMap[i + 2] == Mode.GM_CHINESE) {
-                        modeMap[i] = Mode.GM_CHINESE;
-                        modeMap[i + 1] = Mode.GM_CHINESE;
-                    }
-                    i -= 2;
-                } else {
-                    i--;
-                }
-            } while (i > 0);
-        }
-
-        // Digit pairs between chinese characters encode as chinese characters.
-        digits = false;
-        digitLength = 0;
-        digitStart = 0;
-        for (i = 1; i < length - 1; i++) {
-            if ((inputData[i] >= 48) && (inputData[i] <= 57)) {
-                // '0' to '9'
-                if (digits == false) {
-                    digits = true;
-                    digitLength = 1;
-                    digitStart = i;
-                } else {
-                    digitLength++;
-                }
-            } else {
-                if (digits == true) {
-                    if ((digitLength % 2) == 0) {
-                        if ((modeMap[digitStart - 1] == Mode.GM_CHINESE) &&
-                                (modeMap[i] == Mode.GM_CHINESE)) {
-                            for (int j = 0; j < digitLength; j++) {
-                                modeMap[i - j - 1] = Mode.GM_CHINESE;
-                            }
+                    int fromMode = Math.min(from, STATE_NUMBER);
+                    for (int mode = 0; mode < MODE_COUNT; mode++) {
+                        if (mode != fromMode && relax(cost, prevState, prevPosition, i, mode, latched[from] + LATCH_BITS[fromMode][mode] + ENTRY_BITS[mode], i, from)) {
+                            latchPrevState[i][mode] = latchedPrevState[from];
+                            latchPrevPosition[i][mode] = latchedPrevPosition[from];
                         }
                     }
-                    digits = false;
                 }
             }
-        }
 
-        // Step 2: all characters 'a' to 'z' are lowercase.
-        for (i = 0; i < length; i++) {
-            if ((inputData[i] >= 97) && (inputData[i] <= 122)) {
-                modeMap[i] = Mode.GM_LOWER;
+            int value = inputData[i];
+            boolean digit = (value >= '0' && value <= '9');
+            boolean shift = isShiftCharacter(value);
+            int punctLength = 0;
+            if (value == ' ' || value == '+' || value == '-' || value == '.' || value == ',') {
+                punctLength = 1;
+            } else if (value == 13 && i + 1 < length && inputData[i + 1] == 10) {
+                /* <end of line> */
+                punctLength = 2;
             }
-        }
 
-        // Step 3: all characters 'A' to 'Z' are uppercase.
-        for (i = 0; i < length; i++) {
-            if ((inputData[i] >= 65) && (inputData[i] <= 90)) {
-                modeMap[i] = Mode.GM_UPPER;
+            if (c[STATE_CHINESE] < UNREACHABLE) {
+                relax(cost, prevState, prevPosition, i + chinesePairLength(i, length), STATE_CHINESE, c[STATE_CHINESE] + 13, i, STATE_CHINESE);
             }
-        }
-
-        // Step 4: find consecutive <space> characters preceeded or followed
-        // by uppercase or lowercase.
-        spaces = false;
-        spaceLength = 0;
-        spaceStart = 0;
-        for (i = 1; i < length - 1; i++) {
-            if (inputData[i] == 32) {
-                if (!spaces) {
-                    spaces = true;
-                    spaceLength = 1;
-                    spaceStart = i;
-                } else {
-                    spaceLength++;
-                }
-            } else {
-                if (spaces) {
-
-                    Mode modeX = modeMap[spaceStart - 1];
-                    Mode modeY = modeMap[i];
 
-                    if ((modeX == Mode.GM_LOWER) || (modeX == Mode.GM_UPPER)) {
-                        for (int j = 0; j < spaceLength; j++) {
-                            modeMap[i - j - 1] = modeX;
-                        }
-                    } else {
-                        if ((modeY == Mode.GM_LOWER) || (modeY == Mode.GM_UPPER)) {
-                            for (int j = 0; j < spaceLength; j++) {
-                                modeMap[i - j - 1] = modeY;
-                            }
-                        }
-                    }
-                    spaces = false;
+            if (c[STATE_LOWER] < UNREACHABLE) {
+                if ((value >= 'a' && value <= 'z') || value == ' ') {
+                    relax(cost, prevState, prevPosition, i + 1, STATE_LOWER, c[STATE_LOWER] + 5, i, STATE_LOWER);
+                } else if (shift) {
+                    relax(cost, prevState, prevPosition, i + 1, STATE_LOWER, c[STATE_LOWER] + 13, i, STATE_LOWER);
                 }
             }
-        }
 
-        // Step 5: Unassigned characters '0' to '9' are assigned as numerals.
-        // Non-numeric characters in table 7 are also assigned as numerals.
-        for (i = 0; i < length; i++) {
-            if (modeMap[i] == Mode.NULL) {
-                if ((inputData[i] >= 48) && (inputData[i] <= 57)) {
-                    // '0' to '9'
-                    modeMap[i] = Mode.GM_NUMBER;
-                } else {
-                    switch (inputData[i]) {
-                        case 32: // Space
-                        case 43: // '+'
-                        case 45: // '-'
-                        case 46: // "."
-                        case 44: // ","
-                            modeMap[i] = Mode.GM_NUMBER;
-                            break;
-                        case 13: // CR
-                            if (i < length - 1) {
-                                if (inputData[i + 1] == 10) { // LF
-                                    // <end of line>
-                                    modeMap[i] = Mode.GM_NUMBER;
-                                    modeMap[i + 1] = Mode.GM_NUMBER;
-                                }
-                            }
-                    }
+            if (c[STATE_UPPER] < UNREACHABLE) {
+                if ((value >= 'A' && value <= 'Z') || value == ' ') {
+                    relax(cost, prevState, prevPosition, i + 1, STATE_UPPER, c[STATE_UPPER] + 5, i, STATE_UPPER);
+                } else if (shift) {
+                    relax(cost, prevState, prevPosition, i + 1, STATE_UPPER, c[STATE_UPPER] + 13, i, STATE_UPPER);
                 }
             }
-        }
-
-        // Step 6: The remining unassigned bytes are assigned as 8-bit binary
-        for (i = 0; i < length; i++) {
-            if (modeMap[i] == Mode.NULL) {
-                modeMap[i] = Mode.GM_BYTE;
-            }
-        }
-
-        // break into segments
-        segmentLength = new int[length];
-        segmentType = new Mode[length];
-        segmentStart = new int[length];
-
-        segmentCount = 0;
-        segmentLength[0] = 1;
-        segmentType[0] = modeMap[0];
-        segmentStart[0] = 0;
-        for (i = 1; i < length; i++) {
-            if (modeMap[i] == modeMap[i - 1]) {
-                segmentLength[segmentCount]++;
-            } else {
-                segmentCount++;
-                segmentLength[segmentCount] = 1;
-                segmentType[segmentCount] = modeMap[i];
-                segmentStart[segmentCount] = i;
-            }
-        }
-
-        // A segment can be a control segment if
-        // a) It is not the start segment of the data stream
-        // b) All characters are control characters
-        // c) The length of the segment is no more than 3
-        // d) The previous segment is not chinese
-        if (segmentCount > 1) {
-            for (i = 1; i < segmentCount; i++) { // (a)
-                if ((segmentLength[i] <= 3) && (segmentType[i - 1] != Mode.GM_CHINESE)) { // (c) and (d)
-                    boolean controlLatch = true;
-                    for (int j = 0; j < segmentLength[i]; j++) {
-                        boolean thischarLatch = false;
-                        for (int k = 0; k < 63; k++) {
-                            if (inputData[segmentStart[i] + j] == SHIFT_SET[k]) {
-                                thischarLatch = true;
-                            }
-                        }
-
-                        if (!(thischarLatch)) {
-                            // This character is not a control character
-                            controlLatch = false;
-                        }
-                    }
 
-                    if (controlLatch) { // (b)
-                        segmentType[i] = Mode.GM_CONTROL;
-                    }
+            if (c[STATE_MIXED] < UNREACHABLE) {
+                if (digit || (value >= 'A' && value <= 'Z') || (value >= 'a' && value <= 'z') || value == ' ') {
+                    relax(cost, prevState, prevPosition, i + 1, STATE_MIXED, c[STATE_MIXED] + 6, i, STATE_MIXED);
+                } else if (shift) {
+                    relax(cost, prevState, prevPosition, i + 1, STATE_MIXED, c[STATE_MIXED] + 16, i, STATE_MIXED);
                 }
             }
-        }
 
-        // Stages 7 to 9
-        if (segmentCount >= 3) {
-            for (i = 0; i < segmentCount - 1; i++) {
-                Mode pm, tm, nm, lm;
-                int tl, nl, ll, position;
-                boolean lastSegment = false;
+            if (c[STATE_BYTE] < UNREACHABLE && value <= 0xFF) {
+                relax(cost, prevState, prevPosition, i + 1, STATE_BYTE, c[STATE_BYTE] + 8, i, STATE_BYTE);
+            }
 
-                if (i == 0) {
-                    pm = Mode.NULL;
-                } else {
-                    pm = segmentType[i - 1];
+            /* Numeric mode: each group of three digits costs 10 bits, plus 10 bits for its punctuation character */
+            for (int state = STATE_NUMBER; state < STATE_COUNT; state++) {
+                if (c[state] >= UNREACHABLE) {
+                    continue;
                 }
-
-                tm = segmentType[i];
-                tl = segmentLength[i];
-
-                nm = segmentType[i + 1];
-                nl = segmentLength[i + 1];
-
-                lm = segmentType[i + 2];
-                ll = segmentLength[i + 2];
-
-                position = segmentStart[i];
-
-                if (i + 2 == segmentCount) {
-                    lastSegment = true;
+                boolean open = (state != STATE_NUMBER);
+                int digits = open ? (state - STATE_NUMBER - 1) >> 1 : 0;
+                boolean punct = open && ((state - STATE_NUMBER - 1) & 1) != 0;
+                if (digit) {
+                    int next = (digits == 2 ? STATE_NUMBER : numberState(digits + 1, punct));
+                    relax(cost, prevState, prevPosition, i + 1, next, c[state] + (open ? 0 : 10), i, state);
                 }
-
-                segmentType[i] = getBestMode(pm, tm, nm, lm, tl, nl, ll, position, lastSegment);
-
-                if (segmentType[i] == Mode.GM_CONTROL) {
-                    segmentType[i] = segmentType[i - 1];
+                if (punctLength != 0 && !punct) {
+                    relax(cost, prevState, prevPosition, i + punctLength, numberState(digits, true), c[state] + (open ? 10 : 20), i, state);
                 }
             }
-
-            segmentType[i] = appxDnextSection;
-            segmentType[i + 1] = appxDlastSection;
-
-            if (segmentType[i] == Mode.GM_CONTROL) {
-                segmentType[i] = segmentType[i - 1];
-            }
-            if (segmentType[i + 1] == Mode.GM_CONTROL) {
-                segmentType[i + 1] = segmentType[i];
-            }
-
-// Uncomment these lines to override mode selection and generate symbol as shown
-// in image D.1 for the test data "AAT2556 电池充电器＋降压转换器 200mA至2A tel:86 019 82512738"
-//            segmentType[9] = gmMode.GM_LOWER;
-//            segmentType[10] = gmMode.GM_LOWER;
         }
 
-        // Copy segments back to modeMap
-        for (i = 0; i < segmentCount; i++) {
-            for (int j = 0; j < segmentLength[i]; j++) {
-                modeMap[segmentStart[i] + j] = segmentType[i];
+        /* Follow the cheapest path back to the start */
+        int best = -1;
+        int bestCost = UNREACHABLE;
+        for (int state = 0; state < STATE_COUNT; state++) {
+            if (canEndMode(state) && cost[length][state] + END_BITS[Math.min(state, STATE_NUMBER)] < bestCost) {
+                best = state;
+                bestCost = cost[length][state] + END_BITS[Math.min(state, STATE_NUMBER)];
             }
         }
 
-        return modeMap;
-    }
-
-    private boolean isTransitionValid(Mode previousMode, Mode thisMode) {
-        // Filters possible encoding data types from table D.1
-        boolean isValid = false;
-
-        switch (previousMode) {
-            case GM_CHINESE:
-                switch (thisMode) {
-                    case GM_CHINESE:
-                    case GM_BYTE:
-                        isValid = true;
-                        break;
-                }
-                break;
-            case GM_NUMBER:
-                switch (thisMode) {
-                    case GM_NUMBER:
-                    case GM_MIXED:
-                    case GM_BYTE:
-                    case GM_CHINESE:
-                        isValid = true;
-                        break;
-                }
-                break;
-            case GM_LOWER:
-                switch (thisMode) {
-                    case GM_LOWER:
-                    case GM_MIXED:
-                    case GM_BYTE:
-                    case GM_CHINESE:
-                        isValid = true;
-                        break;
-                }
-                break;
-            case GM_UPPER:
-                switch (thisMode) {
-                    case GM_UPPER:
-                    case GM_MIXED:
-                    case GM_BYTE:
-                    case GM_CHINESE:
-                        isValid = true;
-                        break;
-                }
-                break;
-            case GM_CONTROL:
-                switch (thisMode) {
-                    case GM_CONTROL:
-                    case GM_BYTE:
-                    case GM_CHINESE:
-                        isValid = true;
-                        break;
-                }
-                break;
-            case GM_BYTE:
-                switch (thisMode) {
-                    case GM_BYTE:
-                    case GM_CHINESE:
-                        isValid = true;
-                        break;
-                }
-                break;
-        }
-
-        return isValid;
-    }
-
-    private Mode intToMode(int input) {
-        Mode retVal;
-
-        switch (input) {
-            case 1:
-                retVal = Mode.GM_CHINESE;
-                break;
-            case 2:
-                retVal = Mode.GM_BYTE;
-                break;
-            case 3:
-                retVal = Mode.GM_CONTROL;
-                break;
-            case 4:
-                retVal = Mode.GM_MIXED;
-                break;
-            case 5:
-                retVal = Mode.GM_UPPER;
-                break;
-            case 6:
-                retVal = Mode.GM_LOWER;
-                break;
-            case 7:
-                retVal = Mode.GM_NUMBER;
-                break;
-            default:
-                retVal = Mode.NULL;
-                break;
-        }
-
-        return retVal;
-    }
-
-    private Mode getBestMode(Mode pm, Mode tm, Mode nm, Mode lm, int tl, int nl, int ll, int position, boolean lastSegment) {
-        int tmi, nmi, lmi;
-        Mode bestMode = tm;
-        int binaryLength;
-        int bestBinaryLength = Integer.MAX_VALUE;
-
-        for (tmi = 1; tmi < 8; tmi++) {
-            if (isTransitionValid(tm, intToMode(tmi))) {
-                for (nmi = 1; nmi < 8; nmi++) {
-                    if (isTransitionValid(nm, intToMode(nmi))) {
-                        for (lmi = 1; lmi < 8; lmi++) {
-                            if (isTransitionValid(lm, intToMode(lmi))) {
-                                binaryLength = getBinaryLength(pm, intToMode(tmi), intToMode(nmi), intToMode(lmi), tl, nl, ll, position, lastSegment);
-                                if (binaryLength <= bestBinaryLength) {
-                                    bestMode = intToMode(tmi);
-                                    appxDnextSection = intToMode(nmi);
-                                    appxDlastSection = intToMode(lmi);
-                                    bestBinaryLength = binaryLength;
-                                }
-                            }
-                        }
-                    }
-                }
+        Mode[] modeMap = new Mode[length];
+        int position = length;
+        int state = best;
+        int from = prevPosition[position][state];
+        int fromState = prevState[position][state];
+        while (fromState != -1) {
+            for (int j = from; j < position; j++) {
+                modeMap[j] = STATE_MODES[Math.min(state, STATE_NUMBER)];
             }
-        }
-
-        return bestMode;
-    }
-
-    private int getBinaryLength(Mode pm, Mode tm, Mode nm, Mode lm, int tl, int nl, int ll, int position, boolean lastSegment) {
-
-        int binaryLength = getChunkLength(pm, tm, tl, position);
-        binaryLength += getChunkLength(tm, nm, nl, (position + tl));
-        binaryLength += getChunkLength(nm, lm, ll, (position + tl + nl));
-
-        if (lastSegment) {
-            switch (lm) {
-                case GM_CHINESE:
-                    binaryLength += 13;
-                    break;
-                case GM_NUMBER:
-                    binaryLength += 10;
-                    break;
-                case GM_LOWER:
-                case GM_UPPER:
-                    binaryLength += 5;
-                    break;
-                case GM_MIXED:
-                    binaryLength += 10;
-                    break;
-                case GM_BYTE:
-                    binaryLength += 4;
-                    break;
+            int nextPosition, nextState;
+            if (from == position) {
+                /* a latch, which starts from the state as it was before any latch here */
+                nextPosition = latchPrevPosition[position][state];
+                nextState = latchPrevState[position][state];
+            } else {
+                nextPosition = prevPosition[from][fromState];
+                nextState = prevState[from][fromState];
             }
+            position = from;
+            state = fromState;
+            from = nextPosition;
+            fromState = nextState;
         }
 
-        return binaryLength;
-    }
-
-    private int getChunkLength(Mode lastMode, Mode thisMode, int thisLength, int position) {
-        int byteLength;
-
-        switch (thisMode) {
-            case GM_CHINESE:
-                byteLength = calcChineseLength(position, thisLength);
-                break;
-            case GM_NUMBER:
-                byteLength = calcNumberLength(position, thisLength);
-                break;
-            case GM_LOWER:
-                byteLength = 5 * thisLength;
-                break;
-            case GM_UPPER:
-                byteLength = 5 * thisLength;
-                break;
-            case GM_MIXED:
-                byteLength = calcMixedLength(position, thisLength);
-                break;
-            case GM_CONTROL:
-                byteLength = 6 * thisLength;
-                break;
-            default:
-                //case GM_BYTE:
-                byteLength = calcByteLength(position, thisLength);
-                break;
-        }
-
-        switch (lastMode) {
-            case NULL:
-                byteLength += 4;
-                break;
-            case GM_CHINESE:
-                if ((thisMode != Mode.GM_CHINESE) && (thisMode != Mode.GM_CONTROL)) {
-                    byteLength += 13;
-                }
-                break;
-            case GM_NUMBER:
-                if ((thisMode != Mode.GM_CHINESE) && (thisMode != Mode.GM_CONTROL)) {
-                    byteLength += 10;
-                }
-                break;
-            case GM_LOWER:
-                switch (thisMode) {
-                    case GM_CHINESE:
-                    case GM_NUMBER:
-                    case GM_UPPER:
-                        byteLength += 5;
-                        break;
-                    case GM_MIXED:
-                    case GM_CONTROL:
-                    case GM_BYTE:
-                        byteLength += 7;
-                        break;
-                }
-                break;
-            case GM_UPPER:
-                switch (thisMode) {
-                    case GM_CHINESE:
-                    case GM_NUMBER:
-                    case GM_LOWER:
-                        byteLength += 5;
-                        break;
-                    case GM_MIXED:
-                    case GM_CONTROL:
-                    case GM_BYTE:
-                        byteLength += 7;
-                        break;
-                }
-                break;
-            case GM_MIXED:
-                if (thisMode != Mode.GM_MIXED) {
-                    byteLength += 10;
-                }
-                break;
-            case GM_BYTE:
-                if (thisMode != Mode.GM_BYTE) {
-                    byteLength += 4;
-                }
-                break;
-        }
-
-        if ((lastMode != Mode.GM_BYTE) && (thisMode == Mode.GM_BYTE)) {
-            byteLength += 9;
-        }
-
-        if ((lastMode != Mode.GM_NUMBER) && (thisMode == Mode.GM_NUMBER)) {
-            byteLength += 2;
-        }
-
-        return byteLength;
+        return modeMap;
     }
 
-    private int calcChineseLength(int position, int length) {
-        int i = 0;
-        int bits = 0;
-
-        do {
-            bits += 13;
-
-            if (i < length) {
-                if ((inputData[position + i] == 13) && (inputData[position + i + 1] == 10)) {
-                    // <end of line>
-                    i++;
-                }
-
-                if (((inputData[position + i] >= 48) && (inputData[position + i] <= 57)) &&
-                        ((inputData[position + i + 1] >= 48) && (inputData[position + i + 1] <= 57))) {
-                    // two digits
-                    i++;
-                }
-            }
-            i++;
-        } while (i < length);
-
-        return bits;
+    /**
+     * Returns the state for numeric mode with a group of the specified shape open.
+     */
+    private static int numberState(int digits, boolean punct) {
+        return STATE_NUMBER + 1 + (digits << 1) + (punct ? 1 : 0);
     }
 
-    private int calcMixedLength(int position, int length) {
-        int bits = 0;
-        int i;
-
-        for (i = 0; i < length; i++) {
-            bits += 6;
-            for (int k = 0; k < 63; k++) {
-                if (inputData[position + i] == SHIFT_SET[k]) {
-                    bits += 10;
-                }
-            }
+    /**
+     * Returns whether or not the encoder may leave its current mode from the specified state: numeric mode may
+     * only be left once the open group holds a digit, as the padding value cannot describe a group without one.
+     */
+    private static boolean canEndMode(int state) {
+        if (state <= STATE_NUMBER) {
+            return true;
         }
-
-        return bits;
+        return ((state - STATE_NUMBER - 1) >> 1) != 0;
     }
 
-    private int calcNumberLength(int position, int length) {
-        int i;
-        int bits = 0;
-        int numbers = 0;
-        int nonnumbers = 0;
-
-        for (i = 0; i < length; i++) {
-            if ((inputData[position + i] >= 48) && (inputData[position + i] <= 57)) {
-                numbers++;
-            } else {
-                nonnumbers++;
-            }
-
-            if (i != 0) {
-                if ((inputData[position + i] == 10) && (inputData[position + i - 1] == 13)) {
-                    // <end of line>
-                    nonnumbers--;
-                }
-            }
-
-            if (numbers == 3) {
-                if (nonnumbers == 1) {
-                    bits += 20;
-                } else {
-                    bits += 10;
-                }
-                if (nonnumbers > 1) {
-                    // Invalid encoding
-                    bits += 100;
-                }
-                numbers = 0;
-                nonnumbers = 0;
-            }
-        }
-
-        if (numbers > 0) {
-            if (nonnumbers == 1) {
-                bits += 20;
-            } else {
-                bits += 10;
+    private static boolean isShiftCharacter(int value) {
+        for (char c : SHIFT_SET) {
+            if (c == value) {
+                return true;
             }
         }
+        return false;
+    }
 
-        if (nonnumbers > 1) {
-            // Invalid
-            bits += 100;
-        }
-
-        if (!((inputData[position + i - 1] >= 48) && (inputData[position + i - 1] <= 57))) {
-            // Data must end with a digit
-            bits += 100;
+    private static boolean relax(int[][] cost, int[][] prevState, int[][] prevPosition, int position, int state,
+                                 int newCost, int fromPosition, int fromState) {
+        if (newCost < cost[position][state]) {
+            cost[position][state] = newCost;
+            prevState[position][state] = fromState;
+            prevPosition[position][state] = fromPosition;
+            return true;
         }
-
-
-        return bits;
+        return false;
     }
 
-    private int calcByteLength(int position, int length) {
-        int i;
-        int bits = 0;
-
-        for (i = 0; i < length; i++) {
-            if (inputData[position + i] <= 0xFF) {
-                bits += 8;
-            } else {
-                bits += 16;
+    /**
+     * Returns the number of input characters encoded by the next Chinese mode value: two for an end of line
+     * or a pair of digits, otherwise one.
+     */
+    private int chinesePairLength(int position, int length) {
+        if (position + 1 < length) {
+            int first = inputData[position];
+            int second = inputData[position + 1];
+            if ((first == 13 && second == 10) || (first >= '0' && first <= '9' && second >= '0' && second <= '9')) {
+                return 2;
             }
         }
-
-        return bits;
+        return 1;
     }
 
     private void addByteCount(int byte_count_posn, int byte_count) {
         /* Add the length indicator for byte encoded blocks */
-        for (int i = 0; i < 9; i++) {
-            if ((byte_count & (0x100 >> i)) != 0) {
-                binary.insert(byte_count_posn + i, '0');
-            } else {
-                binary.insert(byte_count_posn + i, '1');
-            }
-        }
+        binary.insert(byte_count_posn, ~byte_count, 9);
     }
 
     void addShiftCharacter(int shifty) {
@@ -1665,13 +1176,7 @@ public class GridMatrix extends Symbol {
         info("SHT/");
         infoSpace(glyph);
 
-        for (i = 0x20; i > 0; i = i >> 1) {
-            if ((glyph & i) != 0) {
-                binary.append('1');
-            } else {
-                binary.append('0');
-            }
-        }
+        binary.append(glyph, 6);
     }
 
     private void addErrorCorrection(int data_posn, int layers, int ecc_level) {
@@ -1692,11 +1197,7 @@ public class GridMatrix extends Symbol {
 
         /* Convert from binary sream to 7-bit codewords */
         for (i = 0; i < data_posn; i++) {
-            for (j = 0; j < 7; j++) {
-                if (binary.charAt((i * 7) + j) == '1') {
-                    data[i] += 0x40 >> j;
-                }
-            }
+            data[i] = binary.get(i * 7, 7);
         }
 
         info("Codewords: ");
@@ -1881,4 +1382,35 @@ public class GridMatrix extends Symbol {
             }
         }
     }
+
+    /**
+     * Lookup table from Unicode characters to their GB2312 double byte codes (or <code>0</code> if a character
+     * is not in GB2312), built from the platform GB2312 charset the first time it is needed.
+     */
+    private static final class Gb2312 {
+
+        static final char[] CODES = createCodes();
+
+        private static char[] createCodes() {
+            Charset gb2312;
+            try {
+                gb2312 = Charset.forName("GB2312");
+            } catch (UnsupportedCharsetException e) {
+                return null;
+            }
+            char[] codes = new char[0x10000];
+            byte[] bytes = new byte[2];
+            for (int c1 = 0xa1; c1 <= 0xf7; c1++) {
+                for (int c2 = 0xa1; c2 <= 0xfe; c2++) {
+                    bytes[0] = (byte) c1;
+                    bytes[1] = (byte) c2;
+                    String s = new String(bytes, gb2312);
+                    if (s.length() == 1 && s.charAt(0) != '\uFFFD') {
+                        codes[s.charAt(0)] = (char) ((c1 << 8) | c2);
+                    }
+                }
+            }
+            return codes;
+        }
+    }
 }
@@ -0,0 +1,84 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+/**
+ * The way in which a QR Code or Micro QR Code symbol chooses its data mask pattern.
+ */
+public final class MaskPolicy {
+
+    private enum Type {
+        AUTO, FAST, FIXED
+    }
+
+    /**
+     * Evaluate every mask pattern against all of the penalty rules and use the best one (default).
+     */
+    public static final MaskPolicy AUTO = new MaskPolicy(Type.AUTO, -1);
+
+    /**
+     * Evaluate every mask pattern using a cheaper estimate (QR Code penalty rules 1 and 4 only) and use the best one.
+     */
+    public static final MaskPolicy FAST = new MaskPolicy(Type.FAST, -1);
+
+    private final Type type;
+    private final int mask;
+
+    private MaskPolicy(Type type, int mask) {
+        this.type = type;
+        this.mask = mask;
+    }
+
+    /**
+     * Returns a policy which always uses the specified mask pattern, without any evaluation.
+     *
+     * @param mask the mask pattern to use (0 to 7 for QR Code, 0 to 3 for Micro QR Code)
+     * @return a policy which always uses the specified mask pattern
+     */
+    public static MaskPolicy fixed(int mask) {
+        if (mask < 0 || mask > 7) {
+            throw new IllegalArgumentException("Invalid mask pattern: " + mask);
+        }
+        return new MaskPolicy(Type.FIXED, mask);
+    }
+
+    /**
+     * Returns <code>true</code> if this policy always uses the same mask pattern.
+     *
+     * @return <code>true</code> if this policy always uses the same mask pattern
+     */
+    public boolean isFixed() {
+        return type == Type.FIXED;
+    }
+
+    /**
+     * Returns <code>true</code> if this policy uses the cheaper mask pattern estimate.
+     *
+     * @return <code>true</code> if this policy uses the cheaper mask pattern estimate
+     */
+    public boolean isFast() {
+        return type == Type.FAST;
+    }
+
+    /**
+     * Returns the mask pattern used by a fixed policy, or <code>-1</code> if this policy is not fixed.
+     *
+     * @return the mask pattern used by a fixed policy, or <code>-1</code> if this policy is not fixed
+     */
+    public int getMask() {
+        return mask;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof MaskPolicy && ((MaskPolicy) other).type == type && ((MaskPolicy) other).mask == mask;
+    }
+
+    @Override
+    public int hashCode() {
+        return (31 * type.hashCode()) + mask;
+    }
+
+    @Override
+    public String toString() {
+        return type == Type.FIXED ? "FIXED(" + mask + ")" : type.name();
+    }
+}
@@ -4,9 +4,11 @@ import ru.chipmunkbarcode.exceptions.BarcodeException;
 
 import java.awt.geom.Ellipse2D;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static ru.chipmunkbarcode.util.Arrays.contains;
-import static ru.chipmunkbarcode.util.Arrays.insertArray;
 
 /**
  * <p>
@@ -104,14 +106,26 @@ public class MaxiCode extends Symbol {
             16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 32, 33, 34, 35, 36
     };
 
+    /** The number of rows in the module grid. */
+    public static final int GRID_ROWS = 33;
+
+    /** The number of columns in the module grid. */
+    public static final int GRID_COLUMNS = 30;
+
+    /** The maximum number of primary messages remembered in carrier batch mode. */
+    private static final int PRIMARY_CACHE_SIZE = 256;
+
+    private int requestedMode;
     private int mode;
     private int structuredAppendPosition = 1;
     private int structuredAppendTotal = 1;
     private String primaryData = "";
+    private boolean carrierBatchMode;
+    private Map<String, PrimaryMessage> primaryCache;
     private int[] codewords;
     private int[] set = new int[144];
     private int[] character = new int[144];
-    private boolean[][] grid = new boolean[33][30];
+    private boolean[][] grid = new boolean[GRID_ROWS][GRID_COLUMNS];
 
     /**
      * Sets the MaxiCode mode to use. Only modes 2 to 6 are supported.
@@ -122,6 +136,7 @@ public class MaxiCode extends Symbol {
         if (mode < 2 || mode > 6) {
             throw new IllegalArgumentException("Invalid MaxiCode mode: " + mode);
         }
+        this.requestedMode = mode;
         this.mode = mode;
     }
 
@@ -208,6 +223,32 @@ public class MaxiCode extends Symbol {
         return primaryData;
     }
 
+    /**
+     * Sets whether or not to remember the primary message codewords and their error correction codewords, for
+     * each primary data string encoded by this symbol in modes 2 and 3. This is useful for parcel carriers, who
+     * typically encode the same postal code, country and service in many symbols, with only the secondary
+     * message changing from one symbol to the next. Up to 256 primary messages are remembered; the least
+     * recently used are forgotten first. The default value is <code>false</code>.
+     *
+     * @param carrierBatchMode whether or not to remember the primary message codewords
+     */
+    public void setCarrierBatchMode(boolean carrierBatchMode) {
+        this.carrierBatchMode = carrierBatchMode;
+        if (!carrierBatchMode) {
+            primaryCache = null;
+        }
+    }
+
+    /**
+     * Returns whether or not the primary message codewords are remembered between symbols.
+     *
+     * @return whether or not the primary message codewords are remembered between symbols
+     * @see #setCarrierBatchMode(boolean)
+     */
+    public boolean getCarrierBatchMode() {
+        return carrierBatchMode;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -216,6 +257,8 @@ public class MaxiCode extends Symbol {
 
         eciProcess();
 
+        mode = requestedMode;
+
         // mode 2 -> mode 3 if postal code isn't strictly numeric
         if (mode == 2) {
             for (int i = 0; i < 10 && i < primaryData.length(); i++) {
@@ -229,33 +272,6 @@ public class MaxiCode extends Symbol {
         // initialize the set and character arrays
         processText();
 
-        // start building the codeword array, starting with a copy of the character data
-        // insert primary message if this is a structured carrier message; insert mode otherwise
-        codewords = Arrays.copyOf(character, character.length);
-        if (mode == 2 || mode == 3) {
-            int[] primary = getPrimaryCodewords();
-            codewords = insertArray(codewords, 0, primary);
-        } else {
-            codewords = insertArray(codewords, 0, new int[]{mode});
-        }
-
-        // insert structured append flag if necessary
-        if (structuredAppendTotal > 1) {
-
-            int[] flag = new int[2];
-            flag[0] = 33; // padding
-            flag[1] = ((structuredAppendPosition - 1) << 3) | (structuredAppendTotal - 1); // position + total
-
-            int index;
-            if (mode == 2 || mode == 3) {
-                index = 10; // first two data symbols in the secondary message
-            } else {
-                index = 1; // first two data symbols in the primary message (first symbol at index 0 isn't a data symbol)
-            }
-
-            codewords = insertArray(codewords, index, flag);
-        }
-
         int secondaryMax, secondaryECMax;
         if (mode == 5) {
             // 68 data codewords, 56 error corrections in secondary message
@@ -267,33 +283,55 @@ public class MaxiCode extends Symbol {
             secondaryECMax = 40;
         }
 
-        // truncate data codewords to maximum data space available
-        int totalMax = secondaryMax + 10;
-        if (codewords.length > totalMax) {
-            codewords = Arrays.copyOfRange(codewords, 0, totalMax);
+        // build the codeword array in place: the primary message and its error correction come first, followed by
+        // the secondary message (which starts with the structured append flag, if necessary), and then the secondary
+        // error correction; the character data is truncated to the maximum data space available
+        codewords = new int[20 + secondaryMax + secondaryECMax];
+        int index;
+        if (mode == 2 || mode == 3) {
+            // structured carrier message: the primary message holds only the postal code, country and service
+            int[] primary = getPrimaryMessage();
+            System.arraycopy(primary, 0, codewords, 0, 20);
+            index = 20;
+        } else {
+            // the primary message holds the mode followed by the first few data symbols
+            codewords[0] = mode;
+            index = 1;
+        }
+
+        if (structuredAppendTotal > 1) {
+            codewords[index++] = 33; // padding
+            codewords[index++] = ((structuredAppendPosition - 1) << 3) | (structuredAppendTotal - 1); // position + total
+        }
+
+        for (int i = 0; index < 20 + secondaryMax; i++) {
+            if (index == 10) {
+                // skip over the primary error correction, which is added below
+                index = 20;
+            }
+            codewords[index++] = character[i];
         }
 
-        // insert primary error correction between primary message and secondary message (always EEC)
-        int[] primary = Arrays.copyOfRange(codewords, 0, 10);
-        int[] primaryCheck = getErrorCorrection(primary, 10);
-        codewords = insertArray(codewords, 10, primaryCheck);
+        if (mode != 2 && mode != 3) {
+            // insert primary error correction between primary message and secondary message (always EEC)
+            int[] primaryCheck = getErrorCorrection(codewords, 10, 10);
+            System.arraycopy(primaryCheck, 0, codewords, 10, 10);
+        }
 
         // calculate secondary error correction
-        int[] secondary = Arrays.copyOfRange(codewords, 20, codewords.length);
-        int[] secondaryOdd = new int[secondary.length / 2];
-        int[] secondaryEven = new int[secondary.length / 2];
-        for (int i = 0; i < secondary.length; i++) {
+        int[] secondaryOdd = new int[secondaryMax / 2];
+        int[] secondaryEven = new int[secondaryMax / 2];
+        for (int i = 0; i < secondaryMax; i++) {
             if ((i & 1) != 0) { // odd
-                secondaryOdd[(i - 1) / 2] = secondary[i];
+                secondaryOdd[(i - 1) / 2] = codewords[20 + i];
             } else { // even
-                secondaryEven[i / 2] = secondary[i];
+                secondaryEven[i / 2] = codewords[20 + i];
             }
         }
-        int[] secondaryECOdd = getErrorCorrection(secondaryOdd, secondaryECMax / 2);
-        int[] secondaryECEven = getErrorCorrection(secondaryEven, secondaryECMax / 2);
+        int[] secondaryECOdd = getErrorCorrection(secondaryOdd, secondaryOdd.length, secondaryECMax / 2);
+        int[] secondaryECEven = getErrorCorrection(secondaryEven, secondaryEven.length, secondaryECMax / 2);
 
         // add secondary error correction after secondary message
-        codewords = Arrays.copyOf(codewords, codewords.length + secondaryECOdd.length + secondaryECEven.length);
         for (int i = 0; i < secondaryECOdd.length; i++) {
             codewords[20 + secondaryMax + (2 * i) + 1] = secondaryECOdd[i];
         }
@@ -371,6 +409,42 @@ public class MaxiCode extends Symbol {
         symbolWidth = 74;
     }
 
+    /**
+     * Returns the primary message codewords followed by their error correction codewords, 20 codewords in all. In carrier
+     * batch mode, these codewords are remembered for each primary data string, along with the encode information which
+     * they add.
+     *
+     * @return the primary message codewords and their error correction codewords
+     */
+    private int[] getPrimaryMessage() {
+
+        String key = mode + primaryData;
+        PrimaryMessage message = (carrierBatchMode && primaryCache != null ? primaryCache.get(key) : null);
+
+        if (message == null) {
+            int infoStart = encodeInfo.length();
+            int[] primary = Arrays.copyOf(getPrimaryCodewords(), 20);
+            int[] primaryCheck = getErrorCorrection(primary, 10, 10);
+            System.arraycopy(primaryCheck, 0, primary, 10, 10);
+            message = new PrimaryMessage(primary, encodeInfo.substring(infoStart));
+            if (carrierBatchMode) {
+                if (primaryCache == null) {
+                    primaryCache = new LinkedHashMap<String, PrimaryMessage>(16, 0.75f, true) {
+                        @Override
+                        protected boolean removeEldestEntry(Map.Entry<String, PrimaryMessage> eldest) {
+                            return size() > PRIMARY_CACHE_SIZE;
+                        }
+                    };
+                }
+                primaryCache.put(key, message);
+            }
+        } else {
+            encodeInfo.append(message.info);
+        }
+
+        return message.codewords;
+    }
+
     /**
      * Extracts the postal code, country code and service code from the primary data and returns the corresponding primary message
      * codewords.
@@ -856,15 +930,16 @@ public class MaxiCode extends Symbol {
      * Returns the error correction codewords for the specified data codewords.
      *
      * @param codewords the codewords that we need error correction codewords for
+     * @param length    the number of codewords, from the start of the array, that we need error correction codewords for
      * @param ecclen    the number of error correction codewords needed
      * @return the error correction codewords for the specified data codewords
      */
-    private static int[] getErrorCorrection(int[] codewords, int ecclen) {
+    private static int[] getErrorCorrection(int[] codewords, int length, int ecclen) {
 
         ReedSolomon rs = new ReedSolomon();
         rs.init_gf(0x43);
         rs.init_code(ecclen, 1);
-        rs.encode(codewords.length, codewords);
+        rs.encode(length, codewords);
 
         int[] results = new int[ecclen];
         for (int i = 0; i < ecclen; i++) {
@@ -879,28 +954,83 @@ public class MaxiCode extends Symbol {
      */
     @Override
     protected void plotSymbol() {
+        // the hexagons and target circles are only created if they are asked for, see getHexagons() and getTarget()
+        hexagons.clear();
+        target.clear();
+    }
 
-        // hexagons
-        for (int row = 0; row < 33; row++) {
-            for (int col = 0; col < 30; col++) {
-                if (grid[row][col]) {
-                    double x = (2.46 * col) + 1.23;
-                    if ((row & 1) != 0) {
-                        x += 1.23;
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Hexagon> getHexagons() {
+        if (hexagons.isEmpty()) {
+            for (int row = 0; row < GRID_ROWS; row++) {
+                for (int col = 0; col < GRID_COLUMNS; col++) {
+                    if (grid[row][col]) {
+                        hexagons.add(new Hexagon(getModuleCentreX(row, col), getModuleCentreY(row)));
                     }
-                    double y = (2.135 * row) + 1.43;
-                    hexagons.add(new Hexagon(x, y));
                 }
             }
         }
+        return hexagons;
+    }
 
-        // circles
-        double[] radii = {10.85, 8.97, 7.10, 5.22, 3.31, 1.43};
-        for (int i = 0; i < radii.length; i++) {
-            Ellipse2D.Double circle = new Ellipse2D.Double();
-            circle.setFrameFromCenter(35.76, 35.60, 35.76 + radii[i], 35.60 + radii[i]);
-            target.add(circle);
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Ellipse2D.Double> getTarget() {
+        if (target.isEmpty()) {
+            double[] radii = {10.85, 8.97, 7.10, 5.22, 3.31, 1.43};
+            for (int i = 0; i < radii.length; i++) {
+                Ellipse2D.Double circle = new Ellipse2D.Double();
+                circle.setFrameFromCenter(35.76, 35.60, 35.76 + radii[i], 35.60 + radii[i]);
+                target.add(circle);
+            }
         }
+        return target;
+    }
+
+    /**
+     * Returns whether or not the module at the specified position in the module grid is dark. The grid has
+     * {@link #GRID_ROWS} rows and {@link #GRID_COLUMNS} columns, and odd rows are offset to the right by half a
+     * module. Renderers may use the grid directly instead of {@link #getHexagons()}, to avoid creating a hexagon
+     * for each dark module.
+     *
+     * @param row the row of the module
+     * @param column the column of the module
+     * @return whether or not the module is dark
+     */
+    public boolean isModuleDark(int row, int column) {
+        return grid[row][column];
+    }
+
+    /**
+     * Returns the horizontal position of the centre of the module at the specified position in the module grid,
+     * not taking into account any quiet zone.
+     *
+     * @param row the row of the module
+     * @param column the column of the module
+     * @return the horizontal position of the centre of the module
+     */
+    public static double getModuleCentreX(int row, int column) {
+        double x = (2.46 * column) + 1.23;
+        if ((row & 1) != 0) {
+            x += 1.23;
+        }
+        return x;
+    }
+
+    /**
+     * Returns the vertical position of the centre of the modules in the specified row of the module grid,
+     * not taking into account any quiet zone.
+     *
+     * @param row the row of the module
+     * @return the vertical position of the centre of the modules in the row
+     */
+    public static double getModuleCentreY(int row) {
+        return (2.135 * row) + 1.43;
     }
 
     /**
@@ -910,4 +1040,16 @@ public class MaxiCode extends Symbol {
     protected int[] getCodewords() {
         return codewords;
     }
+
+    /** The primary message codewords and error correction codewords for a primary data string, and their encode information. */
+    private static final class PrimaryMessage {
+
+        final int[] codewords;
+        final String info;
+
+        PrimaryMessage(int[] codewords, String info) {
+            this.codewords = codewords;
+            this.info = info;
+        }
+    }
 }
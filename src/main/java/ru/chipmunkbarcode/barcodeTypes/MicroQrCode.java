@@ -1,8 +1,10 @@
 package ru.chipmunkbarcode.barcodeTypes;
 
 import ru.chipmunkbarcode.exceptions.BarcodeException;
+import ru.chipmunkbarcode.util.BitStream;
 
 import java.io.UnsupportedEncodingException;
+import java.util.Objects;
 
 import static ru.chipmunkbarcode.util.Arrays.positionOf;
 
@@ -46,11 +48,12 @@ public class MicroQrCode extends Symbol {
 
     private int preferredVersion;
     private EccMode preferredEccLevel = EccMode.L;
+    private MaskPolicy maskPolicy = MaskPolicy.AUTO;
 
     // internal state calculated when setContent() is called
 
     private qrMode[] inputMode;
-    private StringBuilder binary;
+    private BitStream binary;
     private int[] binaryCount = new int[4];
     private int[] grid;
     private int[] eval;
@@ -119,6 +122,32 @@ public class MicroQrCode extends Symbol {
         return preferredEccLevel;
     }
 
+    /**
+     * Sets the way in which the data mask pattern is chosen (default value is {@link MaskPolicy#AUTO}).
+     * Only mask patterns 0 to 3 are valid for a {@link MaskPolicy#fixed(int) fixed} policy. Micro QR Code
+     * mask evaluation only looks at the dark modules along two edges of the symbol, so the
+     * {@link MaskPolicy#FAST fast} policy is the same as the default policy. The mask pattern used is
+     * reported in the {@link #getEncodeInfo() encode information}.
+     *
+     * @param maskPolicy the way in which the data mask pattern is chosen
+     */
+    public void setMaskPolicy(MaskPolicy maskPolicy) {
+        Objects.requireNonNull(maskPolicy, "mask policy may not be null");
+        if (maskPolicy.getMask() > 3) {
+            throw new IllegalArgumentException("Invalid Micro QR Code mask pattern: " + maskPolicy.getMask());
+        }
+        this.maskPolicy = maskPolicy;
+    }
+
+    /**
+     * Returns the way in which the data mask pattern is chosen.
+     *
+     * @return the way in which the data mask pattern is chosen
+     */
+    public MaskPolicy getMaskPolicy() {
+        return maskPolicy;
+    }
+
     @Override
     protected void encode() {
         int i, j, size;
@@ -286,7 +315,7 @@ public class MicroQrCode extends Symbol {
             ecc_level = EccMode.M;
         }
 
-        binary = new StringBuilder();
+        binary = new BitStream();
         generateBinary(version);
         if (binary.length() > 128) {
             throw new BarcodeException("Input data too long");
@@ -326,8 +355,14 @@ public class MicroQrCode extends Symbol {
 
         setupBitGrid(size);
         populateBitGrid(size);
-        bitmask = applyBitmask(size);
+        if (maskPolicy.isFixed()) {
+            bitmask = maskPolicy.getMask();
+            applyMask(size, bitmask);
+        } else {
+            bitmask = applyBitmask(size);
+        }
 
+        infoLine("Mask Policy: " + maskPolicy);
         infoLine("Mask Pattern: " + Integer.toBinaryString(bitmask));
 
         /* Add format data */
@@ -573,18 +608,6 @@ public class MicroQrCode extends Symbol {
         return retval;
     }
 
-    private String toBinary(int data, int h) {
-        StringBuilder binary = new StringBuilder();
-        for (; h != 0; h >>= 1) {
-            if ((data & h) != 0) {
-                binary.append('1');
-            } else {
-                binary.append('0');
-            }
-        }
-        return binary.toString();
-    }
-
     private void getBinaryLength() {
         int i;
         qrMode currentMode = qrMode.NULL;
@@ -699,15 +722,15 @@ public class MicroQrCode extends Symbol {
                     /* Mode indicator */
                     switch (version) {
                         case 2:
-                            binary.append("11");
+                            binary.append(0b11, 2);
                             break;
                         case 3:
-                            binary.append("011");
+                            binary.append(0b011, 3);
                             break;
                     }
 
                     /* Character count indicator */
-                    binary.append(toBinary(blockLength, 1 << version)); /* version = 2..3 */
+                    binary.append(blockLength, version + 1); /* version = 2..3 */
 
                     info("KANJ (" + blockLength + ") ");
 
@@ -737,7 +760,7 @@ public class MicroQrCode extends Symbol {
                         lsb = (jis & 0xff);
                         prod = (msb * 0xc0) + lsb;
 
-                        binary.append(toBinary(prod, 0x1000));
+                        binary.append(prod, 13);
 
                         infoSpace(prod);
                     }
@@ -748,22 +771,22 @@ public class MicroQrCode extends Symbol {
                     /* Mode indicator */
                     switch (version) {
                         case 2:
-                            binary.append("10");
+                            binary.append(0b10, 2);
                             break;
                         case 3:
-                            binary.append("010");
+                            binary.append(0b010, 3);
                             break;
                     }
 
                     /* Character count indicator */
-                    binary.append(toBinary(blockLength, 2 << version)); /* version = 2..3 */
+                    binary.append(blockLength, version + 2); /* version = 2..3 */
 
                     info("BYTE (" + blockLength + ") ");
 
                     /* Character representation */
                     for (i = 0; i < blockLength; i++) {
                         int lbyte = content.charAt(position + i);
-                        binary.append(toBinary(lbyte, 0x80));
+                        binary.append(lbyte, 8);
                         infoSpace(lbyte);
                     }
 
@@ -773,18 +796,18 @@ public class MicroQrCode extends Symbol {
                     /* Mode indicator */
                     switch (version) {
                         case 1:
-                            binary.append("1");
+                            binary.append(0b1, 1);
                             break;
                         case 2:
-                            binary.append("01");
+                            binary.append(0b01, 2);
                             break;
                         case 3:
-                            binary.append("001");
+                            binary.append(0b001, 3);
                             break;
                     }
 
                     /* Character count indicator */
-                    binary.append(toBinary(blockLength, 2 << version)); /* version = 1..3 */
+                    binary.append(blockLength, version + 2); /* version = 1..3 */
 
                     info("ALPH (" + blockLength + ") ");
 
@@ -803,7 +826,7 @@ public class MicroQrCode extends Symbol {
                             }
                         }
 
-                        binary.append(toBinary(prod, 1 << (5 * count))); /* count = 1..2 */
+                        binary.append(prod, 1 + (5 * count)); /* count = 1..2 */
 
                         infoSpace(prod);
 
@@ -816,18 +839,18 @@ public class MicroQrCode extends Symbol {
                     /* Mode indicator */
                     switch (version) {
                         case 1:
-                            binary.append("0");
+                            binary.append(0b0, 1);
                             break;
                         case 2:
-                            binary.append("00");
+                            binary.append(0b00, 2);
                             break;
                         case 3:
-                            binary.append("000");
+                            binary.append(0b000, 3);
                             break;
                     }
 
                     /* Character count indicator */
-                    binary.append(toBinary(blockLength, 4 << version)); /* version = 0..3 */
+                    binary.append(blockLength, version + 3); /* version = 0..3 */
 
                     info("NUMB (" + blockLength + ") ");
 
@@ -854,7 +877,7 @@ public class MicroQrCode extends Symbol {
                             }
                         }
 
-                        binary.append(toBinary(prod, 1 << (3 * count))); /* count = 1..3 */
+                        binary.append(prod, 1 + (3 * count)); /* count = 1..3 */
 
                         infoSpace(prod);
 
@@ -869,21 +892,21 @@ public class MicroQrCode extends Symbol {
         /* Add terminator */
         switch (version) {
             case 0:
-                binary.append("000");
+                binary.append(0b000, 3);
                 break;
             case 1:
                 if (binary.length() < 37) {
-                    binary.append("00000");
+                    binary.append(0b00000, 5);
                 }
                 break;
             case 2:
                 if (binary.length() < 81) {
-                    binary.append("0000000");
+                    binary.append(0b0000000, 7);
                 }
                 break;
             case 3:
                 if (binary.length() < 125) {
-                    binary.append("000000000");
+                    binary.append(0b000000000, 9);
                 }
                 break;
         }
@@ -905,9 +928,7 @@ public class MicroQrCode extends Symbol {
         /* Manage last (4-bit) block */
         bits_left = bits_total - binary.length();
         if (bits_left <= 4) {
-            for (i = 0; i < bits_left; i++) {
-                binary.append("0");
-            }
+            binary.append(0, bits_left);
             latch = 1;
         }
 
@@ -917,9 +938,7 @@ public class MicroQrCode extends Symbol {
             if (remainder == 8) {
                 remainder = 0;
             }
-            for (i = 0; i < remainder; i++) {
-                binary.append("0");
-            }
+            binary.append(0, remainder);
 
             /* Add padding */
             bits_left = bits_total - binary.length();
@@ -927,13 +946,13 @@ public class MicroQrCode extends Symbol {
                 remainder = (bits_left - 4) / 8;
                 for (i = 0; i < remainder; i++) {
                     if ((i & 1) != 0) {
-                        binary.append("00010001");
+                        binary.append(0b00010001, 8);
                     } else {
-                        binary.append("11101100");
+                        binary.append(0b11101100, 8);
                     }
                 }
             }
-            binary.append("0000");
+            binary.append(0b0000, 4);
         }
 
         data_codewords = 3;
@@ -941,45 +960,9 @@ public class MicroQrCode extends Symbol {
 
         /* Copy data into codewords */
         for (i = 0; i < (data_codewords - 1); i++) {
-            data_blocks[i] = 0;
-            if (binary.charAt(i * 8) == '1') {
-                data_blocks[i] += 0x80;
-            }
-            if (binary.charAt((i * 8) + 1) == '1') {
-                data_blocks[i] += 0x40;
-            }
-            if (binary.charAt((i * 8) + 2) == '1') {
-                data_blocks[i] += 0x20;
-            }
-            if (binary.charAt((i * 8) + 3) == '1') {
-                data_blocks[i] += 0x10;
-            }
-            if (binary.charAt((i * 8) + 4) == '1') {
-                data_blocks[i] += 0x08;
-            }
-            if (binary.charAt((i * 8) + 5) == '1') {
-                data_blocks[i] += 0x04;
-            }
-            if (binary.charAt((i * 8) + 6) == '1') {
-                data_blocks[i] += 0x02;
-            }
-            if (binary.charAt((i * 8) + 7) == '1') {
-                data_blocks[i] += 0x01;
-            }
-        }
-        data_blocks[2] = 0;
-        if (binary.charAt(16) == '1') {
-            data_blocks[2] += 0x08;
-        }
-        if (binary.charAt(17) == '1') {
-            data_blocks[2] += 0x04;
-        }
-        if (binary.charAt(18) == '1') {
-            data_blocks[2] += 0x02;
-        }
-        if (binary.charAt(19) == '1') {
-            data_blocks[2] += 0x01;
+            data_blocks[i] = binary.get(i * 8, 8);
         }
+        data_blocks[2] = binary.get(16, 4);
 
         info("Codewords: ");
         for (i = 0; i < data_codewords; i++) {
@@ -997,7 +980,7 @@ public class MicroQrCode extends Symbol {
 
         /* Add Reed-Solomon codewords to binary data */
         for (i = 0; i < ecc_codewords; i++) {
-            binary.append(toBinary(ecc_blocks[ecc_codewords - i - 1], 0x80));
+            binary.append(ecc_blocks[ecc_codewords - i - 1], 8);
         }
     }
 
@@ -1019,18 +1002,16 @@ public class MicroQrCode extends Symbol {
         if (remainder == 8) {
             remainder = 0;
         }
-        for (i = 0; i < remainder; i++) {
-            binary.append("0");
-        }
+        binary.append(0, remainder);
 
         /* Add padding */
         bits_left = bits_total - binary.length();
         remainder = bits_left / 8;
         for (i = 0; i < remainder; i++) {
             if ((i & 1) != 0) {
-                binary.append("00010001");
+                binary.append(0b00010001, 8);
             } else {
-                binary.append("11101100");
+                binary.append(0b11101100, 8);
             }
         }
 
@@ -1043,31 +1024,7 @@ public class MicroQrCode extends Symbol {
 
         /* Copy data into codewords */
         for (i = 0; i < data_codewords; i++) {
-            data_blocks[i] = 0;
-            if (binary.charAt(i * 8) == '1') {
-                data_blocks[i] += 0x80;
-            }
-            if (binary.charAt((i * 8) + 1) == '1') {
-                data_blocks[i] += 0x40;
-            }
-            if (binary.charAt((i * 8) + 2) == '1') {
-                data_blocks[i] += 0x20;
-            }
-            if (binary.charAt((i * 8) + 3) == '1') {
-                data_blocks[i] += 0x10;
-            }
-            if (binary.charAt((i * 8) + 4) == '1') {
-                data_blocks[i] += 0x08;
-            }
-            if (binary.charAt((i * 8) + 5) == '1') {
-                data_blocks[i] += 0x04;
-            }
-            if (binary.charAt((i * 8) + 6) == '1') {
-                data_blocks[i] += 0x02;
-            }
-            if (binary.charAt((i * 8) + 7) == '1') {
-                data_blocks[i] += 0x01;
-            }
+            data_blocks[i] = binary.get(i * 8, 8);
         }
 
         info("Codewords: ");
@@ -1086,7 +1043,7 @@ public class MicroQrCode extends Symbol {
 
         /* Add Reed-Solomon codewords to binary data */
         for (i = 0; i < ecc_codewords; i++) {
-            binary.append(toBinary(ecc_blocks[ecc_codewords - i - 1], 0x80));
+            binary.append(ecc_blocks[ecc_codewords - i - 1], 8);
         }
     }
 
@@ -1108,9 +1065,7 @@ public class MicroQrCode extends Symbol {
         /* Manage last (4-bit) block */
         bits_left = bits_total - binary.length();
         if (bits_left <= 4) {
-            for (i = 0; i < bits_left; i++) {
-                binary.append("0");
-            }
+            binary.append(0, bits_left);
             latch = 1;
         }
 
@@ -1120,9 +1075,7 @@ public class MicroQrCode extends Symbol {
             if (remainder == 8) {
                 remainder = 0;
             }
-            for (i = 0; i < remainder; i++) {
-                binary.append("0");
-            }
+            binary.append(0, remainder);
 
             /* Add padding */
             bits_left = bits_total - binary.length();
@@ -1130,13 +1083,13 @@ public class MicroQrCode extends Symbol {
                 remainder = (bits_left - 4) / 8;
                 for (i = 0; i < remainder; i++) {
                     if ((i & 1) != 0) {
-                        binary.append("00010001");
+                        binary.append(0b00010001, 8);
                     } else {
-                        binary.append("11101100");
+                        binary.append(0b11101100, 8);
                     }
                 }
             }
-            binary.append("0000");
+            binary.append(0b0000, 4);
         }
 
         data_codewords = 11;
@@ -1148,63 +1101,15 @@ public class MicroQrCode extends Symbol {
 
         /* Copy data into codewords */
         for (i = 0; i < (data_codewords - 1); i++) {
-            data_blocks[i] = 0;
-            if (binary.charAt(i * 8) == '1') {
-                data_blocks[i] += 0x80;
-            }
-            if (binary.charAt((i * 8) + 1) == '1') {
-                data_blocks[i] += 0x40;
-            }
-            if (binary.charAt((i * 8) + 2) == '1') {
-                data_blocks[i] += 0x20;
-            }
-            if (binary.charAt((i * 8) + 3) == '1') {
-                data_blocks[i] += 0x10;
-            }
-            if (binary.charAt((i * 8) + 4) == '1') {
-                data_blocks[i] += 0x08;
-            }
-            if (binary.charAt((i * 8) + 5) == '1') {
-                data_blocks[i] += 0x04;
-            }
-            if (binary.charAt((i * 8) + 6) == '1') {
-                data_blocks[i] += 0x02;
-            }
-            if (binary.charAt((i * 8) + 7) == '1') {
-                data_blocks[i] += 0x01;
-            }
+            data_blocks[i] = binary.get(i * 8, 8);
         }
 
         if (ecc_mode == EccMode.L) {
-            data_blocks[10] = 0;
-            if (binary.charAt(80) == '1') {
-                data_blocks[10] += 0x08;
-            }
-            if (binary.charAt(81) == '1') {
-                data_blocks[10] += 0x04;
-            }
-            if (binary.charAt(82) == '1') {
-                data_blocks[10] += 0x02;
-            }
-            if (binary.charAt(83) == '1') {
-                data_blocks[10] += 0x01;
-            }
+            data_blocks[10] = binary.get(80, 4);
         }
 
         if (ecc_mode == EccMode.M) {
-            data_blocks[8] = 0;
-            if (binary.charAt(64) == '1') {
-                data_blocks[8] += 0x08;
-            }
-            if (binary.charAt(65) == '1') {
-                data_blocks[8] += 0x04;
-            }
-            if (binary.charAt(66) == '1') {
-                data_blocks[8] += 0x02;
-            }
-            if (binary.charAt(67) == '1') {
-                data_blocks[8] += 0x01;
-            }
+            data_blocks[8] = binary.get(64, 4);
         }
 
         info("Codewords: ");
@@ -1223,7 +1128,7 @@ public class MicroQrCode extends Symbol {
 
         /* Add Reed-Solomon codewords to binary data */
         for (i = 0; i < ecc_codewords; i++) {
-            binary.append(toBinary(ecc_blocks[ecc_codewords - i - 1], 0x80));
+            binary.append(ecc_blocks[ecc_codewords - i - 1], 8);
         }
     }
 
@@ -1248,18 +1153,16 @@ public class MicroQrCode extends Symbol {
         if (remainder == 8) {
             remainder = 0;
         }
-        for (i = 0; i < remainder; i++) {
-            binary.append("0");
-        }
+        binary.append(0, remainder);
 
         /* Add padding */
         bits_left = bits_total - binary.length();
         remainder = bits_left / 8;
         for (i = 0; i < remainder; i++) {
             if ((i & 1) != 0) {
-                binary.append("00010001");
+                binary.append(0b00010001, 8);
             } else {
-                binary.append("11101100");
+                binary.append(0b11101100, 8);
             }
         }
 
@@ -1276,31 +1179,7 @@ public class MicroQrCode extends Symbol {
 
         /* Copy data into codewords */
         for (i = 0; i < data_codewords; i++) {
-            data_blocks[i] = 0;
-            if (binary.charAt(i * 8) == '1') {
-                data_blocks[i] += 0x80;
-            }
-            if (binary.charAt((i * 8) + 1) == '1') {
-                data_blocks[i] += 0x40;
-            }
-            if (binary.charAt((i * 8) + 2) == '1') {
-                data_blocks[i] += 0x20;
-            }
-            if (binary.charAt((i * 8) + 3) == '1') {
-                data_blocks[i] += 0x10;
-            }
-            if (binary.charAt((i * 8) + 4) == '1') {
-                data_blocks[i] += 0x08;
-            }
-            if (binary.charAt((i * 8) + 5) == '1') {
-                data_blocks[i] += 0x04;
-            }
-            if (binary.charAt((i * 8) + 6) == '1') {
-                data_blocks[i] += 0x02;
-            }
-            if (binary.charAt((i * 8) + 7) == '1') {
-                data_blocks[i] += 0x01;
-            }
+            data_blocks[i] = binary.get(i * 8, 8);
         }
 
         info("Codewords: ");
@@ -1319,7 +1198,7 @@ public class MicroQrCode extends Symbol {
 
         /* Add Reed-Solomon codewords to binary data */
         for (i = 0; i < ecc_codewords; i++) {
-            binary.append(toBinary(ecc_blocks[ecc_codewords - i - 1], 0x80));
+            binary.append(ecc_blocks[ecc_codewords - i - 1], 8);
         }
     }
 
@@ -1395,7 +1274,7 @@ public class MicroQrCode extends Symbol {
             x = (size - 2) - (row * 2);
 
             if ((grid[(y * size) + (x + 1)] & 0xf0) == 0) {
-                if (binary.charAt(i) == '1') {
+                if (binary.get(i)) {
                     grid[(y * size) + (x + 1)] = 0x01;
                 } else {
                     grid[(y * size) + (x + 1)] = 0x00;
@@ -1405,7 +1284,7 @@ public class MicroQrCode extends Symbol {
 
             if (i < n) {
                 if ((grid[(y * size) + x] & 0xf0) == 0) {
-                    if (binary.charAt(i) == '1') {
+                    if (binary.get(i)) {
                         grid[(y * size) + x] = 0x01;
                     } else {
                         grid[(y * size) + x] = 0x00;
@@ -1434,6 +1313,42 @@ public class MicroQrCode extends Symbol {
         } while (i < n);
     }
 
+    /**
+     * Returns the mask bits for the specified module position: all four mask variants are encoded
+     * in the low 4 bits of the returned value, bit <code>n</code> being set if mask pattern
+     * <code>n</code> inverts the module.
+     */
+    private static int maskBits(int x, int y) {
+        int bits = 0;
+        if ((y & 1) == 0) {
+            bits |= 0x01;
+        }
+        if ((((y / 2) + (x / 3)) & 1) == 0) {
+            bits |= 0x02;
+        }
+        if (((((y * x) & 1) + ((y * x) % 3)) & 1) == 0) {
+            bits |= 0x04;
+        }
+        if (((((y + x) & 1) + ((y * x) % 3)) & 1) == 0) {
+            bits |= 0x08;
+        }
+        return bits;
+    }
+
+    /**
+     * Applies the specified mask pattern to the grid without any evaluation.
+     */
+    private void applyMask(int size, int pattern) {
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int i = (y * size) + x;
+                if ((grid[i] & 0xf0) == 0 && ((maskBits(x, y) >> pattern) & 0x01) != 0) {
+                    grid[i] ^= 0x01;
+                }
+            }
+        }
+    }
+
     private int applyBitmask(int size) {
         int x, y;
         int p;
@@ -1448,24 +1363,8 @@ public class MicroQrCode extends Symbol {
         /* Perform data masking */
         for (x = 0; x < size; x++) {
             for (y = 0; y < size; y++) {
-                mask[(y * size) + x] = 0x00;
-
                 if ((grid[(y * size) + x] & 0xf0) == 0) {
-                    if ((y & 1) == 0) {
-                        mask[(y * size) + x] += 0x01;
-                    }
-
-                    if ((((y / 2) + (x / 3)) & 1) == 0) {
-                        mask[(y * size) + x] += 0x02;
-                    }
-
-                    if (((((y * x) & 1) + ((y * x) % 3)) & 1) == 0) {
-                        mask[(y * size) + x] += 0x04;
-                    }
-
-                    if (((((y + x) & 1) + ((y * x) % 3)) & 1) == 0) {
-                        mask[(y * size) + x] += 0x08;
-                    }
+                    mask[(y * size) + x] = maskBits(x, y);
                 }
             }
         }
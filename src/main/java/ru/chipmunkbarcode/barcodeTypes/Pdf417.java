@@ -1,9 +1,10 @@
 package ru.chipmunkbarcode.barcodeTypes;
 
 import ru.chipmunkbarcode.exceptions.BarcodeException;
+import ru.chipmunkbarcode.util.WideInteger;
 
-import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static ru.chipmunkbarcode.util.Arrays.positionOf;
@@ -47,9 +48,34 @@ public class Pdf417 extends Symbol {
     private int structuredAppendFileId = 0;
     private int structuredAppendPosition = 1;
     private int structuredAppendTotal = 1;
+    private boolean minimalEncodation;
 
     private static final int MAX_NUMERIC_COMPACTION_BLOCK_SIZE = 44;
 
+    /*
+     * States used by the minimal encodation search. Text compaction states track the submode (Alpha, Lower,
+     * Mixed or Punctuation) and whether half a codeword is waiting to be filled; Byte compaction states track
+     * the number of bytes in the current group of 6 (mod 6); Numeric compaction states track the number of
+     * digits in the current group of 44 (1 - 44). Costs are measured in half codewords.
+     */
+    private static final int ST_TEXT = 0;
+    private static final int ST_BYTE = 8;
+    private static final int ST_NUMERIC = 14;
+    private static final int ST_COUNT = 58;
+    private static final int UNREACHABLE = Integer.MAX_VALUE / 2;
+
+    private static final int SUB_ALPHA = 0;
+    private static final int SUB_LOWER = 1;
+    private static final int SUB_PUNCT = 3;
+
+    /* Text compaction values needed to latch from one submode (Alpha, Lower, Mixed, Punctuation) to another */
+    private static final int[][][] TEXT_LATCH = {
+            { {}, {27}, {28}, {28, 25} },
+            { {28, 28}, {}, {28}, {28, 25} },
+            { {28}, {27}, {}, {25} },
+            { {29}, {29, 27}, {29, 28}, {} }
+    };
+
     private static final int[] COEFRS = {
             /* k = 2 */
             27, 917,
@@ -366,6 +392,27 @@ public class Pdf417 extends Symbol {
             "11011", "11100", "11101", "11110", "11111", "01", "1111111101010100", "11111101000101001"
     };
 
+    /* The bar and space widths of each codeword in each cluster, 8 widths per codeword, starting with a bar */
+    private static final char[] CODEWORD_WIDTHS = new char[CODAGEMC.length * 8];
+
+    /* Start and stop patterns, as bar and space widths */
+    private static final String START_WIDTHS = "81111113";
+    private static final String STOP_WIDTHS = "711311121";
+
+    /* Initialize CODEWORD_WIDTHS */
+    static {
+        StringBuilder bin = new StringBuilder(17);
+        for (int i = 0; i < CODAGEMC.length; i++) {
+            bin.setLength(0);
+            bin.append('1');
+            for (int j = 0; j < 3; j++) {
+                bin.append(PDF_TTF[positionOf(CODAGEMC[i].charAt(j), BR_SET)]);
+            }
+            bin.append('0');
+            bin2pat(bin).getChars(0, 8, CODEWORD_WIDTHS, i * 8);
+        }
+    }
+
     private static final int[] ASCII_X = {
             7, 8, 8, 4, 12, 4, 4, 8, 8, 8, 12, 4, 12, 12, 12, 12, 4, 4, 4, 4, 4, 4, 4, 4,
             4, 4, 12, 8, 8, 4, 8, 8, 8, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
@@ -661,6 +708,28 @@ public class Pdf417 extends Symbol {
         return structuredAppendFileId;
     }
 
+    /**
+     * Sets whether or not to search for the shortest possible sequence of compaction modes (Text, Byte and
+     * Numeric) and Text compaction submodes for the data, instead of choosing modes using fixed rules of
+     * thumb. Minimal encodation takes time proportional to the length of the data, and may allow the data
+     * to fit in fewer rows. The default value is <code>false</code>.
+     *
+     * @param minimalEncodation whether or not to use minimal encodation
+     */
+    public void setMinimalEncodation(boolean minimalEncodation) {
+        this.minimalEncodation = minimalEncodation;
+    }
+
+    /**
+     * Returns whether or not minimal encodation is used.
+     *
+     * @return whether or not minimal encodation is used
+     * @see #setMinimalEncodation(boolean)
+     */
+    public boolean getMinimalEncodation() {
+        return minimalEncodation;
+    }
+
     public void setMode(Mode mode) {
         symbolMode = mode;
     }
@@ -693,10 +762,10 @@ public class Pdf417 extends Symbol {
         int c1, c2, c3;
         int[] dummy = new int[35];
         int selectedECCLevel;
-        StringBuilder codebarre = new StringBuilder();
-        StringBuilder bin = new StringBuilder();
+        StringBuilder widths = new StringBuilder();
 
-        List<Block> blocks = createBlocks(inputData);
+        /* minimal encodation does not use blocks */
+        List<Block> blocks = (minimalEncodation ? new ArrayList<>() : createBlocks(inputData));
 
         /* now compress the data */
         codeWordCount = 0;
@@ -732,6 +801,10 @@ public class Pdf417 extends Symbol {
             }
         }
 
+        if (minimalEncodation) {
+            processMinimal(true);
+        }
+
         int blockCount = 0;
         for (int i = 0; i < blocks.size(); i++) {
             Block block = blocks.get(i);
@@ -768,20 +841,7 @@ public class Pdf417 extends Symbol {
 
         // if we have to default the ECC level, do so per the
         // recommendations in the specification (Table E.1)
-        selectedECCLevel = preferredEccLevel;
-        if (selectedECCLevel < 0) {
-            if (codeWordCount <= 40) {
-                selectedECCLevel = 2;
-            } else if (codeWordCount <= 160) {
-                selectedECCLevel = 3;
-            } else if (codeWordCount <= 320) {
-                selectedECCLevel = 4;
-            } else if (codeWordCount <= 863) {
-                selectedECCLevel = 5;
-            } else {
-                selectedECCLevel = 6;
-            }
-        }
+        selectedECCLevel = selectEccLevel(codeWordCount);
 
         int k = 1 << (selectedECCLevel + 1); // error correction codeword count
         int dataCodeWordCount = codeWordCount + k + 1; // not including padding
@@ -918,22 +978,19 @@ public class Pdf417 extends Symbol {
                     dummy[columns + 1] = k + c2; // right row indicator
                     break;
             }
-            codebarre.setLength(0);
-            codebarre.append("+*");
+            widths.setLength(0);
+            widths.append(START_WIDTHS);
             for (j = 0; j <= columns + 1; j++) {
                 if (!(symbolMode == Mode.TRUNCATED && j > columns)) {
-                    codebarre.append(CODAGEMC[offset + dummy[j]]);
-                    codebarre.append('*');
+                    widths.append(CODEWORD_WIDTHS, (offset + dummy[j]) * 8, 8);
                 }
             }
             if (symbolMode != Mode.TRUNCATED) {
-                codebarre.append('-');
-            }
-            bin.setLength(0);
-            for (j = 0; j < codebarre.length(); j++) {
-                bin.append(PDF_TTF[positionOf(codebarre.charAt(j), BR_SET)]);
+                widths.append(STOP_WIDTHS);
+            } else {
+                widths.append('1'); /* truncated stop pattern is a single bar */
             }
-            pattern[i] = bin2pat(bin);
+            pattern[i] = widths.toString();
             rowHeight[i] = defaultHeight;
         }
     }
@@ -943,15 +1000,15 @@ public class Pdf417 extends Symbol {
         int k, j, longueur, offset;
         int total;
         int LeftRAPStart, CentreRAPStart, RightRAPStart, StartCluster;
-        int LeftRAP, CentreRAP, RightRAP, Cluster, flip, loop;
+        int LeftRAP, CentreRAP, RightRAP, Cluster, loop;
         int[] dummy = new int[5];
         int[] mccorrection = new int[50];
-        StringBuilder codebarre = new StringBuilder();
-        StringBuilder bin = new StringBuilder();
+        StringBuilder widths = new StringBuilder();
 
         /* Encoding starts out the same as PDF417, so use the same code */
 
-        List<Block> blocks = createBlocks(inputData);
+        /* minimal encodation does not use blocks */
+        List<Block> blocks = (minimalEncodation ? new ArrayList<>() : createBlocks(inputData));
 
         /* 541 - now compress the data */
         codeWordCount = 0;
@@ -986,6 +1043,10 @@ public class Pdf417 extends Symbol {
             }
         }
 
+        if (minimalEncodation) {
+            processMinimal(false);
+        }
+
         int blockCount = 0;
         for (int i = 0; i < blocks.size(); i++) {
             Block block = blocks.get(i);
@@ -1118,7 +1179,7 @@ public class Pdf417 extends Symbol {
         infoLine("Grid Size: " + columns + " X " + row_count);
 
         for (int i = 0; i < rows; i++) {
-            codebarre.setLength(0);
+            widths.setLength(0);
             offset = 929 * Cluster;
             for (j = 0; j < 5; j++) {
                 dummy[j] = 0;
@@ -1127,60 +1188,28 @@ public class Pdf417 extends Symbol {
                 dummy[j + 1] = codeWords[i * columns + j];
             }
 
-            /* Copy the data into codebarre */
-            codebarre.append(RAPLR[LeftRAP]);
-            codebarre.append('1');
-            codebarre.append(CODAGEMC[offset + dummy[1]]);
-            codebarre.append('1');
+            /* Copy the bar and space widths into the row */
+            widths.append(RAPLR[LeftRAP]);
+            widths.append(CODEWORD_WIDTHS, (offset + dummy[1]) * 8, 8);
             if (columns == 3) {
-                codebarre.append(RAPC[CentreRAP]);
+                widths.append(RAPC[CentreRAP]);
             }
             if (columns >= 2) {
-                codebarre.append('1');
-                codebarre.append(CODAGEMC[offset + dummy[2]]);
-                codebarre.append('1');
+                widths.append(CODEWORD_WIDTHS, (offset + dummy[2]) * 8, 8);
             }
             if (columns == 4) {
-                codebarre.append(RAPC[CentreRAP]);
+                widths.append(RAPC[CentreRAP]);
             }
             if (columns >= 3) {
-                codebarre.append('1');
-                codebarre.append(CODAGEMC[offset + dummy[3]]);
-                codebarre.append('1');
+                widths.append(CODEWORD_WIDTHS, (offset + dummy[3]) * 8, 8);
             }
             if (columns == 4) {
-                codebarre.append('1');
-                codebarre.append(CODAGEMC[offset + dummy[4]]);
-                codebarre.append('1');
-            }
-            codebarre.append(RAPLR[RightRAP]);
-            codebarre.append('1'); /* stop */
-
-            /* Now codebarre is a mixture of letters and numbers */
-
-            flip = 1;
-            bin.setLength(0);
-            for (loop = 0; loop < codebarre.length(); loop++) {
-                if ((codebarre.charAt(loop) >= '0') && (codebarre.charAt(loop) <= '9')) {
-                    for (k = 0; k < Character.getNumericValue(codebarre.charAt(loop)); k++) {
-                        if (flip == 0) {
-                            bin.append('0');
-                        } else {
-                            bin.append('1');
-                        }
-                    }
-                    if (flip == 0) {
-                        flip = 1;
-                    } else {
-                        flip = 0;
-                    }
-                } else {
-                    bin.append(PDF_TTF[positionOf(codebarre.charAt(loop), BR_SET)]);
-                }
+                widths.append(CODEWORD_WIDTHS, (offset + dummy[4]) * 8, 8);
             }
+            widths.append(RAPLR[RightRAP]);
+            widths.append('1'); /* stop */
 
-            /* so now pattern[] holds the string of '1's and '0's. - copy this to the symbol */
-            pattern[i] = bin2pat(bin);
+            pattern[i] = widths.toString();
             rowHeight[i] = defaultHeight;
 
             /* Set up RAPs and Cluster for next row */
@@ -1364,24 +1393,8 @@ public class Pdf417 extends Symbol {
         /* listet will contain the table numbers and the value of each characters */
         for (blockIndext = 0; blockIndext < length; blockIndext++) {
             codeascii = inputData[start + blockIndext];
-            switch (codeascii) {
-                case '\t':
-                    listet0[blockIndext] = 12;
-                    listet1[blockIndext] = 12;
-                    break;
-                case '\n':
-                    listet0[blockIndext] = 8;
-                    listet1[blockIndext] = 15;
-                    break;
-                case 13:
-                    listet0[blockIndext] = 12;
-                    listet1[blockIndext] = 11;
-                    break;
-                default:
-                    listet0[blockIndext] = ASCII_X[codeascii - 32];
-                    listet1[blockIndext] = ASCII_Y[codeascii - 32];
-                    break;
-            }
+            listet0[blockIndext] = textTables(codeascii);
+            listet1[blockIndext] = textValue(codeascii);
         }
 
         curtable = 1; /* default table */
@@ -1557,52 +1570,48 @@ public class Pdf417 extends Symbol {
     }
 
     private void processBytes(int start, int length, EncodingMode lastMode) {
-        int len = 0;
-        int chunkLen = 0;
-        BigInteger mantisa;
-        BigInteger total;
-        BigInteger word;
-
-        mantisa = new BigInteger("0");
-        total = new BigInteger("0");
-
         if (length == 1 && lastMode == EncodingMode.TEX) {
             codeWords[codeWordCount++] = 913;
             codeWords[codeWordCount++] = inputData[start];
         } else {
-            /* select the switch for multiple of 6 bytes */
-            if (length % 6 == 0) {
-                codeWords[codeWordCount++] = 924;
-            } else {
-                codeWords[codeWordCount++] = 901;
-            }
+            processByteRun(start, length);
+        }
+    }
+
+    private void processByteRun(int start, int length) {
+        int len = 0;
+        int chunkLen = 0;
+        long total;
 
-            while (len < length) {
-                chunkLen = length - len;
-                if (6 <= chunkLen) /* Take groups of 6 */ {
-                    chunkLen = 6;
-                    len += chunkLen;
-                    total = BigInteger.valueOf(0);
+        /* select the switch for multiple of 6 bytes */
+        if (length % 6 == 0) {
+            codeWords[codeWordCount++] = 924;
+        } else {
+            codeWords[codeWordCount++] = 901;
+        }
 
-                    while ((chunkLen--) != 0) {
-                        mantisa = BigInteger.valueOf(inputData[start++]);
-                        total = total.or(mantisa.shiftLeft(chunkLen * 8));
-                    }
+        while (len < length) {
+            chunkLen = length - len;
+            if (6 <= chunkLen) /* Take groups of 6 */ {
+                chunkLen = 6;
+                len += chunkLen;
+                total = 0;
 
-                    chunkLen = 5;
+                while ((chunkLen--) != 0) {
+                    total |= (long) inputData[start++] << (chunkLen * 8);
+                }
 
-                    while ((chunkLen--) != 0) {
+                chunkLen = 5;
 
-                        word = total.mod(BigInteger.valueOf(900));
-                        codeWords[codeWordCount + chunkLen] = word.intValue();
-                        total = total.divide(BigInteger.valueOf(900));
-                    }
-                    codeWordCount += 5;
-                } else /* If it remain a group of less than 6 bytes */ {
-                    len += chunkLen;
-                    while ((chunkLen--) != 0) {
-                        codeWords[codeWordCount++] = inputData[start++];
-                    }
+                while ((chunkLen--) != 0) {
+                    codeWords[codeWordCount + chunkLen] = (int) (total % 900);
+                    total /= 900;
+                }
+                codeWordCount += 5;
+            } else /* If it remain a group of less than 6 bytes */ {
+                len += chunkLen;
+                while ((chunkLen--) != 0) {
+                    codeWords[codeWordCount++] = inputData[start++];
                 }
             }
         }
@@ -1610,7 +1619,6 @@ public class Pdf417 extends Symbol {
 
     private void processNumbers(int[] data, int start, int length, boolean skipLatch) {
 
-        BigInteger tVal, dVal;
         int[] d = new int[16];
         int cw_count;
 
@@ -1620,27 +1628,381 @@ public class Pdf417 extends Symbol {
             codeWords[codeWordCount++] = 902;
         }
 
-        StringBuilder t = new StringBuilder(length + 1);
-        t.append('1');
+        /* A leading 1, followed by the digits (each digit needs less than 4 bits) */
+        WideInteger t = new WideInteger(64 + (4 * length), 1);
         for (int i = 0; i < length; i++) {
-            t.append((char) data[start + i]);
+            t.multiplyAdd(10, data[start + i] - '0');
         }
 
-        tVal = new BigInteger(t.toString());
-
         cw_count = 0;
         do {
-            dVal = tVal.mod(BigInteger.valueOf(900));
-            d[cw_count] = dVal.intValue();
-            tVal = tVal.divide(BigInteger.valueOf(900));
+            d[cw_count] = t.divide(900);
             cw_count++;
-        } while (tVal.compareTo(BigInteger.ZERO) == 1);
+        } while (!t.isZero());
 
         for (int i = cw_count - 1; i >= 0; i--) {
             codeWords[codeWordCount++] = d[i];
         }
     }
 
+    /**
+     * Compacts the data using the sequence of compaction modes and Text compaction submodes which gives the
+     * fewest codewords, found by searching a graph of encoder states one input character at a time.
+     *
+     * @param textIsDefault whether or not the symbol starts in Text compaction mode without an explicit latch
+     */
+    private void processMinimal(boolean textIsDefault) {
+
+        int length = inputData.length;
+        int[][] cost = new int[length + 1][ST_COUNT];
+        int[][] prevState = new int[length + 1][ST_COUNT];
+        int[][] prevPosition = new int[length + 1][ST_COUNT];
+        boolean[][] byteShift = new boolean[length + 1][ST_COUNT];
+
+        for (int[] row : cost) {
+            Arrays.fill(row, UNREACHABLE);
+        }
+        cost[0][ST_TEXT] = (textIsDefault ? 0 : 2);
+
+        for (int i = 0; i <= length; i++) {
+            relaxLatches(cost, prevState, prevPosition, byteShift, i);
+            if (i < length) {
+                relaxCharacter(inputData[i], i, cost, prevState, prevPosition, byteShift);
+            }
+        }
+
+        int best = ST_TEXT;
+        for (int state = 1; state < ST_COUNT; state++) {
+            if (add(cost[length][state], pendingCost(state)) < add(cost[length][best], pendingCost(best))) {
+                best = state;
+            }
+        }
+
+        /* Find the state before and after each input character */
+        int[] before = new int[length];
+        int[] after = new int[length];
+        boolean[] shifted = new boolean[length];
+        int position = length;
+        int state = best;
+        while (position > 0) {
+            int p = prevPosition[position][state];
+            int s = prevState[position][state];
+            if (p < position) {
+                before[p] = s;
+                after[p] = state;
+                shifted[p] = byteShift[position][state];
+            }
+            position = p;
+            state = s;
+        }
+
+        /* Now emit the codewords */
+        int[] values = new int[(length * 4) + 2];
+        int valueCount = 0;
+        EncodingMode mode = (textIsDefault ? EncodingMode.TEX : EncodingMode.FALSE);
+        int sub = SUB_ALPHA;
+        int runStart = 0;
+        for (int i = 0; i < length; i++) {
+            int c = inputData[i];
+            if (after[i] >= ST_NUMERIC) {
+                if (before[i] < ST_NUMERIC) {
+                    endRun(mode, runStart, i, values, valueCount);
+                    valueCount = 0;
+                    mode = EncodingMode.NUM;
+                    runStart = i;
+                }
+            } else if (after[i] >= ST_BYTE) {
+                if (before[i] < ST_BYTE || before[i] >= ST_NUMERIC) {
+                    endRun(mode, runStart, i, values, valueCount);
+                    valueCount = 0;
+                    mode = EncodingMode.BYT;
+                    runStart = i;
+                }
+            } else {
+                if (mode != EncodingMode.TEX) {
+                    endRun(mode, runStart, i, values, valueCount);
+                    valueCount = 0;
+                    codeWords[codeWordCount++] = 900;
+                    mode = EncodingMode.TEX;
+                    sub = SUB_ALPHA;
+                }
+                int textSub = (before[i] - ST_TEXT) / 2;
+                for (int value : TEXT_LATCH[sub][textSub]) {
+                    values[valueCount++] = value;
+                }
+                if (shifted[i]) {
+                    endRun(mode, runStart, i, values, valueCount);
+                    valueCount = 0;
+                    codeWords[codeWordCount++] = 913;
+                    codeWords[codeWordCount++] = c;
+                } else if ((textTables(c) & (1 << textSub)) != 0) {
+                    values[valueCount++] = textValue(c);
+                } else if (textSub == SUB_LOWER && (textTables(c) & 1) != 0) {
+                    values[valueCount++] = 27; /* T_UPP */
+                    values[valueCount++] = textValue(c);
+                } else {
+                    values[valueCount++] = 29; /* T_PUN */
+                    values[valueCount++] = textValue(c);
+                }
+                sub = (after[i] - ST_TEXT) / 2;
+            }
+        }
+        endRun(mode, runStart, length, values, valueCount);
+    }
+
+    /**
+     * Returns the number of codewords which minimal compaction needs for each prefix of the specified data,
+     * starting from the specified position, until the count goes over the specified limit.
+     *
+     * @param data the data to compact
+     * @param start the position of the first character to compact
+     * @param limit the largest codeword count of interest
+     * @return the codeword counts, indexed by prefix length
+     */
+    static int[] minimalCodewordCounts(int[] data, int start, int limit) {
+
+        int maxLength = Math.min(data.length - start, 3 * limit); /* fewer than three digits per codeword */
+        int[][] cost = new int[maxLength + 1][ST_COUNT];
+        int[][] prevState = new int[maxLength + 1][ST_COUNT];
+        int[][] prevPosition = new int[maxLength + 1][ST_COUNT];
+        boolean[][] byteShift = new boolean[maxLength + 1][ST_COUNT];
+        int[] counts = new int[maxLength + 1];
+
+        for (int[] row : cost) {
+            Arrays.fill(row, UNREACHABLE);
+        }
+        cost[0][ST_TEXT] = 0;
+
+        for (int length = 0; length <= maxLength; length++) {
+            relaxLatches(cost, prevState, prevPosition, byteShift, length);
+            if (length > 0) {
+                int cheapest = UNREACHABLE;
+                int count = UNREACHABLE;
+                for (int state = 0; state < ST_COUNT; state++) {
+                    cheapest = Math.min(cheapest, cost[length][state]);
+                    count = Math.min(count, (add(cost[length][state], pendingCost(state)) + 1) / 2);
+                }
+                if (cheapest > limit * 2) {
+                    return Arrays.copyOf(counts, length);
+                }
+                counts[length] = count;
+            }
+            if (length < maxLength) {
+                relaxCharacter(data[start + length], length, cost, prevState, prevPosition, byteShift);
+            }
+        }
+
+        return counts;
+    }
+
+    /**
+     * Returns the number of codewords left for data in a Macro PDF417 symbol with the specified number of data
+     * columns and rows, once the error correction codewords, the length descriptor, the Macro PDF417 control
+     * block and any reader initialisation and ECI codewords have been taken out.
+     *
+     * @param columns the number of data columns
+     * @param rows the number of rows
+     * @param eci the ECI mode of the data
+     * @param last whether or not the symbol is the last in the series, which holds the terminator codeword
+     * @return the number of codewords left for data
+     */
+    int structuredAppendCapacity(int columns, int rows, int eci, boolean last) {
+        int header = 4 + (last ? 1 : 0) + (readerInit ? 1 : 0); /* marker, segment index (2) and file ID */
+        if (eci != 3) {
+            header += (eci <= 899 || eci >= 810900 ? 2 : 3);
+        }
+        int codewords = (columns * rows) - 1;
+        while (codewords > 0 && codewords + (1 << (selectEccLevel(codewords) + 1)) > (columns * rows) - 1) {
+            codewords--;
+        }
+        return codewords - header;
+    }
+
+    /**
+     * Returns the error correction level to use for the specified number of data codewords, which is the
+     * preferred level if one has been set and otherwise follows the recommendations in the specification
+     * (Table E.1).
+     */
+    private int selectEccLevel(int codewords) {
+        if (preferredEccLevel >= 0) {
+            return preferredEccLevel;
+        } else if (codewords <= 40) {
+            return 2;
+        } else if (codewords <= 160) {
+            return 3;
+        } else if (codewords <= 320) {
+            return 4;
+        } else if (codewords <= 863) {
+            return 5;
+        } else {
+            return 6;
+        }
+    }
+
+    /**
+     * Relaxes the latches to Text compaction and between Text compaction submodes at the specified row of the
+     * cost tables.
+     */
+    private static void relaxLatches(int[][] cost, int[][] prevState, int[][] prevPosition, boolean[][] byteShift, int row) {
+
+        /* Latch to Text compaction, which always starts in the Alpha submode */
+        for (int state = ST_BYTE; state < ST_COUNT; state++) {
+            relax(cost, prevState, prevPosition, byteShift, row, state, row, ST_TEXT, 2, false);
+        }
+
+        /* Latch between Text compaction submodes, one latch at a time so that the codewords can be reproduced */
+        int[] textCost = Arrays.copyOf(cost[row], ST_BYTE);
+        for (int from = 0; from < 4; from++) {
+            for (int to = 0; to < 4; to++) {
+                int values = TEXT_LATCH[from][to].length;
+                for (int half = 0; values != 0 && half < 2; half++) {
+                    int fromState = ST_TEXT + (from * 2) + half;
+                    int toState = ST_TEXT + (to * 2) + (half ^ (values & 1));
+                    int c = add(textCost[fromState], values);
+                    if (c < cost[row][toState]) {
+                        cost[row][toState] = c;
+                        prevState[row][toState] = fromState;
+                        prevPosition[row][toState] = row;
+                        byteShift[row][toState] = false;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Relaxes the ways of compacting the specified character, from the specified row of the cost tables to the next.
+     */
+    private static void relaxCharacter(int c, int row, int[][] cost, int[][] prevState, int[][] prevPosition, boolean[][] byteShift) {
+
+        int tables = textTables(c);
+
+        for (int sub = 0; sub < 4; sub++) {
+            for (int half = 0; half < 2; half++) {
+                int from = ST_TEXT + (sub * 2) + half;
+                /* Text compaction, directly or using a shift to Alpha (from Lower) or Punctuation */
+                if ((tables & (1 << sub)) != 0) {
+                    relax(cost, prevState, prevPosition, byteShift, row, from, row + 1, ST_TEXT + (sub * 2) + (half ^ 1), 1, false);
+                } else if (sub == SUB_LOWER && (tables & 1) != 0) {
+                    relax(cost, prevState, prevPosition, byteShift, row, from, row + 1, from, 2, false);
+                } else if (sub != SUB_PUNCT && (tables & 8) != 0) {
+                    relax(cost, prevState, prevPosition, byteShift, row, from, row + 1, from, 2, false);
+                }
+                /* Byte shift, padding to a whole codeword first (a Punctuation pad latches back to Alpha) */
+                int after = (half == 1 && sub == SUB_PUNCT ? SUB_ALPHA : sub);
+                relax(cost, prevState, prevPosition, byteShift, row, from, row + 1, ST_TEXT + (after * 2), half + 4, true);
+            }
+        }
+
+        for (int state = 0; state < ST_COUNT; state++) {
+            /* Latch and first codeword, less any initial latch to Text compaction which turns out to be unnecessary */
+            int entry = pendingCost(state) + 4 - (row == 0 && state == ST_TEXT ? cost[0][ST_TEXT] : 0);
+            /* Byte compaction, 6 bytes at a time in 5 codewords */
+            if (state >= ST_BYTE && state < ST_NUMERIC) {
+                int count = (state - ST_BYTE + 1) % 6;
+                relax(cost, prevState, prevPosition, byteShift, row, state, row + 1, ST_BYTE + count, count == 0 ? 0 : 2, false);
+            } else {
+                relax(cost, prevState, prevPosition, byteShift, row, state, row + 1, ST_BYTE + 1, entry, false);
+            }
+            /* Numeric compaction, 44 digits at a time */
+            if (c >= '0' && c <= '9') {
+                if (state >= ST_NUMERIC) {
+                    int digits = state - ST_NUMERIC + 1;
+                    if (digits < MAX_NUMERIC_COMPACTION_BLOCK_SIZE) {
+                        int step = 2 * (numericCodewords(digits + 1) - numericCodewords(digits));
+                        relax(cost, prevState, prevPosition, byteShift, row, state, row + 1, state + 1, step, false);
+                    } else {
+                        relax(cost, prevState, prevPosition, byteShift, row, state, row + 1, ST_NUMERIC, 2, false);
+                    }
+                } else {
+                    relax(cost, prevState, prevPosition, byteShift, row, state, row + 1, ST_NUMERIC, entry, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the codewords for the Text compaction values, Byte compaction bytes or Numeric compaction digits
+     * collected so far.
+     */
+    private void endRun(EncodingMode mode, int start, int end, int[] values, int valueCount) {
+        switch (mode) {
+            case TEX:
+                if ((valueCount & 1) != 0) {
+                    values[valueCount++] = 29;
+                }
+                for (int j = 0; j < valueCount; j += 2) {
+                    codeWords[codeWordCount++] = (30 * values[j]) + values[j + 1];
+                }
+                break;
+            case BYT:
+                processByteRun(start, end - start);
+                break;
+            case NUM:
+                for (int j = start; j < end; j += MAX_NUMERIC_COMPACTION_BLOCK_SIZE) {
+                    int digits = Math.min(end - j, MAX_NUMERIC_COMPACTION_BLOCK_SIZE);
+                    processNumbers(inputData, j, digits, j != start);
+                }
+                break;
+        }
+    }
+
+    private static boolean relax(int[][] cost, int[][] prevState, int[][] prevPosition, boolean[][] byteShift,
+                                 int from, int fromState, int to, int toState, int step, boolean shift) {
+        int c = add(cost[from][fromState], step);
+        if (c < cost[to][toState]) {
+            cost[to][toState] = c;
+            prevState[to][toState] = fromState;
+            prevPosition[to][toState] = from;
+            byteShift[to][toState] = shift;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private static int add(int cost, int step) {
+        return cost >= UNREACHABLE ? UNREACHABLE : cost + step;
+    }
+
+    /** Returns the cost of padding out a half-filled Text compaction codeword, if the specified state has one. */
+    private static int pendingCost(int state) {
+        return (state < ST_BYTE ? state & 1 : 0);
+    }
+
+    /** Returns the number of codewords needed to hold the specified number of digits (1 - 44) in Numeric compaction. */
+    private static int numericCodewords(int digits) {
+        return (digits / 3) + 1;
+    }
+
+    /** Returns the Text compaction submodes (1 = Alpha, 2 = Lower, 4 = Mixed, 8 = Punctuation) containing the specified character. */
+    private static int textTables(int c) {
+        switch (c) {
+            case '\t':
+                return 12;
+            case '\n':
+                return 8;
+            case '\r':
+                return 12;
+            default:
+                return (c >= ' ' && c <= '~' ? ASCII_X[c - 32] : 0);
+        }
+    }
+
+    /** Returns the Text compaction value of the specified character, which is the same in every submode containing it. */
+    private static int textValue(int c) {
+        switch (c) {
+            case '\t':
+                return 12;
+            case '\n':
+                return 15;
+            case '\r':
+                return 11;
+            default:
+                return ASCII_Y[c - 32];
+        }
+    }
+
     /**
      * Adds the Macro PDF417 control block codewords (if any).
      */
@@ -3,9 +3,10 @@ package ru.chipmunkbarcode.barcodeTypes;
 
 import ru.chipmunkbarcode.exceptions.BarcodeException;
 import ru.chipmunkbarcode.util.Arrays;
+import ru.chipmunkbarcode.util.BitStream;
 
-import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.util.Objects;
 
 import static ru.chipmunkbarcode.util.Arrays.positionOf;
 
@@ -28,6 +29,16 @@ public class QrCode extends Symbol {
         NULL, KANJI, BINARY, ALPHANUM, NUMERIC
     }
 
+    private static final Charset SHIFT_JIS = Charset.forName("Shift_JIS");
+
+    /* Modes which can be chosen for a character during optimisation */
+    private static final QrMode[] MODES = { QrMode.KANJI, QrMode.BINARY, QrMode.ALPHANUM, QrMode.NUMERIC };
+    private static final int MODE_COUNT = MODES.length;
+    private static final int UNENCODABLE = Integer.MAX_VALUE;
+
+    /* The smallest version in each of the three character count indicator version ranges */
+    private static final int[] RANGE_VERSIONS = { 1, 10, 27 };
+
     /* Table 5 - Encoding/Decoding table for Alphanumeric mode */
     private static final char[] RHODIUM = {
             '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E',
@@ -151,8 +162,15 @@ public class QrCode extends Symbol {
             0x2542e, 0x26a64, 0x27541, 0x28c69
     };
 
+    /* Number of light modules assumed either side of each row or column during mask evaluation */
+    private static final int EVAL_PADDING = 4;
+
+    /* Per-version function patterns and data module placement paths, built as they are needed */
+    private static final Template[] TEMPLATES = new Template[40];
+
     private int preferredVersion;
     private EccLevel preferredEccLevel = EccLevel.L;
+    private MaskPolicy maskPolicy = MaskPolicy.AUTO;
 
     /**
      * Sets the preferred symbol size / version. This value may be ignored if the data
@@ -230,6 +248,27 @@ public class QrCode extends Symbol {
         return this.preferredEccLevel;
     }
 
+    /**
+     * Sets the way in which the data mask pattern is chosen (default value is {@link MaskPolicy#AUTO}).
+     * A {@link MaskPolicy#FAST fast} or {@link MaskPolicy#fixed(int) fixed} policy trades a possibly
+     * less readable mask for a faster encode. The mask pattern used is reported in the
+     * {@link #getEncodeInfo() encode information}.
+     *
+     * @param maskPolicy the way in which the data mask pattern is chosen
+     */
+    public void setMaskPolicy(MaskPolicy maskPolicy) {
+        this.maskPolicy = Objects.requireNonNull(maskPolicy, "mask policy may not be null");
+    }
+
+    /**
+     * Returns the way in which the data mask pattern is chosen.
+     *
+     * @return the way in which the data mask pattern is chosen
+     */
+    public MaskPolicy getMaskPolicy() {
+        return maskPolicy;
+    }
+
     @Override
     protected boolean gs1Supported() {
         return true;
@@ -251,166 +290,64 @@ public class QrCode extends Symbol {
 
         if (eciMode == 20) {
             /* Shift-JIS encoding, use Kanji mode */
-            Charset c = Charset.forName("Shift_JIS");
-            inputData = new int[content.length()];
-            for (i = 0; i < inputData.length; i++) {
-                CharBuffer buffer = CharBuffer.wrap(content, i, i + 1);
-                byte[] bytes = c.encode(buffer).array();
-                int value = (bytes.length == 2 ? ((bytes[0] & 0xff) << 8) | (bytes[1] & 0xff) : bytes[0]);
-                inputData[i] = value;
-            }
+            inputData = toShiftJis(content);
         } else {
             /* inputData already initialized in eciProcess() */
         }
 
-        QrMode[] inputMode = new QrMode[inputData.length];
-        defineMode(inputMode, inputData);
-        est_binlen = getBinaryLength(40, inputMode, inputData, gs1, eciMode);
+        /* Find the shortest encodation for each of the three character count indicator version ranges */
+        QrMode[][] rangeModes = new QrMode[3][];
+        int[] rangeBinLen = new int[3];
+        for (i = 0; i < 3; i++) {
+            rangeModes[i] = new QrMode[inputData.length];
+            rangeBinLen[i] = optimiseModes(RANGE_VERSIONS[i], inputData, gs1, eciMode, rangeModes[i]);
+        }
 
         ecc_level = this.preferredEccLevel;
-        switch (this.preferredEccLevel) {
+        int[] dataCodewords;
+        switch (ecc_level) {
             case L:
             default:
-                max_cw = 2956;
+                dataCodewords = QR_DATA_CODEWORDS_L;
                 break;
             case M:
-                max_cw = 2334;
+                dataCodewords = QR_DATA_CODEWORDS_M;
                 break;
             case Q:
-                max_cw = 1666;
+                dataCodewords = QR_DATA_CODEWORDS_Q;
                 break;
             case H:
-                max_cw = 1276;
+                dataCodewords = QR_DATA_CODEWORDS_H;
                 break;
         }
+        max_cw = dataCodewords[39];
 
-        if (est_binlen > (8 * max_cw)) {
+        if (rangeBinLen[2] > (8 * max_cw)) {
             throw new BarcodeException("Input too long for selected error correction level");
         }
 
-        // ZINT NOTE: this block is different from the corresponding block of code in Zint;
-        // it is simplified, but the simplification required that the applyOptimisation method
-        // be changed to be free of side effects (by putting the optimized mode array into a
-        // new array instead of modifying the existing array)
-
         version = 40;
-        for (i = 39; i >= 0; i--) {
-            int[] dataCodewords;
-            switch (ecc_level) {
-                case L:
-                default:
-                    dataCodewords = QR_DATA_CODEWORDS_L;
-                    break;
-                case M:
-                    dataCodewords = QR_DATA_CODEWORDS_M;
-                    break;
-                case Q:
-                    dataCodewords = QR_DATA_CODEWORDS_Q;
-                    break;
-                case H:
-                    dataCodewords = QR_DATA_CODEWORDS_H;
-                    break;
-            }
-            int proposedVersion = i + 1;
-            int proposedBinLen = getBinaryLength(proposedVersion, inputMode, inputData, gs1, eciMode);
-            if ((8 * dataCodewords[i]) >= proposedBinLen) {
-                version = proposedVersion;
-                est_binlen = proposedBinLen;
+        for (i = 0; i < 40; i++) {
+            if ((8 * dataCodewords[i]) >= rangeBinLen[versionRange(i + 1)]) {
+                version = i + 1;
+                break;
             }
         }
 
-        inputMode = applyOptimisation(version, inputMode);
-
-        // ZINT NOTE: end of block of code that is different
-
-// TODO: delete this
-//
-//        autosize = 40;
-//        for (i = 39; i >= 0; i--) {
-//            switch (ecc_level) {
-//                case L:
-//                    if ((8 * QR_DATA_CODEWORDS_L[i]) >= est_binlen) {
-//                        autosize = i + 1;
-//                    }
-//                    break;
-//                case M:
-//                    if ((8 * QR_DATA_CODEWORDS_M[i]) >= est_binlen) {
-//                        autosize = i + 1;
-//                    }
-//                    break;
-//                case Q:
-//                    if ((8 * QR_DATA_CODEWORDS_Q[i]) >= est_binlen) {
-//                        autosize = i + 1;
-//                    }
-//                    break;
-//                case H:
-//                    if ((8 * QR_DATA_CODEWORDS_H[i]) >= est_binlen) {
-//                        autosize = i + 1;
-//                    }
-//                    break;
-//            }
-//        }
-//
-//        // Now see if the optimized binary will fit in a smaller symbol.
-//        canShrink = true;
-//
-//        do {
-//            if (autosize == 1) {
-//                est_binlen = getBinaryLength(autosize, inputMode, inputData, gs1, eciMode); // TODO: added
-//                canShrink = false;
-//            } else {
-//                est_binlen = getBinaryLength(autosize - 1, inputMode, inputData, gs1, eciMode);
-//
-//                switch (ecc_level) {
-//                    case L:
-//                        if ((8 * QR_DATA_CODEWORDS_L[autosize - 2]) < est_binlen) {
-//                            canShrink = false;
-//                        }
-//                        break;
-//                    case M:
-//                        if ((8 * QR_DATA_CODEWORDS_M[autosize - 2]) < est_binlen) {
-//                            canShrink = false;
-//                        }
-//                        break;
-//                    case Q:
-//                        if ((8 * QR_DATA_CODEWORDS_Q[autosize - 2]) < est_binlen) {
-//                            canShrink = false;
-//                        }
-//                        break;
-//                    case H:
-//                        if ((8 * QR_DATA_CODEWORDS_H[autosize - 2]) < est_binlen) {
-//                            canShrink = false;
-//                        }
-//                        break;
-//                }
-//
-//                if (canShrink) {
-//                    // Optimization worked - data will fit in a smaller symbol
-//                    autosize--;
-//                } else {
-//                    // Data did not fit in the smaller symbol, revert to original size
-//                    est_binlen = getBinaryLength(autosize, inputMode, inputData, gs1, eciMode);
-//                }
-//            }
-//        } while (canShrink);
-//
-//        version = autosize;
-
         if ((preferredVersion >= 1) && (preferredVersion <= 40)) {
             /* If the user has selected a larger symbol than the smallest available,
-             then use the size the user has selected, and re-optimize for this
-             symbol size.
-             */
+             then use the size the user has selected. */
             if (preferredVersion > version) {
                 version = preferredVersion;
-                est_binlen = getBinaryLength(preferredVersion, inputMode, inputData, gs1, eciMode);
-                inputMode = applyOptimisation(version, inputMode);
             }
             if (preferredVersion < version) {
                 throw new BarcodeException("Input too long for selected symbol size");
             }
         }
 
+        QrMode[] inputMode = rangeModes[versionRange(version)];
+        est_binlen = rangeBinLen[versionRange(version)];
+
         /* Ensure maximum error correction capacity */
         if (est_binlen <= (QR_DATA_CODEWORDS_M[version - 1] * 8)) {
             ecc_level = EccLevel.M;
@@ -447,19 +384,21 @@ public class QrCode extends Symbol {
 
         size = QR_SIZES[version - 1];
 
-        int[] grid = new int[size * size];
+        Template template = getTemplate(version);
+        int[] grid = template.grid.clone();
 
         infoLine("Version: " + version);
         infoLine("ECC Level: " + ecc_level.name());
 
-        setupGrid(grid, size, version);
-        populateGrid(grid, size, fullstream, QR_TOTAL_CODEWORDS[version - 1]);
+        populateGrid(grid, template.path, fullstream, QR_TOTAL_CODEWORDS[version - 1]);
 
-        if (version >= 7) {
-            addVersionInfo(grid, size, version);
+        if (maskPolicy.isFixed()) {
+            bitmask = maskPolicy.getMask();
+            applyMask(grid, size, bitmask);
+        } else {
+            bitmask = applyBitmask(grid, size, ecc_level, maskPolicy.isFast());
         }
-
-        bitmask = applyBitmask(grid, size, ecc_level);
+        infoLine("Mask Policy: " + maskPolicy);
         infoLine("Mask Pattern: " + Integer.toBinaryString(bitmask));
         addFormatInfo(grid, size, ecc_level, bitmask);
 
@@ -482,285 +421,175 @@ public class QrCode extends Symbol {
     }
 
     /**
-     * Place Kanji / Binary / Alphanumeric / Numeric values in inputMode.
+     * Converts the specified content to Shift JIS in a single pass, returning one value per character:
+     * the byte value for single-byte characters, or both bytes combined for double-byte characters.
      */
-    private static void defineMode(QrMode[] inputMode, int[] inputData) {
+    private static int[] toShiftJis(String content) {
 
-        int mlen;
-
-        for (int i = 0; i < inputData.length; i++) {
-            if (inputData[i] > 0xff) {
-                inputMode[i] = QrMode.KANJI;
-            } else {
-                inputMode[i] = QrMode.BINARY;
-                if (isAlpha(inputData[i])) {
-                    inputMode[i] = QrMode.ALPHANUM;
-                }
-                if (inputData[i] == FNC1) {
-                    inputMode[i] = QrMode.ALPHANUM;
-                }
-                if (isNumeric(inputData[i])) {
-                    inputMode[i] = QrMode.NUMERIC;
-                }
-            }
-        }
-
-        // TODO: uncomment
-//        /* If less than 6 numeric digits together then don't use numeric mode */
-//        for (int i = 0; i < inputMode.length; i++) {
-//            if (inputMode[i] == QrMode.NUMERIC) {
-//                if (((i != 0) && (inputMode[i - 1] != QrMode.NUMERIC)) || (i == 0)) {
-//                    mlen = 0;
-//                    while (((mlen + i) < inputMode.length) && (inputMode[mlen + i] == QrMode.NUMERIC)) {
-//                        mlen++;
-//                    };
-//                    if (mlen < 6) {
-//                        for (int j = 0; j < mlen; j++) {
-//                            inputMode[i + j] = QrMode.ALPHANUM;
-//                        }
-//                    }
-//                }
-//            }
-//        }
-//
-//        /* If less than 4 alphanumeric characters together then don't use alphanumeric mode */
-//        for (int i = 0; i < inputMode.length; i++) {
-//            if (inputMode[i] == QrMode.ALPHANUM) {
-//                if (((i != 0) && (inputMode[i - 1] != QrMode.ALPHANUM)) || (i == 0)) {
-//                    mlen = 0;
-//                    while (((mlen + i) < inputMode.length) && (inputMode[mlen + i] == QrMode.ALPHANUM)) {
-//                        mlen++;
-//                    };
-//                    if (mlen < 4) {
-//                        for (int j = 0; j < mlen; j++) {
-//                            inputMode[i + j] = QrMode.BINARY;
-//                        }
-//                    }
-//                }
-//            }
-//        }
-    }
-
-    /**
-     * Calculate the actual bit length of the proposed binary string.
-     */
-    private static int getBinaryLength(int version, QrMode[] inputModeUnoptimized, int[] inputData, boolean gs1, int eciMode) {
-
-        int i, j;
-        QrMode currentMode;
-        int inputLength = inputModeUnoptimized.length;
+        byte[] bytes = content.getBytes(SHIFT_JIS);
+        int[] values = new int[bytes.length];
         int count = 0;
-        int alphaLength;
-        int percent = 0;
 
-        // ZINT NOTE: in Zint, this call modifies the input mode array directly; here, we leave
-        // the original array alone so that subsequent binary length checks don't irrevocably
-        // optimize the mode array for the wrong QR Code version
-        QrMode[] inputMode = applyOptimisation(version, inputModeUnoptimized);
-
-        currentMode = QrMode.NULL;
-
-        if (gs1) {
-            count += 4;
-        }
-
-        if (eciMode != 3) {
-            count += 12;
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xff;
+            if (((b >= 0x81 && b <= 0x9f) || (b >= 0xe0 && b <= 0xfc)) && i + 1 < bytes.length) {
+                /* Lead byte of a double-byte character */
+                i++;
+                b = (b << 8) | (bytes[i] & 0xff);
+            }
+            values[count] = b;
+            count++;
         }
 
-        for (i = 0; i < inputLength; i++) {
-            if (inputMode[i] != currentMode) {
-                count += 4;
-                switch (inputMode[i]) {
-                    case KANJI:
-                        count += tribus(version, 8, 10, 12);
-                        count += (blockLength(i, inputMode) * 13);
-                        break;
-                    case BINARY:
-                        count += tribus(version, 8, 16, 16);
-                        for (j = i; j < (i + blockLength(i, inputMode)); j++) {
-                            if (inputData[j] > 0xff) {
-                                count += 16;
-                            } else {
-                                count += 8;
-                            }
-                        }
-                        break;
-                    case ALPHANUM:
-                        count += tribus(version, 9, 11, 13);
-                        alphaLength = blockLength(i, inputMode);
-                        // In alphanumeric mode % becomes %%
-                        if (gs1) {
-                            for (j = i; j < (i + alphaLength); j++) { // TODO: need to do this only if in GS1 mode? or is the other code wrong? https://sourceforge.net/p/zint/tickets/104/#227b
-                                if (inputData[j] == '%') {
-                                    percent++;
-                                }
-                            }
-                        }
-                        alphaLength += percent;
-                        switch (alphaLength % 2) {
-                            case 0:
-                                count += (alphaLength / 2) * 11;
-                                break;
-                            case 1:
-                                count += ((alphaLength - 1) / 2) * 11;
-                                count += 6;
-                                break;
-                        }
-                        break;
-                    case NUMERIC:
-                        count += tribus(version, 10, 12, 14);
-                        switch (blockLength(i, inputMode) % 3) {
-                            case 0:
-                                count += (blockLength(i, inputMode) / 3) * 10;
-                                break;
-                            case 1:
-                                count += ((blockLength(i, inputMode) - 1) / 3) * 10;
-                                count += 4;
-                                break;
-                            case 2:
-                                count += ((blockLength(i, inputMode) - 2) / 3) * 10;
-                                count += 7;
-                                break;
-                        }
-                        break;
-                }
-                currentMode = inputMode[i];
-            }
+        if (count < values.length) {
+            int[] trimmed = new int[count];
+            System.arraycopy(values, 0, trimmed, 0, count);
+            values = trimmed;
         }
 
-        return count;
+        return values;
     }
 
     /**
-     * Implements a custom optimization algorithm, because implementation of the algorithm
-     * shown in Annex J.2 created LONGER binary sequences.
+     * Finds the sequence of modes giving the shortest possible binary stream for the specified version
+     * (only the character count indicator lengths, and therefore only the version range, matter). This is
+     * done in a single pass using dynamic programming: for each character, and for each mode that the
+     * character could end up in, we track the cheapest encodation of the data so far. Costs are tracked in
+     * sixths of a bit, so that the 10 bits per 3 digits of numeric mode and the 11 bits per 2 characters of
+     * alphanumeric mode can be represented exactly; the cost of a segment is rounded up to a whole number
+     * of bits when the segment ends.
+     *
+     * @param version the symbol version
+     * @param inputData the data to encode
+     * @param gs1 whether or not the data is GS1 data
+     * @param eciMode the ECI mode
+     * @param modes the array to populate with the optimal mode for each character
+     * @return the length of the resultant binary stream, in bits
      */
-    private static QrMode[] applyOptimisation(int version, QrMode[] inputMode) {
+    private static int optimiseModes(int version, int[] inputData, boolean gs1, int eciMode, QrMode[] modes) {
 
-        int inputLength = inputMode.length;
-        int blockCount = 0;
-        int i, j;
-        QrMode currentMode = QrMode.NULL;
+        int length = inputData.length;
+        int[] header = new int[MODE_COUNT];
+        int[] costs = new int[MODE_COUNT];
+        int[] previous = new int[MODE_COUNT];
+        byte[][] from = new byte[length][MODE_COUNT];
 
-        for (i = 0; i < inputLength; i++) {
-            if (inputMode[i] != currentMode) {
-                currentMode = inputMode[i];
-                blockCount++;
-            }
+        for (int m = 0; m < MODE_COUNT; m++) {
+            header[m] = 6 * (4 + characterCountBits(MODES[m], version));
+            costs[m] = 0;
         }
 
-        int[] blockLength = new int[blockCount];
-        QrMode[] blockMode = new QrMode[blockCount];
-
-        j = -1;
-        currentMode = QrMode.NULL;
-        for (i = 0; i < inputLength; i++) {
-            if (inputMode[i] != currentMode) {
-                j++;
-                blockLength[j] = 1;
-                blockMode[j] = inputMode[i];
-                currentMode = inputMode[i];
-            } else {
-                blockLength[j]++;
-            }
-        }
-
-        if (blockCount > 1) {
-            // Search forward
-            for (i = 0; i <= (blockCount - 2); i++) {
-                if (blockMode[i] == QrMode.BINARY) {
-                    switch (blockMode[i + 1]) {
-                        case KANJI:
-                            if (blockLength[i + 1] < tribus(version, 4, 5, 6)) {
-                                blockMode[i + 1] = QrMode.BINARY;
-                            }
-                            break;
-                        case ALPHANUM:
-                            if (blockLength[i + 1] < tribus(version, 7, 8, 9)) {
-                                blockMode[i + 1] = QrMode.BINARY;
-                            }
-                            break;
-                        case NUMERIC:
-                            if (blockLength[i + 1] < tribus(version, 3, 4, 5)) {
-                                blockMode[i + 1] = QrMode.BINARY;
-                            }
-                            break;
-                    }
+        for (int i = 0; i < length; i++) {
+            int[] swap = previous;
+            previous = costs;
+            costs = swap;
+            for (int m = 0; m < MODE_COUNT; m++) {
+                int charCost = characterCost(MODES[m], inputData[i], gs1);
+                if (charCost == UNENCODABLE) {
+                    costs[m] = UNENCODABLE;
+                    continue;
                 }
-
-                if ((blockMode[i] == QrMode.ALPHANUM)
-                        && (blockMode[i + 1] == QrMode.NUMERIC)) {
-                    if (blockLength[i + 1] < tribus(version, 6, 8, 10)) {
-                        blockMode[i + 1] = QrMode.ALPHANUM;
+                int best = UNENCODABLE;
+                int bestFrom = m;
+                if (i == 0) {
+                    best = header[m];
+                } else {
+                    if (previous[m] != UNENCODABLE) {
+                        best = previous[m];
                     }
-                }
-            }
-
-            // Search backward
-            for (i = blockCount - 1; i > 0; i--) {
-                if (blockMode[i] == QrMode.BINARY) {
-                    switch (blockMode[i - 1]) {
-                        case KANJI:
-                            if (blockLength[i - 1] < tribus(version, 4, 5, 6)) {
-                                blockMode[i - 1] = QrMode.BINARY;
+                    for (int k = 0; k < MODE_COUNT; k++) {
+                        if (k != m && previous[k] != UNENCODABLE) {
+                            int cost = roundUpToBit(previous[k]) + header[m];
+                            if (cost < best) {
+                                best = cost;
+                                bestFrom = k;
                             }
-                            break;
-                        case ALPHANUM:
-                            if (blockLength[i - 1] < tribus(version, 7, 8, 9)) {
-                                blockMode[i - 1] = QrMode.BINARY;
-                            }
-                            break;
-                        case NUMERIC:
-                            if (blockLength[i - 1] < tribus(version, 3, 4, 5)) {
-                                blockMode[i - 1] = QrMode.BINARY;
-                            }
-                            break;
+                        }
                     }
                 }
+                costs[m] = best + charCost;
+                from[i][m] = (byte) bestFrom;
+            }
+        }
 
-                if ((blockMode[i] == QrMode.ALPHANUM)
-                        && (blockMode[i - 1] == QrMode.NUMERIC)) {
-                    if (blockLength[i - 1] < tribus(version, 6, 8, 10)) {
-                        blockMode[i - 1] = QrMode.ALPHANUM;
-                    }
+        int count = 0;
+        if (length > 0) {
+            int best = UNENCODABLE;
+            int mode = 0;
+            for (int m = 0; m < MODE_COUNT; m++) {
+                if (costs[m] != UNENCODABLE && roundUpToBit(costs[m]) < best) {
+                    best = roundUpToBit(costs[m]);
+                    mode = m;
                 }
             }
+            for (int i = length - 1; i >= 0; i--) {
+                modes[i] = MODES[mode];
+                mode = from[i][mode];
+            }
+            count = best / 6;
         }
 
-        // ZINT NOTE: this method is different from the original Zint code in that it creates a
-        // new array to hold the optimized values and returns it, rather than modifying the
-        // original array; this allows this method to be called as many times as we want without
-        // worrying about side effects
-
-        QrMode[] optimized = new QrMode[inputMode.length];
+        if (gs1) {
+            count += 4;
+        }
 
-        j = 0;
-        for (int block = 0; block < blockCount; block++) {
-            currentMode = blockMode[block];
-            for (i = 0; i < blockLength[block]; i++) {
-                optimized[j] = currentMode;
-                j++;
-            }
+        if (eciMode != 3) {
+            count += 12;
         }
 
-        return optimized;
+        return count;
     }
 
     /**
-     * Find the length of the block starting from 'start'.
+     * Returns the cost, in sixths of a bit, of encoding the specified character in the specified mode.
      */
-    private static int blockLength(int start, QrMode[] inputMode) {
+    private static int characterCost(QrMode mode, int c, boolean gs1) {
+        switch (mode) {
+            case KANJI:
+                return c > 0xff ? 6 * 13 : UNENCODABLE;
+            case BINARY:
+                return c > 0xff ? 6 * 16 : 6 * 8;
+            case ALPHANUM:
+                if (c == FNC1 || isAlpha(c)) {
+                    // In GS1 alphanumeric mode % becomes %%
+                    return (gs1 && c == '%') ? 6 * 11 : 33;
+                }
+                return UNENCODABLE;
+            case NUMERIC:
+                return isNumeric(c) ? 20 : UNENCODABLE;
+            default:
+                return UNENCODABLE;
+        }
+    }
 
-        QrMode mode = inputMode[start];
-        int count = 0;
-        int i = start;
+    /**
+     * Returns the length of the character count indicator for the specified mode and version (see Table 3).
+     */
+    private static int characterCountBits(QrMode mode, int version) {
+        switch (mode) {
+            case KANJI:
+                return tribus(version, 8, 10, 12);
+            case BINARY:
+                return tribus(version, 8, 16, 16);
+            case ALPHANUM:
+                return tribus(version, 9, 11, 13);
+            case NUMERIC:
+                return tribus(version, 10, 12, 14);
+            default:
+                return 0;
+        }
+    }
 
-        do {
-            count++;
-        } while ((i + count) < inputMode.length && inputMode[i + count] == mode);
+    private static int roundUpToBit(int sixths) {
+        return ((sixths + 5) / 6) * 6;
+    }
 
-        return count;
+    /**
+     * Returns the character count indicator version range (0 for versions 1-9, 1 for versions 10-26
+     * and 2 for versions 27-40) of the specified version.
+     */
+    private static int versionRange(int version) {
+        return tribus(version, 0, 1, 2);
     }
 
     /**
@@ -814,20 +643,20 @@ public class QrCode extends Symbol {
         int toggle;
         QrMode data_block;
 
-        StringBuilder binary = new StringBuilder(est_binlen + 12);
+        BitStream binary = new BitStream(est_binlen + 12);
 
         if (gs1) {
-            binary.append("0101"); /* FNC1 */
+            binary.append(0b0101, 4); /* FNC1 */
         }
 
         if (eciMode != 3) {
-            binary.append("0111"); /* ECI (Table 4) */
+            binary.append(0b0111, 4); /* ECI (Table 4) */
             if (eciMode <= 127) {
-                binaryAppend(eciMode, 8, binary); /* 000000 to 000127 */
+                binary.append(eciMode, 8); /* 000000 to 000127 */
             } else if (eciMode <= 16383) {
-                binaryAppend(0x8000 + eciMode, 16, binary); /* 000000 to 016383 */
+                binary.append(0x8000 + eciMode, 16); /* 000000 to 016383 */
             } else {
-                binaryAppend(0xC00000 + eciMode, 24, binary); /* 000000 to 999999 */
+                binary.append(0xC00000 + eciMode, 24); /* 000000 to 999999 */
             }
         }
 
@@ -846,10 +675,10 @@ public class QrCode extends Symbol {
                 case KANJI:
                     /* Kanji mode */
                     /* Mode indicator */
-                    binary.append("1000");
+                    binary.append(0b1000, 4);
 
                     /* Character count indicator */
-                    binaryAppend(short_data_block_length, tribus(version, 8, 10, 12), binary);
+                    binary.append(short_data_block_length, tribus(version, 8, 10, 12));
 
                     info("KNJI ");
 
@@ -862,7 +691,7 @@ public class QrCode extends Symbol {
                             jis -= 0xc140;
                         }
                         int prod = ((jis >> 8) * 0xc0) + (jis & 0xff);
-                        binaryAppend(prod, 13, binary);
+                        binary.append(prod, 13);
                         infoSpace(prod);
                     }
 
@@ -871,10 +700,14 @@ public class QrCode extends Symbol {
                 case BINARY:
                     /* Byte mode */
                     /* Mode indicator */
-                    binary.append("0100");
+                    binary.append(0b0100, 4);
 
-                    /* Character count indicator */
-                    binaryAppend(short_data_block_length, tribus(version, 8, 16, 16), binary);
+                    /* Character count indicator (double-byte Shift JIS characters count as two bytes) */
+                    int byteCount = 0;
+                    for (i = 0; i < short_data_block_length; i++) {
+                        byteCount += (inputData[position + i] > 0xff ? 2 : 1);
+                    }
+                    binary.append(byteCount, tribus(version, 8, 16, 16));
 
                     info("BYTE ");
 
@@ -884,7 +717,12 @@ public class QrCode extends Symbol {
                         if (b == FNC1) {
                             b = 0x1d; /* FNC1 */
                         }
-                        binaryAppend(b, 8, binary);
+                        if (b > 0xff) {
+                            binary.append(b >> 8, 8);
+                            infoSpace(b >> 8);
+                            b &= 0xff;
+                        }
+                        binary.append(b, 8);
                         infoSpace(b);
                     }
 
@@ -893,7 +731,7 @@ public class QrCode extends Symbol {
                 case ALPHANUM:
                     /* Alphanumeric mode */
                     /* Mode indicator */
-                    binary.append("0010");
+                    binary.append(0b0010, 4);
 
                     /* If in GS1 mode, expand FNC1 -> '%' and expand '%' -> '%%' in a new array */
                     int percentCount = 0;
@@ -920,7 +758,7 @@ public class QrCode extends Symbol {
                     }
 
                     /* Character count indicator */
-                    binaryAppend(inputExpanded.length, tribus(version, 9, 11, 13), binary);
+                    binary.append(inputExpanded.length, tribus(version, 9, 11, 13));
 
                     info("ALPH ");
 
@@ -930,14 +768,14 @@ public class QrCode extends Symbol {
                         int second = Arrays.positionOf((char) inputExpanded[i + 1], RHODIUM);
                         int prod = (first * 45) + second;
                         int count = 2;
-                        binaryAppend(prod, 1 + (5 * count), binary);
+                        binary.append(prod, 1 + (5 * count));
                         infoSpace(prod);
                     }
                     if (inputExpanded.length % 2 != 0) {
                         int first = Arrays.positionOf((char) inputExpanded[inputExpanded.length - 1], RHODIUM);
                         int prod = first;
                         int count = 1;
-                        binaryAppend(prod, 1 + (5 * count), binary);
+                        binary.append(prod, 1 + (5 * count));
                         infoSpace(prod);
                     }
 
@@ -946,10 +784,10 @@ public class QrCode extends Symbol {
                 case NUMERIC:
                     /* Numeric mode */
                     /* Mode indicator */
-                    binary.append("0001");
+                    binary.append(0b0001, 4);
 
                     /* Character count indicator */
-                    binaryAppend(short_data_block_length, tribus(version, 10, 12, 14), binary);
+                    binary.append(short_data_block_length, tribus(version, 10, 12, 14));
 
                     info("NUMB ");
 
@@ -973,7 +811,7 @@ public class QrCode extends Symbol {
                             }
                         }
 
-                        binaryAppend(prod, 1 + (3 * count), binary);
+                        binary.append(prod, 1 + (3 * count));
 
                         infoSpace(prod);
 
@@ -990,7 +828,7 @@ public class QrCode extends Symbol {
         infoLine();
 
         /* Terminator */
-        binary.append("0000");
+        binary.append(0b0000, 4);
 
         current_binlen = binary.length();
         padbits = 8 - (current_binlen % 8);
@@ -1000,18 +838,11 @@ public class QrCode extends Symbol {
         current_bytes = (current_binlen + padbits) / 8;
 
         /* Padding bits */
-        for (i = 0; i < padbits; i++) {
-            binary.append('0');
-        }
+        binary.setLength(current_binlen + padbits);
 
         /* Put data into 8-bit codewords */
         for (i = 0; i < current_bytes; i++) {
-            datastream[i] = 0x00;
-            for (int p = 0; p < 8; p++) {
-                if (binary.charAt((i * 8) + p) == '1') {
-                    datastream[i] += (0x80 >> p);
-                }
-            }
+            datastream[i] = binary.get(i * 8, 8);
         }
 
         /* Add pad codewords */
@@ -1033,17 +864,6 @@ public class QrCode extends Symbol {
         infoLine();
     }
 
-    private static void binaryAppend(int value, int length, StringBuilder binary) {
-        int start = 0x01 << (length - 1);
-        for (int i = 0; i < length; i++) {
-            if ((value & (start >> i)) != 0) {
-                binary.append('1');
-            } else {
-                binary.append('0');
-            }
-        }
-    }
-
     /**
      * Splits data into blocks, adds error correction and then interleaves the blocks and error correction data.
      */
@@ -1231,106 +1051,129 @@ public class QrCode extends Symbol {
         }
     }
 
-    private static void populateGrid(int[] grid, int size, int[] fullstream, int cw) {
+    /**
+     * Returns the function patterns and data module placement path for the specified version, building
+     * them the first time they are needed. Templates are immutable, so if two threads happen to build the
+     * same template at the same time, no harm is done.
+     */
+    private static Template getTemplate(int version) {
+        Template template = TEMPLATES[version - 1];
+        if (template == null) {
+            template = new Template(version);
+            TEMPLATES[version - 1] = template;
+        }
+        return template;
+    }
 
-        boolean goingUp = true;
-        int row = 0; /* right hand side */
+    /**
+     * Returns the grid indices of the data modules in placement order: upwards and downwards in
+     * alternating two module wide columns, starting at the bottom right and skipping over any
+     * modules reserved for function patterns.
+     */
+    private static int[] placementPath(int[] grid, int size) {
 
-        int i, n, y;
+        int[] path = new int[size * size];
+        int count = 0;
+        boolean goingUp = true;
 
-        n = cw * 8;
-        y = size - 1;
-        i = 0;
-        do {
-            int x = (size - 2) - (row * 2);
-            if (x < 6) {
+        for (int x = size - 1; x > 0; x -= 2) {
+            if (x == 6) {
                 x--; /* skip over vertical timing pattern */
             }
-
-            if ((grid[(y * size) + (x + 1)] & 0xf0) == 0) {
-                if (cwbit(fullstream, i)) {
-                    grid[(y * size) + (x + 1)] = 0x01;
-                } else {
-                    grid[(y * size) + (x + 1)] = 0x00;
-                }
-                i++;
-            }
-
-            if (i < n) {
-                if ((grid[(y * size) + x] & 0xf0) == 0) {
-                    if (cwbit(fullstream, i)) {
-                        grid[(y * size) + x] = 0x01;
-                    } else {
-                        grid[(y * size) + x] = 0x00;
+            for (int i = 0; i < size; i++) {
+                int y = goingUp ? (size - 1 - i) : i;
+                for (int j = 0; j < 2; j++) {
+                    int index = (y * size) + (x - j);
+                    if ((grid[index] & 0xf0) == 0) {
+                        path[count] = index;
+                        count++;
                     }
-                    i++;
                 }
             }
+            goingUp = !goingUp;
+        }
 
-            if (goingUp) {
-                y--;
-            } else {
-                y++;
-            }
-            if (y == -1) {
-                /* reached the top */
-                row++;
-                y = 0;
-                goingUp = false;
-            }
-            if (y == size) {
-                /* reached the bottom */
-                row++;
-                y = size - 1;
-                goingUp = true;
+        int[] trimmed = new int[count];
+        System.arraycopy(path, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
+    private static void populateGrid(int[] grid, int[] path, int[] fullstream, int cw) {
+        int n = cw * 8;
+        for (int i = 0; i < n; i++) {
+            if (cwbit(fullstream, i)) {
+                grid[path[i]] = 0x01;
             }
-        } while (i < n);
+        }
     }
 
     private static boolean cwbit(int[] fullstream, int i) {
         return ((fullstream[i / 8] & (0x80 >> (i % 8))) != 0);
     }
 
-    private static int applyBitmask(int[] grid, int size, EccLevel ecc_level) {
+    /**
+     * Returns the mask bits for the specified module position: all eight mask variants are encoded in
+     * the 8 bits of the returned value, bit <code>n</code> being set if mask pattern <code>n</code>
+     * inverts the module.
+     */
+    private static int maskBits(int x, int y) {
+        int bits = 0;
+        if (((y + x) & 1) == 0) {
+            bits |= 0x01;
+        }
+        if ((y & 1) == 0) {
+            bits |= 0x02;
+        }
+        if ((x % 3) == 0) {
+            bits |= 0x04;
+        }
+        if (((y + x) % 3) == 0) {
+            bits |= 0x08;
+        }
+        if ((((y / 2) + (x / 3)) & 1) == 0) {
+            bits |= 0x10;
+        }
+        if ((((y * x) & 1) + ((y * x) % 3)) == 0) {
+            bits |= 0x20;
+        }
+        if (((((y * x) & 1) + ((y * x) % 3)) & 1) == 0) {
+            bits |= 0x40;
+        }
+        if (((((y + x) & 1) + ((y * x) % 3)) & 1) == 0) {
+            bits |= 0x80;
+        }
+        return bits;
+    }
+
+    /**
+     * Applies the specified mask pattern to the grid without any evaluation.
+     */
+    private static void applyMask(int[] grid, int size, int pattern) {
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int i = (y * size) + x;
+                if ((grid[i] & 0xf0) == 0 && ((maskBits(x, y) >> pattern) & 0x01) != 0) {
+                    grid[i] ^= 0x01;
+                }
+            }
+        }
+    }
+
+    private static int applyBitmask(int[] grid, int size, EccLevel ecc_level, boolean fast) {
 
         int x, y;
         char p;
         int pattern;
         int best_val, best_pattern;
-        int[] penalty = new int[8];
+        int[] penalty;
         byte[] mask = new byte[size * size];
         byte[] eval = new byte[size * size];
 
         /* Perform data masking */
         for (x = 0; x < size; x++) {
             for (y = 0; y < size; y++) {
-                mask[(y * size) + x] = 0x00;
-                // all eight bit mask variants are encoded in the 8 bits of the bytes that make up the mask array
                 if ((grid[(y * size) + x] & 0xf0) == 0) { // exclude areas not to be masked
-                    if (((y + x) & 1) == 0) {
-                        mask[(y * size) + x] += (byte) 0x01;
-                    }
-                    if ((y & 1) == 0) {
-                        mask[(y * size) + x] += (byte) 0x02;
-                    }
-                    if ((x % 3) == 0) {
-                        mask[(y * size) + x] += (byte) 0x04;
-                    }
-                    if (((y + x) % 3) == 0) {
-                        mask[(y * size) + x] += (byte) 0x08;
-                    }
-                    if ((((y / 2) + (x / 3)) & 1) == 0) {
-                        mask[(y * size) + x] += (byte) 0x10;
-                    }
-                    if ((((y * x) & 1) + ((y * x) % 3)) == 0) {
-                        mask[(y * size) + x] += (byte) 0x20;
-                    }
-                    if (((((y * x) & 1) + ((y * x) % 3)) & 1) == 0) {
-                        mask[(y * size) + x] += (byte) 0x40;
-                    }
-                    if (((((y + x) & 1) + ((y * x) % 3)) & 1) == 0) {
-                        mask[(y * size) + x] += (byte) 0x80;
-                    }
+                    mask[(y * size) + x] = (byte) maskBits(x, y);
                 }
             }
         }
@@ -1348,10 +1191,10 @@ public class QrCode extends Symbol {
         }
 
         /* Evaluate result */
-        for (pattern = 0; pattern < 8; pattern++) {
-            addFormatInfoEval(eval, size, ecc_level, pattern);
-            penalty[pattern] = evaluate(eval, size, pattern);
-        }
+        // addFormatInfoEval() only ever sets bit 0 (0x01 >> pattern), so mask 0 is evaluated with the
+        // format information in place and the other seven masks with those modules light
+        addFormatInfoEval(eval, size, ecc_level, 0);
+        penalty = evaluate(eval, size, fast);
 
         best_pattern = 0;
         best_val = penalty[0];
@@ -1422,182 +1265,142 @@ public class QrCode extends Symbol {
         eval[(8 * size) + 7] = (byte) ((((seq >> 8) & 0x01) != 0) ? (0x01 >> pattern) : 0x00);
     }
 
-    private static int evaluate(byte[] eval, int size, int pattern) {
+    /**
+     * Evaluates the penalty score of all eight mask patterns in one go. Each row and each column is
+     * packed into <code>long</code> words (one set of words per mask pattern, bit <code>i + EVAL_PADDING</code>
+     * representing module <code>i</code>), so that the four penalty rules can be applied to 64 modules
+     * at a time using shifts, masks and bit counts. A fast evaluation estimates the score using only rules
+     * 1 and 4, see {@link #evaluateFast(byte[], int, int)}.
+     */
+    private static int[] evaluate(byte[] eval, int size, boolean fast) {
 
-        int x, y, block, weight;
-        int result = 0;
-        int state;
-        int p;
-        int dark_mods;
-        int percentage, k;
-        int a, b, afterCount, beforeCount;
-        byte[] local = new byte[size * size];
+        int words = (size + (2 * EVAL_PADDING) + 63) >>> 6;
+        if (fast) {
+            return evaluateFast(eval, size, words);
+        }
+
+        long[][] rows = new long[8][size * words];
+        long[][] cols = new long[8][size * words];
+        int[] penalty = new int[8];
 
         // all eight bit mask variants have been encoded in the 8 bits of the bytes
-        // that make up the grid array; select them for evaluation according to the
-        // desired pattern
-        for (x = 0; x < size; x++) {
-            for (y = 0; y < size; y++) {
-                if ((eval[(y * size) + x] & (0x01 << pattern)) != 0) {
-                    local[(y * size) + x] = '1';
-                } else {
-                    local[(y * size) + x] = '0';
+        // that make up the grid array; split them out into one bitboard per pattern
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int v = eval[(y * size) + x] & 0xff;
+                while (v != 0) {
+                    int pattern = Integer.numberOfTrailingZeros(v);
+                    int row = x + EVAL_PADDING;
+                    int col = y + EVAL_PADDING;
+                    rows[pattern][(y * words) + (row >>> 6)] |= 1L << row;
+                    cols[pattern][(x * words) + (col >>> 6)] |= 1L << col;
+                    v &= v - 1;
                 }
             }
         }
 
-        /* Test 1: Adjacent modules in row/column in same colour */
-        /* Vertical */
-        for (x = 0; x < size; x++) {
-            state = local[x];
-            block = 0;
-            for (y = 0; y < size; y++) {
-                if (local[(y * size) + x] == state) {
-                    block++;
-                } else {
-                    if (block > 5) {
-                        result += (3 + (block - 5));
-                    }
-                    block = 0;
-                    state = local[(y * size) + x];
-                }
-            }
-            if (block > 5) {
-                result += (3 + (block - 5));
-            }
+        for (int pattern = 0; pattern < 8; pattern++) {
+            penalty[pattern] = evaluate(rows[pattern], cols[pattern], size, words);
         }
 
-        /* Horizontal */
-        for (y = 0; y < size; y++) {
-            state = local[y * size];
-            block = 0;
-            for (x = 0; x < size; x++) {
-                if (local[(y * size) + x] == state) {
-                    block++;
-                } else {
-                    if (block > 5) {
-                        result += (3 + (block - 5));
+        return penalty;
+    }
+
+    /**
+     * Estimates the penalty score of all eight mask patterns using only rules 1 and 4, building the bitboards
+     * for one mask pattern at a time. The row bitboard is enough to score the rows against rule 1 and to
+     * count the dark modules for rule 4; the column bitboard is only built if that partial score is still
+     * lower than the best score so far. Otherwise the partial score, which is already too high for the
+     * mask pattern to be chosen, is returned for that pattern.
+     */
+    private static int[] evaluateFast(byte[] eval, int size, int words) {
+
+        int[] penalty = new int[8];
+        int best = Integer.MAX_VALUE;
+
+        for (int pattern = 0; pattern < 8; pattern++) {
+
+            long[] rows = new long[size * words];
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    if (((eval[(y * size) + x] >> pattern) & 0x01) != 0) {
+                        int row = x + EVAL_PADDING;
+                        rows[(y * words) + (row >>> 6)] |= 1L << row;
                     }
-                    block = 0;
-                    state = local[(y * size) + x];
                 }
             }
-            if (block > 5) {
-                result += (3 + (block - 5));
-            }
-        }
 
-        /* Test 2: Block of modules in same color */
-        for (x = 0; x < size - 1; x++) {
-            for (y = 0; y < size - 1; y++) {
-                if (((local[(y * size) + x] == local[((y + 1) * size) + x]) &&
-                        (local[(y * size) + x] == local[(y * size) + (x + 1)])) &&
-                        (local[(y * size) + x] == local[((y + 1) * size) + (x + 1)])) {
-                    result += 3;
+            int result = 0;
+            int dark_mods = 0;
+            for (int i = 0; i < size; i++) {
+                result += runPenalty(rows, i * words, words, size);
+                for (int w = 0; w < words; w++) {
+                    dark_mods += Long.bitCount(rows[(i * words) + w]);
                 }
             }
-        }
-
-        /* Test 3: 1:1:3:1:1 ratio pattern in row/column */
-        /* Vertical */
-        for (x = 0; x < size; x++) {
-            for (y = 0; y < (size - 7); y++) {
-                p = 0;
-                for (weight = 0; weight < 7; weight++) {
-                    if (local[((y + weight) * size) + x] == '1') {
-                        p += (0x40 >> weight);
-                    }
-                }
-                if (p == 0x5d) {
-                    /* Pattern found, check before and after */
-                    beforeCount = 0;
-                    for (b = (y - 4); b < y; b++) {
-                        if (b < 0) {
-                            beforeCount++;
-                        } else {
-                            if (local[(b * size) + x] == '0') {
-                                beforeCount++;
-                            } else {
-                                beforeCount = 0;
-                            }
-                        }
-                    }
-
-                    afterCount = 0;
-                    for (a = (y + 7); a <= (y + 10); a++) {
-                        if (a >= size) {
-                            afterCount++;
-                        } else {
-                            if (local[(a * size) + x] == '0') {
-                                afterCount++;
-                            } else {
-                                afterCount = 0;
-                            }
+            result += balancePenalty(dark_mods, size);
+
+            if (result < best) {
+                long[] cols = new long[size * words];
+                for (int y = 0; y < size; y++) {
+                    for (int x = 0; x < size; x++) {
+                        if (((eval[(y * size) + x] >> pattern) & 0x01) != 0) {
+                            int col = y + EVAL_PADDING;
+                            cols[(x * words) + (col >>> 6)] |= 1L << col;
                         }
                     }
-
-                    if ((beforeCount == 4) || (afterCount == 4)) {
-                        // Pattern is preceded or followed by light area 4 modules wide
-                        result += 40;
-                    }
                 }
+                for (int i = 0; i < size; i++) {
+                    result += runPenalty(cols, i * words, words, size);
+                }
+                best = Math.min(best, result);
             }
+
+            penalty[pattern] = result;
         }
 
-        /* Horizontal */
-        for (y = 0; y < size; y++) {
-            for (x = 0; x < (size - 7); x++) {
-                p = 0;
-                for (weight = 0; weight < 7; weight++) {
-                    if (local[(y * size) + x + weight] == '1') {
-                        p += (0x40 >> weight);
-                    }
-                }
-                if (p == 0x5d) {
-                    /* Pattern found, check before and after */
-                    beforeCount = 0;
-                    for (b = (x - 4); b < x; b++) {
-                        if (b < 0) {
-                            beforeCount++;
-                        } else {
-                            if (local[(y * size) + b] == '0') {
-                                beforeCount++;
-                            } else {
-                                beforeCount = 0;
-                            }
-                        }
-                    }
+        return penalty;
+    }
 
-                    afterCount = 0;
-                    for (a = (x + 7); a <= (x + 10); a++) {
-                        if (a >= size) {
-                            afterCount++;
-                        } else {
-                            if (local[(y * size) + a] == '0') {
-                                afterCount++;
-                            } else {
-                                afterCount = 0;
-                            }
-                        }
-                    }
+    private static int evaluate(long[] rows, long[] cols, int size, int words) {
 
-                    if ((beforeCount == 4) || (afterCount == 4)) {
-                        // Pattern is preceded or followed by light area 4 modules wide
-                        result += 40;
-                    }
-                }
+        int result = 0;
+        int dark_mods = 0;
+
+        for (int i = 0; i < size; i++) {
+            int start = i * words;
+
+            /* Test 1: Adjacent modules in row/column in same colour */
+            result += runPenalty(rows, start, words, size);
+            result += runPenalty(cols, start, words, size);
+
+            /* Test 2: Block of modules in same color */
+            if (i < size - 1) {
+                result += blockPenalty(rows, start, start + words, words, size);
             }
-        }
 
-        /* Test 4: Proportion of dark modules in entire symbol */
-        dark_mods = 0;
-        for (x = 0; x < size; x++) {
-            for (y = 0; y < size; y++) {
-                if (local[(y * size) + x] == '1') {
-                    dark_mods++;
-                }
+            /* Test 3: 1:1:3:1:1 ratio pattern in row/column */
+            result += finderPenalty(rows, start, words, size);
+            result += finderPenalty(cols, start, words, size);
+
+            for (int w = 0; w < words; w++) {
+                dark_mods += Long.bitCount(rows[start + w]);
             }
         }
+
+        /* Test 4: Proportion of dark modules in entire symbol */
+        result += balancePenalty(dark_mods, size);
+
+        return result;
+    }
+
+    /**
+     * Scores the proportion of dark modules in the entire symbol (test 4).
+     */
+    private static int balancePenalty(int dark_mods, int size) {
+
+        int percentage, k;
+
         percentage = 100 * (dark_mods / (size * size));
         if (percentage <= 50) {
             k = ((100 - percentage) - 50) / 5;
@@ -1605,11 +1408,123 @@ public class QrCode extends Symbol {
             k = (percentage - 50) / 5;
         }
 
-        result += 10 * k;
+        return 10 * k;
+    }
+
+    /**
+     * Scores runs of five or more same-coloured modules in one packed row or column. Run boundaries are
+     * found by comparing the line with itself shifted by one module. The module which starts a new run is
+     * not counted towards the length of that run, except for the first run in the line, which keeps the
+     * scores (and therefore the mask selection) the same as the previous module-by-module scan.
+     */
+    private static int runPenalty(long[] line, int start, int words, int size) {
+
+        int result = 0;
+        int last = EVAL_PADDING - 1;
+        boolean first = true;
+
+        for (int w = 0; w < words; w++) {
+            int base = w << 6;
+            long changes = (window(line, start, words, base) ^ window(line, start, words, base + 1))
+                    & range(base, EVAL_PADDING, EVAL_PADDING + size - 1);
+            while (changes != 0) {
+                int b = base + Long.numberOfTrailingZeros(changes);
+                result += runPenalty(b - last, first);
+                first = false;
+                last = b;
+                changes &= changes - 1;
+            }
+        }
+
+        result += runPenalty(EVAL_PADDING + size - 1 - last, first);
 
         return result;
     }
 
+    private static int runPenalty(int length, boolean first) {
+        int block = first ? length : length - 1;
+        return block > 5 ? 3 + (block - 5) : 0;
+    }
+
+    /**
+     * Scores 2x2 blocks of same-coloured modules in two adjacent packed rows.
+     */
+    private static int blockPenalty(long[] rows, int start1, int start2, int words, int size) {
+
+        int count = 0;
+
+        for (int w = 0; w < words; w++) {
+            int base = w << 6;
+            long a0 = window(rows, start1, words, base);
+            long a1 = window(rows, start1, words, base + 1);
+            long b0 = window(rows, start2, words, base);
+            long b1 = window(rows, start2, words, base + 1);
+            long same = ~(a0 ^ b0) & ~(a1 ^ b1) & ~(a0 ^ a1);
+            count += Long.bitCount(same & range(base, EVAL_PADDING, EVAL_PADDING + size - 1));
+        }
+
+        return count * 3;
+    }
+
+    /**
+     * Scores 1:1:3:1:1 finder-like patterns preceded or followed by four light modules in one packed
+     * row or column. The light padding either side of the line stands in for the area outside the symbol.
+     * As in the previous module-by-module search, patterns ending on the last module are not counted.
+     */
+    private static int finderPenalty(long[] line, int start, int words, int size) {
+
+        int count = 0;
+
+        for (int w = 0; w < words; w++) {
+            int base = w << 6;
+            long match = window(line, start, words, base)
+                    & ~window(line, start, words, base + 1)
+                    & window(line, start, words, base + 2)
+                    & window(line, start, words, base + 3)
+                    & window(line, start, words, base + 4)
+                    & ~window(line, start, words, base + 5)
+                    & window(line, start, words, base + 6)
+                    & range(base, EVAL_PADDING, EVAL_PADDING + size - 7);
+            if (match != 0) {
+                long before = ~(window(line, start, words, base - 1)
+                        | window(line, start, words, base - 2)
+                        | window(line, start, words, base - 3)
+                        | window(line, start, words, base - 4));
+                long after = ~(window(line, start, words, base + 7)
+                        | window(line, start, words, base + 8)
+                        | window(line, start, words, base + 9)
+                        | window(line, start, words, base + 10));
+                count += Long.bitCount(match & (before | after));
+            }
+        }
+
+        return count * 40;
+    }
+
+    /**
+     * Returns the 64 bits of a packed line starting at the specified bit position (which may be
+     * negative), with zeroes shifted in beyond either end of the line.
+     */
+    private static long window(long[] line, int start, int words, int bit) {
+        int w = bit >> 6;
+        int shift = bit & 63;
+        long lo = (w >= 0 && w < words) ? line[start + w] : 0;
+        if (shift == 0) {
+            return lo;
+        }
+        long hi = (w + 1 >= 0 && w + 1 < words) ? line[start + w + 1] : 0;
+        return (lo >>> shift) | (hi << (64 - shift));
+    }
+
+    /**
+     * Returns a mask of the bit positions in <code>[from, to)</code> which fall within the word starting at bit <code>base</code>.
+     */
+    private static long range(int base, int from, int to) {
+        long lo = from <= base ? -1L : (from - base >= 64 ? 0 : -1L << (from - base));
+        long hi = to - base >= 64 ? -1L : (to <= base ? 0 : (1L << (to - base)) - 1);
+        return lo & hi;
+    }
+
     /* Adds format information to grid. */
     private static void addFormatInfo(int[] grid, int size, EccLevel ecc_level, int pattern) {
 
@@ -1667,4 +1582,26 @@ public class QrCode extends Symbol {
             grid[(i * size) + (size - 9)] += (version_data >> ((i * 3) + 2)) & 0x01;
         }
     }
+
+    /**
+     * The parts of a QR Code symbol which depend only on the symbol version.
+     */
+    private static final class Template {
+
+        /** The function patterns and version information, with the format information area reserved. */
+        final int[] grid;
+
+        /** The grid indices of the data modules, in placement order. */
+        final int[] path;
+
+        Template(int version) {
+            int size = QR_SIZES[version - 1];
+            grid = new int[size * size];
+            setupGrid(grid, size, version);
+            if (version >= 7) {
+                addVersionInfo(grid, size, version);
+            }
+            path = placementPath(grid, size);
+        }
+    }
 }
@@ -0,0 +1,399 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+import ru.chipmunkbarcode.exceptions.BarcodeException;
+import ru.chipmunkbarcode.util.EciMode;
+
+import java.nio.charset.CharsetEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * <p>Splits content which is too long for a single symbol across a structured append series of Data Matrix,
+ * Aztec Code or PDF417 symbols, all of the same size.
+ *
+ * <p>The content is cut into as few segments as possible: working forwards from the start of the content, each
+ * segment is made as long as the capacity of the symbol allows, given the codewords (or bits) which the
+ * symbology's encodation rules need for it. Segments are only ever cut between characters. Once the cuts are
+ * known, the segments are encoded in parallel.
+ *
+ * <p>Each symbol in the series is created by the specified factory, which must return a new symbol every time
+ * it is called, so that any other settings (module size, file ID or message ID, and so on) apply to the whole
+ * series. The symbol size, the structured append position and total and minimal encodation are set by this
+ * class. GS1 data cannot be split.
+ */
+public final class StructuredAppend {
+
+    private StructuredAppend() {
+        // utility class
+    }
+
+    /**
+     * Splits the specified content across a series of Data Matrix symbols of the specified size.
+     *
+     * @param content the content to encode
+     * @param size the symbol size, as passed to {@link DataMatrix#setPreferredSize(int)} (1 - 30 inclusive)
+     * @return the symbols in the series, in order
+     * @throws BarcodeException if the content needs more than 16 symbols
+     */
+    public static List<DataMatrix> dataMatrix(String content, int size) {
+        return dataMatrix(content, size, DataMatrix::new);
+    }
+
+    /**
+     * Splits the specified content across a series of Data Matrix symbols of the specified size.
+     *
+     * @param content the content to encode
+     * @param size the symbol size, as passed to {@link DataMatrix#setPreferredSize(int)} (1 - 30 inclusive)
+     * @param factory creates each symbol in the series
+     * @return the symbols in the series, in order
+     * @throws BarcodeException if the content needs more than 16 symbols
+     */
+    public static List<DataMatrix> dataMatrix(String content, int size, Supplier<DataMatrix> factory) {
+
+        if (size < 1 || size > 30) {
+            throw new IllegalArgumentException("Invalid Data Matrix symbol size: " + size);
+        }
+
+        DataMatrix probe = factory.get();
+        if (probe.structuredAppendCapacity(size, 3) <= 0) {
+            throw new BarcodeException("Symbol too small for structured append");
+        }
+        Segments segments = new Segments(content, probe);
+        String[] parts = segments.split(16, "Data Matrix", longestByCodewords(segments,
+                DataMatrix::minimalCodewordCounts, (eci, last) -> probe.structuredAppendCapacity(size, eci)));
+
+        return encode(parts, factory, (symbol, position) -> {
+            symbol.setPreferredSize(size);
+            symbol.setMinimalEncodation(true);
+            symbol.setStructuredAppendPosition(position);
+            symbol.setStructuredAppendTotal(parts.length);
+        });
+    }
+
+    /**
+     * Splits the specified content across a series of Aztec Code symbols of the specified size.
+     *
+     * @param content the content to encode
+     * @param size the symbol size, as passed to {@link AztecCode#setPreferredSize(int)} (1 - 36 inclusive)
+     * @return the symbols in the series, in order
+     * @throws BarcodeException if the content needs more than 26 symbols
+     */
+    public static List<AztecCode> aztec(String content, int size) {
+        return aztec(content, size, AztecCode::new);
+    }
+
+    /**
+     * Splits the specified content across a series of Aztec Code symbols of the specified size.
+     *
+     * @param content the content to encode
+     * @param size the symbol size, as passed to {@link AztecCode#setPreferredSize(int)} (1 - 36 inclusive)
+     * @param factory creates each symbol in the series
+     * @return the symbols in the series, in order
+     * @throws BarcodeException if the content needs more than 26 symbols
+     */
+    public static List<AztecCode> aztec(String content, int size, Supplier<AztecCode> factory) {
+
+        if (size < 1 || size > 36) {
+            throw new IllegalArgumentException("Invalid Aztec Code symbol size: " + size);
+        }
+
+        AztecCode probe = factory.get();
+        probe.setMinimalEncodation(true);
+        Segments segments = new Segments(content, probe);
+
+        /* The structured append prefix changes the bit stuffing, so split again until the guessed total holds */
+        IntFunction<String[]> split = total -> segments.split(26, "Aztec Code", (start, position) ->
+                segments.longest(start, segments.length(), end -> {
+                    EciMode eci = segments.eci(start, end);
+                    return probe.fitsStructuredAppend(segments.data(start, end, eci), eci.mode, size, position, total);
+                }));
+        boolean[] tried = new boolean[27];
+        int total = 2;
+        String[] parts = split.apply(total);
+        while (parts.length > 1 && parts.length != total) {
+            tried[total] = true;
+            total = parts.length;
+            if (tried[total]) {
+                throw new BarcodeException("Unable to find a consistent structured append series for selected symbol size");
+            }
+            parts = split.apply(total);
+        }
+        String[] series = parts;
+
+        return encode(series, factory, (symbol, position) -> {
+            symbol.setPreferredSize(size);
+            symbol.setMinimalEncodation(true);
+            symbol.setStructuredAppendPosition(position);
+            symbol.setStructuredAppendTotal(series.length);
+        });
+    }
+
+    /**
+     * Splits the specified content across a series of Macro PDF417 symbols with the specified number of
+     * data columns and rows.
+     *
+     * @param content the content to encode
+     * @param columns the number of data columns in each symbol (1 - 30 inclusive)
+     * @param rows the number of rows in each symbol (3 - 90 inclusive)
+     * @return the symbols in the series, in order
+     * @throws BarcodeException if the content needs more than 99,999 symbols
+     */
+    public static List<Pdf417> pdf417(String content, int columns, int rows) {
+        return pdf417(content, columns, rows, Pdf417::new);
+    }
+
+    /**
+     * Splits the specified content across a series of Macro PDF417 symbols with the specified number of
+     * data columns and rows.
+     *
+     * @param content the content to encode
+     * @param columns the number of data columns in each symbol (1 - 30 inclusive)
+     * @param rows the number of rows in each symbol (3 - 90 inclusive)
+     * @param factory creates each symbol in the series
+     * @return the symbols in the series, in order
+     * @throws BarcodeException if the content needs more than 99,999 symbols
+     */
+    public static List<Pdf417> pdf417(String content, int columns, int rows, Supplier<Pdf417> factory) {
+
+        if (columns < 1 || columns > 30) {
+            throw new IllegalArgumentException("Invalid PDF417 data column count: " + columns);
+        }
+        if (rows < 3 || rows > 90) {
+            throw new IllegalArgumentException("Invalid PDF417 row count: " + rows);
+        }
+        if (columns * rows > 929) {
+            throw new IllegalArgumentException("Too many rows (" + rows + ") and columns (" + columns + ") for a PDF417 symbol");
+        }
+
+        Pdf417 probe = factory.get();
+        if (probe.getMode() == Pdf417.Mode.MICRO) {
+            throw new IllegalArgumentException("MicroPDF417 symbols cannot be split into a structured append series");
+        }
+        if (probe.structuredAppendCapacity(columns, rows, 3, true) <= 0) {
+            throw new BarcodeException("Symbol too small for structured append");
+        }
+        Segments segments = new Segments(content, probe);
+        String[] parts = segments.split(99_999, "PDF417", longestByCodewords(segments,
+                Pdf417::minimalCodewordCounts, (eci, last) -> probe.structuredAppendCapacity(columns, rows, eci, last)));
+
+        return encode(parts, factory, (symbol, position) -> {
+            symbol.setDataColumns(columns);
+            symbol.setRows(rows);
+            symbol.setMinimalEncodation(true);
+            symbol.setStructuredAppendPosition(position);
+            symbol.setStructuredAppendTotal(parts.length);
+        });
+    }
+
+    /**
+     * Returns a function which finds the longest segment that fits from each character, using the codeword counts
+     * of the symbology's minimal encodation. As a segment grows, the ECI mode which suits its characters can only
+     * move further down the list of candidates, so the segments from a character fall into runs which share an
+     * ECI mode; each run is counted using its own data and capacity, and the longest segment which fits in any of
+     * them is taken.
+     */
+    private static IntBinaryOperator longestByCodewords(Segments segments, CodewordCounter counter, Capacity capacity) {
+        /* no codeword holds more than three characters, and no ECI mode leaves more room than the default */
+        int reach = 3 * (Math.max(capacity.of(3, false), capacity.of(3, true)) + 1);
+        return (start, position) -> {
+            int end = start;
+            boolean tooSmall = false;
+            int limit = Math.min(segments.length(), start + reach);
+            for (int runStart = start; runStart < limit; ) {
+                EciMode eci = segments.eci(start, runStart + 1);
+                int runEnd = segments.encodable(runStart + 1, limit, eci);
+                int max = capacity.of(eci.mode, false);
+                int lastMax = capacity.of(eci.mode, true);
+                if (Math.max(max, lastMax) <= 0) {
+                    tooSmall = true;
+                } else {
+                    int[] positions = segments.positions(start, runEnd, eci);
+                    int[] counts = counter.counts(segments.data(start, runEnd, eci), 0, Math.max(max, lastMax));
+                    for (int e = runStart + 1; e <= runEnd && positions[e - start] < counts.length; e++) {
+                        if (counts[positions[e - start]] <= (e == segments.length() ? lastMax : max)) {
+                            end = e;
+                        }
+                    }
+                }
+                runStart = runEnd;
+            }
+            if (end == start && tooSmall) {
+                throw new BarcodeException("Symbol too small for structured append");
+            }
+            return end;
+        };
+    }
+
+    private static <T extends Symbol> List<T> encode(String[] parts, Supplier<T> factory, ObjIntConsumer<T> settings) {
+        return IntStream.range(0, parts.length)
+                .parallel()
+                .mapToObj(i -> {
+                    T symbol = factory.get();
+                    settings.accept(symbol, i + 1);
+                    symbol.setContent(parts[i]);
+                    return symbol;
+                })
+                .collect(Collectors.toList());
+    }
+
+    /** Returns the number of codewords needed for each prefix of some data, as in {@link DataMatrix#minimalCodewordCounts}. */
+    private interface CodewordCounter {
+        int[] counts(int[] data, int start, int limit);
+    }
+
+    /** Returns the number of codewords available for data in a symbol of the series. */
+    private interface Capacity {
+        int of(int eci, boolean last);
+    }
+
+    /**
+     * The content to split. Segments are measured in characters, where an FNC escape sequence counts as a single
+     * character.
+     */
+    private static final class Segments {
+
+        private static final String[] FNC_STRINGS = {
+                Symbol.FNC1_STRING, Symbol.FNC2_STRING, Symbol.FNC3_STRING, Symbol.FNC4_STRING
+        };
+
+        final String content;
+        /** The position in the content at which each character starts, followed by the length of the content */
+        private final int[] indices;
+
+        Segments(String content, Symbol probe) {
+
+            if (probe.getDataType() == Symbol.DataType.GS1) {
+                throw new IllegalArgumentException("GS1 data cannot be split into a structured append series");
+            }
+
+            this.content = (content == null ? "" : content);
+
+            int count = 0;
+            int[] c = new int[this.content.length() + 1];
+            for (int i = 0; i < this.content.length(); count++) {
+                c[count] = i;
+                String fnc = fncAt(i);
+                i += (fnc != null ? fnc.length() : Character.charCount(this.content.codePointAt(i)));
+            }
+            c[count] = this.content.length();
+
+            indices = Arrays.copyOf(c, count + 1);
+        }
+
+        private String fncAt(int i) {
+            for (String fnc : FNC_STRINGS) {
+                if (content.startsWith(fnc, i)) {
+                    return fnc;
+                }
+            }
+            return null;
+        }
+
+        /** Returns the number of characters in the content. */
+        int length() {
+            return indices.length - 1;
+        }
+
+        /** Returns the ECI mode which the specified characters are given when they are encoded on their own. */
+        EciMode eci(int start, int end) {
+            return Symbol.chooseEciMode(content.substring(indices[start], indices[end]));
+        }
+
+        /** Returns the data for the specified characters, converted using the specified ECI mode. */
+        int[] data(int start, int end, EciMode eci) {
+            return Symbol.toBytes(content.substring(indices[start], indices[end]), eci.charset);
+        }
+
+        /**
+         * Returns the position in the data of each of the specified characters, converted using the specified
+         * ECI mode and counted from the first of them, followed by the length of the data.
+         */
+        int[] positions(int start, int end, EciMode eci) {
+            int[] positions = new int[end - start + 1];
+            for (int i = start; i < end; i++) {
+                int length = (fncAt(indices[i]) != null ? 1 :
+                        content.substring(indices[i], indices[i + 1]).getBytes(eci.charset).length);
+                positions[i - start + 1] = positions[i - start] + length;
+            }
+            return positions;
+        }
+
+        /**
+         * Returns the end (no later than the specified limit) of the run of characters from the specified
+         * character which the specified ECI mode can encode.
+         */
+        int encodable(int start, int limit, EciMode eci) {
+            CharsetEncoder encoder = eci.charset.newEncoder();
+            int end = start;
+            while (end < limit && (fncAt(indices[end]) != null
+                    || encoder.canEncode(content.substring(indices[end], indices[end + 1])))) {
+                end++;
+            }
+            return end;
+        }
+
+        /**
+         * Returns the end (no later than the specified limit) of the longest segment starting at the specified
+         * character which fits, by doubling the segment length until it no longer fits and then halving the
+         * difference. Assumes that a segment fits if any longer segment from the same character fits.
+         */
+        int longest(int start, int limit, IntPredicate fits) {
+            int good = start;
+            int bad = limit + 1;
+            for (int step = 16; bad > limit && good < limit; step *= 2) {
+                int end = Math.min(start + step, limit);
+                if (fits.test(end)) {
+                    good = end;
+                } else {
+                    bad = end;
+                }
+            }
+            while (bad - good > 1 && good < limit) {
+                int end = (good + bad) >>> 1;
+                if (fits.test(end)) {
+                    good = end;
+                } else {
+                    bad = end;
+                }
+            }
+            return good;
+        }
+
+        /**
+         * Cuts the content into segments, taking the longest segment which fits from each character in turn.
+         *
+         * @param max the maximum number of symbols in a structured append series
+         * @param name the name of the symbology, for error messages
+         * @param longest returns the end of the longest segment which fits from the specified character, given
+         *        the position of the segment in the series
+         * @return the content of each symbol in the series
+         */
+        String[] split(int max, String name, IntBinaryOperator longest) {
+            if (length() == 0) {
+                return new String[] { content };
+            }
+            List<String> parts = new ArrayList<>();
+            int start = 0;
+            while (start < length()) {
+                if (parts.size() == max) {
+                    throw new BarcodeException("Input too long for a structured append series of " + max + " " + name + " symbols");
+                }
+                int end = longest.applyAsInt(start, parts.size() + 1);
+                if (end == start) {
+                    throw new BarcodeException("Input too long for selected symbol size");
+                }
+                parts.add(content.substring(indices[start], indices[end]));
+                start = end;
+            }
+            return parts.toArray(new String[0]);
+        }
+    }
+}
@@ -523,6 +523,23 @@ public abstract class Symbol {
      */
     protected void eciProcess() {
 
+        EciMode eci = chooseEciMode(content);
+
+        eciMode = eci.mode;
+        inputData = toBytes(content, eci.charset);
+
+        infoLine("ECI Mode: " + eci.mode);
+        infoLine("ECI Charset: " + eci.charset.name());
+    }
+
+    /**
+     * Returns the first ECI mode whose character set can encode all of the specified content.
+     *
+     * @param content the content to be encoded
+     * @return the first ECI mode whose character set can encode all of the specified content
+     */
+    static EciMode chooseEciMode(String content) {
+
         EciMode eci = EciMode.of(content, "ISO8859_1", 3)
                 .or(content, "ISO8859_2", 4)
                 .or(content, "ISO8859_3", 5)
@@ -549,11 +566,7 @@ public abstract class Symbol {
             throw new BarcodeException("Unable to determine ECI mode.");
         }
 
-        eciMode = eci.mode;
-        inputData = toBytes(content, eci.charset);
-
-        infoLine("ECI Mode: " + eci.mode);
-        infoLine("ECI Charset: " + eci.charset.name());
+        return eci;
     }
 
     protected static int[] toBytes(String s, Charset charset, int... suffix) {
@@ -1,9 +1,9 @@
 package ru.chipmunkbarcode.barcodeTypes;
 
 import ru.chipmunkbarcode.exceptions.BarcodeException;
+import ru.chipmunkbarcode.util.WideInteger;
 
 import java.awt.geom.Rectangle2D;
-import java.math.BigInteger;
 
 import static ru.chipmunkbarcode.barcodeTypes.HumanReadableLocation.NONE;
 import static ru.chipmunkbarcode.barcodeTypes.HumanReadableLocation.TOP;
@@ -256,9 +256,8 @@ public class UspsOneCode extends Symbol {
         String tracker = "";
         int i, j;
         int length = content.length();
-        BigInteger accum;
-        BigInteger xReg;
-        BigInteger mask;
+        WideInteger accum;
+        long xReg;
         int uspsCrc;
         int[] codeword = new int[10];
         int[] characters = new int[10];
@@ -301,9 +300,9 @@ public class UspsOneCode extends Symbol {
 
         /* Routing code first */
         if (zip.length() > 0) {
-            xReg = new BigInteger(zip);
+            xReg = Long.parseLong(zip);
         } else {
-            xReg = new BigInteger("0");
+            xReg = 0;
         }
 
         /* add weight to routing code */
@@ -321,24 +320,18 @@ public class UspsOneCode extends Symbol {
             }
         }
 
-        accum = new BigInteger(zipAdder);
-        accum = accum.add(xReg);
-        accum = accum.multiply(BigInteger.valueOf(10));
-        accum = accum.add(BigInteger.valueOf(Character.getNumericValue(tracker.charAt(0))));
-        accum = accum.multiply(BigInteger.valueOf(5));
-        accum = accum.add(BigInteger.valueOf(Character.getNumericValue(tracker.charAt(1))));
+        accum = new WideInteger(104, Long.parseLong(zipAdder) + xReg);
+        accum.multiplyAdd(10, Character.getNumericValue(tracker.charAt(0)));
+        accum.multiplyAdd(5, Character.getNumericValue(tracker.charAt(1)));
         for (i = 2; i < tracker.length(); i++) {
-            accum = accum.multiply(BigInteger.valueOf(10));
-            accum = accum.add(BigInteger.valueOf(Character.getNumericValue(tracker.charAt(i))));
+            accum.multiplyAdd(10, Character.getNumericValue(tracker.charAt(i)));
         }
 
         /* *** Step 2 - Generation of 11-bit CRC on Binary Data *** */
 
         int[] byte_array = new int[13];
         for (i = 0; i < byte_array.length; i++) {
-            mask = accum.shiftRight(96 - (8 * i));
-            mask = mask.and(new BigInteger("255"));
-            byte_array[i] = mask.intValue();
+            byte_array[i] = accum.get(96 - (8 * i), 8);
         }
 
         uspsCrc = USPS_MSB_Math_CRC11GenerateFrameCheckSequence(byte_array);
@@ -346,16 +339,10 @@ public class UspsOneCode extends Symbol {
         /* *** Step 3 - Conversion from Binary Data to Codewords *** */
 
         /* start with codeword J which is base 636 */
-        xReg = accum.mod(BigInteger.valueOf(636));
-        codeword[9] = xReg.intValue();
-        accum = accum.subtract(xReg);
-        accum = accum.divide(BigInteger.valueOf(636));
+        codeword[9] = accum.divide(636);
 
         for (i = 8; i >= 0; i--) {
-            xReg = accum.mod(BigInteger.valueOf(1365));
-            codeword[i] = xReg.intValue();
-            accum = accum.subtract(xReg);
-            accum = accum.divide(BigInteger.valueOf(1365));
+            codeword[i] = accum.divide(1365);
         }
 
         for (i = 0; i < 9; i++) {
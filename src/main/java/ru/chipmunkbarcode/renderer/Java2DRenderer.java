@@ -2,6 +2,7 @@ package ru.chipmunkbarcode.renderer;
 
 import ru.chipmunkbarcode.barcodeTypes.Hexagon;
 import ru.chipmunkbarcode.barcodeTypes.HumanReadableAlignment;
+import ru.chipmunkbarcode.barcodeTypes.MaxiCode;
 import ru.chipmunkbarcode.barcodeTypes.Symbol;
 import ru.chipmunkbarcode.barcodeTypes.TextBox;
 
@@ -10,11 +11,14 @@ import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.Polygon;
+import java.awt.RenderingHints;
 import java.awt.font.FontRenderContext;
 import java.awt.font.TextAttribute;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.util.Collections;
 import java.util.List;
 
@@ -22,6 +26,13 @@ import java.util.List;
  * Renders symbologies using the Java 2D API.
  */
 public class Java2DRenderer implements SymbolRenderer {
+
+    /**
+     * The MaxiCode sprites used most recently, shared by all renderers since the sprites are usually the same
+     * for every symbol in a batch.
+     */
+    private static volatile MaxiCodeSprites maxiCodeSprites;
+
     /**
      * The graphics to render to.
      */
@@ -119,15 +130,31 @@ public class Java2DRenderer implements SymbolRenderer {
             g2d.drawString(text.text, x, y);
         }
 
+        if (symbol instanceof MaxiCode && canStampSprites()) {
+            renderMaxiCode((MaxiCode) symbol, marginX, marginY);
+        } else {
+            renderShapes(symbol, marginX, marginY);
+        }
+
+        g2d.setFont(oldFont);
+        g2d.setColor(oldColor);
+    }
+
+    /**
+     * Renders the hexagons and target rings of a symbol as shapes.
+     */
+    private void renderShapes(Symbol symbol, int marginX, int marginY) {
+
         for (Hexagon hexagon : symbol.getHexagons()) {
-            Polygon polygon = new Polygon();
-            for (int j = 0; j < 6; j++) {
-                polygon.addPoint((int) ((hexagon.pointX[j] * magnification) + marginX),
-                        (int) ((hexagon.pointY[j] * magnification) + marginY));
-            }
-            g2d.fill(polygon);
+            g2d.fill(toPolygon(hexagon.pointX, hexagon.pointY, 0, 0, marginX, marginY));
         }
+        renderTarget(symbol, marginX, marginY);
+    }
 
+    /**
+     * Renders the target rings of a symbol as shapes.
+     */
+    private void renderTarget(Symbol symbol, int marginX, int marginY) {
         List<Ellipse2D.Double> target = symbol.getTarget();
         for (int i = 0; i + 1 < target.size(); i += 2) {
             Ellipse2D.Double outer = adjust(target.get(i), magnification, marginX, marginY);
@@ -136,9 +163,67 @@ public class Java2DRenderer implements SymbolRenderer {
             area.subtract(new Area(inner));
             g2d.fill(area);
         }
+    }
 
-        g2d.setFont(oldFont);
-        g2d.setColor(oldColor);
+    /**
+     * Returns the hexagon with the specified corners, offset by the specified centre, as a polygon on the pixel grid.
+     */
+    private Polygon toPolygon(double[] pointX, double[] pointY, double centreX, double centreY, int marginX, int marginY) {
+        Polygon polygon = new Polygon();
+        for (int j = 0; j < 6; j++) {
+            polygon.addPoint((int) (((centreX + pointX[j]) * magnification) + marginX),
+                    (int) (((centreY + pointY[j]) * magnification) + marginY));
+        }
+        return polygon;
+    }
+
+    /**
+     * Returns whether or not pre-rendered images can stand in for shapes. Under any transform other than a
+     * translation by whole pixels the images would be resampled, blurring or distorting the modules, so the shapes
+     * are drawn instead.
+     */
+    private boolean canStampSprites() {
+        AffineTransform transform = g2d.getTransform();
+        int type = transform.getType();
+        return type == AffineTransform.TYPE_IDENTITY || (type == AffineTransform.TYPE_TRANSLATION
+                && transform.getTranslateX() == Math.rint(transform.getTranslateX())
+                && transform.getTranslateY() == Math.rint(transform.getTranslateY()));
+    }
+
+    /**
+     * Renders a MaxiCode symbol by stamping a pre-rendered hexagon image at each dark module of the module grid.
+     * Each hexagon is drawn as the same polygon as {@link #renderShapes(Symbol, int, int)} would draw, so the output
+     * is identical. The target rings are drawn as shapes.
+     */
+    private void renderMaxiCode(MaxiCode symbol, int marginX, int marginY) {
+
+        Object antialiasing = g2d.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+        MaxiCodeSprites sprites = maxiCodeSprites;
+        if (sprites == null || !sprites.matches(magnification, ink, antialiasing)) {
+            sprites = new MaxiCodeSprites(magnification, ink, antialiasing);
+            maxiCodeSprites = sprites;
+        }
+
+        double[] pointX = sprites.shape.pointX;
+        double[] pointY = sprites.shape.pointY;
+        for (int row = 0; row < MaxiCode.GRID_ROWS; row++) {
+            double centreY = MaxiCode.getModuleCentreY(row);
+            for (int col = 0; col < MaxiCode.GRID_COLUMNS; col++) {
+                if (symbol.isModuleDark(row, col)) {
+                    double centreX = MaxiCode.getModuleCentreX(row, col);
+                    int x = (int) ((centreX * magnification) + marginX);
+                    int y = (int) ((centreY * magnification) + marginY);
+                    BufferedImage hexagon = sprites.get(centreX, centreY, x, y, marginX, marginY);
+                    if (hexagon != null) {
+                        g2d.drawImage(hexagon, x - sprites.hexagonCentreX, y - sprites.hexagonCentreY, null);
+                    } else {
+                        g2d.fill(toPolygon(pointX, pointY, centreX, centreY, marginX, marginY));
+                    }
+                }
+            }
+        }
+
+        renderTarget(symbol, marginX, marginY);
     }
 
     private static Ellipse2D.Double adjust(Ellipse2D.Double ellipse, double magnification, int marginX, int marginY) {
@@ -158,4 +243,109 @@ public class Java2DRenderer implements SymbolRenderer {
         double tracking = extraSpacePerGap / (baseFont.getSize2D() * scaleX);
         return baseFont.deriveFont(Collections.singletonMap(TextAttribute.TRACKING, tracking));
     }
+
+    /**
+     * Pre-rendered MaxiCode hexagon images, for a specific magnification and ink color. The corners of each hexagon
+     * are truncated to whole pixels, so depending on where a module falls on the pixel grid, each corner is either
+     * the truncated offset of that corner or one pixel further from the truncated centre of the module. There is an
+     * image for each combination of corners found in a symbol without margins.
+     */
+    private static final class MaxiCodeSprites {
+
+        final double magnification;
+        final Color ink;
+        final Object antialiasing;
+        final Hexagon shape = new Hexagon(0, 0);
+        final int[] offsetX = new int[6];
+        final int[] offsetY = new int[6];
+        final int hexagonCentreX;
+        final int hexagonCentreY;
+        final BufferedImage[] hexagons = new BufferedImage[1 << 12];
+
+        MaxiCodeSprites(double magnification, Color ink, Object antialiasing) {
+
+            this.magnification = magnification;
+            this.ink = ink;
+            this.antialiasing = antialiasing;
+
+            // a hexagon centred on (0, 0) gives the offsets of the corners from the centre of each module
+            int minX = 0;
+            int minY = 0;
+            for (int i = 0; i < 6; i++) {
+                offsetX[i] = (int) Math.floor(shape.pointX[i] * magnification);
+                offsetY[i] = (int) Math.floor(shape.pointY[i] * magnification);
+                minX = Math.min(minX, offsetX[i]);
+                minY = Math.min(minY, offsetY[i]);
+            }
+            hexagonCentreX = -minX;
+            hexagonCentreY = -minY;
+
+            for (int row = 0; row < MaxiCode.GRID_ROWS; row++) {
+                double centreY = MaxiCode.getModuleCentreY(row);
+                for (int col = 0; col < MaxiCode.GRID_COLUMNS; col++) {
+                    double centreX = MaxiCode.getModuleCentreX(row, col);
+                    int x = (int) (centreX * magnification);
+                    int y = (int) (centreY * magnification);
+                    int key = getKey(centreX, centreY, x, y, 0, 0);
+                    if (key >= 0 && hexagons[key] == null) {
+                        hexagons[key] = draw(key);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the image of the hexagon for the module with the specified centre, to be drawn with the truncated
+         * centre (x, y) on the pixel grid at ({@link #hexagonCentreX}, {@link #hexagonCentreY}) in the image, or
+         * <code>null</code> if there is no image for it.
+         */
+        BufferedImage get(double centreX, double centreY, int x, int y, int marginX, int marginY) {
+            int key = getKey(centreX, centreY, x, y, marginX, marginY);
+            return (key >= 0 ? hexagons[key] : null);
+        }
+
+        /**
+         * Returns a bit for each corner coordinate of the hexagon for the module with the specified centre, which is
+         * set if the corner is one pixel further from the truncated centre (x, y) on the pixel grid than its offset,
+         * or <code>-1</code> if a corner is anywhere else.
+         */
+        private int getKey(double centreX, double centreY, int x, int y, int marginX, int marginY) {
+            int key = 0;
+            for (int i = 0; i < 6; i++) {
+                int dx = (int) (((centreX + shape.pointX[i]) * magnification) + marginX) - x - offsetX[i];
+                int dy = (int) (((centreY + shape.pointY[i]) * magnification) + marginY) - y - offsetY[i];
+                if ((dx & ~1) != 0 || (dy & ~1) != 0) {
+                    return -1;
+                }
+                key |= (dx << (2 * i)) | (dy << ((2 * i) + 1));
+            }
+            return key;
+        }
+
+        private BufferedImage draw(int key) {
+            Polygon polygon = new Polygon();
+            int width = 0;
+            int height = 0;
+            for (int i = 0; i < 6; i++) {
+                int x = hexagonCentreX + offsetX[i] + ((key >> (2 * i)) & 1);
+                int y = hexagonCentreY + offsetY[i] + ((key >> ((2 * i) + 1)) & 1);
+                polygon.addPoint(x, y);
+                width = Math.max(width, x + 1);
+                height = Math.max(height, y + 1);
+            }
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = image.createGraphics();
+            if (antialiasing != null) {
+                g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialiasing);
+            }
+            g.setColor(ink);
+            g.fill(polygon);
+            g.dispose();
+            return image;
+        }
+
+        boolean matches(double magnification, Color ink, Object antialiasing) {
+            return this.magnification == magnification && this.ink.equals(ink) && this.antialiasing == antialiasing;
+        }
+    }
 }
@@ -0,0 +1,237 @@
+package ru.chipmunkbarcode.util;
+
+/**
+ * A growable sequence of bits, packed into <code>long</code> words. Used by encoders to build up their binary
+ * data streams one field at a time, and to read the resultant codewords back out. Bits are numbered from
+ * the start of the stream, and multi-bit values are written and read most significant bit first.
+ */
+public final class BitStream {
+
+    private long[] words;
+    private int length;
+
+    /**
+     * Creates a new, empty bit stream.
+     */
+    public BitStream() {
+        this(256);
+    }
+
+    /**
+     * Creates a new, empty bit stream with room for the specified number of bits before it needs to grow.
+     *
+     * @param capacity the initial capacity, in bits
+     */
+    public BitStream(int capacity) {
+        words = new long[Math.max(1, (capacity + 63) >>> 6)];
+    }
+
+    /**
+     * Returns the number of bits in this stream.
+     *
+     * @return the number of bits in this stream
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Truncates this stream to the specified length, or pads it with <code>0</code> bits up to the specified length.
+     *
+     * @param newLength the new length, in bits
+     */
+    public void setLength(int newLength) {
+        if (newLength > length) {
+            ensureCapacity(newLength);
+        } else if (newLength < length) {
+            // bits past the end of the stream are always kept clear
+            int w = newLength >>> 6;
+            if ((newLength & 63) != 0) {
+                words[w] &= -1L << (64 - (newLength & 63));
+                w++;
+            }
+            for (int end = (length + 63) >>> 6; w < end; w++) {
+                words[w] = 0;
+            }
+        }
+        length = newLength;
+    }
+
+    /**
+     * Appends the specified number of low-order bits of the specified value, most significant bit first.
+     *
+     * @param value the value to append
+     * @param bits the number of bits to append (0 to 32)
+     * @return this bit stream
+     */
+    public BitStream append(int value, int bits) {
+        ensureCapacity(length + bits);
+        writeBits(length, value & (0xffffffffL >>> (32 - bits)), bits);
+        length += bits;
+        return this;
+    }
+
+    /**
+     * Appends a single bit.
+     *
+     * @param bit the bit to append
+     * @return this bit stream
+     */
+    public BitStream append(boolean bit) {
+        return append(bit ? 1 : 0, 1);
+    }
+
+    /**
+     * Appends all of the bits in the specified bit stream.
+     *
+     * @param other the bit stream to append
+     * @return this bit stream
+     */
+    public BitStream append(BitStream other) {
+        int otherLength = other.length;
+        ensureCapacity(length + otherLength);
+        for (int i = 0; i < otherLength; i += 64) {
+            int bits = Math.min(64, otherLength - i);
+            writeBits(length + i, other.words[i >>> 6] >>> (64 - bits), bits);
+        }
+        length += otherLength;
+        return this;
+    }
+
+    /**
+     * Inserts the specified number of low-order bits of the specified value at the specified position,
+     * most significant bit first, moving any subsequent bits along.
+     *
+     * @param index the position at which to insert the bits
+     * @param value the value to insert
+     * @param bits the number of bits to insert (0 to 32)
+     * @return this bit stream
+     */
+    public BitStream insert(int index, int value, int bits) {
+        ensureCapacity(length + bits);
+        if (index < 0 || index > length) {
+            throw new IndexOutOfBoundsException("Bit index " + index + " out of bounds for length " + length);
+        }
+        // move the following bits along a word at a time, starting from the end so that
+        // no bit is overwritten before it has been moved
+        for (int end = length; end > index; ) {
+            int count = Math.min(64, end - index);
+            end -= count;
+            writeBits(end + bits, readBits(end, count), count);
+        }
+        writeBits(index, value & (0xffffffffL >>> (32 - bits)), bits);
+        length += bits;
+        return this;
+    }
+
+    /**
+     * Returns the bit at the specified position.
+     *
+     * @param index the position of the bit
+     * @return <code>true</code> if the bit is set
+     */
+    public boolean get(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Bit index " + index + " out of bounds for length " + length);
+        }
+        return (words[index >>> 6] & (1L << (63 - (index & 63)))) != 0;
+    }
+
+    /**
+     * Returns the value of the specified number of bits starting at the specified position, reading the
+     * first bit as the most significant bit. Bits beyond the end of the stream are read as <code>0</code>.
+     *
+     * @param index the position of the first bit
+     * @param bits the number of bits to read (0 to 32)
+     * @return the value of the bits
+     */
+    public int get(int index, int bits) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Bit index " + index + " out of bounds for length " + length);
+        }
+        return (int) readBits(index, bits);
+    }
+
+    /**
+     * Sets the bit at the specified position, which must be within the stream.
+     *
+     * @param index the position of the bit
+     * @param bit the new value of the bit
+     */
+    public void set(int index, boolean bit) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Bit index " + index + " out of bounds for length " + length);
+        }
+        setBit(index, bit);
+    }
+
+    private void setBit(int index, boolean bit) {
+        long mask = 1L << (63 - (index & 63));
+        if (bit) {
+            words[index >>> 6] |= mask;
+        } else {
+            words[index >>> 6] &= ~mask;
+        }
+    }
+
+    /**
+     * Returns the value of the specified number of bits (0 to 64) starting at the specified position, reading
+     * bits beyond the end of the words as <code>0</code>.
+     */
+    private long readBits(int index, int bits) {
+        if (bits == 0) {
+            return 0;
+        }
+        int w = index >>> 6;
+        int shift = index & 63;
+        long window = w < words.length ? words[w] << shift : 0;
+        if (shift != 0 && w + 1 < words.length) {
+            window |= words[w + 1] >>> (64 - shift);
+        }
+        return window >>> (64 - bits);
+    }
+
+    /**
+     * Overwrites the specified number of bits (0 to 64) starting at the specified position with the low-order
+     * bits of the specified value, which must not have any higher bits set. The words must already have room
+     * for the bits.
+     */
+    private void writeBits(int index, long value, int bits) {
+        if (bits == 0) {
+            return;
+        }
+        int w = index >>> 6;
+        int end = (index & 63) + bits;
+        if (end <= 64) {
+            long mask = (-1L >>> (64 - bits)) << (64 - end);
+            words[w] = (words[w] & ~mask) | (value << (64 - end));
+        } else {
+            int low = end - 64;
+            words[w] = (words[w] & (-1L << (64 - (index & 63)))) | (value >>> low);
+            words[w + 1] = (words[w + 1] & (-1L >>> low)) | (value << (64 - low));
+        }
+    }
+
+    private void ensureCapacity(int bits) {
+        int needed = (bits + 63) >>> 6;
+        if (needed > words.length) {
+            long[] grown = new long[Math.max(needed, words.length * 2)];
+            System.arraycopy(words, 0, grown, 0, words.length);
+            words = grown;
+        }
+    }
+
+    /**
+     * Returns this bit stream as a string of <code>'0'</code> and <code>'1'</code> characters.
+     *
+     * @return this bit stream as a string of <code>'0'</code> and <code>'1'</code> characters
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(get(i) ? '1' : '0');
+        }
+        return sb.toString();
+    }
+}
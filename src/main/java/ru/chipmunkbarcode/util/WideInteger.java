@@ -0,0 +1,100 @@
+package ru.chipmunkbarcode.util;
+
+/**
+ * A mutable, fixed-width, unsigned integer, stored as 32-bit words. Used by encoders which need to convert
+ * numbers a little too large for a <code>long</code> from one base to another, without the allocation of
+ * a new immutable number for every step of the conversion.
+ */
+public final class WideInteger {
+
+    private static final long WORD_MASK = 0xFFFFFFFFL;
+
+    /** The words of this integer, least significant word first. */
+    private final int[] words;
+
+    /**
+     * Creates a new integer with the specified value and room for the specified number of bits.
+     *
+     * @param bits the width of the integer, in bits (at least 64)
+     * @param value the initial value, which must not be negative
+     */
+    public WideInteger(int bits, long value) {
+        if (bits < 64 || value < 0) {
+            throw new IllegalArgumentException("Invalid width or value: " + bits + ", " + value);
+        }
+        words = new int[(bits + 31) >>> 5];
+        words[0] = (int) value;
+        words[1] = (int) (value >>> 32);
+    }
+
+    /**
+     * Multiplies this integer by the specified multiplier, and then adds the specified addend.
+     *
+     * @param multiplier the multiplier, which must not be negative
+     * @param addend the addend, which must not be negative
+     * @return this integer
+     * @throws ArithmeticException if the result is too large for the width of this integer
+     */
+    public WideInteger multiplyAdd(int multiplier, int addend) {
+        long carry = addend;
+        for (int i = 0; i < words.length; i++) {
+            long product = ((words[i] & WORD_MASK) * multiplier) + carry;
+            words[i] = (int) product;
+            carry = product >>> 32;
+        }
+        if (carry != 0) {
+            throw new ArithmeticException("Integer overflow");
+        }
+        return this;
+    }
+
+    /**
+     * Divides this integer by the specified divisor, discarding any remainder from this integer and
+     * returning it instead.
+     *
+     * @param divisor the divisor, which must be positive
+     * @return the remainder
+     */
+    public int divide(int divisor) {
+        long remainder = 0;
+        for (int i = words.length - 1; i >= 0; i--) {
+            long dividend = (remainder << 32) | (words[i] & WORD_MASK);
+            words[i] = (int) (dividend / divisor);
+            remainder = dividend % divisor;
+        }
+        return (int) remainder;
+    }
+
+    /**
+     * Returns the value of the specified number of bits, starting at the specified bit position.
+     * Bit <code>0</code> is the least significant bit, and bits beyond the width of this integer are read as
+     * <code>0</code>.
+     *
+     * @param index the position of the least significant bit to read
+     * @param bits the number of bits to read (0 to 31)
+     * @return the value of the bits
+     */
+    public int get(int index, int bits) {
+        int word = index >>> 5;
+        int shift = index & 31;
+        long value = (word < words.length ? words[word] & WORD_MASK : 0) >>> shift;
+        if (shift + bits > 32 && word + 1 < words.length) {
+            value |= (words[word + 1] & WORD_MASK) << (32 - shift);
+        }
+        return (int) (value & ((1L << bits) - 1));
+    }
+
+    /**
+     * Returns whether or not this integer is zero.
+     *
+     * @return <code>true</code> if this integer is zero
+     */
+    public boolean isZero() {
+        for (int word : words) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,193 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decodes the data codewords of an Aztec Code symbol back into bytes, for use in tests. The data codewords
+ * and their length are read from the encode information, and the stuffed bits are removed before decoding.
+ * FNC1 is decoded as GS (0x1D), and ECI flags are skipped.
+ */
+final class AztecDecoder {
+
+    private static final Pattern CODEWORDS = Pattern.compile("Codewords: ([0-9 ]*)");
+    private static final Pattern CODEWORD_LENGTH = Pattern.compile("Codeword Length: ([0-9]+) bits");
+
+    private static final int UPPER = 0;
+    private static final int LOWER = 1;
+    private static final int MIXED = 2;
+    private static final int PUNCT = 3;
+    private static final int DIGIT = 4;
+
+    private static final String[] UPPER_CHARACTERS = table(" ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+    private static final String[] LOWER_CHARACTERS = table(" abcdefghijklmnopqrstuvwxyz");
+    private static final String[] MIXED_CHARACTERS = table(" \u0001\u0002\u0003\u0004\u0005\u0006\u0007\b\t\n\u000b\f\r"
+            + "\u001b\u001c\u001d\u001e\u001f@\\^_`|~\u007f");
+    private static final String[] DIGIT_CHARACTERS = table(" 0123456789,.");
+    private static final String[] PUNCT_CHARACTERS = {
+        null, "\r", "\r\n", ". ", ", ", ": ", "!", "\"", "#", "$", "%", "&", "'", "(", ")", "*", "+", ",", "-",
+        ".", "/", ":", ";", "<", "=", ">", "?", "[", "]", "{", "}"
+    };
+
+    private final boolean[] bits;
+    private final int length;
+    private final StringBuilder result = new StringBuilder();
+    private int position;
+    private int end;
+
+    private AztecDecoder(boolean[] bits, int length) {
+        this.bits = bits;
+        this.length = length;
+    }
+
+    /**
+     * Returns the number of data bits in the specified symbol up to the end of the last decoded character, not
+     * counting the stuffed bits or the padding.
+     *
+     * @param symbol the symbol
+     * @return the number of data bits in the symbol
+     */
+    static int getDataBits(AztecCode symbol) {
+        AztecDecoder decoder = unstuff(symbol);
+        decoder.decode();
+        return decoder.end;
+    }
+
+    /**
+     * Decodes the specified symbol, returning each decoded byte as a character from 0 to 255.
+     *
+     * @param symbol the symbol to decode
+     * @return the decoded data
+     */
+    static String decode(AztecCode symbol) {
+        AztecDecoder decoder = unstuff(symbol);
+        decoder.decode();
+        return decoder.result.toString();
+    }
+
+    private static AztecDecoder unstuff(AztecCode symbol) {
+        String info = symbol.getEncodeInfo();
+        Matcher codewords = CODEWORDS.matcher(info);
+        Matcher codewordLength = CODEWORD_LENGTH.matcher(info);
+        if (!codewords.find() || !codewordLength.find()) {
+            throw new IllegalStateException("No codewords in encode information");
+        }
+        int size = Integer.parseInt(codewordLength.group(1));
+        String[] values = codewords.group(1).trim().split(" ");
+        boolean[] bits = new boolean[values.length * size];
+        int length = 0;
+        for (String value : values) {
+            int codeword = Integer.parseInt(value);
+            /* a codeword whose leading bits are all the same ends with a stuffed bit */
+            int leading = codeword >> 1;
+            boolean stuffed = (leading == 0 || leading == (1 << (size - 1)) - 1);
+            for (int i = size - 1; i >= (stuffed ? 1 : 0); i--) {
+                bits[length++] = ((codeword >> i) & 1) != 0;
+            }
+        }
+        return new AztecDecoder(bits, length);
+    }
+
+    private void decode() {
+        int mode = UPPER;
+        while (true) {
+            int current = mode;
+            int shift = -1;
+            int value = read(mode == DIGIT ? 4 : 5);
+            if (value < 0) {
+                return;
+            }
+            while (true) {
+                int decoded = result.length();
+                if (current == PUNCT && value == 0) {
+                    flag();
+                } else if (current == PUNCT && value < 31) {
+                    result.append(PUNCT_CHARACTERS[value]);
+                } else if (current == PUNCT) {
+                    mode = UPPER;
+                } else if (value == 0) {
+                    shift = PUNCT;
+                } else if (current != DIGIT && value == 31) {
+                    if (!binaryShift()) {
+                        return;
+                    }
+                } else if (current == DIGIT && value > 13) {
+                    if (value == 14) {
+                        mode = UPPER;
+                    } else {
+                        shift = UPPER;
+                    }
+                } else if (current == DIGIT) {
+                    result.append(DIGIT_CHARACTERS[value]);
+                } else if (value < 28) {
+                    result.append((current == UPPER ? UPPER_CHARACTERS : current == LOWER ? LOWER_CHARACTERS
+                            : MIXED_CHARACTERS)[value]);
+                } else {
+                    int[] latches = (current == UPPER ? new int[] { LOWER, MIXED, DIGIT }
+                            : current == LOWER ? new int[] { -1, MIXED, DIGIT } : new int[] { LOWER, UPPER, PUNCT });
+                    if (current == LOWER && value == 28) {
+                        shift = UPPER;
+                    } else {
+                        mode = latches[value - 28];
+                    }
+                }
+                if (result.length() > decoded) {
+                    end = position;
+                }
+                if (shift < 0) {
+                    break;
+                }
+                current = shift;
+                shift = -1;
+                value = read(5);
+                if (value < 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void flag() {
+        int n = read(3);
+        if (n == 0) {
+            result.append('\u001d');
+        } else {
+            position += 4 * n; /* ECI designator digits */
+        }
+    }
+
+    private boolean binaryShift() {
+        int count = read(5);
+        if (count == 0) {
+            count = read(11);
+            count = (count < 0 ? count : count + 31);
+        }
+        if (count < 0) {
+            return false; /* padding */
+        }
+        for (int i = 0; i < count; i++) {
+            result.append((char) read(8));
+        }
+        return true;
+    }
+
+    /** Reads the specified number of bits, returning -1 if there are not enough left. */
+    private int read(int count) {
+        if (position + count > length) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            value = (value << 1) | (bits[position++] ? 1 : 0);
+        }
+        return value;
+    }
+
+    private static String[] table(String characters) {
+        String[] table = new String[characters.length() + 1];
+        for (int i = 0; i < characters.length(); i++) {
+            table[i + 1] = characters.substring(i, i + 1);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,140 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link AztecCode#setMinimalEncodation(boolean)}.
+ */
+public class AztecMinimalEncodationTest {
+
+    /** One or two characters from each mode: upper, lower, mixed, punctuation (including pairs) and digit. */
+    private static final String[] MODE_CONTENT = {
+        "A", "a", "\u0001", "@", ";", "\r\n", ". ", "1", ",", " ",
+    };
+
+    /**
+     * Content which the minimal encodation encodes in no more bits than the normal encodation, but where runs of 0s
+     * around the punctuation shifts need more bit stuffing, so the normal encodation is kept.
+     */
+    private static final String[] STUFFING = {
+        "%%$QNkmom",
+        "\"\"\"\n\"#-:",
+        "===fe@@@....<rrtMMLK412",
+    };
+
+    /**
+     * Content, number of data bits and symbol width with the normal and with minimal encodation, for mixed content.
+     */
+    private static final Object[][] SMALLER = {
+        { "abc.,  ", 50, 41, 15, 15 },
+        { "Ba.,  ", 45, 36, 15, 15 },
+        { "abc\u00e9\u0001\u00e9\u00e9", 74, 62, 19, 15 },
+        { "\r\na;\u00e9 !", 68, 59, 19, 15 },
+        { "\u00e9\u0001\u00e9$;a", 76, 58, 19, 15 },
+    };
+
+    @Test
+    public void testDefault() {
+        assertFalse(new AztecCode().getMinimalEncodation());
+    }
+
+    @Test
+    public void testSmallerSymbols() {
+        for (Object[] smaller : SMALLER) {
+            String content = (String) smaller[0];
+            AztecCode standard = new AztecCode();
+            standard.setContent(content);
+            AztecCode minimal = check(content);
+            assertEquals(content, smaller[1], AztecDecoder.getDataBits(standard));
+            assertEquals(content, smaller[2], AztecDecoder.getDataBits(minimal));
+            assertEquals(content, smaller[3], standard.getWidth());
+            assertEquals(content, smaller[4], minimal.getWidth());
+        }
+    }
+
+    @Test
+    public void testStuffing() {
+        for (String content : STUFFING) {
+            AztecCode standard = new AztecCode();
+            standard.setContent(content);
+            assertEquals(content, AztecDecoder.getDataBits(standard), AztecDecoder.getDataBits(check(content)));
+        }
+    }
+
+    @Test
+    public void testModeSwitches() {
+        /* runs of one mode inside another, either side of the run length which makes a latch cheaper than shifts */
+        for (String outer : MODE_CONTENT) {
+            for (String inner : MODE_CONTENT) {
+                for (int length = 1; length <= 4; length++) {
+                    check(outer + repeat(inner, length) + outer);
+                    check(repeat(outer, 3) + repeat(inner, length));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBinaryShiftLengths() {
+        /* up to 31 bytes take a 5-bit length, and longer runs an 11-bit length or a second binary shift */
+        for (int length = 1; length <= 70; length++) {
+            check(bytes(length));
+            check("a" + bytes(length) + "b");
+            check("\u0001" + bytes(length) + "1");
+        }
+        check(bytes(300));
+        check("ABC" + bytes(1000) + "DEF");
+    }
+
+    @Test
+    public void testEci() {
+        check("\u65e5\u672c\u8a9e");
+        check("Aztec \u65e5\u672c\u8a9e 123");
+    }
+
+    private static AztecCode check(String content) {
+        AztecCode standard = new AztecCode();
+        standard.setContent(content);
+        String expected = expected(standard, content);
+        assertEquals(content, expected, AztecDecoder.decode(standard));
+
+        AztecCode minimal = new AztecCode();
+        minimal.setMinimalEncodation(true);
+        minimal.setContent(content);
+        assertEquals(content, expected, AztecDecoder.decode(minimal));
+
+        int standardBits = AztecDecoder.getDataBits(standard);
+        int minimalBits = AztecDecoder.getDataBits(minimal);
+        assertTrue(content + ": " + minimalBits + " > " + standardBits, minimalBits <= standardBits);
+        assertTrue(content, minimal.getWidth() <= standard.getWidth());
+        return minimal;
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static String bytes(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) (128 + ((i * 37) % 128)));
+        }
+        return sb.toString();
+    }
+
+    /** Returns the bytes which the symbol should encode, one character per byte. */
+    private static String expected(Symbol symbol, String content) {
+        byte[] bytes = content.getBytes(Symbol.chooseEciMode(content).charset);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
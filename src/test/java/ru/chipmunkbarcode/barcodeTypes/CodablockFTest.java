@@ -0,0 +1,138 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+import org.junit.Test;
+import ru.chipmunkbarcode.exceptions.BarcodeException;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link CodablockF}.
+ */
+public class CodablockFTest {
+
+    private static final Pattern GRID_SIZE = Pattern.compile("Grid Size: ([0-9]+) X ([0-9]+)");
+
+    /** Characters which take two symbol characters, or one for two digits, and so may not fit at the end of a row. */
+    private static final String[] ROW_END_CONTENT = {
+        "12", "1", "1234", "\u0001", "\u001d", "a\u0002", "\u00e9", "\u0081", "\u00e9\u00ea",
+    };
+
+    /**
+     * Content and grid size (columns and rows). Each of these grew when the symbol was first sized from the exact
+     * cost, because the data overflowed into an extra row, or lost columns to filler at the row breaks.
+     */
+    private static final Object[][] SIZES = {
+        { "w^?2D9=0hR35,16y4'Q_158855V178e4F[696x6ZUh4h4%6T814Pu`Xc)259x603^258134718<5645j28-N130e45R347)6~bo35@7`"
+                + "6053hXi/Ucs29g764054u2Y37347@", 15, 9 },
+        { "XS8#7542o41T982L5J78v_6{9Z0x2525878M4Rn52E9", 9, 5 },
+        { "9\u00b185771Y3>2\u00d5\u00b4467\u00c5B9933\u000cx\u00f5\u00ce\u008etB", 11, 4 },
+        { "D1S91!19[A([89jY^\"6&77C781257AL", 8, 4 },
+        { "96\u001263\u00d470N863c1u\u00ed\u00ce544\u00cb", 10, 3 },
+        { "9\u00e69\u00ce99/\u00d92(|\u00abG8", 7, 3 },
+        { "59\u00942\u0090\u009c3", 7, 2 },
+        { "\u00f3\u00114391T38", 7, 2 },
+        { "Jk8\u001d8\u001e\u0014\u000f\u009c\u00ba9\u0090\r\u00c0\u00ad6\u0006N4\u00a040336\u009b|8018\u00ec3\u000cT5F!"
+                + "\u00a31'\u00b692\u00047174\u00b505\u00150!02|\u0016@\u008583319f0\u0012X3A18\u00c58-\u00100", 14, 7 },
+    };
+
+    /**
+     * Content and grid size (columns and rows) which are a row taller, and up to 2% larger, than before the symbol
+     * was sized from the exact cost. The symbol is one row flatter than the intended shape, but the old underestimate
+     * of the cost made these two rows flatter.
+     */
+    private static final Object[][] TALLER_SIZES = {
+        { "6811{>+#80HD0e98y7^x9'2q83*+9-56813k28348CPF5_88v2i8B|r263x79%F2Z46xS18`r387r224VM8o,}408865Rb8290B9t9u_"
+                + "Z5KO fY'mm0p86317!|031.98131&7003<24335412^6X\"48~*b0x5wD6@133203$4+MNs<]46H82Jc$8xG8;w34~}FQ|6", 18, 11 },
+        { "591/tF*17d7=z096}v68@08u26q93Q\"u&53\"79<TN37152U7xo1uU!x1c9>9?UP850591+4f~3SRg45}5@6]9}'13Q[849g61z20X4"
+                + "2756kKL0!87J110t4J0B5G<31!7OLaK9G+9>6I61QU2451Q<7&6IIsT3i", 16, 10 },
+        { "(C28.7S?~1 Ir2119NYAjB46k6,g5Rs4bcM5[7|0 wACp576Y*036x-$`#2xkfC!4yf9<Y43x|6:<282.p108|703&6J179,x67^4Dn@jG"
+                + "P|2g956^or44y4U<21138*367320=g3.8Wq2*68841&85s48q164)8", 16, 10 },
+        { "s_6,2|864988QL818919935js439]34^|(>201ai6Q2;79k837yY40w08/Py6A3W8338Pg2|_h3D81?04^5pYs06H40|26l2C;^0793F4"
+                + "-=iS5506231;*M^e3S12320967g35n94l3rJtr5a077|7q0Y2rZ%m33s4P&", 16, 10 },
+    };
+
+    @Test
+    public void testSizes() {
+        for (Object[][] sizes : new Object[][][] { SIZES, TALLER_SIZES }) {
+            for (Object[] size : sizes) {
+                String content = (String) size[0];
+                CodablockF symbol = check(content);
+                assertEquals(content, size[1] + " X " + size[2], getGridSize(symbol));
+            }
+        }
+    }
+
+    @Test
+    public void testMinimumSize() {
+        /* there are always at least two rows, and at least four columns */
+        assertEquals("4 X 2", getGridSize(check("A")));
+        assertEquals("4 X 2", getGridSize(check("12")));
+    }
+
+    @Test
+    public void testRowEnds() {
+        /* move each character which does not always fit in one column across every position in the rows */
+        String letters = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmn";
+        for (String insert : ROW_END_CONTENT) {
+            for (int length = 1; length <= letters.length(); length++) {
+                for (int position = 0; position <= length; position++) {
+                    check(letters.substring(0, position) + insert + letters.substring(position, length));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRowSubsets() {
+        /* rows which start with pairs of digits start in subset C, without a code set character */
+        String content = "Codablock" + "0123456789012345678901234567890123456789012345678901234567890123456789";
+        String info = check(content).getEncodeInfo();
+        assertTrue(info, info.contains("MODEB"));
+        assertTrue(info, info.contains("MODEC"));
+    }
+
+    @Test
+    public void testLargestSymbol() {
+        /* 44 rows of 62 columns, less the two check characters */
+        assertEquals("62 X 44", getGridSize(check(letters(2726))));
+    }
+
+    @Test(expected = BarcodeException.class)
+    public void testTooManyRows() {
+        new CodablockF().setContent(letters(2727));
+    }
+
+    @Test(expected = BarcodeException.class)
+    public void testTooLong() {
+        StringBuilder content = new StringBuilder();
+        while (content.length() < 5451) {
+            content.append('0');
+        }
+        new CodablockF().setContent(content.toString());
+    }
+
+    private static CodablockF check(String content) {
+        CodablockF symbol = new CodablockF();
+        symbol.setContent(content);
+        assertEquals(content, content, Code128Decoder.decode(symbol));
+        return symbol;
+    }
+
+    private static String letters(int length) {
+        StringBuilder content = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            content.append((char) ('A' + (i % 26)));
+        }
+        return content.toString();
+    }
+
+    private static String getGridSize(CodablockF symbol) {
+        Matcher matcher = GRID_SIZE.matcher(symbol.getEncodeInfo());
+        assertTrue(symbol.getEncodeInfo(), matcher.find());
+        return matcher.group(1) + " X " + matcher.group(2);
+    }
+}
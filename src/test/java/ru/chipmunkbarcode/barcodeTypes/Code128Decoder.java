@@ -0,0 +1,184 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decodes the symbol characters of Code 128 and of the stacked symbols based on it (Code 16K and Codablock-F) back
+ * into bytes, for use in tests. The symbol characters of Code 128 are read from the bar pattern, and those of the
+ * stacked symbols from the encode information. FNC1 is decoded as GS (0x1D), and FNC2 and FNC3 are skipped.
+ */
+final class Code128Decoder {
+
+    private static final Pattern CODE16K_CODEWORDS = Pattern.compile("Codewords: ([0-9 ]*)");
+    private static final Pattern CODE16K_ROWS = Pattern.compile("Symbol Rows: ([0-9]+)");
+    private static final Pattern CODABLOCKF_ROW = Pattern.compile("MODE([ABC]) [0-9]+ ([0-9 ]+) \\(");
+
+    private static final int SET_A = 0;
+    private static final int SET_B = 1;
+    private static final int SET_C = 2;
+
+    private final StringBuilder result = new StringBuilder();
+    private int set;
+    private int impliedShifts;
+    private boolean extended;
+
+    private Code128Decoder() {
+        // use the static methods
+    }
+
+    /**
+     * Decodes the specified Code 128 symbol, returning each decoded byte as a character from 0 to 255. The check
+     * character is checked, and any composite linkage flag is ignored.
+     *
+     * @param symbol the symbol to decode
+     * @return the decoded data
+     */
+    static String decode(Code128 symbol) {
+        String pattern = symbol.pattern[symbol.row_count - 1];
+        List<String> table = Arrays.asList(Code128.CODE128_TABLE);
+        int[] values = new int[(pattern.length() - 7) / 6]; /* the stop character has 7 elements */
+        for (int i = 0; i < values.length; i++) {
+            values[i] = table.indexOf(pattern.substring(i * 6, (i + 1) * 6));
+        }
+        int end = values.length - 1;
+        int sum = values[0];
+        for (int i = 1; i < end; i++) {
+            sum += i * values[i];
+        }
+        if (sum % 103 != values[end]) {
+            throw new IllegalStateException("Invalid check character " + values[end]);
+        }
+        if (symbol.row_count > 1) {
+            end--; /* linkage flag */
+        }
+        Code128Decoder decoder = new Code128Decoder();
+        decoder.set = values[0] - 103; /* start A, B or C */
+        decoder.decode(values, 1, end);
+        return decoder.result.toString();
+    }
+
+    /**
+     * Decodes the specified Code 16K symbol, returning each decoded byte as a character from 0 to 255.
+     *
+     * @param symbol the symbol to decode
+     * @return the decoded data
+     */
+    static String decode(Code16k symbol) {
+        String info = symbol.getEncodeInfo();
+        Matcher codewords = CODE16K_CODEWORDS.matcher(info);
+        Matcher rows = CODE16K_ROWS.matcher(info);
+        if (!codewords.find() || !rows.find()) {
+            throw new IllegalStateException("No codewords in encode information");
+        }
+        int[] values = parse(codewords.group(1));
+        int end = values.length - 2; /* check characters */
+        while (values[end - 1] == 106) {
+            end--; /* padding */
+        }
+
+        /* the first character holds the mode (Table 2) as well as the number of rows */
+        int mode = values[0] - (7 * (Integer.parseInt(rows.group(1)) - 2));
+        Code128Decoder decoder = new Code128Decoder();
+        decoder.set = (mode == 0 ? SET_A : mode == 1 || mode == 3 ? SET_B : SET_C);
+        if (mode == 3 || mode == 4) {
+            decoder.result.append('\u001d');
+        }
+        /* reader initialisation (FNC3) takes the place of the first implied shift in modes 5 and 6 */
+        decoder.impliedShifts = (mode == 5 ? 1 : mode == 6 ? 2 : 0);
+        decoder.decode(values, 1, end);
+        return decoder.result.toString();
+    }
+
+    /**
+     * Decodes the specified Codablock-F symbol, returning each decoded byte as a character from 0 to 255.
+     *
+     * @param symbol the symbol to decode
+     * @return the decoded data
+     */
+    static String decode(CodablockF symbol) {
+        Matcher matcher = CODABLOCKF_ROW.matcher(symbol.getEncodeInfo());
+        Code128Decoder decoder = new Code128Decoder();
+        int[] previous = null;
+        int previousSet = 0;
+        while (matcher.find()) {
+            if (previous != null) {
+                decoder.set = previousSet;
+                decoder.decode(previous, 0, previous.length);
+            }
+            previous = parse(matcher.group(2));
+            previousSet = matcher.group(1).charAt(0) - 'A';
+        }
+        if (previous == null) {
+            throw new IllegalStateException("No rows in encode information");
+        }
+        /* the last two characters of the last row are the K1 and K2 check characters */
+        decoder.set = previousSet;
+        decoder.decode(previous, 0, previous.length - 2);
+        return decoder.result.toString();
+    }
+
+    private void decode(int[] values, int start, int end) {
+        int shift = -1; /* the code set of a shifted character, or -1 if there is no shift */
+        boolean fnc4 = false;
+        for (int i = start; i < end; i++) {
+            int value = values[i];
+            if (impliedShifts > 0) {
+                /* the first characters of a Code 16K symbol in modes 5 and 6 are shifted to code set B */
+                shift = SET_B;
+                impliedShifts--;
+            }
+            int current = (shift >= 0 ? shift : set);
+            if (current == SET_C) {
+                if (value < 100) {
+                    result.append((char) ('0' + (value / 10))).append((char) ('0' + (value % 10)));
+                } else if (value == 100) {
+                    set = SET_B;
+                } else if (value == 101) {
+                    set = SET_A;
+                } else if (value == 102) {
+                    result.append('\u001d');
+                } else {
+                    throw new IllegalStateException("Invalid code set C character " + value);
+                }
+            } else if (value == (current == SET_A ? 101 : 100)) {
+                /* FNC4 twice latches extended mode, once shifts it for the next character */
+                if (shift < 0 && i + 1 < end && values[i + 1] == value) {
+                    extended = !extended;
+                    i++;
+                } else {
+                    fnc4 = true;
+                }
+            } else if (value == 98 && shift < 0) {
+                shift = 1 - set;
+            } else if (value >= 99 && value <= 101 && shift < 0) {
+                set = (value == 99 ? SET_C : value == 100 ? SET_B : SET_A);
+            } else if (value == 102) {
+                result.append('\u001d');
+                shift = -1;
+            } else if (value == 96 || value == 97) {
+                shift = -1; /* FNC3 and FNC2 */
+            } else {
+                append(current, value, fnc4);
+                shift = -1;
+                fnc4 = false;
+            }
+        }
+    }
+
+    private void append(int set, int value, boolean fnc4) {
+        int c = (set == SET_A && value >= 64 ? value - 64 : value + 32);
+        result.append((char) (extended != fnc4 ? c + 128 : c));
+    }
+
+    private static int[] parse(String s) {
+        String[] values = s.trim().split(" ");
+        int[] result = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = Integer.parseInt(values[i]);
+        }
+        return result;
+    }
+}
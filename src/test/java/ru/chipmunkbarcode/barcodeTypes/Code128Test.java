@@ -0,0 +1,197 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+import org.junit.Test;
+import ru.chipmunkbarcode.exceptions.BarcodeException;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link Code128}.
+ */
+public class Code128Test {
+
+    private static final Pattern DATA_CODEWORDS = Pattern.compile("Data Codewords: ([0-9]+)");
+
+    /**
+     * Content and number of symbol characters before the check character. Each of these needed more characters
+     * before the code sets were chosen with a minimal-cost search, mostly by latching extended mode with double
+     * FNC4 characters instead of shifting each extended character.
+     */
+    private static final Object[][] SHORTER = {
+        { "\u00e9\u00fc\u00c0\u00fc5\u00fc\u00fc\u00e9\u00fc\u00fc\u00c0%\u00e9\u00fc\u00fc\u00c0\u00e9YRDLX"
+                + "\u00fc\u00e9\u00e9", 34 },
+        { "//!\u00c0\u00e9\u00c0\u00fc\u00fc\u00c0+%JTD\u00e9\u00e9r\u00e9\u00fc\u00fc\u00fc", 29 },
+        { "97994KP\u00fc\u00c0\u00fc\u00c0\u00c0\u00fc\u00e9KLVDLMKW\u00e9\u00fc\u00c0\u00fc", 32 },
+        { "9\u00fc\u00c0\u00e9\u00e9\u00c0kawhgI\u00e9\u00e9\u00c0\u00c0", 23 },
+        { "il\u00e9\u00c0\u00e9\u00fc\u00fc06BWZVTA2334M\u00c0\u00e9\u00c0\u00c0", 31 },
+    };
+
+    @Test
+    public void testShorterSymbols() {
+        for (Object[] shorter : SHORTER) {
+            String content = (String) shorter[0];
+            assertEquals(content, shorter[1], getDataCodewords(check(content, false)));
+        }
+    }
+
+    @Test
+    public void testDigits() {
+        /* pairs of digits in code set C, with an odd digit left to code set A or B at either end */
+        assertEquals("STARTC 12 34 56 ", getEncoding(check("123456", false)));
+        assertEquals(5, getDataCodewords(check("12345", false)));
+        assertEquals(6, getDataCodewords(check("A12345", false)));
+        /* a run of two digits between letters is not worth changing code set for */
+        assertEquals("STARTB 33 17 18 34 ", getEncoding(check("A12B", false)));
+    }
+
+    @Test
+    public void testControlCharacters() {
+        assertEquals("STARTA 65 33 66 ", getEncoding(check("\u0001A\u0002", false)));
+        /* a single control character in lower case text is shifted, a run of them changes code set */
+        assertEquals("STARTB 65 SHFT 65 66 ", getEncoding(check("a\u0001b", false)));
+        assertEquals("STARTB 65 CODEA 65 66 67 ", getEncoding(check("a\u0001\u0002\u0003", false)));
+    }
+
+    @Test
+    public void testExtendedCharacters() {
+        /* a single extended character is shifted with one FNC4, a run of them latches with two */
+        assertEquals("STARTB 33 FNC4 73 34 ", getEncoding(check("A\u00e9B", false)));
+        assertEquals("STARTB FNC4 FNC4 73 73 73 73 ", getEncoding(check("\u00e9\u00e9\u00e9\u00e9", false)));
+        check("\u00e9\u00e9\u00e9\u00e9ABCD\u00e9\u00e9\u00e9\u00e9", false);
+        check("\u00e9\u00e9\u00e9\u00e9A\u00e9\u00e9\u00e9\u00e9", false);
+        /* extended control characters, and extended characters in the middle of digits */
+        check("\u0081\u0082\u0083\u0084", false);
+        check("a\u0081b\u00e9\u0082", false);
+        check("\u00e9\u00e9\u00e9\u00e912345678\u00e9\u00e9\u00e9\u00e9", false);
+    }
+
+    @Test
+    public void testFnc1() {
+        Code128 symbol = new Code128();
+        symbol.setContent("12" + Symbol.FNC1_STRING + "34" + Symbol.FNC1_STRING + "A");
+        assertEquals("STARTC 12 FNC1 34 FNC1 CODEB 33 ", getEncoding(symbol));
+        assertEquals("12\u001d34\u001dA", Code128Decoder.decode(symbol));
+    }
+
+    @Test
+    public void testReaderInit() {
+        /* reader initialisation needs FNC3 in code set A or B, so start C is replaced with start B and a code set C */
+        assertEquals("STARTB FNC3 CODEC 12 34 56 ", getEncoding(check("123456", true)));
+        assertEquals("STARTB FNC3 33 ", getEncoding(check("A", true)));
+        assertEquals("STARTA FNC3 65 66 ", getEncoding(check("\u0001\u0002", true)));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Random random = new Random(48);
+        for (int i = 0; i < 2000; i++) {
+            String content = randomContent(random);
+            Code128 symbol = new Code128();
+            symbol.setReaderInit(i % 4 == 0);
+            try {
+                symbol.setContent(content);
+            } catch (BarcodeException e) {
+                continue; /* too long */
+            }
+            String expected = content.replace(Symbol.FNC1_STRING, "\u001d");
+            assertEquals(content, expected, Code128Decoder.decode(symbol));
+        }
+    }
+
+    @Test
+    public void testMaximumLength() {
+        /* 80 symbol characters between the start character and the check character */
+        assertEquals(81, getDataCodewords(check(digits(160), false)));
+        assertEquals(81, getDataCodewords(check(digits(156), true)));
+        Code128 symbol = new Code128();
+        symbol.setCca();
+        symbol.setContent(digits(158));
+        assertEquals(81, getDataCodewords(symbol));
+    }
+
+    @Test(expected = BarcodeException.class)
+    public void testTooLong() {
+        new Code128().setContent(digits(162));
+    }
+
+    @Test(expected = BarcodeException.class)
+    public void testTooLongWithReaderInit() {
+        /* the reader initialisation characters count towards the maximum length */
+        Code128 symbol = new Code128();
+        symbol.setReaderInit(true);
+        symbol.setContent(digits(158));
+    }
+
+    @Test(expected = BarcodeException.class)
+    public void testTooLongWithLinkageFlag() {
+        /* the composite linkage flag counts towards the maximum length */
+        Code128 symbol = new Code128();
+        symbol.setCca();
+        symbol.setContent(digits(160));
+    }
+
+    private static Code128 check(String content, boolean readerInit) {
+        Code128 symbol = new Code128();
+        symbol.setReaderInit(readerInit);
+        symbol.setContent(content);
+        assertEquals(content, content, Code128Decoder.decode(symbol));
+        return symbol;
+    }
+
+    /** Returns random content made of runs of digits, upper case, lower case, control, extended and FNC1 characters. */
+    private static String randomContent(Random random) {
+        StringBuilder content = new StringBuilder();
+        int runs = 1 + random.nextInt(6);
+        for (int i = 0; i < runs; i++) {
+            int type = random.nextInt(6);
+            int length = 1 + random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                switch (type) {
+                    case 0:
+                        content.append((char) ('0' + random.nextInt(10)));
+                        break;
+                    case 1:
+                        content.append((char) ('A' + random.nextInt(26)));
+                        break;
+                    case 2:
+                        content.append((char) ('a' + random.nextInt(26)));
+                        break;
+                    case 3:
+                        content.append((char) (1 + random.nextInt(31)));
+                        break;
+                    case 4:
+                        content.append((char) (128 + random.nextInt(128)));
+                        break;
+                    default:
+                        content.append(Symbol.FNC1_STRING);
+                        break;
+                }
+            }
+        }
+        return content.toString();
+    }
+
+    private static String digits(int length) {
+        StringBuilder content = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            content.append((char) ('0' + (i % 10)));
+        }
+        return content.toString();
+    }
+
+    private static String getEncoding(Code128 symbol) {
+        String info = symbol.getEncodeInfo();
+        return info.substring("Encoding: ".length(), info.indexOf('\n'));
+    }
+
+    private static int getDataCodewords(Code128 symbol) {
+        Matcher matcher = DATA_CODEWORDS.matcher(symbol.getEncodeInfo());
+        assertTrue(symbol.getEncodeInfo(), matcher.find());
+        return Integer.parseInt(matcher.group(1));
+    }
+}
@@ -0,0 +1,179 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+import org.junit.Test;
+import ru.chipmunkbarcode.exceptions.BarcodeException;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link Code16k}.
+ */
+public class Code16kTest {
+
+    private static final Pattern CODEWORDS = Pattern.compile("Codewords: ([0-9 ]*)");
+
+    /**
+     * Content and number of rows. Each of these needed one more row before the code set selection was shared with
+     * Code 128.
+     */
+    private static final Object[][] SIZES = {
+        { ")V35486W943=3", 3 },
+        { "L7\u0013\u000575\u0008", 2 },
+        { "=a2198972Mle64B0K\"V", 4 },
+        { "ov81061%575w09K8012Lh}505L29", 6 },
+        { "0%26765X6aj4035p69=41w471&Vy", 6 },
+        { "7b50097k'28T073;Q567<&122gc82198 3;33j@Iw937r0 *", 10 },
+        { "TE145635519!T3097l3=wR3g77*79^M73,2s1Go985v8}A296j495\"lO-],0", 12 },
+    };
+
+    /** Content which used to encode the wrong data, because the shifts and FNC4 shifts were never written. */
+    private static final String[] REGRESSIONS = {
+        "3.4086\u009c\u0096\u0095\u00d03",
+        "\u00cb4241\u00c242y</",
+        "8\u00d8\u00ec\u00e74",
+        "aB\u0001cD\u0002eF",
+        "A\u00e9B\u00e8C",
+    };
+
+    @Test
+    public void testSizes() {
+        for (Object[] size : SIZES) {
+            String content = (String) size[0];
+            Code16k symbol = check(content, false);
+            assertEquals(content, size[1], symbol.row_count);
+        }
+    }
+
+    @Test
+    public void testRegressions() {
+        for (String content : REGRESSIONS) {
+            check(content, false);
+            check(content, true);
+        }
+    }
+
+    @Test
+    public void testStartModes() {
+        /* the mode character chooses the code set, or code set C after one or two characters shifted to code set B */
+        assertEquals("0 65", getCodewords(check("\u0001", false)));
+        assertEquals("1 33", getCodewords(check("A", false)));
+        assertEquals("1 17", getCodewords(check("1", false)));
+        assertEquals("2 12 34", getCodewords(check("1234", false)));
+        assertEquals("5 17 23", getCodewords(check("123", false)));
+        assertEquals("5 33 12 34", getCodewords(check("A1234", false)));
+        assertEquals("6 33 34 12 34", getCodewords(check("AB1234", false)));
+        /* three characters before the digits need a code set character instead */
+        assertEquals("1 33 34 35 99 12 34", getCodewords(check("ABC1234", false)));
+    }
+
+    @Test
+    public void testReaderInit() {
+        /* FNC3 follows the mode character, and takes the place of the first implied shift in modes 5 and 6 */
+        assertEquals("1 96 33", getCodewords(check("A", true)));
+        assertEquals("0 96 65", getCodewords(check("\u0001", true)));
+        assertEquals("5 96 12", getCodewords(check("12", true)));
+        assertEquals("6 96 33 12 34", getCodewords(check("A1234", true)));
+        assertEquals("1 96 33 34 99 12 34", getCodewords(check("AB1234", true)));
+    }
+
+    @Test
+    public void testExtendedCharacters() {
+        /* a single extended character is shifted with one FNC4, a run of them latches with two */
+        assertEquals("1 33 100 73 34 100 73 35", getCodewords(check("A\u00e9B\u00e9C", false)));
+        assertEquals("1 100 100 73 73 73 73", getCodewords(check("\u00e9\u00e9\u00e9\u00e9", false)));
+        assertEquals("0 101 101 65 66 67", getCodewords(check("\u0081\u0082\u0083", false)));
+        check("\u00e9\u00e9\u00e9\u00e9A\u00e9\u00e9\u00e9\u00e9", false);
+        check("\u00e9\u00e9\u00e9\u00e912345678\u00e9\u00e9\u00e9\u00e9", false);
+        check("\u00e912", false);
+        check("\u00e912", true);
+    }
+
+    @Test
+    public void testFnc1() {
+        Code16k symbol = new Code16k();
+        symbol.setContent("12" + Symbol.FNC1_STRING + "34");
+        assertEquals("2 12 102 34", getCodewords(symbol));
+        assertEquals("12\u001d34", Code128Decoder.decode(symbol));
+    }
+
+    @Test
+    public void testGs1() {
+        /* GS1 data starts in a mode with an implied FNC1 */
+        Code16k symbol = new Code16k();
+        symbol.setDataType(Symbol.DataType.GS1);
+        symbol.setContent("10ABC");
+        assertEquals(3, Integer.parseInt(getCodewords(symbol).split(" ")[0]));
+        assertEquals("\u001d" + symbol.getContent(), Code128Decoder.decode(symbol));
+    }
+
+    @Test(expected = BarcodeException.class)
+    public void testGs1WithReaderInit() {
+        Code16k symbol = new Code16k();
+        symbol.setDataType(Symbol.DataType.GS1);
+        symbol.setReaderInit(true);
+        symbol.setContent("10ABC");
+    }
+
+    @Test
+    public void testRows() {
+        /* each row holds five symbol characters, less the mode character and the two check characters */
+        for (int length = 1; length <= 77; length++) {
+            assertEquals(Math.max(2, (length + 7) / 5), check(letters(length), false).row_count);
+        }
+        assertEquals(16, check(digits(154), false).row_count);
+        assertEquals(16, check(letters(76), true).row_count);
+    }
+
+    @Test(expected = BarcodeException.class)
+    public void testTooManyLetters() {
+        new Code16k().setContent(letters(78));
+    }
+
+    @Test(expected = BarcodeException.class)
+    public void testTooManyDigits() {
+        /* the odd digit takes the implied shift of mode 5 */
+        new Code16k().setContent(digits(155));
+    }
+
+    @Test(expected = BarcodeException.class)
+    public void testTooLongWithReaderInit() {
+        Code16k symbol = new Code16k();
+        symbol.setReaderInit(true);
+        symbol.setContent(letters(77));
+    }
+
+    private static Code16k check(String content, boolean readerInit) {
+        Code16k symbol = new Code16k();
+        symbol.setReaderInit(readerInit);
+        symbol.setContent(content);
+        assertEquals(content, content, Code128Decoder.decode(symbol));
+        return symbol;
+    }
+
+    private static String digits(int length) {
+        StringBuilder content = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            content.append((char) ('0' + (i % 10)));
+        }
+        return content.toString();
+    }
+
+    private static String letters(int length) {
+        StringBuilder content = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            content.append((char) ('A' + (i % 26)));
+        }
+        return content.toString();
+    }
+
+    /** Returns the symbol characters before the padding and check characters. */
+    private static String getCodewords(Code16k symbol) {
+        Matcher matcher = CODEWORDS.matcher(symbol.getEncodeInfo());
+        assertTrue(symbol.getEncodeInfo(), matcher.find());
+        return matcher.group(1).trim().replaceAll("( 106)* [0-9]+ [0-9]+$", "");
+    }
+}
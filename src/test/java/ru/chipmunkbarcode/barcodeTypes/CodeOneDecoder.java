@@ -0,0 +1,200 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decodes the data codewords of a Code One symbol (versions A to H) back into bytes, for use in tests. The data
+ * codewords are read from the encode information. FNC1 is decoded as GS (0x1D).
+ */
+final class CodeOneDecoder {
+
+    private static final Pattern CODEWORDS = Pattern.compile("Codewords: ([0-9 ]*)");
+
+    private static final int ASCII = 0;
+    private static final int C40 = 1;
+    private static final int TEXT = 2;
+    private static final int EDI = 3;
+    private static final int DECIMAL = 4;
+
+    private static final String SHIFT_2 = "!\"#$%&'()*+,-./:;<=>?@[\\]^_";
+    private static final String C40_BASIC = " 0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    private static final String C40_SHIFT_3 = "`abcdefghijklmnopqrstuvwxyz{|}~\u007f";
+    private static final String TEXT_BASIC = " 0123456789abcdefghijklmnopqrstuvwxyz";
+    private static final String TEXT_SHIFT_3 = "`ABCDEFGHIJKLMNOPQRSTUVWXYZ{|}~\u007f";
+    private static final String EDI_VALUES = "\r*> 0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    private final int[] codewords;
+    private final StringBuilder result = new StringBuilder();
+    private int position;
+    private int decimalBit;
+    private boolean upperShift;
+
+    private CodeOneDecoder(int[] codewords) {
+        this.codewords = codewords;
+    }
+
+    /**
+     * Decodes the specified symbol, returning each decoded byte as a character from 0 to 255.
+     *
+     * @param symbol the symbol to decode
+     * @return the decoded data
+     */
+    static String decode(CodeOne symbol) {
+        Matcher matcher = CODEWORDS.matcher(symbol.getEncodeInfo());
+        if (!matcher.find()) {
+            throw new IllegalStateException("No codewords in encode information");
+        }
+        String[] values = matcher.group(1).trim().split(" ");
+        int[] codewords = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            codewords[i] = Integer.parseInt(values[i]);
+        }
+        CodeOneDecoder decoder = new CodeOneDecoder(codewords);
+        decoder.decode();
+        return decoder.result.toString();
+    }
+
+    private void decode() {
+        int mode = ASCII;
+        while (position < codewords.length) {
+            switch (mode) {
+                case ASCII:
+                    mode = decodeAscii();
+                    break;
+                case DECIMAL:
+                    mode = decodeDecimal();
+                    break;
+                default:
+                    mode = decodeTriplets(mode);
+                    break;
+            }
+        }
+    }
+
+    private int decodeAscii() {
+        int codeword = codewords[position++];
+        if (codeword == 0 || codeword == 129) {
+            position = codewords.length; /* pad */
+        } else if (codeword <= 128) {
+            append(codeword - 1);
+        } else if (codeword <= 229) {
+            int digits = codeword - 130;
+            append('0' + (digits / 10));
+            append('0' + (digits % 10));
+        } else if (codeword == 230) {
+            return C40;
+        } else if (codeword == 231) {
+            int count = codewords[position++];
+            if (count > 249) {
+                count = ((count - 249) * 250) + codewords[position++];
+            }
+            for (int i = 0; i < count; i++) {
+                append(codewords[position++]);
+            }
+        } else if (codeword == 232) {
+            append(0x1d);
+        } else if (codeword == 235) {
+            upperShift = true;
+        } else if (codeword == 236) {
+            append(0x1d);
+            decimalBit = position * 8;
+            return DECIMAL;
+        } else if (codeword == 238) {
+            return EDI;
+        } else if (codeword == 239) {
+            return TEXT;
+        } else if (codeword >= 240) {
+            decimalBit = (position * 8) - 4; /* the low four bits are the first bits of decimal data */
+            return DECIMAL;
+        } else {
+            throw new IllegalStateException("Invalid ASCII codeword " + codeword + " at " + (position - 1));
+        }
+        return ASCII;
+    }
+
+    private int decodeDecimal() {
+        int bit = decimalBit;
+        while (true) {
+            if (readBits(bit, 6) == 63) {
+                /* unlatch, followed by up to two data bits plus an optional final digit up to the byte boundary */
+                bit += 6;
+                int left = (8 - (bit % 8)) % 8;
+                if (left >= 4) {
+                    int digit = readBits(bit, 4);
+                    if (digit != 15) {
+                        append('0' + digit - 1);
+                    }
+                }
+                position = (bit + 7) / 8;
+                return ASCII;
+            }
+            int value = readBits(bit, 10) - 1;
+            if (value < 0 || value > 999) {
+                throw new IllegalStateException("Invalid decimal value " + value);
+            }
+            append('0' + (value / 100));
+            append('0' + ((value / 10) % 10));
+            append('0' + (value % 10));
+            bit += 10;
+        }
+    }
+
+    private int decodeTriplets(int mode) {
+        int shift = 0;
+        while (position < codewords.length) {
+            if (codewords[position] == 255) {
+                position++;
+                return ASCII;
+            }
+            if (position + 1 >= codewords.length) {
+                /* a single codeword at the end of the data is encoded in ASCII, without an unlatch */
+                return ASCII;
+            }
+            int value = (codewords[position] * 256) + codewords[position + 1] - 1;
+            position += 2;
+            for (int c : new int[] { value / 1600, (value / 40) % 40, value % 40 }) {
+                if (mode == EDI) {
+                    append(EDI_VALUES.charAt(c));
+                } else if (shift == 1) {
+                    append(c);
+                    shift = 0;
+                } else if (shift == 2) {
+                    if (c == 27) {
+                        append(0x1d);
+                    } else if (c == 30) {
+                        upperShift = true;
+                    } else if (c < SHIFT_2.length()) {
+                        append(SHIFT_2.charAt(c));
+                    } /* anything else pads out the last triplet */
+                    shift = 0;
+                } else if (shift == 3) {
+                    append((mode == C40 ? C40_SHIFT_3 : TEXT_SHIFT_3).charAt(c));
+                    shift = 0;
+                } else if (c < 3) {
+                    shift = c + 1;
+                } else {
+                    append((mode == C40 ? C40_BASIC : TEXT_BASIC).charAt(c - 3));
+                }
+            }
+        }
+        return mode;
+    }
+
+    private int readBits(int bit, int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++, bit++) {
+            int codeword = (bit / 8 < codewords.length ? codewords[bit / 8] : 0);
+            value = (value << 1) | ((codeword >> (7 - (bit % 8))) & 1);
+        }
+        return value;
+    }
+
+    private void append(int c) {
+        if (upperShift && c != 0x1d) {
+            c += 128;
+            upperShift = false;
+        }
+        result.append((char) c);
+    }
+}
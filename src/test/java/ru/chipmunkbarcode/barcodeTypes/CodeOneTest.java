@@ -0,0 +1,215 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+import org.junit.Test;
+import ru.chipmunkbarcode.exceptions.BarcodeException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trip tests for {@link CodeOne}. In the content, <code>\&lt;FNC1&gt;</code> is decoded as GS (0x1D).
+ */
+public class CodeOneTest {
+
+    private static final Pattern CODEWORDS = Pattern.compile("Codewords: ([0-9 ]*)");
+    private static final Pattern VERSION = Pattern.compile("Version: ([A-H])");
+
+    /** Content which used to throw an exception, or to encode the wrong data. */
+    private static final String[] REGRESSIONS = {
+        /* FNC1 in C40 and Text encodation */
+        "3CAC1CC3\\<FNC1>",
+        "LZ C\\<FNC1>2XK",
+        "bjc\\<FNC1>rnaj",
+        /* upper shift in C40 and Text encodation */
+        "1Ba1v hvcd\u00ff",
+        "gxdrsnvf\u00ff\u00e9",
+        "#{\u007f@\u0001{~`@!!7AaB a.awadwwsijq\u00ff\u00ffkn",
+        "875N8T8L1G\u00e9\u00ff\u00c0A3S1W\u00ff\u00e9\u00ff\u00e9f emijjo ",
+        /* reads past the end of the data in EDI encodation */
+        "S3R2ZALFSW",
+        "C1A A0* B1",
+        "> 32B0C2 \r",
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ",
+        /* decimal encodation */
+        "1234567890123",
+        "4755395251111",
+        "65628699582234",
+        "123456789012345678901234567890",
+        "A\\<FNC1>98273250",
+        /* FNC1 before a run of Byte encodation */
+        "C\\<FNC1>\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9",
+        "\\<FNC1>\u00c0\u00c0\u00c0\u00c0\u00c0\u00c0\u00c0\u00c0\u00c0\u00c0",
+    };
+
+    private static final String[] CONTENT = {
+        "A",
+        "1234567",
+        "12345678",
+        "abcdefghijklmnopqrstuvwxyz",
+        "A*B>C\rD E*F>G\rH",
+        "\\<FNC1>12345678",
+        "\\<FNC1>1234\\<FNC1>5678",
+        "A1234567890123B",
+        "\u00e9\u00e8\u00ea\u00eb",
+    };
+
+    @Test
+    public void testRegressions() {
+        for (String content : REGRESSIONS) {
+            check(content);
+        }
+    }
+
+    @Test
+    public void testFixedContent() {
+        for (String content : CONTENT) {
+            check(content);
+        }
+    }
+
+    @Test
+    public void testAsciiDigitPairs() {
+        /* pairs of digits take one ASCII codeword, and a digit on its own takes one too */
+        assertEquals("50", getCodewords(check("1")));
+        assertEquals("142", getCodewords(check("12")));
+        assertEquals("142 52", getCodewords(check("123")));
+        assertEquals("66 142 67", getCodewords(check("A12B")));
+        assertEquals("66 50 67", getCodewords(check("A1B")));
+        assertEquals("232 142", getCodewords(check("\\<FNC1>12")));
+    }
+
+    @Test
+    public void testDecimal() {
+        /* decimal encodation starts at 13 digits, in groups of three digits with an unlatch at the end */
+        assertEquals("142 164 186 208 220 142", getCodewords(check("123456789012")));
+        assertEquals("241 241 201 197 128 223 209", getCodewords(check("1234567890123")));
+        assertEquals("241 241 201 197 128 223 209 53", getCodewords(check("12345678901234")));
+        assertEquals("241 241 201 197 128 213 107 255", getCodewords(check("123456789012345")));
+        /* digits between letters, either side of the length which is worth a latch to decimal */
+        for (int length = 1; length <= 30; length++) {
+            check("A" + digits(length) + "B");
+            check("\\<FNC1>" + digits(length));
+            check(digits(length) + "\u00e9");
+        }
+    }
+
+    @Test
+    public void testTriplets() {
+        /* C40 and Text encodation pack three characters into two codewords, and pad the last triplet */
+        assertEquals("66 67 68 69 70", getCodewords(check("ABCDE")));
+        assertEquals("230 89 233 109 36", getCodewords(check("ABCDEF")));
+        assertEquals("239 89 233 109 36", getCodewords(check("abcdef")));
+        assertEquals("230 89 233 109 36 128 95 147 154 162 200 255", getCodewords(check("ABCDEFGHIJKLM")));
+        assertEquals("230 89 233 109 36 128 95 147 154 166 186 255", getCodewords(check("ABCDEFGHIJKLMN")));
+        /* EDI encodation has no padding, so one or two characters left over at the end follow an unlatch */
+        String edi = "ABC*>\rABC*>\rABC*>\r";
+        assertEquals("238 89 233 6 145 89 233 6 145 89 233 6 145", getCodewords(check(edi)));
+        assertEquals("238 89 233 6 145 89 233 6 145 89 233 6 145 255 66", getCodewords(check(edi + "A")));
+        assertEquals("238 89 233 6 145 89 233 6 145 89 233 6 145 255 66 67", getCodewords(check(edi + "AB")));
+        /* runs of each length, so that they end at each position in a triplet */
+        for (int length = 1; length <= 20; length++) {
+            check(letters('A', length) + "\u00e9");
+            check(letters('a', length) + "\u00e9");
+            check("1" + letters('A', length) + "!");
+            check(edi.substring(0, Math.min(length, edi.length())) + letters('a', length));
+        }
+    }
+
+    @Test
+    public void testShifts() {
+        /* characters outside the basic set are shifted, extended characters with an upper shift first */
+        String c40 = "230 89 233 109 36 128 95 147 154 ";
+        assertEquals(c40 + "6 91 173 34 255", getCodewords(check("ABCDEFGHIJKL!MNO")));
+        assertEquals(c40 + "10 147 173 34 255", getCodewords(check("ABCDEFGHIJKL\\<FNC1>MNO")));
+        assertEquals(c40 + "10 243 60 108 175 72 255", getCodewords(check("ABCDEFGHIJKL\u00e9MNO")));
+        assertEquals("239 89 233 109 36 128 95 147 154 10 243 60 108 175 72 255",
+                getCodewords(check("abcdefghijkl\u00c9mno")));
+        assertEquals("66 235 106 67", getCodewords(check("A\u00e9B")));
+    }
+
+    @Test
+    public void testByteLengthField() {
+        /* a Byte run of up to 249 bytes has a one codeword length, and a longer run a two codeword length */
+        assertEquals("231 249", getCodewords(check(bytes(249))).substring(0, 7));
+        assertEquals("231 250 0", getCodewords(check(bytes(250))).substring(0, 9));
+        assertEquals("231 250 249", getCodewords(check(bytes(499))).substring(0, 11));
+        assertEquals("231 251 0", getCodewords(check(bytes(500))).substring(0, 9));
+        check("ABC" + bytes(248) + "ABC");
+        check("ABC" + bytes(249) + "ABC");
+        check("ABC" + bytes(250) + "ABC");
+        check("\\<FNC1>" + bytes(250));
+    }
+
+    @Test
+    public void testVersions() {
+        /* the largest Byte run (two codewords for the latch and length, three from 250 bytes) in each version */
+        int[] largest = { 8, 17, 42, 89, 180, 367, 729, 1477 };
+        for (int i = 0; i < largest.length; i++) {
+            assertEquals(String.valueOf((char) ('A' + i)), getVersion(check(bytes(largest[i]))));
+            if (i + 1 < largest.length) {
+                assertEquals(String.valueOf((char) ('B' + i)), getVersion(check(bytes(largest[i] + 1))));
+            }
+        }
+        assertEquals("H", getVersion(check(digits(3549))));
+    }
+
+    @Test(expected = BarcodeException.class)
+    public void testTooManyBytes() {
+        new CodeOne().setContent(bytes(1478));
+    }
+
+    @Test(expected = BarcodeException.class)
+    public void testTooManyDigits() {
+        new CodeOne().setContent(digits(3550));
+    }
+
+    private static CodeOne check(String content) {
+        CodeOne symbol = new CodeOne();
+        symbol.setContent(content);
+        String expected = new String(content.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.ISO_8859_1)
+                .replace(Symbol.FNC1_STRING, "\u001d");
+        assertEquals(content, expected, CodeOneDecoder.decode(symbol));
+        return symbol;
+    }
+
+    private static String digits(int length) {
+        StringBuilder content = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            content.append((char) ('0' + ((i + 1) % 10)));
+        }
+        return content.toString();
+    }
+
+    private static String letters(char first, int length) {
+        StringBuilder content = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            content.append((char) (first + (i % 26)));
+        }
+        return content.toString();
+    }
+
+    private static String bytes(int length) {
+        StringBuilder content = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            content.append('\u00e9');
+        }
+        return content.toString();
+    }
+
+    /** Returns the data codewords before any padding. */
+    private static String getCodewords(CodeOne symbol) {
+        Matcher matcher = CODEWORDS.matcher(symbol.getEncodeInfo());
+        assertTrue(symbol.getEncodeInfo(), matcher.find());
+        return matcher.group(1).trim();
+    }
+
+    private static String getVersion(CodeOne symbol) {
+        Matcher matcher = VERSION.matcher(symbol.getEncodeInfo());
+        assertTrue(symbol.getEncodeInfo(), matcher.find());
+        return matcher.group(1);
+    }
+}
@@ -0,0 +1,238 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+/**
+ * Decodes the data codewords of a Data Matrix symbol back into bytes, for use in tests. Reed-Solomon error
+ * correction is not checked. FNC1 characters after the first position are decoded as GS (0x1D), and
+ * structured append, reader initialisation, macro and ECI codewords are skipped.
+ */
+final class DataMatrixDecoder {
+
+    private static final int[][] SIZES = {
+        /* height, width, data codewords */
+        { 10, 10, 3 }, { 12, 12, 5 }, { 14, 14, 8 }, { 16, 16, 12 }, { 18, 18, 18 }, { 20, 20, 22 },
+        { 22, 22, 30 }, { 24, 24, 36 }, { 26, 26, 44 }, { 32, 32, 62 }, { 36, 36, 86 }, { 40, 40, 114 },
+        { 44, 44, 144 }, { 48, 48, 174 }, { 52, 52, 204 }, { 64, 64, 280 }, { 72, 72, 368 }, { 80, 80, 456 },
+        { 88, 88, 576 }, { 96, 96, 696 }, { 104, 104, 816 }, { 120, 120, 1050 }, { 132, 132, 1304 },
+        { 144, 144, 1558 }, { 8, 18, 5 }, { 8, 32, 10 }, { 12, 26, 16 }, { 12, 36, 22 }, { 16, 36, 32 },
+        { 16, 48, 49 }
+    };
+
+    private static final String C40_SHIFT2 = "!\"#$%&'()*+,-./:;<=>?@[\\]^_";
+
+    private static final int ASCII = 0;
+    private static final int C40 = 1;
+    private static final int TEXT = 2;
+    private static final int X12 = 3;
+    private static final int EDIFACT = 4;
+
+    private final int[] codewords;
+    private final int length;
+    private final StringBuilder result = new StringBuilder();
+    private int position;
+    private boolean upperShift;
+
+    private DataMatrixDecoder(int[] codewords, int length) {
+        this.codewords = codewords;
+        this.length = length;
+    }
+
+    /**
+     * Returns the number of data codewords in the specified symbol.
+     *
+     * @param symbol the symbol
+     * @return the number of data codewords in the symbol
+     */
+    static int getDataCapacity(DataMatrix symbol) {
+        for (int[] size : SIZES) {
+            if (size[0] == symbol.getActualHeight() && size[1] == symbol.getActualWidth()) {
+                return size[2];
+            }
+        }
+        throw new IllegalArgumentException("Unknown size");
+    }
+
+    /**
+     * Decodes the specified symbol, returning each decoded byte as a character from 0 to 255.
+     *
+     * @param symbol the symbol to decode
+     * @return the decoded data
+     */
+    static String decode(DataMatrix symbol) {
+        DataMatrixDecoder decoder = new DataMatrixDecoder(symbol.getCodewords(), getDataCapacity(symbol));
+        decoder.decode();
+        return decoder.result.toString();
+    }
+
+    private void decode() {
+        int mode = ASCII;
+        while (position < length) {
+            switch (mode) {
+                case ASCII:
+                    mode = decodeAscii();
+                    break;
+                case C40:
+                case TEXT:
+                    mode = decodeC40Text(mode == TEXT);
+                    break;
+                case X12:
+                    mode = decodeX12();
+                    break;
+                case EDIFACT:
+                    mode = decodeEdifact();
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+    private int decodeAscii() {
+        int c = codewords[position++];
+        if (c >= 1 && c <= 128) {
+            output(c - 1);
+        } else if (c == 129) {
+            position = length; /* padding */
+        } else if (c >= 130 && c <= 229) {
+            output('0' + ((c - 130) / 10));
+            output('0' + ((c - 130) % 10));
+        } else if (c == 230) {
+            return C40;
+        } else if (c == 231) {
+            decodeBase256();
+        } else if (c == 232) {
+            if (position > 1) {
+                output(0x1D);
+            }
+        } else if (c == 233) {
+            position += 3;
+        } else if (c == 235) {
+            upperShift = true;
+        } else if (c == 238) {
+            return X12;
+        } else if (c == 239) {
+            return TEXT;
+        } else if (c == 240) {
+            return EDIFACT;
+        } else if (c == 241) {
+            int first = codewords[position++];
+            if (first > 127) {
+                position += (first > 191 ? 2 : 1);
+            }
+        } else if (c != 234 && c != 236 && c != 237 && c != 254) {
+            throw new IllegalStateException("Invalid ASCII codeword " + c + " at " + (position - 1));
+        }
+        return ASCII;
+    }
+
+    private int decodeC40Text(boolean text) {
+        if (length - position < 2) {
+            return ASCII; /* a single character at the end of the symbol is encoded in ASCII */
+        }
+        int shift = 0;
+        while (length - position >= 2) {
+            if (codewords[position] == 254) {
+                position++;
+                return ASCII;
+            }
+            int value = (codewords[position] * 256) + codewords[position + 1] - 1;
+            position += 2;
+            for (int v : new int[] { value / 1600, (value / 40) % 40, value % 40 }) {
+                if (shift == 0) {
+                    if (v < 3) {
+                        shift = v + 1;
+                    } else if (v == 3) {
+                        output(' ');
+                    } else if (v < 14) {
+                        output('0' + v - 4);
+                    } else {
+                        output((text ? 'a' : 'A') + v - 14);
+                    }
+                } else {
+                    if (shift == 1) {
+                        output(v);
+                    } else if (shift == 2) {
+                        if (v < 27) {
+                            output(C40_SHIFT2.charAt(v));
+                        } else if (v == 27) {
+                            output(0x1D);
+                        } else if (v == 30) {
+                            upperShift = true;
+                        }
+                    } else if (v == 0) {
+                        output('`');
+                    } else if (v < 27) {
+                        output((text ? 'A' : 'a') + v - 1);
+                    } else {
+                        output("{|}~\u007f".charAt(v - 27));
+                    }
+                    shift = 0;
+                }
+            }
+        }
+        return ASCII;
+    }
+
+    private int decodeX12() {
+        if (length - position < 2) {
+            return ASCII;
+        }
+        while (length - position >= 2) {
+            if (codewords[position] == 254) {
+                position++;
+                return ASCII;
+            }
+            int value = (codewords[position] * 256) + codewords[position + 1] - 1;
+            position += 2;
+            for (int v : new int[] { value / 1600, (value / 40) % 40, value % 40 }) {
+                if (v < 4) {
+                    output("\r*> ".charAt(v));
+                } else if (v < 14) {
+                    output('0' + v - 4);
+                } else {
+                    output('A' + v - 14);
+                }
+            }
+        }
+        return ASCII;
+    }
+
+    private int decodeEdifact() {
+        while (length - position >= 3) {
+            int bits = (codewords[position] << 16) | (codewords[position + 1] << 8) | codewords[position + 2];
+            for (int i = 0; i < 4; i++) {
+                int v = (bits >> (18 - (6 * i))) & 0x3F;
+                if (v == 31) {
+                    /* the rest of the codeword holding the unlatch is padding */
+                    position += ((6 * i) + 13) / 8;
+                    return ASCII;
+                }
+                output(v < 32 ? v | 0x40 : v);
+            }
+            position += 3;
+        }
+        return ASCII; /* up to two characters at the end of the symbol are encoded in ASCII */
+    }
+
+    private void decodeBase256() {
+        int count = unrandomise(position++);
+        if (count == 0) {
+            count = length - position;
+        } else if (count > 249) {
+            count = (250 * (count - 249)) + unrandomise(position++);
+        }
+        for (int i = 0; i < count; i++) {
+            output(unrandomise(position++));
+        }
+    }
+
+    private int unrandomise(int index) {
+        int prn = ((149 * (index + 1)) % 255) + 1;
+        int value = codewords[index] - prn;
+        return value < 0 ? value + 256 : value;
+    }
+
+    private void output(int c) {
+        result.append((char) (upperShift ? c + 128 : c));
+        upperShift = false;
+    }
+}
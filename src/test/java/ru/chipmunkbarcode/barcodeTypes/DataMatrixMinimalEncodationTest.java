@@ -0,0 +1,173 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link DataMatrix#setMinimalEncodation(boolean)}.
+ */
+public class DataMatrixMinimalEncodationTest {
+
+    /** Content and data capacity of the symbol with the normal and with minimal encodation, for mixed content. */
+    private static final Object[][] SMALLER = {
+        { "aABC123XYZ", 10, 8 },
+        { ".abc123abc", 10, 8 },
+        { "XYZDEF *>\r!", 12, 10 },
+        { "\u00e9!XYZ!!123", 12, 10 },
+        { "*>\r\u00e9abc", 10, 8 },
+        { ".12\u00e9\u00e9ABC \u00e9\u00e9", 16, 12 },
+    };
+
+    @Test
+    public void testDefault() {
+        assertFalse(new DataMatrix().getMinimalEncodation());
+    }
+
+    @Test
+    public void testSmallerSymbols() {
+        for (Object[] smaller : SMALLER) {
+            String content = (String) smaller[0];
+            DataMatrix standard = new DataMatrix();
+            standard.setContent(content);
+            assertEquals(content, smaller[1], DataMatrixDecoder.getDataCapacity(standard));
+            assertEquals(content, smaller[2], DataMatrixDecoder.getDataCapacity(check(content)));
+        }
+    }
+
+    @Test
+    public void testAsciiDigits() {
+        /* pairs of digits take one ASCII codeword, and an odd digit takes another */
+        assertEquals(1, count("12"));
+        assertEquals(2, count("123"));
+        assertEquals(3, count("12345"));
+        assertEquals(9, count("ABC123456ABC"));
+    }
+
+    @Test
+    public void testC40AndText() {
+        /* three characters take two codewords, which is only worth the latch for six or more */
+        assertEquals(5, count("ABCDE"));
+        assertEquals(5, count("ABCDEF"));
+        assertEquals(7, count("ABCDEFGHI"));
+        assertEquals(5, count("abcdef"));
+        assertEquals(7, count("abcdefghi"));
+        /* runs which end with one or two characters left over, before other data or at the end of the data */
+        for (int length = 1; length <= 14; length++) {
+            check(letters('A', length));
+            check(letters('a', length));
+            check(letters('A', length) + "1234");
+            check(letters('a', length) + "\u00e9");
+            check("1234" + letters('A', length) + "!");
+        }
+        /* characters from the shift sets */
+        check("ABC!DEF#GHI");
+        check("abcABCabc");
+    }
+
+    @Test
+    public void testX12() {
+        /* three characters take two codewords, with runs which end with one or two characters left over */
+        for (int length = 1; length <= 10; length++) {
+            check("A" + repeat("*>\r", length));
+            check("A" + repeat("*>\r", length) + "a");
+            check(repeat("*>\r", length) + "12");
+            check(repeat("A*>", length) + "\r1");
+        }
+        /* the normal encodation does not fit this in any symbol */
+        DataMatrix symbol = new DataMatrix();
+        symbol.setMinimalEncodation(true);
+        symbol.setContent("*>\r*>\r");
+        assertEquals("*>\r*>\r", DataMatrixDecoder.decode(symbol));
+    }
+
+    @Test
+    public void testEdifact() {
+        /* four characters take three codewords */
+        assertEquals(7, count("@ABC@DEF"));
+        assertEquals(16, count("@ABC@DEF;GHI:JKL^MNO"));
+        assertEquals(7, count("@@@@@@@@"));
+        assertEquals(13, count("ABCDEFGHIJKL@@@@"));
+        /* runs which end with up to three characters left over */
+        for (int length = 1; length <= 14; length++) {
+            check(repeat("@", length));
+            check(repeat("@", length) + "a");
+            check(repeat("@", length) + "\u00e9\u00e9");
+        }
+    }
+
+    @Test
+    public void testExtendedAscii() {
+        /* each extended character needs an upper shift, until a Base 256 run is shorter */
+        assertEquals(3, count("A\u00e9"));
+        assertEquals(4, count("\u00e9\u00e9"));
+        assertEquals(5, count("\u00e9\u00e9\u00e9"));
+        assertEquals(6, count("\u00e9\u00e9\u00e9\u00e9"));
+    }
+
+    @Test
+    public void testLongBase256Runs() {
+        for (String prefix : new String[] { "", "A", "ABCD", "1234" }) {
+            for (int length : new int[] { 248, 249, 250, 251, 500, 750 }) {
+                check(prefix + binary(length));
+            }
+        }
+    }
+
+    @Test
+    public void testBase256LengthCodewords() {
+        /* one ASCII codeword, then a Base 256 latch, a single length codeword and the 249 bytes of data */
+        assertEquals(252, count("A" + binary(249)));
+        /* a run of 250 bytes needs two length codewords */
+        assertEquals(253, count(binary(250)));
+        assertEquals(251, count(binary(249)));
+    }
+
+    private static DataMatrix check(String content) {
+        DataMatrix standard = new DataMatrix();
+        standard.setContent(content);
+        assertEquals(content, content, DataMatrixDecoder.decode(standard));
+
+        DataMatrix minimal = new DataMatrix();
+        minimal.setMinimalEncodation(true);
+        minimal.setContent(content);
+        assertEquals(content, content, DataMatrixDecoder.decode(minimal));
+
+        assertTrue(content, DataMatrixDecoder.getDataCapacity(minimal) <= DataMatrixDecoder.getDataCapacity(standard));
+        return minimal;
+    }
+
+    private static int count(String content) {
+        int[] data = new int[content.length()];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = content.charAt(i);
+        }
+        return DataMatrix.minimalCodewordCounts(data, 0, 2000)[data.length];
+    }
+
+    private static String letters(char first, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) (first + (i % 26)));
+        }
+        return sb.toString();
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static String binary(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) (128 + ((i * 37) % 128)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,227 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+import org.junit.Test;
+import ru.chipmunkbarcode.exceptions.BarcodeException;
+import ru.chipmunkbarcode.util.BitStream;
+
+import java.lang.reflect.Field;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link GeneralFieldEncoder}, and for the general-purpose fields of the DataBar Expanded and
+ * Composite symbols which use it. In the data passed to the encoder, <code>'#'</code> stands for FNC1.
+ */
+public class GeneralFieldEncoderTest {
+
+    private static final String NUMERIC_LATCH = "000";
+    private static final String ALPHA_LATCH = "0000"; /* from numeric */
+    private static final String ISO_LATCH = "00100"; /* from alphanumeric */
+    private static final String ALPHA_FROM_ISO_LATCH = "00100";
+    private static final String FNC1 = "01111"; /* in alphanumeric and ISO/IEC 646 */
+
+    /** DataBar Expanded binary strings, unchanged since the encoder was shared with Composite. */
+    private static final String[][] DATABAR_EXPANDED = {
+        { "101234", "0013b4c5ee05568" },
+        { "1012345", "1013b4c5ee0556c902" },
+        { "10A12345", "1013b4c5ee800aad92" },
+        { "21abcABCDE", "0013b4e6eeb56ee1208628e4210" },
+        { "21abcABCD", "0013b4e6eeb56ee40830a190842" },
+        { "21*-./,12", "0013b4e6ee275e7bf7663908421" },
+        { "10ABC\u001d2112345", "0013b4c5ee81061769cddc0aad6" },
+        { "211", "0013b4e6ee31084" },
+        { "21a1", "0013b4e6eeb4621" },
+        { "0198898765432106101", "0013b4a6ee1cf4e79edcf8e027698bdc6" },
+        { "2132z37091B59", "0013b4e6ee41f9860440d0a9c42" },
+    };
+
+    /** Composite binary strings, the same for CC-A, CC-B and CC-C. */
+    private static final String[][] COMPOSITE = {
+        { "10A12345", "013b4c5ee800aad92" },
+        { "21abcABCDE", "013b4e6eeb56ee1208628e4" },
+        { "21*-./,12", "013b4e6ee275e7bf76638" },
+        { "211", "013b4e6ee30" },
+        /* these now follow the same rules as DataBar Expanded; they used to be 013b4e6ee41f9860440d0890,
+           013b4e6ee18af0321842b7c and 013b4e6eeef8011b60f998 */
+        { "2132z37091B59", "013b4e6ee41f9860440d0a9c" },
+        { "2182797BB324", "013b4e6ee18af0321850748" },
+        { "21*A2542/3", "013b4e6eeef8011b60f90" },
+    };
+
+    @Test
+    public void testIsoToNumeric() {
+        String a = ALPHA_LATCH + ISO_LATCH + iso('a');
+        assertEquals(a + NUMERIC_LATCH + numeric(1, 2) + numeric(3, 4), encode("a1234", false, 0));
+        assertEquals(a + NUMERIC_LATCH + numeric(1, 2) + numeric(3, 4) + ALPHA_LATCH + ISO_LATCH + iso('b'),
+                encode("a1234b", false, 0));
+        assertEquals(a + iso('1') + iso('2') + iso('3'), encode("a123", false, 0));
+    }
+
+    @Test
+    public void testIsoToAlpha() {
+        String a = ALPHA_LATCH + ISO_LATCH + iso('a');
+        assertEquals(a + ALPHA_FROM_ISO_LATCH + alpha('A') + alpha('B') + alpha('C') + alpha('D') + alpha('E'),
+                encode("aABCDE", false, 0));
+        assertEquals(a + iso('A') + iso('B') + iso('C') + iso('D'), encode("aABCD", false, 0));
+    }
+
+    @Test
+    public void testAlphaToNumeric() {
+        String a = ALPHA_LATCH + alpha('A');
+        assertEquals(a + NUMERIC_LATCH + numeric(1, 2) + numeric(3, 4) + numeric(5, 6) + ALPHA_LATCH + alpha('B'),
+                encode("A123456B", false, 0));
+        assertEquals(a + alpha('1') + alpha('2') + alpha('3') + alpha('4') + alpha('5') + alpha('B'),
+                encode("A12345B", false, 0));
+        /* at the end of the data, four digits are enough */
+        assertEquals(a + NUMERIC_LATCH + numeric(1, 2) + numeric(3, 4), encode("A1234", false, 0));
+        assertEquals(a + alpha('1') + alpha('2') + alpha('3'), encode("A123", false, 0));
+    }
+
+    @Test
+    public void testEncodeLast() {
+        for (int remainder = 4; remainder <= 6; remainder++) {
+            assertEquals(bits(1 + 1, 4), encode("1", false, remainder));
+        }
+        for (int remainder : new int[] { 0, 3, 7, 12 }) {
+            assertEquals(numeric(1, 10), encode("1", false, remainder));
+        }
+        String a = ALPHA_LATCH + alpha('A') + NUMERIC_LATCH + numeric(1, 2) + numeric(3, 4);
+        assertEquals(a + bits(5 + 1, 4), encode("A12345", false, 5));
+        assertEquals(a + numeric(5, 10), encode("A12345", false, 8));
+        assertEquals(numeric(1, 2) + ALPHA_LATCH + FNC1, encode("12#", false, 5));
+    }
+
+    @Test
+    public void testEncodeLastAfterLatch() throws ReflectiveOperationException {
+        assertEquals(alpha('5'), encodeLastIn("ALPHA", "5"));
+        assertEquals(FNC1, encodeLastIn("ALPHA", "#"));
+        assertEquals(iso('5'), encodeLastIn("ISOIEC", "5"));
+        assertEquals(FNC1, encodeLastIn("ISOIEC", "#"));
+    }
+
+    @Test
+    public void testPad() {
+        GeneralFieldEncoder encoder = new GeneralFieldEncoder(data("A"), false);
+        BitStream bits = new BitStream();
+        encoder.encode(bits);
+        encoder.pad(bits, bits.length() + 12);
+        assertEquals(ALPHA_LATCH + alpha('A') + ISO_LATCH + ISO_LATCH + "00", bits.toString());
+
+        encoder = new GeneralFieldEncoder(data("12"), false);
+        bits = new BitStream();
+        encoder.encode(bits);
+        encoder.pad(bits, bits.length() + 13);
+        assertEquals(numeric(1, 2) + ALPHA_LATCH + ISO_LATCH + "0010", bits.toString());
+
+        encoder = new GeneralFieldEncoder(data("12"), false);
+        bits = new BitStream();
+        encoder.encode(bits);
+        encoder.pad(bits, bits.length());
+        assertEquals(numeric(1, 2), bits.toString());
+    }
+
+    @Test
+    public void testFnc1Latch() {
+        String a = ALPHA_LATCH + alpha('*') + FNC1;
+        assertEquals(a + alpha('1') + alpha('2'), encode("*#12", false, 0));
+        assertEquals(a + ALPHA_LATCH + alpha('1') + alpha('2'), encode("*#12", true, 0));
+    }
+
+    @Test(expected = BarcodeException.class)
+    public void testInvalidCharacter() {
+        new GeneralFieldEncoder(data("A[B"), false);
+    }
+
+    @Test
+    public void testDataBarExpanded() {
+        for (String[] vector : DATABAR_EXPANDED) {
+            DataBarExpanded symbol = new DataBarExpanded();
+            symbol.setContent(vector[0]);
+            assertEquals(vector[0], vector[1], binaryString(symbol, "Binary String"));
+        }
+    }
+
+    @Test
+    public void testComposite() {
+        for (Composite.CompositeMode mode : Composite.CompositeMode.values()) {
+            for (String[] vector : COMPOSITE) {
+                Composite symbol = new Composite();
+                symbol.setSymbology(mode == Composite.CompositeMode.CC_C ? Composite.LinearEncoding.CODE_128
+                        : Composite.LinearEncoding.DATABAR_EXPANDED);
+                symbol.setLinearContent("0112345678901231");
+                symbol.setPreferredMode(mode);
+                symbol.setContent(vector[0]);
+                assertEquals(mode, symbol.getModeUsed());
+                assertEquals(vector[0], vector[1], binaryString(symbol, "Composite Binary String"));
+            }
+        }
+    }
+
+    private static String encode(String data, boolean fnc1Latch, int remainder) {
+        GeneralFieldEncoder encoder = new GeneralFieldEncoder(data(data), fnc1Latch);
+        BitStream bits = new BitStream();
+        encoder.encode(bits);
+        encoder.encodeLast(bits, remainder);
+        return bits.toString();
+    }
+
+    /** Writes a single held back character after forcing the encoder into the specified mode. */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static String encodeLastIn(String mode, String data) throws ReflectiveOperationException {
+        GeneralFieldEncoder encoder = new GeneralFieldEncoder(data(data), false);
+        Field field = GeneralFieldEncoder.class.getDeclaredField("mode");
+        field.setAccessible(true);
+        field.set(encoder, Enum.valueOf((Class) field.getType(), mode));
+        BitStream bits = new BitStream();
+        encoder.encode(bits);
+        encoder.encodeLast(bits, 5);
+        return bits.toString();
+    }
+
+    private static int[] data(String s) {
+        int[] data = new int[s.length()];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (s.charAt(i) == '#' ? Symbol.FNC1 : s.charAt(i));
+        }
+        return data;
+    }
+
+    private static String binaryString(Symbol symbol, String label) {
+        Matcher matcher = Pattern.compile("(?m)^" + label + ": ([0-9a-f]*)").matcher(symbol.getEncodeInfo());
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static String numeric(int d1, int d2) {
+        return bits((11 * d1) + d2 + 8, 7);
+    }
+
+    private static String alpha(char c) {
+        if (c >= '0' && c <= '9') {
+            return bits(c - 43, 5);
+        } else if (c >= 'A' && c <= 'Z') {
+            return bits(c - 33, 6);
+        } else {
+            return bits(0b111010 + "*,-./".indexOf(c), 6);
+        }
+    }
+
+    private static String iso(char c) {
+        if (c >= '0' && c <= '9') {
+            return bits(c - 43, 5);
+        } else if (c >= 'A' && c <= 'Z') {
+            return bits(c - 1, 7);
+        } else {
+            return bits(c - 7, 7);
+        }
+    }
+
+    private static String bits(int value, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = length - 1; i >= 0; i--) {
+            sb.append(((value >>> i) & 1) != 0 ? '1' : '0');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,219 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+import java.nio.charset.Charset;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decodes the data codewords of a Grid Matrix symbol back into text, for use in tests. The data codewords are
+ * read from the encode information. GB2312 characters are decoded to Unicode, and every other byte is
+ * returned as a character from 0 to 255. Reader initialisation and ECI headers are skipped.
+ */
+final class GridMatrixDecoder {
+
+    private static final Pattern CODEWORDS = Pattern.compile("Codewords: ([0-9 ]*)");
+
+    private static final int CHINESE = 1;
+    private static final int NUMBER = 2;
+    private static final int LOWER = 3;
+    private static final int UPPER = 4;
+    private static final int MIXED = 5;
+    private static final int BYTE = 7;
+    private static final int END = 0;
+
+    private static final String MIXED_CHARACTERS =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz ";
+    private static final String SHIFT_CHARACTERS = "!\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~";
+    private static final String NUMBER_PUNCTUATION = " +-.,";
+
+    private final int[] codewords;
+    private final StringBuilder result = new StringBuilder();
+    private int position;
+
+    private GridMatrixDecoder(int[] codewords) {
+        this.codewords = codewords;
+    }
+
+    /**
+     * Decodes the specified symbol.
+     *
+     * @param symbol the symbol to decode
+     * @return the decoded data
+     */
+    static String decode(GridMatrix symbol) {
+        Matcher matcher = CODEWORDS.matcher(symbol.getEncodeInfo());
+        if (!matcher.find()) {
+            throw new IllegalStateException("No codewords in encode information");
+        }
+        String[] values = matcher.group(1).trim().split(" ");
+        int[] codewords = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            codewords[i] = Integer.parseInt(values[i]);
+        }
+        GridMatrixDecoder decoder = new GridMatrixDecoder(codewords);
+        decoder.decode();
+        return decoder.result.toString();
+    }
+
+    private void decode() {
+        int mode = read(4);
+        if (mode == 0b1010) {
+            mode = read(4); /* reader initialisation */
+        }
+        if (mode == 0b1100) {
+            int bits = (read(1) == 0 ? 10 : (read(1) == 0 ? 15 : 20));
+            read(bits);
+            mode = read(4);
+        }
+        while (mode != END) {
+            switch (mode) {
+                case CHINESE:
+                    mode = decodeChinese();
+                    break;
+                case NUMBER:
+                    mode = decodeNumber();
+                    break;
+                case LOWER:
+                case UPPER:
+                    mode = decodeLetters(mode);
+                    break;
+                case MIXED:
+                    mode = decodeMixed();
+                    break;
+                case BYTE:
+                    mode = decodeBytes();
+                    break;
+                default:
+                    throw new IllegalStateException("Invalid mode " + mode);
+            }
+        }
+    }
+
+    private int decodeChinese() {
+        while (true) {
+            int value = read(13);
+            if (value < 7776) {
+                int row = value / 0x60;
+                int first = (row < 9 ? 0xa1 + row : 0xb0 + row - 9);
+                byte[] bytes = { (byte) first, (byte) ((value % 0x60) + 0xa0) };
+                result.append(new String(bytes, Charset.forName("GB2312")));
+            } else if (value == 7776) {
+                result.append("\r\n");
+            } else if (value < 8033) {
+                result.append((char) (value - 7777));
+            } else if (value < 8133) {
+                int digits = value - 8033;
+                result.append((char) ('0' + (digits / 10))).append((char) ('0' + (digits % 10)));
+            } else if (value == 8160) {
+                return END;
+            } else {
+                return new int[] { NUMBER, LOWER, UPPER, MIXED, BYTE }[value - 8161];
+            }
+        }
+    }
+
+    private int decodeNumber() {
+        int pad = read(2);
+        String group = null;
+        int punctuation = -1;
+        while (true) {
+            int value = read(10);
+            if (value < 1000) {
+                if (group != null) {
+                    result.append(group);
+                }
+                StringBuilder digits = new StringBuilder(String.format("%03d", value));
+                if (punctuation >= 0) {
+                    int type = (punctuation - 1000) / 3;
+                    digits.insert((punctuation - 1000) % 3, type < 5 ? String.valueOf(NUMBER_PUNCTUATION.charAt(type)) : "\r\n");
+                    punctuation = -1;
+                }
+                group = digits.toString();
+            } else if (value < 1018) {
+                punctuation = value;
+            } else {
+                /* the last group of the block holds the padding digits */
+                if (group != null) {
+                    result.append(group, 0, group.length() - pad);
+                }
+                return (value == 1018 ? END : new int[] { CHINESE, LOWER, UPPER, MIXED, BYTE }[value - 1019]);
+            }
+        }
+    }
+
+    private int decodeLetters(int mode) {
+        while (true) {
+            int value = read(5);
+            if (value < 26) {
+                result.append((char) ((mode == UPPER ? 'A' : 'a') + value));
+            } else if (value == 26) {
+                result.append(' ');
+            } else if (value == 27) {
+                return END;
+            } else if (value == 28) {
+                return CHINESE;
+            } else if (value == 29) {
+                return NUMBER;
+            } else if (value == 30) {
+                return (mode == UPPER ? LOWER : UPPER);
+            } else {
+                value = (value << 2) | read(2);
+                if (value == 124) {
+                    return MIXED;
+                } else if (value == 125) {
+                    shift();
+                } else {
+                    return BYTE;
+                }
+            }
+        }
+    }
+
+    private int decodeMixed() {
+        while (true) {
+            int value = read(6);
+            if (value < 63) {
+                result.append(MIXED_CHARACTERS.charAt(value));
+                continue;
+            }
+            value = (value << 4) | read(4);
+            if (value == 1014) {
+                shift();
+            } else if (value == 1008) {
+                return END;
+            } else {
+                return new int[] { CHINESE, NUMBER, LOWER, UPPER, -1, -1, BYTE }[value - 1009];
+            }
+        }
+    }
+
+    private int decodeBytes() {
+        while (true) {
+            int count = ~read(9) & 0x1ff;
+            if (count == 0) {
+                count = 512;
+            }
+            for (int i = 0; i < count; i++) {
+                result.append((char) read(8));
+            }
+            int next = read(4);
+            if (next != BYTE) {
+                return next;
+            }
+        }
+    }
+
+    private void shift() {
+        int value = read(6);
+        result.append(value < 32 ? (char) value : SHIFT_CHARACTERS.charAt(value - 32));
+    }
+
+    private int read(int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++, position++) {
+            int codeword = codewords[position / 7];
+            value = (value << 1) | ((codeword >> (6 - (position % 7))) & 1);
+        }
+        return value;
+    }
+}
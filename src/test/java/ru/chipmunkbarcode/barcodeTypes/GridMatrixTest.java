@@ -0,0 +1,239 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+import org.junit.Test;
+import ru.chipmunkbarcode.exceptions.BarcodeException;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trip tests for {@link GridMatrix}, which check that the mode selection encodes all of the data.
+ */
+public class GridMatrixTest {
+
+    private static final Pattern ENCODING = Pattern.compile("Encoding: (.*)\n");
+    private static final Pattern DATA_CODEWORDS = Pattern.compile("Data Codewords: ([0-9]+)");
+
+    private static final String[] CONTENT = {
+        "A",
+        "1234567890",
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ",
+        "abcdefghijklmnopqrstuvwxyz",
+        "Hello, World! 0123456789",
+        "abc\r\ndef",
+        "12\r\n34 56+78-90.12,34",
+        "\u0001\u0002\u001b\u001f!\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~\u007f",
+        "\u6c49\u5b57\u6c49\u5b57123\u4e2d\u6587abc",
+        "\u6c49\r\n\u5b5712ABC",
+    };
+
+    /**
+     * Content and number of data codewords. Each of these needed more codewords before the modes were chosen with
+     * a shortest-path search, mostly by leaving Chinese or Mixed mode for a few characters which were cheaper where
+     * they were.
+     */
+    private static final Object[][] SMALLER = {
+        { "\u6c49\u5b5712", 8 },
+        { "\u6c49\u5b574", 8 },
+        { "!\u6c49\u5b57", 8 },
+        { "\u0001abc\u0001", 8 },
+        { "ABC\u0001B!", 8 },
+        { "@@ABC!", 9 },
+        { "!a4 ", 7 },
+        { "\u4e2dAb1", 9 },
+    };
+
+    @Test
+    public void testFixedContent() {
+        for (String content : CONTENT) {
+            check(content);
+        }
+    }
+
+    @Test
+    public void testSmallerSymbols() {
+        for (Object[] smaller : SMALLER) {
+            String content = (String) smaller[0];
+            assertEquals(content, smaller[1], getDataCodewords(check(content)));
+        }
+    }
+
+    @Test
+    public void testNumericGroups() {
+        /* groups of three digits, with the last group padded */
+        assertEquals("NUMB 123 ", getEncoding(check("123")));
+        assertEquals("NUMB 123 400 ", getEncoding(check("1234")));
+        assertEquals("NUMB 123 450 ", getEncoding(check("12345")));
+        /* one punctuation character (or line break) in each group, given before the group with its position */
+        assertEquals("NUMB 1004 120 ", getEncoding(check("1+2")));
+        assertEquals("NUMB 123 1009 456 1012 789 ", getEncoding(check("123.456,789")));
+        assertEquals("NUMB 1017 123 400 ", getEncoding(check("12\r\n34")));
+        assertEquals("NUMB 1015 120 ", getEncoding(check("\r\n12")));
+        /* a group may end with its punctuation character, as long as it holds a digit */
+        assertEquals("NUMB 1005 120 ", getEncoding(check("12+")));
+        assertEquals(7, getDataCodewords(check("12312+")));
+        assertEquals(7, getDataCodewords(check("5678+")));
+        assertEquals(10, getDataCodewords(check("B1235678+")));
+        /* a group without digits, or with two punctuation characters, is encoded in another mode */
+        check("1+");
+        check("+1");
+        check("1+-2");
+        check("123+-456");
+        check("1.2.3.4.5.6");
+    }
+
+    @Test
+    public void testChinesePairs() {
+        /* pairs of digits and line breaks take one value in Chinese mode */
+        assertEquals("CHIN 1850 4662 8045 ", getEncoding(check("\u6c49\u5b5712")));
+        assertEquals("CHIN 1850 4662 7776 ", getEncoding(check("\u6c49\u5b57\r\n")));
+        assertEquals("CHIN 1850 7776 4662 ", getEncoding(check("\u6c49\r\n\u5b57")));
+        /* a single digit or letter is a byte value */
+        assertEquals("CHIN 1850 4662 7826 ", getEncoding(check("\u6c49\u5b571")));
+        assertEquals("CHIN 1850 7842 4662 ", getEncoding(check("\u6c49A\u5b57")));
+        /* a longer run of digits is worth a latch to numeric mode */
+        assertEquals("CHIN 1850 4662 NUMB 123 456 ", getEncoding(check("\u6c49\u5b57123456")));
+        check("\u6c49\u5b57\r");
+        check("\u6c49\u5b57\n\r");
+        check("\u6c49\u5b57\r\r\n");
+    }
+
+    @Test
+    public void testShifts() {
+        /* a single punctuation or control character is shifted, in lower case, upper case and mixed modes */
+        assertEquals("LOWR 0 1 2 SHT/32 3 4 5 ", getEncoding(check("abc!def")));
+        assertEquals("UPPR 0 1 2 SHT/32 3 4 5 ", getEncoding(check("ABC!DEF")));
+        assertEquals("MIXD 10 37 1 SHT/32 10 37 1 ", getEncoding(check("Ab1!Ab1")));
+        assertEquals("LOWR 0 SHT/1 1 ", getEncoding(check("a\u0001b")));
+        /* a single upper case letter in lower case text is a latch there and back */
+        assertEquals("LOWR 0 1 2 UPPR 3 LOWR 4 5 6 7 ", getEncoding(check("abcDefgh")));
+        /* a run of shifted characters is only worth a latch to byte mode once it is long enough */
+        check("abc!!def");
+        check("abc!!!def");
+        check("abc!!!!def");
+        check("abc!!!!!!!!def");
+        check("ABC\u0001\u0002\u0003\u0004DEF");
+        check("a1b2c3!!!!!!a1b2c3");
+    }
+
+    @Test
+    public void testByteBlocks() {
+        /* byte mode blocks hold up to 512 bytes, and a longer run starts another block */
+        assertEquals(587, getDataCodewords(check(bytes(511))));
+        assertEquals(588, getDataCodewords(check(bytes(512))));
+        assertEquals(591, getDataCodewords(check(bytes(513))));
+        check("A" + bytes(511) + "B");
+        check("A" + bytes(512) + "B");
+        check("A" + bytes(513) + "B");
+        check("\u6c49" + bytes(400) + "123456" + bytes(400));
+    }
+
+    @Test
+    public void testEci() {
+        /* characters which are not in GB2312 use an ECI, with the bytes in byte mode */
+        GridMatrix symbol = check("A\u00c0B");
+        assertEquals("BYTE 65 192 66 ", getEncoding(symbol));
+        assertTrue(symbol.getEncodeInfo(), symbol.getEncodeInfo().startsWith("ECI Mode: 3\n"));
+
+        symbol = new GridMatrix();
+        symbol.setContent("\u20ac");
+        assertEquals("ECI 9 BYTE 164 ", getEncoding(symbol));
+        assertEquals("\u00a4", GridMatrixDecoder.decode(symbol));
+    }
+
+    @Test
+    public void testLargestSymbols() {
+        /* 1021 data codewords at error correction level 3 in 13 layers */
+        assertEquals(1021, getDataCodewords(check(digits(2139))));
+        assertEquals(1021, getDataCodewords(check(bytes(889))));
+        assertEquals(1021, getDataCodewords(check(chinese(548))));
+    }
+
+    @Test(expected = BarcodeException.class)
+    public void testTooManyDigits() {
+        new GridMatrix().setContent(digits(2140));
+    }
+
+    @Test(expected = BarcodeException.class)
+    public void testTooManyBytes() {
+        new GridMatrix().setContent(bytes(890));
+    }
+
+    @Test(expected = BarcodeException.class)
+    public void testTooManyCodewordsForErrorCorrectionLevel() {
+        /* more data codewords than the largest symbol holds at the automatic error correction level, but fewer than
+           it has in total, which ran past the largest number of layers */
+        new GridMatrix().setContent(bytes(1024));
+    }
+
+    @Test(expected = BarcodeException.class)
+    public void testTooManyChineseCharacters() {
+        new GridMatrix().setContent(chinese(549));
+    }
+
+    @Test(timeout = 5000)
+    public void testLineBreak() {
+        check("abc\r\ndef");
+        check("ABC\r\nDEF");
+        check("\r\n\r\n\r\n");
+    }
+
+    @Test
+    public void testLongNumericRun() {
+        StringBuilder digits = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            digits.append((char) ('0' + ((i * 7) % 10)));
+        }
+        check(digits.toString());
+        check("ABC" + digits.substring(0, 300) + "def");
+        check("abc" + digits.substring(0, 301) + "\u6c49\u5b57");
+        check(digits.substring(0, 200) + " " + digits.substring(0, 100) + "." + digits.substring(0, 101) + "\r\n"
+                + digits.substring(0, 99) + ",-+" + digits.substring(0, 98));
+    }
+
+    private static GridMatrix check(String content) {
+        GridMatrix symbol = new GridMatrix();
+        symbol.setContent(content);
+        assertEquals(content, content, GridMatrixDecoder.decode(symbol));
+        return symbol;
+    }
+
+    private static String digits(int length) {
+        StringBuilder content = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            content.append((char) ('0' + ((i + 1) % 10)));
+        }
+        return content.toString();
+    }
+
+    private static String bytes(int length) {
+        StringBuilder content = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            content.append('\u0001');
+        }
+        return content.toString();
+    }
+
+    private static String chinese(int length) {
+        StringBuilder content = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            content.append("\u6c49\u5b57\u4e2d\u6587".charAt(i % 4));
+        }
+        return content.toString();
+    }
+
+    private static String getEncoding(GridMatrix symbol) {
+        Matcher matcher = ENCODING.matcher(symbol.getEncodeInfo());
+        assertTrue(symbol.getEncodeInfo(), matcher.find());
+        return matcher.group(1);
+    }
+
+    private static int getDataCodewords(GridMatrix symbol) {
+        Matcher matcher = DATA_CODEWORDS.matcher(symbol.getEncodeInfo());
+        assertTrue(symbol.getEncodeInfo(), matcher.find());
+        return Integer.parseInt(matcher.group(1));
+    }
+}
@@ -0,0 +1,159 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+import org.junit.Test;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link MaskPolicy} with QR Code and Micro QR Code.
+ */
+public class MaskPolicyTest {
+
+    private static final Pattern MASK_PATTERN = Pattern.compile("Mask Pattern: ([01]+)");
+
+    private static final String[] QR_CONTENT = {
+        "1",
+        "HELLO WORLD",
+        "https://example.com/path?query=value",
+        "0123456789012345678901234567890123456789",
+        "The quick brown fox jumps over the lazy dog 0123456789 THE QUICK BROWN FOX JUMPS OVER THE LAZY DOG",
+    };
+
+    private static final String[] MICRO_QR_CONTENT = { "1", "12345", "HELLO", "ABC123DEF" };
+
+    @Test
+    public void testPolicyValues() {
+        assertFalse(MaskPolicy.AUTO.isFixed());
+        assertFalse(MaskPolicy.AUTO.isFast());
+        assertEquals(-1, MaskPolicy.AUTO.getMask());
+        assertEquals("AUTO", MaskPolicy.AUTO.toString());
+
+        assertFalse(MaskPolicy.FAST.isFixed());
+        assertTrue(MaskPolicy.FAST.isFast());
+        assertEquals(-1, MaskPolicy.FAST.getMask());
+        assertEquals("FAST", MaskPolicy.FAST.toString());
+
+        for (int mask = 0; mask < 8; mask++) {
+            MaskPolicy policy = MaskPolicy.fixed(mask);
+            assertTrue(policy.isFixed());
+            assertFalse(policy.isFast());
+            assertEquals(mask, policy.getMask());
+            assertEquals("FIXED(" + mask + ")", policy.toString());
+            assertEquals(policy, MaskPolicy.fixed(mask));
+            assertEquals(policy.hashCode(), MaskPolicy.fixed(mask).hashCode());
+        }
+
+        assertFalse(MaskPolicy.fixed(0).equals(MaskPolicy.fixed(1)));
+        assertFalse(MaskPolicy.AUTO.equals(MaskPolicy.FAST));
+    }
+
+    @Test
+    public void testInvalidFixedMask() {
+        for (int mask : new int[] { -1, 8 }) {
+            try {
+                MaskPolicy.fixed(mask);
+                fail("Mask " + mask + " accepted");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        MicroQrCode microQrCode = new MicroQrCode();
+        for (int mask = 4; mask < 8; mask++) {
+            try {
+                microQrCode.setMaskPolicy(MaskPolicy.fixed(mask));
+                fail("Micro QR Code mask " + mask + " accepted");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        assertEquals(MaskPolicy.AUTO, microQrCode.getMaskPolicy());
+    }
+
+    @Test
+    public void testDefaultPolicy() {
+        assertEquals(MaskPolicy.AUTO, new QrCode().getMaskPolicy());
+        assertEquals(MaskPolicy.AUTO, new MicroQrCode().getMaskPolicy());
+    }
+
+    @Test
+    public void testQrCodeFixedMask() {
+        for (String content : QR_CONTENT) {
+            for (int mask = 0; mask < 8; mask++) {
+                QrCode symbol = new QrCode();
+                symbol.setMaskPolicy(MaskPolicy.fixed(mask));
+                symbol.setContent(content);
+                assertEquals(content, mask, getMask(symbol));
+                assertTrue(symbol.getEncodeInfo().contains("Mask Policy: FIXED(" + mask + ")"));
+            }
+        }
+    }
+
+    @Test
+    public void testQrCodeEvaluatedMaskMatchesFixedMask() {
+        for (String content : QR_CONTENT) {
+            for (MaskPolicy policy : new MaskPolicy[] { MaskPolicy.AUTO, MaskPolicy.FAST }) {
+                QrCode evaluated = new QrCode();
+                evaluated.setMaskPolicy(policy);
+                evaluated.setContent(content);
+                int mask = getMask(evaluated);
+                assertTrue(mask >= 0 && mask < 8);
+                assertTrue(evaluated.getEncodeInfo().contains("Mask Policy: " + policy));
+
+                QrCode fixed = new QrCode();
+                fixed.setMaskPolicy(MaskPolicy.fixed(mask));
+                fixed.setContent(content);
+                assertEquals(content, evaluated.getRectangles(), fixed.getRectangles());
+            }
+        }
+    }
+
+    @Test
+    public void testQrCodeAutoIsDefault() {
+        for (String content : QR_CONTENT) {
+            QrCode auto = new QrCode();
+            auto.setMaskPolicy(MaskPolicy.AUTO);
+            auto.setContent(content);
+            QrCode standard = new QrCode();
+            standard.setContent(content);
+            assertEquals(content, standard.getRectangles(), auto.getRectangles());
+            assertEquals(content, getMask(standard), getMask(auto));
+        }
+    }
+
+    @Test
+    public void testMicroQrCodeMasks() {
+        for (String content : MICRO_QR_CONTENT) {
+            MicroQrCode auto = new MicroQrCode();
+            auto.setContent(content);
+            int mask = getMask(auto);
+            assertTrue(mask >= 0 && mask < 4);
+
+            MicroQrCode fast = new MicroQrCode();
+            fast.setMaskPolicy(MaskPolicy.FAST);
+            fast.setContent(content);
+            assertEquals(content, auto.getRectangles(), fast.getRectangles());
+
+            for (int m = 0; m < 4; m++) {
+                MicroQrCode fixed = new MicroQrCode();
+                fixed.setMaskPolicy(MaskPolicy.fixed(m));
+                fixed.setContent(content);
+                assertEquals(content, m, getMask(fixed));
+                if (m == mask) {
+                    assertEquals(content, auto.getRectangles(), fixed.getRectangles());
+                }
+            }
+        }
+    }
+
+    private static int getMask(Symbol symbol) {
+        Matcher matcher = MASK_PATTERN.matcher(symbol.getEncodeInfo());
+        assertTrue(matcher.find());
+        return Integer.parseInt(matcher.group(1), 2);
+    }
+}
@@ -0,0 +1,171 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link MaxiCode}.
+ */
+public class MaxiCodeTest {
+
+    private static final String[] PRIMARY = {
+        "152382802840001",
+        "15238280 840001",
+        "B1050  056999",
+        "B1050    056999",
+        "W1J0LD   826001",
+        "000000000000000",
+        "999999999999999",
+    };
+
+    @Test
+    public void testCarrierBatchModeDefault() {
+        assertFalse(new MaxiCode().getCarrierBatchMode());
+    }
+
+    @Test
+    public void testCarrierBatchMode() {
+        Random random = new Random(46);
+        MaxiCode batch = new MaxiCode();
+        batch.setCarrierBatchMode(true);
+        for (int i = 0; i < 500; i++) {
+            int mode = 2 + random.nextInt(5);
+            String primary = PRIMARY[random.nextInt(PRIMARY.length)];
+            String content = randomContent(random);
+            int total = (i % 7 == 0 ? 2 + random.nextInt(7) : 1);
+            int position = 1 + random.nextInt(total);
+            batch.setMode(mode);
+            batch.setPrimary(primary);
+            batch.setStructuredAppendTotal(total);
+            batch.setStructuredAppendPosition(position);
+
+            MaxiCode fresh = new MaxiCode();
+            fresh.setMode(mode);
+            fresh.setPrimary(primary);
+            fresh.setStructuredAppendTotal(total);
+            fresh.setStructuredAppendPosition(position);
+
+            String expected = encode(fresh, content);
+            assertEquals(content, expected, encode(batch, content));
+            if (expected.startsWith("ERROR")) {
+                continue;
+            }
+            assertEquals(content, fresh.getMode(), batch.getMode());
+            assertEquals(content, fresh.getEncodeInfo(), batch.getEncodeInfo());
+            assertArrayEquals(content, fresh.getCodewords(), batch.getCodewords());
+            for (int row = 0; row < MaxiCode.GRID_ROWS; row++) {
+                for (int column = 0; column < MaxiCode.GRID_COLUMNS; column++) {
+                    assertEquals(content, fresh.isModuleDark(row, column), batch.isModuleDark(row, column));
+                }
+            }
+            assertEquals(content, fresh.getHexagons().size(), batch.getHexagons().size());
+        }
+    }
+
+    @Test
+    public void testCarrierBatchModeEviction() {
+        MaxiCode batch = new MaxiCode();
+        batch.setCarrierBatchMode(true);
+        batch.setMode(2);
+        for (int i = 0; i < 300; i++) {
+            String primary = String.format("%09d840001", i * 7919);
+            batch.setPrimary(primary);
+            batch.setContent("PARCEL " + i);
+            MaxiCode fresh = new MaxiCode();
+            fresh.setMode(2);
+            fresh.setPrimary(primary);
+            fresh.setContent("PARCEL " + i);
+            assertArrayEquals(primary, fresh.getCodewords(), batch.getCodewords());
+        }
+        /* the first primary messages have been forgotten by now, and must be encoded again */
+        for (int i = 0; i < 300; i += 50) {
+            String primary = String.format("%09d840001", i * 7919);
+            batch.setPrimary(primary);
+            batch.setContent("AGAIN " + i);
+            MaxiCode fresh = new MaxiCode();
+            fresh.setMode(2);
+            fresh.setPrimary(primary);
+            fresh.setContent("AGAIN " + i);
+            assertArrayEquals(primary, fresh.getCodewords(), batch.getCodewords());
+            assertEquals(primary, fresh.getEncodeInfo(), batch.getEncodeInfo());
+        }
+    }
+
+    @Test
+    public void testModeRestored() {
+        MaxiCode symbol = new MaxiCode();
+        symbol.setCarrierBatchMode(true);
+        symbol.setMode(2);
+        symbol.setPrimary("B1050    056999");
+        symbol.setContent("A");
+        assertEquals(3, symbol.getMode());
+        symbol.setPrimary("152382802840001");
+        symbol.setContent("A");
+        assertEquals(2, symbol.getMode());
+        assertTrue(symbol.getEncodeInfo().contains("Mode: 2"));
+    }
+
+    @Test
+    public void testModuleGrid() {
+        MaxiCode symbol = new MaxiCode();
+        symbol.setMode(4);
+        for (String content : new String[] { "A", "MaxiCode (19 chars)", "1234567890123456789012345678901234567890" }) {
+            symbol.setContent(content);
+            List<Hexagon> hexagons = symbol.getHexagons();
+            int dark = 0;
+            for (int row = 0; row < MaxiCode.GRID_ROWS; row++) {
+                for (int column = 0; column < MaxiCode.GRID_COLUMNS; column++) {
+                    if (symbol.isModuleDark(row, column)) {
+                        /* the hexagons follow the grid, row by row */
+                        Hexagon hexagon = hexagons.get(dark++);
+                        assertEquals(content, MaxiCode.getModuleCentreX(row, column), hexagon.centreX, 0);
+                        assertEquals(content, MaxiCode.getModuleCentreY(row), hexagon.centreY, 0);
+                    }
+                }
+            }
+            assertEquals(content, hexagons.size(), dark);
+            assertEquals(6, symbol.getTarget().size());
+        }
+    }
+
+    /** Encodes the content, returning the pattern of each row, or the error message if the content is rejected. */
+    private static String encode(MaxiCode symbol, String content) {
+        try {
+            symbol.setContent(content);
+        } catch (RuntimeException e) {
+            return "ERROR " + e.getMessage();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String row : symbol.pattern) {
+            sb.append(row).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String randomContent(Random random) {
+        String[] alphabets = {
+            "0123456789",
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZ ",
+            "abcdefghijklmnopqrstuvwxyz ",
+            "[)>\u001e01\u001d96\u001e\u0004",
+            "\u00e9\u00e8\u00c4\u00df",
+        };
+        StringBuilder content = new StringBuilder();
+        int length = 1 + random.nextInt(60);
+        while (content.length() < length) {
+            String alphabet = alphabets[random.nextInt(alphabets.length)];
+            int run = 1 + random.nextInt(15);
+            for (int j = 0; j < run; j++) {
+                content.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+        }
+        return content.toString();
+    }
+}
@@ -0,0 +1,206 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+import java.math.BigInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decodes the data codewords of a PDF417 or Micro PDF417 symbol back into bytes, for use in tests. The data
+ * codewords are read from the encode information. Decoding stops at the first macro control block, and ECI
+ * and reader initialisation codewords are skipped.
+ */
+final class Pdf417Decoder {
+
+    private static final Pattern CODEWORDS = Pattern.compile("Codewords: ([0-9 ]*)");
+
+    private static final int ALPHA = 0;
+    private static final int LOWER = 1;
+    private static final int MIXED = 2;
+    private static final int PUNCTUATION = 3;
+
+    private static final String MIXED_CHARACTERS = "0123456789&\r\t,:#-.$/+%*=^";
+    private static final String PUNCTUATION_CHARACTERS = ";<>@[\\]_`~!\r\t,:\n-.$/\"|*()?{}'";
+
+    private final int[] codewords;
+    private final StringBuilder result = new StringBuilder();
+    private int position;
+
+    private Pdf417Decoder(int[] codewords) {
+        this.codewords = codewords;
+    }
+
+    /**
+     * Returns the data codewords of the specified symbol, as reported in its encode information.
+     *
+     * @param symbol the symbol
+     * @return the data codewords of the symbol
+     */
+    static int[] getDataCodewords(Pdf417 symbol) {
+        Matcher matcher = CODEWORDS.matcher(symbol.getEncodeInfo());
+        if (!matcher.find()) {
+            throw new IllegalStateException("No codewords in encode information");
+        }
+        String[] values = matcher.group(1).trim().split(" ");
+        int[] codewords = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            codewords[i] = Integer.parseInt(values[i]);
+        }
+        return codewords;
+    }
+
+    /**
+     * Decodes the specified symbol, returning each decoded byte as a character from 0 to 255.
+     *
+     * @param symbol the symbol to decode
+     * @return the decoded data
+     */
+    static String decode(Pdf417 symbol) {
+        Pdf417Decoder decoder = new Pdf417Decoder(getDataCodewords(symbol));
+        decoder.decode();
+        return decoder.result.toString();
+    }
+
+    private void decode() {
+        int mode = 900;
+        while (position < codewords.length) {
+            int c = codewords[position];
+            if (c < 900) {
+                c = mode;
+            } else {
+                position++;
+            }
+            switch (c) {
+                case 900:
+                    mode = 900;
+                    decodeText();
+                    break;
+                case 901:
+                case 924:
+                    mode = c;
+                    decodeBytes(c == 924);
+                    break;
+                case 902:
+                    mode = 902;
+                    decodeNumbers();
+                    break;
+                case 913:
+                    result.append((char) codewords[position++]);
+                    break;
+                case 925:
+                case 927:
+                    position++;
+                    break;
+                case 926:
+                    position += 2;
+                    break;
+                case 921:
+                    break;
+                default:
+                    return; /* macro control block */
+            }
+        }
+    }
+
+    private void decodeText() {
+        int submode = ALPHA;
+        int shift = -1;
+        while (position < codewords.length) {
+            int c = codewords[position];
+            if (c == 913) {
+                /* a punctuation shift just before a byte shift is padding (ISO/IEC 15438 5.4.2.4) */
+                shift = -1;
+                position++;
+                result.append((char) codewords[position++]);
+                continue;
+            } else if (c >= 900) {
+                return;
+            }
+            position++;
+            for (int value : new int[] { c / 30, c % 30 }) {
+                int current = (shift >= 0 ? shift : submode);
+                shift = -1;
+                switch (current) {
+                    case ALPHA:
+                        if (value < 26) {
+                            result.append((char) ('A' + value));
+                        } else if (value == 26) {
+                            result.append(' ');
+                        } else if (value == 27) {
+                            submode = LOWER;
+                        } else if (value == 28) {
+                            submode = MIXED;
+                        } else {
+                            shift = PUNCTUATION;
+                        }
+                        break;
+                    case LOWER:
+                        if (value < 26) {
+                            result.append((char) ('a' + value));
+                        } else if (value == 26) {
+                            result.append(' ');
+                        } else if (value == 27) {
+                            shift = ALPHA;
+                        } else if (value == 28) {
+                            submode = MIXED;
+                        } else {
+                            shift = PUNCTUATION;
+                        }
+                        break;
+                    case MIXED:
+                        if (value < 25) {
+                            result.append(MIXED_CHARACTERS.charAt(value));
+                        } else if (value == 25) {
+                            submode = PUNCTUATION;
+                        } else if (value == 26) {
+                            result.append(' ');
+                        } else if (value == 27) {
+                            submode = LOWER;
+                        } else if (value == 28) {
+                            submode = ALPHA;
+                        } else {
+                            shift = PUNCTUATION;
+                        }
+                        break;
+                    default:
+                        if (value < 29) {
+                            result.append(PUNCTUATION_CHARACTERS.charAt(value));
+                        } else {
+                            submode = ALPHA;
+                        }
+                        break;
+                }
+            }
+        }
+    }
+
+    private void decodeBytes(boolean multipleOfSix) {
+        int end = position;
+        while (end < codewords.length && codewords[end] < 900) {
+            end++;
+        }
+        int count = end - position;
+        int singles = (multipleOfSix ? 0 : (count % 5 == 0 ? 5 : count % 5));
+        while (end - position > singles) {
+            long value = 0;
+            for (int i = 0; i < 5; i++) {
+                value = (value * 900) + codewords[position++];
+            }
+            for (int i = 5; i >= 0; i--) {
+                result.append((char) ((value >> (8 * i)) & 0xFF));
+            }
+        }
+        while (position < end) {
+            result.append((char) codewords[position++]);
+        }
+    }
+
+    private void decodeNumbers() {
+        while (position < codewords.length && codewords[position] < 900) {
+            BigInteger value = BigInteger.ZERO;
+            for (int i = 0; i < 15 && position < codewords.length && codewords[position] < 900; i++) {
+                value = value.multiply(BigInteger.valueOf(900)).add(BigInteger.valueOf(codewords[position++]));
+            }
+            result.append(value.toString().substring(1));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link Pdf417#setMinimalEncodation(boolean)}.
+ */
+public class Pdf417MinimalEncodationTest {
+
+    @Test
+    public void testDefault() {
+        assertFalse(new Pdf417().getMinimalEncodation());
+    }
+
+    @Test
+    public void testShortNumeric() {
+        /* up to three digits are cheaper in the Mixed submode of Text compaction than with a latch to Numeric */
+        assertArrayEquals(new int[] { 841 }, check("1", Pdf417.Mode.NORMAL));
+        assertArrayEquals(new int[] { 841, 89 }, check("12", Pdf417.Mode.NORMAL));
+        assertArrayEquals(new int[] { 841, 63 }, check("123", Pdf417.Mode.NORMAL));
+        assertArrayEquals(new int[] { 902, 17, 110, 836, 811, 223 }, check("1234567890123", Pdf417.Mode.NORMAL));
+    }
+
+    @Test
+    public void testNumericRuns() {
+        /* digits between letters, either side of the number of digits which is worth a latch to Numeric and back */
+        for (int length = 1; length <= 60; length++) {
+            check("ABC" + digits(length) + "DEF", Pdf417.Mode.NORMAL);
+            check("abc" + digits(length) + "def", Pdf417.Mode.NORMAL);
+            check(digits(length) + "\u00e9", Pdf417.Mode.NORMAL);
+        }
+        /* the normal encodation keeps runs of fewer than 13 digits in Text, where these take one more codeword */
+        assertEquals(8, check("ABC" + digits(8) + "DEF", Pdf417.Mode.NORMAL).length);
+        assertEquals(9, check("ABC" + digits(9) + "DEF", Pdf417.Mode.NORMAL).length);
+        assertEquals(9, check("ABC" + digits(10) + "DEF", Pdf417.Mode.NORMAL).length);
+        assertEquals(10, check("ABC" + digits(12) + "DEF", Pdf417.Mode.NORMAL).length);
+    }
+
+    @Test
+    public void testNumericGroups() {
+        /* each group of 44 digits takes 15 codewords, and the next group follows without another latch (which the
+           normal encodation adds) */
+        assertEquals(16, check(digits(44), Pdf417.Mode.NORMAL).length);
+        assertEquals(17, check(digits(45), Pdf417.Mode.NORMAL).length);
+        assertEquals(31, check(digits(88), Pdf417.Mode.NORMAL).length);
+        assertEquals(32, check(digits(90), Pdf417.Mode.NORMAL).length);
+    }
+
+    @Test
+    public void testTextSubmodes() {
+        /* a single upper case letter in lower case text is shifted, and a run of them latches */
+        assertArrayEquals(new int[] { 810, 32, 813, 125, 209 }, check("abcDefg", Pdf417.Mode.NORMAL));
+        assertArrayEquals(new int[] { 810, 32, 868, 94, 156, 817, 249 }, check("abcDEFGhij", Pdf417.Mode.NORMAL));
+        /* punctuation is shifted, or latched through the Mixed submode */
+        assertArrayEquals(new int[] { 1, 870, 63 }, check("AB;CD", Pdf417.Mode.NORMAL));
+        check("AB;;CD", Pdf417.Mode.NORMAL);
+        check("AB;;;;;;;;CD", Pdf417.Mode.NORMAL);
+        check("ab;cd;;ef;;;gh", Pdf417.Mode.NORMAL);
+        /* characters in both the Mixed and Punctuation submodes */
+        check("a.b.c.d", Pdf417.Mode.NORMAL);
+        check("A-B,C:D", Pdf417.Mode.NORMAL);
+        check("\t\r\n\t\r\n", Pdf417.Mode.NORMAL);
+    }
+
+    @Test
+    public void testByteLengths() {
+        /* bytes between letters, either side of a single shifted byte and of whole groups of 6 bytes */
+        for (int length = 1; length <= 20; length++) {
+            check("AB" + bytes(length) + "CD", Pdf417.Mode.NORMAL);
+            check("ab" + bytes(length) + "cd", Pdf417.Mode.NORMAL);
+            check("12" + bytes(length) + "34", Pdf417.Mode.NORMAL);
+            check(bytes(length), Pdf417.Mode.NORMAL);
+        }
+        assertArrayEquals(new int[] { 1, 913, 233, 63 }, check("AB\u00e9CD", Pdf417.Mode.NORMAL));
+        assertArrayEquals(new int[] { 924, 391, 899, 481, 514, 273 }, check(bytes(6), Pdf417.Mode.NORMAL));
+        assertArrayEquals(new int[] { 901, 391, 899, 481, 514, 273, 233 }, check(bytes(7), Pdf417.Mode.NORMAL));
+        /* five bytes and a letter make a group of 6 */
+        assertEquals(8, check("AB" + bytes(5) + "CD", Pdf417.Mode.NORMAL).length);
+    }
+
+    @Test
+    public void testMicroPdf417() {
+        /* Micro PDF417 starts in Byte compaction instead of Text compaction */
+        assertArrayEquals(new int[] { 900, 1, 63 }, check("ABCD", Pdf417.Mode.MICRO));
+        for (int length = 1; length <= 13; length++) {
+            check("AB" + bytes(length) + "CD", Pdf417.Mode.MICRO);
+            check(digits(length * 3), Pdf417.Mode.MICRO);
+        }
+        check("ABC 123456 def 7890123456789 GHI", Pdf417.Mode.MICRO);
+    }
+
+    /**
+     * Checks that the content encodes to the same data with and without minimal encodation, and that minimal
+     * encodation needs no more codewords, returning the data codewords of the minimal symbol.
+     */
+    private static int[] check(String content, Pdf417.Mode mode) {
+        Pdf417 standard = new Pdf417();
+        standard.setMode(mode);
+        standard.setContent(content);
+        assertEquals(content, content, Pdf417Decoder.decode(standard));
+
+        Pdf417 minimal = new Pdf417();
+        minimal.setMode(mode);
+        minimal.setMinimalEncodation(true);
+        minimal.setContent(content);
+        assertEquals(content, content, Pdf417Decoder.decode(minimal));
+
+        int standardCount = Pdf417Decoder.getDataCodewords(standard).length;
+        int[] codewords = Pdf417Decoder.getDataCodewords(minimal);
+        assertTrue(content + ": " + codewords.length + " > " + standardCount, codewords.length <= standardCount);
+        return codewords;
+    }
+
+    private static String digits(int length) {
+        StringBuilder content = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            content.append((char) ('0' + ((i + 1) % 10)));
+        }
+        return content.toString();
+    }
+
+    private static String bytes(int length) {
+        StringBuilder content = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            content.append('\u00e9');
+        }
+        return content.toString();
+    }
+}
@@ -0,0 +1,96 @@
+package ru.chipmunkbarcode.barcodeTypes;
+
+import org.junit.Test;
+import ru.chipmunkbarcode.exceptions.BarcodeException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link StructuredAppend}.
+ */
+public class StructuredAppendTest {
+
+    @Test
+    public void testDataMatrixMixedEci() {
+        /* four Latin-1 symbols of up to 108 characters, then the kanji on its own */
+        List<DataMatrix> symbols = StructuredAppend.dataMatrix(mixedEci(), 12);
+        assertEquals(5, symbols.size());
+        assertEquals(108, symbols.get(0).getContent().length());
+        StringBuilder content = new StringBuilder();
+        for (DataMatrix symbol : symbols) {
+            assertEquals(symbols.size(), symbol.getStructuredAppendTotal());
+            assertEquals(expected(symbol), DataMatrixDecoder.decode(symbol));
+            content.append(symbol.getContent());
+        }
+        assertEquals(mixedEci(), content.toString());
+    }
+
+    @Test
+    public void testPdf417MixedEci() {
+        List<Pdf417> symbols = StructuredAppend.pdf417(mixedEci(), 10, 20);
+        assertEquals(3, symbols.size());
+        StringBuilder content = new StringBuilder();
+        for (Pdf417 symbol : symbols) {
+            assertEquals(symbols.size(), symbol.getStructuredAppendTotal());
+            assertEquals(expected(symbol), Pdf417Decoder.decode(symbol));
+            content.append(symbol.getContent());
+        }
+        assertEquals(mixedEci(), content.toString());
+    }
+
+    @Test
+    public void testAztecSeriesIsConsistent() {
+        Random random = new Random(37);
+        for (int i = 0; i < 20; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 100 + random.nextInt(400); j > 0; j--) {
+                sb.append(random.nextInt(3) == 0 ? (char) ('0' + random.nextInt(10)) : (char) (32 + random.nextInt(95)));
+            }
+            String content = sb.toString();
+            List<AztecCode> symbols = StructuredAppend.aztec(content, 6 + random.nextInt(6));
+            StringBuilder joined = new StringBuilder();
+            for (AztecCode symbol : symbols) {
+                assertEquals(symbols.size(), symbol.getStructuredAppendTotal());
+                joined.append(symbol.getContent());
+            }
+            assertEquals(content, joined.toString());
+        }
+    }
+
+    @Test(expected = BarcodeException.class)
+    public void testDataMatrixTooSmall() {
+        StructuredAppend.dataMatrix(repeat("A", 70), 1);
+    }
+
+    @Test(expected = BarcodeException.class)
+    public void testDataMatrixTooSmallForEci() {
+        StructuredAppend.dataMatrix(repeat("\u65e5", 10), 25);
+    }
+
+    @Test(expected = BarcodeException.class)
+    public void testPdf417TooSmall() {
+        StructuredAppend.pdf417(repeat("A", 70), 3, 3);
+    }
+
+    private static String mixedEci() {
+        return repeat("\u00e9", 400) + "\u65e5";
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    /** Returns the bytes which the symbol should encode, one character per byte. */
+    private static String expected(Symbol symbol) {
+        byte[] bytes = symbol.getContent().getBytes(Symbol.chooseEciMode(symbol.getContent()).charset);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
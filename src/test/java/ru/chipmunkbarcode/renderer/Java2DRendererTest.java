@@ -0,0 +1,198 @@
+package ru.chipmunkbarcode.renderer;
+
+import org.junit.Test;
+import ru.chipmunkbarcode.barcodeTypes.Hexagon;
+import ru.chipmunkbarcode.barcodeTypes.MaxiCode;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.awt.RenderingHints;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link Java2DRenderer}.
+ */
+public class Java2DRendererTest {
+
+    @Test
+    public void testMaxiCodeModules() {
+        MaxiCode symbol = maxiCode();
+        int magnification = 6;
+        BufferedImage image = render(symbol, magnification, null);
+        double targetX = symbol.getTarget().get(0).getCenterX();
+        double targetY = symbol.getTarget().get(0).getCenterY();
+        for (int row = 0; row < MaxiCode.GRID_ROWS; row++) {
+            for (int column = 0; column < MaxiCode.GRID_COLUMNS; column++) {
+                double x = MaxiCode.getModuleCentreX(row, column);
+                double y = MaxiCode.getModuleCentreY(row);
+                if (Math.hypot(x - targetX, y - targetY) < 12) {
+                    continue; /* covered by the target rings */
+                }
+                int pixel = image.getRGB((int) Math.round(x * magnification), (int) Math.round(y * magnification));
+                assertEquals(row + "," + column, symbol.isModuleDark(row, column), pixel == Color.BLACK.getRGB());
+            }
+        }
+    }
+
+    @Test
+    public void testMaxiCodeTranslated() {
+        MaxiCode symbol = maxiCode();
+        BufferedImage plain = render(symbol, 4, null);
+        BufferedImage translated = render(symbol, 4, new int[] { 5, 7 });
+        for (int y = 0; y < plain.getHeight() - 7; y++) {
+            for (int x = 0; x < plain.getWidth() - 5; x++) {
+                assertEquals(x + "," + y, plain.getRGB(x, y), translated.getRGB(x + 5, y + 7));
+            }
+        }
+    }
+
+    @Test
+    public void testMaxiCodeScaled() {
+        MaxiCode symbol = maxiCode();
+        int magnification = 2;
+        int width = symbol.getWidth() * magnification * 3;
+        int height = symbol.getHeight() * magnification * 3;
+
+        BufferedImage actual = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = actual.createGraphics();
+        g2d.scale(3, 3);
+        new Java2DRenderer(g2d, magnification, Color.WHITE, Color.BLACK).render(symbol);
+        g2d.dispose();
+
+        /* under a scaling transform, the hexagons and rings must be drawn as shapes, not stretched images */
+        BufferedImage expected = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        g2d = expected.createGraphics();
+        g2d.scale(3, 3);
+        g2d.setColor(Color.WHITE);
+        g2d.fillRect(0, 0, symbol.getWidth() * magnification, symbol.getHeight() * magnification);
+        drawShapes(g2d, symbol, magnification, 0);
+        g2d.dispose();
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testMaxiCodeSameAsShapes() {
+        /* without a transform, the hexagon images must give exactly the same pixels as the polygons */
+        MaxiCode symbol = maxiCode();
+        for (double magnification : new double[] { 1, 1.5, 2.3, 3, 4.7, 6.25, 10 }) {
+            for (Object antialiasing : new Object[] { RenderingHints.VALUE_ANTIALIAS_OFF, RenderingHints.VALUE_ANTIALIAS_ON }) {
+                int width = (int) (symbol.getWidth() * magnification);
+                int height = (int) (symbol.getHeight() * magnification);
+
+                BufferedImage actual = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                Graphics2D g2d = actual.createGraphics();
+                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialiasing);
+                new Java2DRenderer(g2d, magnification, Color.WHITE, Color.BLACK).render(symbol);
+                g2d.dispose();
+
+                BufferedImage expected = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                g2d = expected.createGraphics();
+                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialiasing);
+                g2d.setColor(Color.WHITE);
+                g2d.fillRect(0, 0, width, height);
+                drawShapes(g2d, symbol, magnification, 0);
+                g2d.dispose();
+
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        String message = magnification + " " + antialiasing + " " + x + "," + y;
+                        assertEquals(message, expected.getRGB(x, y), actual.getRGB(x, y));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMaxiCodeQuietZone() {
+        /* the hexagons are placed on the pixel grid after the quiet zone is added, as for the polygons */
+        MaxiCode symbol = maxiCode();
+        symbol.setQuietZoneHorizontal(3);
+        symbol.setQuietZoneVertical(5);
+        double magnification = 2.7;
+        int margin = (int) (5 * magnification);
+        int width = (int) (symbol.getWidth() * magnification);
+        int height = (int) (symbol.getHeight() * magnification);
+
+        BufferedImage actual = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = actual.createGraphics();
+        new Java2DRenderer(g2d, magnification, Color.WHITE, Color.BLACK).render(symbol);
+        g2d.dispose();
+
+        BufferedImage expected = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        g2d = expected.createGraphics();
+        g2d.setColor(Color.WHITE);
+        g2d.fillRect(0, 0, width, height);
+        g2d.translate((int) (3 * magnification), margin);
+        drawShapes(g2d, symbol, magnification, 0);
+        g2d.dispose();
+
+        /* the target rings are sized from the quiet zone as well, so only the hexagons outside them are compared */
+        Ellipse2D.Double outer = symbol.getTarget().get(0);
+        double targetX = (outer.getCenterX() * magnification) + (int) (3 * magnification);
+        double targetY = (outer.getCenterY() * magnification) + margin;
+        double radius = (outer.width * magnification) + margin;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (Math.abs(x - targetX) > radius || Math.abs(y - targetY) > radius) {
+                    assertEquals(x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+                }
+            }
+        }
+    }
+
+    private static MaxiCode maxiCode() {
+        MaxiCode symbol = new MaxiCode();
+        symbol.setMode(4);
+        symbol.setContent("MaxiCode rendering test 0123456789");
+        return symbol;
+    }
+
+    private static BufferedImage render(MaxiCode symbol, int magnification, int[] translation) {
+        int offset = (translation == null ? 0 : Math.max(translation[0], translation[1]));
+        BufferedImage image = new BufferedImage((symbol.getWidth() * magnification) + offset,
+                (symbol.getHeight() * magnification) + offset, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        if (translation != null) {
+            g2d.translate(translation[0], translation[1]);
+        }
+        new Java2DRenderer(g2d, magnification, Color.WHITE, Color.BLACK).render(symbol);
+        g2d.dispose();
+        return image;
+    }
+
+    /** Draws the hexagons of a symbol as polygons with truncated corners, and its target rings. */
+    private static void drawShapes(Graphics2D g2d, MaxiCode symbol, double magnification, int margin) {
+        g2d.setColor(Color.BLACK);
+        for (Hexagon hexagon : symbol.getHexagons()) {
+            Polygon polygon = new Polygon();
+            for (int i = 0; i < 6; i++) {
+                polygon.addPoint((int) ((hexagon.pointX[i] * magnification) + margin),
+                        (int) ((hexagon.pointY[i] * magnification) + margin));
+            }
+            g2d.fill(polygon);
+        }
+        List<Ellipse2D.Double> target = symbol.getTarget();
+        for (int i = 0; i + 1 < target.size(); i += 2) {
+            Area ring = new Area(scale(target.get(i), magnification));
+            ring.subtract(new Area(scale(target.get(i + 1), magnification)));
+            g2d.fill(ring);
+        }
+    }
+
+    private static Ellipse2D.Double scale(Ellipse2D.Double circle, double magnification) {
+        return new Ellipse2D.Double(circle.x * magnification, circle.y * magnification,
+                circle.width * magnification, circle.height * magnification);
+    }
+}
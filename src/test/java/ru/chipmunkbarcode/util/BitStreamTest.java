@@ -0,0 +1,143 @@
+package ru.chipmunkbarcode.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link BitStream}, checked against a stream of <code>'0'</code> and <code>'1'</code> characters.
+ */
+public class BitStreamTest {
+
+    @Test
+    public void testAppend() {
+        BitStream bits = new BitStream(1);
+        bits.append(0b101, 3).append(0, 0).append(0xFFFFFFFF, 32).append(true).append(0x12345, 8);
+        assertEquals("101" + "11111111111111111111111111111111" + "1" + "01000101", bits.toString());
+        assertEquals(44, bits.length());
+        assertEquals(0b101, bits.get(0, 3));
+        assertEquals(0x45, bits.get(36, 8));
+        assertEquals(0, bits.get(44, 8));
+    }
+
+    @Test
+    public void testInsert() {
+        BitStream bits = new BitStream();
+        bits.append(0b1111, 4);
+        bits.insert(0, 0b00, 2);
+        bits.insert(3, 0b010, 3);
+        bits.insert(9, 0b1, 1);
+        assertEquals("001" + "010" + "111" + "1", bits.toString());
+        try {
+            bits.insert(11, 1, 1);
+            fail("Insert past end of stream accepted");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSetLength() {
+        BitStream bits = new BitStream();
+        for (int i = 0; i < 5; i++) {
+            bits.append(-1, 32);
+        }
+        bits.setLength(70);
+        bits.setLength(200);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            expected.append(i < 70 ? '1' : '0');
+        }
+        assertEquals(expected.toString(), bits.toString());
+    }
+
+    @Test
+    public void testAppendSelf() {
+        BitStream bits = new BitStream(1);
+        bits.append(0b1011, 4);
+        for (int i = 0; i < 5; i++) {
+            bits.append(bits);
+        }
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 32; i++) {
+            expected.append("1011");
+        }
+        assertEquals(expected.toString(), bits.toString());
+    }
+
+    @Test
+    public void testRandomOperations() {
+        Random random = new Random(1);
+        for (int run = 0; run < 200; run++) {
+            BitStream bits = new BitStream(1 + random.nextInt(100));
+            StringBuilder expected = new StringBuilder();
+            for (int op = 0; op < 100; op++) {
+                int value = random.nextInt();
+                int count = random.nextInt(33);
+                switch (random.nextInt(5)) {
+                    case 0:
+                        bits.append(value, count);
+                        expected.append(toBinary(value, count));
+                        break;
+                    case 1:
+                        int index = random.nextInt(expected.length() + 1);
+                        bits.insert(index, value, count);
+                        expected.insert(index, toBinary(value, count));
+                        break;
+                    case 2:
+                        BitStream other = new BitStream(1);
+                        StringBuilder otherExpected = new StringBuilder();
+                        for (int i = random.nextInt(5); i > 0; i--) {
+                            int otherValue = random.nextInt();
+                            int otherCount = random.nextInt(33);
+                            other.append(otherValue, otherCount);
+                            otherExpected.append(toBinary(otherValue, otherCount));
+                        }
+                        bits.append(other);
+                        expected.append(otherExpected);
+                        break;
+                    case 3:
+                        int length = random.nextInt(expected.length() + 65);
+                        bits.setLength(length);
+                        while (expected.length() < length) {
+                            expected.append('0');
+                        }
+                        expected.setLength(length);
+                        break;
+                    default:
+                        if (expected.length() > 0) {
+                            int position = random.nextInt(expected.length());
+                            boolean bit = random.nextBoolean();
+                            bits.set(position, bit);
+                            expected.setCharAt(position, bit ? '1' : '0');
+                        }
+                        break;
+                }
+                assertEquals(expected.length(), bits.length());
+                assertEquals(expected.toString(), bits.toString());
+                int start = random.nextInt(expected.length() + 1);
+                int count2 = random.nextInt(33);
+                assertEquals(readExpected(expected, start, count2), bits.get(start, count2));
+            }
+        }
+    }
+
+    private static String toBinary(int value, int count) {
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = count - 1; i >= 0; i--) {
+            sb.append(((value >>> i) & 1) != 0 ? '1' : '0');
+        }
+        return sb.toString();
+    }
+
+    private static int readExpected(CharSequence expected, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            value = (value << 1) | (i < expected.length() && expected.charAt(i) == '1' ? 1 : 0);
+        }
+        return value;
+    }
+}